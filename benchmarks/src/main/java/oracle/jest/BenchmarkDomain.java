@@ -0,0 +1,125 @@
+package oracle.jest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The persistence unit of the demo domain on in-memory Derby, populated
+ * with a given number of movies.
+ * <br>
+ * Each movie has a director and {@value #ACTORS_PER_MOVIE} actors drawn
+ * from as many actors as movies, so that the size of a document of a
+ * movie does not depend on the number of movies, but the size of the
+ * tables and of a page of movies does. The movies are identified as
+ * <code>m0</code>, <code>m1</code> and so on.
+ * <p>
+ * The schema is created afresh for each trial, as each trial of another
+ * size runs in a fresh JVM anyway.
+ *
+ * @author pinaki poddar
+ *
+ */
+@State(Scope.Benchmark)
+public class BenchmarkDomain {
+    public static final String UNIT_NAME = "app";
+    public static final int ACTORS_PER_MOVIE = 3;
+
+    /**
+     * Number of movies and of actors.
+     */
+    @Param({"100", "1000", "10000"})
+    public int size;
+
+    EntityManagerFactory emf;
+    MetamodelIndex index;
+    String[] movieIds;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        emf = createPersistenceUnit();
+        index = new MetamodelIndex(emf.getMetamodel());
+        movieIds = populate(emf, size);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        emf.close();
+    }
+
+    /**
+     * Gets the identifier of the movie for the given invocation, so that
+     * successive invocations visit all movies in turn.
+     */
+    String movieId(int invocation) {
+        return movieIds[(invocation & Integer.MAX_VALUE) % movieIds.length];
+    }
+
+    /**
+     * Creates the persistence unit with an empty schema.
+     */
+    static EntityManagerFactory createPersistenceUnit() {
+        Map<String, Object> props = new HashMap<String, Object>();
+        props.put("javax.persistence.schema-generation.database.action",
+                "drop-and-create");
+        props.put("eclipselink.logging.level", "WARNING");
+        return Persistence.createEntityManagerFactory(UNIT_NAME, props);
+    }
+
+    /**
+     * Persists the given number of movies and actors.
+     *
+     * @return the identifiers of the movies
+     */
+    static String[] populate(EntityManagerFactory emf, int size)
+            throws Exception {
+        Class<?> movieClass = Class.forName("domain.Movie");
+        Class<?> actorClass = Class.forName("domain.Actor");
+        EntityManager em = emf.createEntityManager();
+        String[] ids = new String[size];
+        try {
+            em.getTransaction().begin();
+            List<Object> actors = new ArrayList<Object>();
+            for (int i = 0; i < size; i++) {
+                Object actor = actorClass.newInstance();
+                set(actor, "id", "a" + i);
+                set(actor, "name", "Actor " + i);
+                em.persist(actor);
+                actors.add(actor);
+            }
+            for (int i = 0; i < size; i++) {
+                Object movie = movieClass.newInstance();
+                ids[i] = "m" + i;
+                set(movie, "id", ids[i]);
+                set(movie, "title", "Movie " + i);
+                set(movie, "director", actors.get(i));
+                List<Object> cast = new ArrayList<Object>();
+                for (int j = 1; j <= ACTORS_PER_MOVIE; j++) {
+                    cast.add(actors.get((i + j) % size));
+                }
+                set(movie, "actors", cast);
+                em.persist(movie);
+            }
+            em.getTransaction().commit();
+        } finally {
+            em.close();
+        }
+        return ids;
+    }
+
+    private static void set(Object target, String property, Object value) {
+        PropertyAccessor.of(target.getClass(), property).set(target, value);
+    }
+}
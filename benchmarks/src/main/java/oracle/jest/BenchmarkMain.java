@@ -0,0 +1,40 @@
+package oracle.jest;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the allocation profiler of JMH, so that the
+ * bytes allocated by an operation are reported next to its time.
+ * <br>
+ * The arguments are the options of JMH, for example
+ * <pre>
+ *    java -jar target/benchmarks.jar Serialization -p size=1000
+ *    java -jar target/benchmarks.jar -l
+ * </pre>
+ *
+ * @author pinaki poddar
+ *
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        if (cmd.shouldHelp()) {
+            cmd.showHelp();
+            return;
+        }
+        if (cmd.shouldList() || cmd.shouldListProfilers()
+         || cmd.shouldListResultFormats() || cmd.shouldListWithParams()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        Options options = new OptionsBuilder()
+                .parent(cmd)
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
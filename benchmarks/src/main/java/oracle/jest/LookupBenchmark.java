@@ -0,0 +1,62 @@
+package oracle.jest;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.metamodel.EntityType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures looking up an instance by the identifier in a path: parsing
+ * the identifier and finding the instance in a new persistence context,
+ * as each request of a servlet that is not read-only does.
+ * <br>
+ * Successive invocations look up different movies, so that a lookup
+ * is not answered by the persistence context of an earlier one.
+ *
+ * @author pinaki poddar
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmark {
+    private EntityType<?> movieType;
+    private IdConverter converter;
+    private int invocation;
+
+    @Setup
+    public void setup(BenchmarkDomain domain) {
+        movieType = domain.index.getEntityType("Movie");
+        converter = domain.index.getIdConverter(movieType);
+    }
+
+    @Benchmark
+    public Object parseId(BenchmarkDomain domain) {
+        return converter.parse(domain.movieId(invocation++));
+    }
+
+    @Benchmark
+    public Object find(BenchmarkDomain domain) {
+        EntityManager em = domain.emf.createEntityManager();
+        try {
+            return em.find(movieType.getJavaType(),
+                    converter.parse(domain.movieId(invocation++)));
+        } finally {
+            em.close();
+        }
+    }
+}
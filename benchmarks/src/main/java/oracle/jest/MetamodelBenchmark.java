@@ -0,0 +1,91 @@
+package oracle.jest;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.metamodel.EntityType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures resolving an entity type as a request does, and indexing and
+ * rendering the domain model.
+ * <br>
+ * The domain model does not depend on the data, so the persistence unit
+ * is not populated.
+ *
+ * @author pinaki poddar
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetamodelBenchmark {
+    private EntityManagerFactory emf;
+    private MetamodelIndex index;
+    private Class<?> movieClass;
+
+    @Setup
+    public void setup() throws Exception {
+        emf = BenchmarkDomain.createPersistenceUnit();
+        index = new MetamodelIndex(emf.getMetamodel());
+        movieClass = Class.forName("domain.Movie");
+    }
+
+    @TearDown
+    public void tearDown() {
+        emf.close();
+    }
+
+    /**
+     * Resolves the type named by the first segment of a path.
+     */
+    @Benchmark
+    public EntityType<?> resolveTypeByName() {
+        return index.getEntityType("Movie");
+    }
+
+    /**
+     * Resolves the type of an instance, as a document of the instance is
+     * written.
+     */
+    @Benchmark
+    public EntityType<?> resolveTypeByClass() {
+        return index.getEntityType(movieClass);
+    }
+
+    /**
+     * Indexes the domain model, as the servlet does once.
+     */
+    @Benchmark
+    public MetamodelIndex indexModel() {
+        return new MetamodelIndex(emf.getMetamodel());
+    }
+
+    /**
+     * Renders the document of the domain model, as served at the root of
+     * the servlet.
+     */
+    @Benchmark
+    public long renderModel() throws IOException {
+        Sink sink = new Sink();
+        JSONStreamWriter out = new JSONStreamWriter(sink);
+        new MetamodelTransformer(index).transformModel(out);
+        out.close();
+        return sink.getBytes();
+    }
+}
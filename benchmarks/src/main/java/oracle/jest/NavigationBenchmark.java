@@ -0,0 +1,121 @@
+package oracle.jest;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures reading the attributes of an instance and navigating its
+ * relations through {@link Reflection}.
+ * <br>
+ * The movies are loaded, along with their actors, by a persistence
+ * context that stays open for the trial, so that reading a loaded
+ * instance is measured apart from loading a relation from the database,
+ * which is measured on its own.
+ *
+ * @author pinaki poddar
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NavigationBenchmark {
+    private EntityManager em;
+    private Object[] movies;
+    private Attribute<?, ?> title;
+    private Attribute<?, ?> director;
+    private Attribute<?, ?> actors;
+    private Attribute<?, ?> name;
+    private int invocation;
+
+    @Setup
+    public void setup(BenchmarkDomain domain) {
+        EntityType<?> movieType = domain.index.getEntityType("Movie");
+        title    = domain.index.getAttribute(movieType, "title");
+        director = domain.index.getAttribute(movieType, "director");
+        actors   = domain.index.getAttribute(movieType, "actors");
+        name     = domain.index.getAttribute(domain.index.getEntityType("Actor"), "name");
+        em = domain.emf.createEntityManager();
+        movies = new Object[domain.size];
+        for (int i = 0; i < movies.length; i++) {
+            movies[i] = em.find(movieType.getJavaType(), domain.movieId(i));
+            ((Collection<?>)Reflection.getValue(movies[i], actors)).size();
+        }
+    }
+
+    /*
+     * the persistence context is closed with the persistence unit, if
+     * the unit is closed first
+     */
+    @TearDown
+    public void tearDown() {
+        if (em.isOpen()) em.close();
+    }
+
+    private Object nextMovie() {
+        return movies[(invocation++ & Integer.MAX_VALUE) % movies.length];
+    }
+
+    @Benchmark
+    public Object getValueByName() {
+        return Reflection.getValue(nextMovie(), "title");
+    }
+
+    @Benchmark
+    public Object getValueByAttribute() {
+        return Reflection.getValue(nextMovie(), title);
+    }
+
+    /**
+     * Navigates from a movie to the name of its director.
+     */
+    @Benchmark
+    public Object navigateToOne() {
+        return Reflection.getValue(Reflection.getValue(nextMovie(), director), name);
+    }
+
+    /**
+     * Navigates from a movie to the names of its actors.
+     */
+    @Benchmark
+    public void navigateToMany(Blackhole bh) {
+        for (Object actor : (Collection<?>)Reflection.getValue(nextMovie(), actors)) {
+            bh.consume(Reflection.getValue(actor, name));
+        }
+    }
+
+    /**
+     * Navigates from a movie found in a new persistence context to its
+     * actors, which are loaded on first access.
+     */
+    @Benchmark
+    public int navigateToManyUnloaded(BenchmarkDomain domain) {
+        EntityManager fresh = domain.emf.createEntityManager();
+        try {
+            Object movie = fresh.find(title.getDeclaringType().getJavaType(),
+                    domain.movieId(invocation++));
+            return ((Collection<?>)Reflection.getValue(movie, actors)).size();
+        } finally {
+            fresh.close();
+        }
+    }
+}
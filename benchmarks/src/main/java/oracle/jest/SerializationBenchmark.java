@@ -0,0 +1,103 @@
+package oracle.jest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.metamodel.EntityType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures writing loaded instances as a document, in JSON and in CBOR.
+ * <br>
+ * A document of a single movie is the same size whatever the number of
+ * movies. A document of a page has a fixed number of movies, and a
+ * document of all movies grows with their number.
+ *
+ * @author pinaki poddar
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+    private static final int PAGE_SIZE = 20;
+
+    private EntityManager em;
+    private JESTContext ctx;
+    private List<Object> movies;
+    private Page page;
+    private int invocation;
+
+    @Setup
+    public void setup(BenchmarkDomain domain) {
+        EntityType<?> movieType = domain.index.getEntityType("Movie");
+        em = domain.emf.createEntityManager();
+        movies = new ArrayList<Object>();
+        for (int i = 0; i < domain.size; i++) {
+            Object movie = em.find(movieType.getJavaType(), domain.movieId(i));
+            ((Collection<?>)Reflection.getValue(movie, "actors")).size();
+            movies.add(movie);
+        }
+        page = new Page(movies.subList(0, Math.min(PAGE_SIZE, movies.size())),
+                "/Movie?page[size]=" + PAGE_SIZE,
+                "/Movie?page[size]=" + PAGE_SIZE + "&page[after]=m" + PAGE_SIZE);
+        ctx = new DefaultJESTContext(null,
+                new PersistenceUnitHolder(BenchmarkDomain.UNIT_NAME, domain.emf, null), null, null);
+    }
+
+    /*
+     * the persistence context is closed with the persistence unit, if
+     * the unit is closed first
+     */
+    @TearDown
+    public void tearDown() {
+        if (em.isOpen()) em.close();
+    }
+
+    private long write(ResponseTransformer transformer, Object value)
+            throws IOException {
+        Sink sink = new Sink();
+        transformer.transform(value, sink);
+        return sink.getBytes();
+    }
+
+    @Benchmark
+    public long movieAsJSON() throws IOException {
+        return write(new JSONAPITransformer(ctx),
+                movies.get((invocation++ & Integer.MAX_VALUE) % movies.size()));
+    }
+
+    @Benchmark
+    public long movieAsCBOR() throws IOException {
+        return write(new CBORTransformer(ctx),
+                movies.get((invocation++ & Integer.MAX_VALUE) % movies.size()));
+    }
+
+    @Benchmark
+    public long pageAsJSON() throws IOException {
+        return write(new JSONAPITransformer(ctx), page);
+    }
+
+    @Benchmark
+    public long allAsJSON() throws IOException {
+        return write(new JSONAPITransformer(ctx), movies);
+    }
+}
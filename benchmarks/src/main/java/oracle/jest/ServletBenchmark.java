@@ -0,0 +1,145 @@
+package oracle.jest;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a GET request through {@link JESTServlet}, from routing the
+ * request to the last byte of the response, without a container.
+ * <br>
+ * The servlet is configured by its defaults, except that it is read-only
+ * if <code>readOnly</code> is true, and so reuses persistence contexts
+ * across requests. Requests do not accept a compressed response.
+ *
+ * @author pinaki poddar
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServletBenchmark {
+    private static final String ACCEPT = "Accept";
+    private static final int BATCH_SIZE = 10;
+
+    @Param({"false", "true"})
+    public boolean readOnly;
+
+    private JESTServlet servlet;
+
+    @Setup
+    public void setup(BenchmarkDomain domain) throws ServletException {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("read-only", String.valueOf(readOnly));
+        servlet = new JESTServlet();
+        servlet.init(ServletStubs.config(params));
+    }
+
+    @TearDown
+    public void tearDown() {
+        servlet.destroy();
+    }
+
+    /**
+     * The requests and the response of a thread.
+     */
+    @State(Scope.Thread)
+    public static class Client {
+        HttpServletRequest root;
+        HttpServletRequest[] movies;
+        HttpServletRequest[] actors;
+        HttpServletRequest page;
+        HttpServletRequest batch;
+        ServletStubs.Response response = new ServletStubs.Response();
+        int invocation;
+
+        @Setup
+        public void setup(BenchmarkDomain domain, ServletBenchmark bench)
+                throws ServletException, IOException {
+            root = ServletStubs.request("GET", "/", null, ACCEPT, "*/*");
+            movies = new HttpServletRequest[domain.size];
+            actors = new HttpServletRequest[domain.size];
+            for (int i = 0; i < domain.size; i++) {
+                movies[i] = ServletStubs.request("GET",
+                        "/Movie/" + domain.movieId(i), null, ACCEPT, "*/*");
+                actors[i] = ServletStubs.request("GET",
+                        "/Movie/" + domain.movieId(i) + "/actors", null, ACCEPT, "*/*");
+            }
+            page = ServletStubs.request("GET", "/Movie", "page%5Bsize%5D=20",
+                    ACCEPT, "*/*");
+            StringBuilder ids = new StringBuilder();
+            for (int i = 0; i < Math.min(BATCH_SIZE, domain.size); i++) {
+                if (i > 0) ids.append(',');
+                ids.append(domain.movieId(i * (domain.size / BATCH_SIZE)));
+            }
+            batch = ServletStubs.request("GET", "/Movie", "filter%5Bid%5D=" + ids,
+                    ACCEPT, "*/*");
+            // a request that fails would measure the cost of an error
+            for (HttpServletRequest request : new HttpServletRequest[]{
+                    root, movies[0], actors[0], page, batch}) {
+                bench.get(request, this);
+                if (response.getStatus() != HttpServletResponse.SC_OK) {
+                    throw new IllegalStateException(request.getPathInfo() + "?"
+                        + request.getQueryString() + " failed with status "
+                        + response.getStatus());
+                }
+            }
+        }
+
+        HttpServletRequest next(HttpServletRequest[] requests) {
+            return requests[(invocation++ & Integer.MAX_VALUE) % requests.length];
+        }
+    }
+
+    long get(HttpServletRequest request, Client client)
+            throws ServletException, IOException {
+        servlet.service(request, client.response.reset());
+        return client.response.getBytes();
+    }
+
+    @Benchmark
+    public long getModel(Client client) throws ServletException, IOException {
+        return get(client.root, client);
+    }
+
+    @Benchmark
+    public long getMovie(Client client) throws ServletException, IOException {
+        return get(client.next(client.movies), client);
+    }
+
+    @Benchmark
+    public long getActorsOfMovie(Client client) throws ServletException, IOException {
+        return get(client.next(client.actors), client);
+    }
+
+    @Benchmark
+    public long getPage(Client client) throws ServletException, IOException {
+        return get(client.page, client);
+    }
+
+    @Benchmark
+    public long getBatch(Client client) throws ServletException, IOException {
+        return get(client.batch, client);
+    }
+}
@@ -0,0 +1,257 @@
+package oracle.jest;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URLDecoder;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Stands in for the container, so that a request is processed by the
+ * servlet without a connector or a socket.
+ * <br>
+ * The stubs are dynamic proxies that answer the methods the servlet calls
+ * and a default value for any other. A request is created once and
+ * reused, as a container would parse it before the servlet sees it. A
+ * response discards its content but counts its bytes, so that the cost
+ * measured is the cost of the servlet, apart from the few nanoseconds
+ * of a proxy call.
+ *
+ * @author pinaki poddar
+ *
+ */
+class ServletStubs {
+    private ServletStubs() {
+    }
+
+    /**
+     * Creates a configuration of a servlet with the given parameters, in
+     * a servlet context of its own.
+     */
+    static ServletConfig config(final Map<String, String> params) {
+        final Map<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+        final ServletContext context = proxy(ServletContext.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method m, Object[] args) {
+                String name = m.getName();
+                if ("getAttribute".equals(name)) {
+                    return attributes.get(args[0]);
+                } else if ("setAttribute".equals(name)) {
+                    attributes.put((String)args[0], args[1]);
+                } else if ("removeAttribute".equals(name)) {
+                    attributes.remove(args[0]);
+                } else if ("getAttributeNames".equals(name)) {
+                    return Collections.enumeration(attributes.keySet());
+                } else if ("getInitParameterNames".equals(name)) {
+                    return Collections.emptyEnumeration();
+                }
+                return defaultValue(m);
+            }
+        });
+        return proxy(ServletConfig.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method m, Object[] args) {
+                String name = m.getName();
+                if ("getServletContext".equals(name)) {
+                    return context;
+                } else if ("getInitParameter".equals(name)) {
+                    return params.get(args[0]);
+                } else if ("getInitParameterNames".equals(name)) {
+                    return Collections.enumeration(params.keySet());
+                } else if ("getServletName".equals(name)) {
+                    return "jest";
+                }
+                return defaultValue(m);
+            }
+        });
+    }
+
+    /**
+     * Creates a request.
+     *
+     * @param method HTTP method
+     * @param path path within the servlet, such as <code>/Movie/m1</code>
+     * @param query query string, not decoded. null if none.
+     * @param headers names and values, alternating
+     */
+    static HttpServletRequest request(final String method, final String path,
+            final String query, String... headers) {
+        final Map<String, String[]> params = parse(query);
+        final Map<String, String> headerMap = new HashMap<String, String>();
+        for (int i = 0; i+1 < headers.length; i += 2) {
+            headerMap.put(headers[i].toLowerCase(), headers[i+1]);
+        }
+        final StringBuffer url = new StringBuffer("http://localhost/jest").append(path);
+        return proxy(HttpServletRequest.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method m, Object[] args) {
+                String name = m.getName();
+                if ("getMethod".equals(name)) {
+                    return method;
+                } else if ("getPathInfo".equals(name)) {
+                    return path;
+                } else if ("getQueryString".equals(name)) {
+                    return query;
+                } else if ("getHeader".equals(name)) {
+                    return headerMap.get(((String)args[0]).toLowerCase());
+                } else if ("getParameter".equals(name)) {
+                    String[] values = params.get(args[0]);
+                    return values == null ? null : values[0];
+                } else if ("getParameterValues".equals(name)) {
+                    return params.get(args[0]);
+                } else if ("getParameterMap".equals(name)) {
+                    return params;
+                } else if ("getParameterNames".equals(name)) {
+                    return Collections.enumeration(params.keySet());
+                } else if ("getRequestURL".equals(name)) {
+                    return new StringBuffer(url);
+                } else if ("getContextPath".equals(name)) {
+                    return "";
+                } else if ("getServletPath".equals(name)) {
+                    return "/jest";
+                }
+                return defaultValue(m);
+            }
+        });
+    }
+
+    private static Map<String, String[]> parse(String query) {
+        Map<String, String[]> params = new LinkedHashMap<String, String[]>();
+        if (query == null) return params;
+        try {
+            for (String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                String name  = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), "UTF-8");
+                String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq+1), "UTF-8");
+                String[] values = params.get(name);
+                if (values == null) {
+                    values = new String[]{value};
+                } else {
+                    String[] more = new String[values.length+1];
+                    System.arraycopy(values, 0, more, 0, values.length);
+                    more[values.length] = value;
+                    values = more;
+                }
+                params.put(name, values);
+            }
+        } catch (UnsupportedEncodingException ex) {
+            throw new RuntimeException(ex);
+        }
+        return Collections.unmodifiableMap(params);
+    }
+
+    /**
+     * A response that discards its content. A response is reset to be
+     * used again for another request.
+     */
+    static class Response implements InvocationHandler {
+        private final HttpServletResponse proxy = proxy(HttpServletResponse.class, this);
+        private final Map<String, String> headers = new HashMap<String, String>();
+        private int status;
+        private long bytes;
+        private boolean committed;
+        private final ServletOutputStream out = new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                bytes++;
+                committed = true;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                bytes += len;
+                committed = true;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener listener) {
+            }
+        };
+
+        HttpServletResponse reset() {
+            headers.clear();
+            status = HttpServletResponse.SC_OK;
+            bytes = 0;
+            committed = false;
+            return proxy;
+        }
+
+        int getStatus() {
+            return status;
+        }
+
+        long getBytes() {
+            return bytes;
+        }
+
+        String getHeader(String name) {
+            return headers.get(name.toLowerCase());
+        }
+
+        @Override
+        public Object invoke(Object p, Method m, Object[] args) throws IOException {
+            String name = m.getName();
+            if ("getOutputStream".equals(name)) {
+                return out;
+            } else if ("setStatus".equals(name)) {
+                status = (Integer)args[0];
+            } else if ("sendError".equals(name)) {
+                status = (Integer)args[0];
+                committed = true;
+            } else if ("getStatus".equals(name)) {
+                return status;
+            } else if ("isCommitted".equals(name)) {
+                return committed;
+            } else if ("setHeader".equals(name) || "addHeader".equals(name)) {
+                headers.put(((String)args[0]).toLowerCase(), (String)args[1]);
+            } else if ("getHeader".equals(name)) {
+                return headers.get(((String)args[0]).toLowerCase());
+            } else if ("containsHeader".equals(name)) {
+                return headers.containsKey(((String)args[0]).toLowerCase());
+            } else if ("setContentType".equals(name)) {
+                headers.put("content-type", (String)args[0]);
+            } else if ("getContentType".equals(name)) {
+                return headers.get("content-type");
+            } else if ("flushBuffer".equals(name)) {
+                committed = true;
+            }
+            return defaultValue(m);
+        }
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(ServletStubs.class.getClassLoader(),
+                new Class<?>[]{type}, handler));
+    }
+
+    private static Object defaultValue(Method m) {
+        Class<?> type = m.getReturnType();
+        if (!type.isPrimitive() || type == void.class) return null;
+        if (type == boolean.class) return false;
+        if (type == int.class)     return 0;
+        if (type == long.class)    return 0L;
+        if (type == char.class)    return (char)0;
+        if (type == short.class)   return (short)0;
+        if (type == byte.class)    return (byte)0;
+        if (type == float.class)   return 0f;
+        return 0d;
+    }
+}
@@ -0,0 +1,31 @@
+package oracle.jest;
+
+import java.io.OutputStream;
+
+/**
+ * A stream that discards what is written but counts the bytes, so that
+ * a benchmark measures encoding a document rather than copying it.
+ *
+ * @author pinaki poddar
+ *
+ */
+class Sink extends OutputStream {
+    private long bytes;
+
+    @Override
+    public void write(int b) {
+        bytes++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        bytes += len;
+    }
+
+    /**
+     * Gets the number of bytes written.
+     */
+    long getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,160 @@
+package oracle.jest.demo.embeddedtc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import domain.Actor;
+import domain.Movie;
+import domain.Person;
+import oracle.jest.PropertyAccessor;
+
+/**
+ * Fills the demo domain with synthetic movies, directors and actors.
+ * <br>
+ * Each movie has a director and a fixed number of actors, its fan-out.
+ * The actors of a movie are spread evenly over all actors, so that every
+ * actor plays in about as many movies. The data is the same for the
+ * same counts, so that runs of a load test are comparable. The instances
+ * are identified by the first letter of their type and their number:
+ * <code>m0</code>, <code>p0</code> and <code>a0</code>.
+ * <p>
+ * The schema is created afresh, and the instances are persisted in
+ * transactions of {@value #BATCH_SIZE}, so that the persistence context
+ * does not grow with the data.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class DataGenerator {
+    public static final String MOVIE_PREFIX  = "m";
+    public static final String PERSON_PREFIX = "p";
+    public static final String ACTOR_PREFIX  = "a";
+    private static final int BATCH_SIZE = 1000;
+    private static final Logger logger = Logger.getLogger("RUNTIME");
+
+    private final int movies;
+    private final int persons;
+    private final int actors;
+    private final int fanout;
+
+    /**
+     * @param movies number of movies
+     * @param persons number of directors
+     * @param actors number of actors
+     * @param fanout number of actors of each movie. At most the number of
+     * actors.
+     */
+    public DataGenerator(int movies, int persons, int actors, int fanout) {
+        if (movies < 1 || persons < 1 || actors < 1 || fanout < 0) {
+            throw new IllegalArgumentException("Need at least one movie, "
+                + "director and actor, and no negative fan-out");
+        }
+        this.movies = movies;
+        this.persons = persons;
+        this.actors = actors;
+        this.fanout = Math.min(fanout, actors);
+    }
+
+    public int getMovieCount() {
+        return movies;
+    }
+
+    public int getPersonCount() {
+        return persons;
+    }
+
+    public int getActorCount() {
+        return actors;
+    }
+
+    public int getFanout() {
+        return fanout;
+    }
+
+    /**
+     * Creates the schema of the given persistence unit and persists the
+     * data in it.
+     */
+    public void populate(String unitName) {
+        long start = System.currentTimeMillis();
+        Map<String, Object> props = new HashMap<String, Object>();
+        props.put("javax.persistence.schema-generation.database.action",
+                "drop-and-create");
+        EntityManagerFactory emf = Persistence.createEntityManagerFactory(unitName, props);
+        try {
+            populate(emf);
+        } finally {
+            emf.close();
+        }
+        logger.info("Generated " + movies + " movies with " + fanout
+                + " actors each, " + persons + " directors and " + actors
+                + " actors in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    void populate(EntityManagerFactory emf) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            for (int i = 0; i < persons; i++) {
+                Person person = new Person();
+                set(person, "id", PERSON_PREFIX + i);
+                set(person, "name", "Director " + i);
+                persist(em, person, i);
+            }
+            commit(em);
+            for (int i = 0; i < actors; i++) {
+                Actor actor = new Actor();
+                set(actor, "id", ACTOR_PREFIX + i);
+                set(actor, "name", "Actor " + i);
+                persist(em, actor, i);
+            }
+            commit(em);
+            // the stride spreads the actors of a movie over all actors
+            int stride = Math.max(1, actors / Math.max(1, fanout));
+            for (int i = 0; i < movies; i++) {
+                Movie movie = new Movie();
+                set(movie, "id", MOVIE_PREFIX + i);
+                set(movie, "title", "Movie " + i);
+                set(movie, "director",
+                    em.getReference(Person.class, PERSON_PREFIX + (i % persons)));
+                List<Actor> cast = new ArrayList<Actor>(fanout);
+                for (int j = 0; j < fanout; j++) {
+                    cast.add(em.getReference(Actor.class,
+                            ACTOR_PREFIX + ((i + j * stride) % actors)));
+                }
+                set(movie, "actors", cast);
+                persist(em, movie, i);
+            }
+            commit(em);
+        } finally {
+            if (em.getTransaction().isActive()) em.getTransaction().rollback();
+            em.close();
+        }
+    }
+
+    /*
+     * begins a transaction for the first of a batch, and commits it after
+     * the last
+     */
+    private void persist(EntityManager em, Object pc, int i) {
+        if (!em.getTransaction().isActive()) em.getTransaction().begin();
+        em.persist(pc);
+        if (i % BATCH_SIZE == BATCH_SIZE - 1) commit(em);
+    }
+
+    private void commit(EntityManager em) {
+        if (!em.getTransaction().isActive()) return;
+        em.getTransaction().commit();
+        em.clear();
+    }
+
+    private static void set(Object pc, String property, Object value) {
+        PropertyAccessor.of(pc.getClass(), property).set(pc, value);
+    }
+}
@@ -3,6 +3,7 @@ package oracle.jest.demo.embeddedtc;
 import java.io.File;
 
 import org.apache.catalina.WebResourceRoot;
+import org.apache.catalina.Wrapper;
 import org.apache.catalina.core.StandardContext;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.webresources.DirResourceSet;
@@ -10,24 +11,78 @@ import org.apache.catalina.webresources.StandardRoot;
 
 import oracle.jest.JESTServlet;
 
+/**
+ * Launches JEST in an embedded Tomcat on the demo domain.
+ * <br>
+ * With <code>-Djest.loadtest=true</code>, the domain is first filled with
+ * synthetic data by a {@link DataGenerator}, then a {@link LoadTest}
+ * drives requests against JEST, prints its report and stops Tomcat. The
+ * test is configured by system properties:
+ * <pre>
+ *    jest.loadtest.movies    number of movies (10000)
+ *    jest.loadtest.persons   number of directors (a tenth of the movies)
+ *    jest.loadtest.actors    number of actors (as many as the movies)
+ *    jest.loadtest.fanout    number of actors of a movie (5)
+ *    jest.loadtest.threads   number of concurrent clients (16)
+ *    jest.loadtest.warmup    seconds of warm-up (10)
+ *    jest.loadtest.duration  seconds of measurement (30)
+ *    jest.loadtest.mix       weights of the kinds of request, such as movie:3,page:1
+ * </pre>
+ *
+ * @author pinaki poddar
+ *
+ */
 public class Launcher {
+    // the persistence unit of demo.domain
+    private static final String UNIT_NAME = "app";
 
     public static void main(String[] args) throws Exception {
         Tomcat tomcat = new Tomcat();
         
         int webPort = args.length == 1 ? Integer.valueOf(args[0]) : 8090;
+        boolean loadTest = Boolean.getBoolean("jest.loadtest");
+        DataGenerator data = null;
+        if (loadTest) {
+            int movies = Integer.getInteger("jest.loadtest.movies", 10000);
+            data = new DataGenerator(movies,
+                    Integer.getInteger("jest.loadtest.persons", Math.max(1, movies / 10)),
+                    Integer.getInteger("jest.loadtest.actors", movies),
+                    Integer.getInteger("jest.loadtest.fanout", 5));
+            data.populate(UNIT_NAME);
+        }
         
         tomcat.setPort(webPort);
         
         StandardContext ctx = (StandardContext)tomcat.addWebapp("/", 
                 new File("target/classes").getAbsolutePath());
         
-        Tomcat.addServlet(ctx, "jest", JESTServlet.class.getName());
+        Wrapper jest = Tomcat.addServlet(ctx, "jest", JESTServlet.class.getName());
+        // asynchronous execution is opt-in with -Djest.async=true
+        jest.setAsyncSupported(true);
+        jest.addInitParameter("async", System.getProperty("jest.async", "false"));
+        // responses are compressed by JEST, not by the connector
+        jest.addInitParameter("compression", System.getProperty("jest.compression", "true"));
+        // requests are traced with -Djest.trace=fine, or finer for more
+        String trace = System.getProperty("jest.trace");
+        if (trace != null) jest.addInitParameter("trace", trace);
         ctx.addServletMapping("/jest/*", "jest");
 
         ctx.setPreemptiveAuthentication(false);
         
         tomcat.start();
+        if (loadTest) {
+            try {
+                new LoadTest("http://localhost:" + webPort + "/jest", data,
+                    Integer.getInteger("jest.loadtest.threads", 16),
+                    Integer.getInteger("jest.loadtest.warmup", 10),
+                    Integer.getInteger("jest.loadtest.duration", 30),
+                    System.getProperty("jest.loadtest.mix")).run(System.out);
+            } finally {
+                tomcat.stop();
+                tomcat.destroy();
+            }
+            return;
+        }
         tomcat.getServer().await();
     }
 
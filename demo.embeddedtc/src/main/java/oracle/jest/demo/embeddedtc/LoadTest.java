@@ -0,0 +1,375 @@
+package oracle.jest.demo.embeddedtc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import oracle.jest.JESTContext;
+import oracle.jest.LatencyHistogram;
+
+/**
+ * Drives concurrent HTTP requests against a JEST servlet, and reports
+ * the throughput, the latency percentiles and the pressure on the garbage
+ * collector.
+ * <br>
+ * Each client thread sends a request as soon as it has read the response
+ * to its previous one, so the throughput is the most that the given
+ * number of clients get. A request is picked at random from a mix of
+ * {@link Request kinds}, on instances picked at random from the data that
+ * a {@link DataGenerator} has generated. The requests of the warm-up
+ * period are sent but not measured.
+ * <p>
+ * The client runs in the same process as the server, so that the test
+ * needs nothing but this process. The collections and the time of the
+ * garbage collector are of the whole process. The bytes the server
+ * allocates are the bytes allocated by all threads apart from the client
+ * threads.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class LoadTest {
+    public static final String DEFAULT_MIX =
+            "movie:40,actors:15,include:10,page:15,batch:10,person:8,model:2";
+    private static final int PAGE_SIZE  = 20;
+    private static final int BATCH_SIZE = 10;
+
+    private final String baseURL;
+    private final DataGenerator data;
+    private final int threads;
+    private final long warmup;
+    private final long duration;
+    private final int[] weights = new int[Request.values().length];
+    private int totalWeight;
+
+    /**
+     * The kinds of request.
+     */
+    enum Request {
+        /** a movie */
+        MOVIE {
+            String path(DataGenerator data, Random rnd) {
+                return "/Movie/" + movie(data, rnd);
+            }
+        },
+        /** the actors of a movie */
+        ACTORS {
+            String path(DataGenerator data, Random rnd) {
+                return "/Movie/" + movie(data, rnd) + "/actors";
+            }
+        },
+        /** a movie with its director and actors */
+        INCLUDE {
+            String path(DataGenerator data, Random rnd) {
+                return "/Movie/" + movie(data, rnd) + "?include=director,actors";
+            }
+        },
+        /** a page of movies after a movie */
+        PAGE {
+            String path(DataGenerator data, Random rnd) {
+                return "/Movie?page%5Bsize%5D=" + PAGE_SIZE
+                     + "&page%5Bafter%5D=" + movie(data, rnd);
+            }
+        },
+        /** movies by their identifiers */
+        BATCH {
+            String path(DataGenerator data, Random rnd) {
+                StringBuilder path = new StringBuilder("/Movie?filter%5Bid%5D=");
+                for (int i = 0; i < BATCH_SIZE; i++) {
+                    if (i > 0) path.append(',');
+                    path.append(movie(data, rnd));
+                }
+                return path.toString();
+            }
+        },
+        /** a director */
+        PERSON {
+            String path(DataGenerator data, Random rnd) {
+                return "/Person/" + DataGenerator.PERSON_PREFIX
+                        + rnd.nextInt(data.getPersonCount());
+            }
+        },
+        /** the domain model */
+        MODEL {
+            String path(DataGenerator data, Random rnd) {
+                return "/";
+            }
+        };
+
+        abstract String path(DataGenerator data, Random rnd);
+
+        static String movie(DataGenerator data, Random rnd) {
+            return DataGenerator.MOVIE_PREFIX + rnd.nextInt(data.getMovieCount());
+        }
+    }
+
+    /**
+     * @param baseURL URL the servlet is mapped to, such as
+     * <code>http://localhost:8090/jest</code>
+     * @param data the data the servlet serves
+     * @param threads number of concurrent clients
+     * @param warmup seconds of requests not measured
+     * @param duration seconds of requests measured
+     * @param mix the relative weights of the kinds of request, such as
+     * <code>movie:3,page:1</code>. null for the {@link #DEFAULT_MIX default}.
+     */
+    public LoadTest(String baseURL, DataGenerator data, int threads,
+            long warmup, long duration, String mix) {
+        if (threads < 1 || warmup < 0 || duration < 1) {
+            throw new IllegalArgumentException("Need at least one thread "
+                + "and a second to measure");
+        }
+        this.baseURL = baseURL;
+        this.data = data;
+        this.threads = threads;
+        this.warmup = TimeUnit.SECONDS.toNanos(warmup);
+        this.duration = TimeUnit.SECONDS.toNanos(duration);
+        parseMix(mix == null ? DEFAULT_MIX : mix);
+    }
+
+    private void parseMix(String mix) {
+        for (String entry : mix.split(",")) {
+            String[] pair = entry.trim().split(":");
+            try {
+                int weight = pair.length == 2 ? Integer.parseInt(pair[1].trim()) : -1;
+                if (weight < 0) throw new IllegalArgumentException();
+                weights[Request.valueOf(pair[0].trim().toUpperCase()).ordinal()] = weight;
+                totalWeight += weight;
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("Invalid request weight " + entry
+                    + " in " + mix + ". A weight is kind:number, and the kinds are "
+                    + Arrays.toString(Request.values()).toLowerCase());
+            }
+        }
+        if (totalWeight == 0) {
+            throw new IllegalArgumentException("No request in " + mix);
+        }
+    }
+
+    private Request pick(Random rnd) {
+        int n = rnd.nextInt(totalWeight);
+        for (Request kind : Request.values()) {
+            n -= weights[kind.ordinal()];
+            if (n < 0) return kind;
+        }
+        throw new AssertionError();
+    }
+
+    /**
+     * Runs the test and prints the report to the given stream.
+     */
+    public void run(PrintStream out) throws InterruptedException {
+        // connections are kept alive for every client, not only the default 5
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(threads));
+        }
+        out.println("Load test of " + threads + " clients for "
+                + TimeUnit.NANOSECONDS.toSeconds(duration) + " s after a warm-up of "
+                + TimeUnit.NANOSECONDS.toSeconds(warmup) + " s against " + baseURL);
+        final Series[] series = new Series[Request.values().length];
+        for (int i = 0; i < series.length; i++) {
+            series[i] = new Series(Request.values()[i].name().toLowerCase());
+        }
+        final Series all = new Series("all");
+        long start = System.nanoTime();
+        final long measureFrom = start + warmup;
+        final long measureTo = measureFrom + duration;
+        final LongAdder clientAllocated = new LongAdder();
+        List<Thread> clients = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            Thread client = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    drive(series, all, measureFrom, measureTo, clientAllocated);
+                }
+            }, "load-client-" + i);
+            client.setDaemon(true);
+            clients.add(client);
+            client.start();
+        }
+        TimeUnit.NANOSECONDS.sleep(Math.max(0, measureFrom - System.nanoTime()));
+        Usage before = Usage.now();
+        for (Thread client : clients) {
+            client.join();
+        }
+        Usage after = Usage.now();
+        report(series, all, after.minus(before), clientAllocated.sum(), out);
+    }
+
+    /*
+     * sends requests till the end of the test, and records the ones sent
+     * after the warm-up
+     */
+    private void drive(Series[] series, Series all, long measureFrom,
+            long measureTo, LongAdder clientAllocated) {
+        Random rnd = ThreadLocalRandom.current();
+        byte[] buf = new byte[8*1024];
+        long allocatedFrom = -1;
+        for (long now = System.nanoTime(); now < measureTo; now = System.nanoTime()) {
+            if (allocatedFrom < 0 && now >= measureFrom) {
+                allocatedFrom = Usage.allocatedByCurrentThread();
+            }
+            Request kind = pick(rnd);
+            String path = kind.path(data, rnd);
+            int status;
+            long bytes = 0;
+            try {
+                HttpURLConnection con = (HttpURLConnection)new URL(baseURL + path)
+                        .openConnection();
+                con.setRequestProperty(JESTContext.HEADER_ACCEPT,
+                        JESTContext.MIMETYPE_JSON_API);
+                con.setRequestProperty("Accept-Encoding", "gzip");
+                status = con.getResponseCode();
+                InputStream in = status >= 400 ? con.getErrorStream() : con.getInputStream();
+                if (in != null) {
+                    try {
+                        for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                            bytes += n;
+                        }
+                    } finally {
+                        in.close();
+                    }
+                }
+            } catch (IOException ex) {
+                status = -1;
+            }
+            long elapsed = System.nanoTime() - now;
+            if (now >= measureFrom) {
+                series[kind.ordinal()].record(status, elapsed, bytes);
+                all.record(status, elapsed, bytes);
+            }
+        }
+        if (allocatedFrom >= 0) {
+            clientAllocated.add(Usage.allocatedByCurrentThread() - allocatedFrom);
+        }
+    }
+
+    private void report(Series[] series, Series all, Usage usage,
+            long clientAllocated, PrintStream out) {
+        double seconds = usage.nanos / 1e9;
+        long total = all.latency.getCount();
+        String format = "%-8s %9s %7s %9s %8s %8s %8s %8s %8s %8s%n";
+        out.printf(format, "request", "count", "errors", "req/s",
+                "p50 ms", "p90 ms", "p99 ms", "p999 ms", "max ms", "KB/req");
+        for (Series s : series) {
+            if (s.latency.getCount() > 0) row(out, format, s, seconds);
+        }
+        if (total > 0) row(out, format, all, seconds);
+        if (usage.gcCount >= 0) {
+            out.printf("GC: %d collections taking %d ms, %.1f%% of the time%n",
+                usage.gcCount, usage.gcMillis, 100.0 * usage.gcMillis / (seconds * 1000));
+        }
+        if (usage.allocated >= 0 && total > 0) {
+            long server = usage.allocated - clientAllocated;
+            out.printf("Allocated: %.1f MB/s by the server, %.1f KB per request;"
+                + " %.1f MB/s by the clients%n",
+                server / seconds / (1 << 20), server / 1024.0 / total,
+                clientAllocated / seconds / (1 << 20));
+        }
+        out.println("Metrics of the server by command are at " + baseURL + "/_metrics");
+    }
+
+    private static void row(PrintStream out, String format, Series s,
+            double seconds) {
+        LatencyHistogram h = s.latency;
+        long count = h.getCount();
+        out.printf(format, s.name, count, s.errors.sum(),
+            String.format("%.1f", count / seconds),
+            ms(h.getPercentile(0.5)), ms(h.getPercentile(0.9)),
+            ms(h.getPercentile(0.99)), ms(h.getPercentile(0.999)), ms(h.getMax()),
+            String.format("%.1f", s.bytes.sum() / 1024.0 / count));
+    }
+
+    private static String ms(long micros) {
+        return String.format("%.2f", micros / 1000.0);
+    }
+
+    /**
+     * The responses to a kind of request.
+     */
+    static class Series {
+        final String name;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+
+        Series(String name) {
+            this.name = name;
+        }
+
+        void record(int status, long nanos, long n) {
+            latency.record(nanos);
+            if (status < 200 || status >= 400) errors.increment();
+            bytes.add(n);
+        }
+    }
+
+    /**
+     * The usage of the garbage collector and of memory by the process up
+     * to a point in time. A usage is -1 if the JVM does not tell it.
+     */
+    static class Usage {
+        final long nanos;
+        final long gcCount;
+        final long gcMillis;
+        final long allocated;
+
+        Usage(long nanos, long gcCount, long gcMillis, long allocated) {
+            this.nanos = nanos;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+            this.allocated = allocated;
+        }
+
+        static Usage now() {
+            long count = 0;
+            long millis = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if (gc.getCollectionCount() < 0) {
+                    count = millis = -1;
+                    break;
+                }
+                count += gc.getCollectionCount();
+                millis += gc.getCollectionTime();
+            }
+            long allocated = -1;
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (threads instanceof com.sun.management.ThreadMXBean) {
+                allocated = 0;
+                for (long bytes : ((com.sun.management.ThreadMXBean)threads)
+                        .getThreadAllocatedBytes(threads.getAllThreadIds())) {
+                    if (bytes > 0) allocated += bytes;
+                }
+            }
+            return new Usage(System.nanoTime(), count, millis, allocated);
+        }
+
+        static long allocatedByCurrentThread() {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (threads instanceof com.sun.management.ThreadMXBean) {
+                return ((com.sun.management.ThreadMXBean)threads)
+                        .getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+            return 0;
+        }
+
+        Usage minus(Usage before) {
+            return new Usage(nanos - before.nanos,
+                gcCount < 0 ? -1 : gcCount - before.gcCount,
+                gcMillis < 0 ? -1 : gcMillis - before.gcMillis,
+                allocated < 0 ? -1 : allocated - before.allocated);
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package oracle.jest;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Executes requests asynchronously, off the container thread.
+ * <br>
+ * A request is put in {@link HttpServletRequest#startAsync() asynchronous
+ * mode} and processed by a separate executor, so that a command blocked
+ * on a slow database does not hold a thread of the container's connector.
+ * The executor runs each request on a virtual thread when the JVM
+ * supports them, otherwise on a thread from an unbounded cached pool.
+ * <p>
+ * The number of requests executing at the same time against a persistence
+ * unit is limited. A request beyond that limit is rejected immediately
+ * with <code>503 Service Unavailable</code>. A request that does not
+ * complete in time is answered with <code>504 Gateway Timeout</code>;
+ * anything the command writes after that point is discarded.
+ *
+ * @author pinaki poddar
+ *
+ */
+class AsyncDispatcher {
+    private static final Logger logger = Logger.getLogger("RUNTIME");
+
+    private final JESTServlet servlet;
+    private final ExecutorService executor;
+    private final int maxConcurrency;
+    private final long timeout;
+    private final Metrics metrics;
+    private final ConcurrentMap<String, Semaphore> permits =
+            new ConcurrentHashMap<String, Semaphore>();
+
+    /**
+     * @param servlet processes the requests
+     * @param maxConcurrency maximum number of requests executing at the
+     * same time per persistence unit
+     * @param timeout milliseconds a request may take before it is
+     * answered with a timeout. Zero or negative for no timeout.
+     * @param metrics counts the requests rejected or timed out. May be null.
+     */
+    AsyncDispatcher(JESTServlet servlet, int maxConcurrency, long timeout,
+            Metrics metrics) {
+        this.servlet = servlet;
+        this.maxConcurrency = maxConcurrency;
+        this.timeout = timeout;
+        this.metrics = metrics;
+        this.executor = newExecutor();
+    }
+
+    /**
+     * Dispatches the given request against the given persistence unit.
+     * Returns as soon as the request is either queued or rejected.
+     */
+    void dispatch(String unitName, final HttpServletRequest request,
+            final HttpServletResponse response) throws IOException {
+        final Semaphore semaphore = getPermits(unitName);
+        if (!semaphore.tryAcquire()) {
+            if (metrics != null) metrics.recordRejected();
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                    "Too many concurrent requests for persistence unit "
+                    + unitName);
+            return;
+        }
+        final AsyncContext async;
+        try {
+            async = request.startAsync(request, response);
+        } catch (RuntimeException ex) {
+            semaphore.release();
+            throw ex;
+        }
+        async.setTimeout(timeout > 0 ? timeout : 0);
+        final AtomicBoolean finished = new AtomicBoolean();
+        final DetachableResponse detachable = new DetachableResponse(response);
+        async.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+                if (finished.compareAndSet(false, true)) {
+                    if (metrics != null) metrics.recordTimeout();
+                    detachable.detach();
+                    if (!response.isCommitted()) {
+                        response.sendError(HttpServletResponse.SC_GATEWAY_TIMEOUT,
+                            "Request did not complete in " + timeout + " ms");
+                    }
+                    async.complete();
+                }
+            }
+            @Override
+            public void onError(AsyncEvent event) throws IOException {
+                if (finished.compareAndSet(false, true)) {
+                    detachable.detach();
+                    async.complete();
+                }
+            }
+            @Override
+            public void onComplete(AsyncEvent event) {
+            }
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        // the request may have timed out while queued
+                        if (finished.get()) return;
+                        servlet.process(request, detachable);
+                    } catch (Exception ex) {
+                        if (!finished.get()) {
+                            logger.warning("Async request failed: " + ex);
+                        }
+                    } finally {
+                        semaphore.release();
+                        if (finished.compareAndSet(false, true)) {
+                            async.complete();
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            semaphore.release();
+            finished.set(true);
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                    "Server is shutting down");
+            async.complete();
+        }
+    }
+
+    /**
+     * Stops accepting requests and waits briefly for the executing ones.
+     */
+    void shutdown() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(timeout > 0 ? timeout : 1000,
+                    TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Semaphore getPermits(String unitName) {
+        Semaphore semaphore = permits.get(unitName);
+        if (semaphore == null) {
+            semaphore = new Semaphore(maxConcurrency);
+            Semaphore other = permits.putIfAbsent(unitName, semaphore);
+            if (other != null) semaphore = other;
+        }
+        return semaphore;
+    }
+
+    /**
+     * Creates an executor that starts a virtual thread per task if the
+     * JVM supports virtual threads, or else a cached pool of daemon
+     * threads.
+     */
+    static ExecutorService newExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            ExecutorService executor = (ExecutorService)factory.invoke(null);
+            logger.info("Asynchronous requests execute on virtual threads");
+            return executor;
+        } catch (Exception ex) {
+            logger.info("Virtual threads are not available. " +
+                    "Asynchronous requests execute on a thread pool");
+        }
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "jest-async-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * A response that can be detached from the actual response once the
+     * request has timed out. After detachment, headers set and content
+     * written by the command are discarded instead of reaching a response
+     * the container may have recycled for another request.
+     * <p>
+     * A write holds a lock that detachment waits for, so that no write is
+     * still in progress once the response is detached. The lock is not a
+     * monitor, which would pin a virtual thread blocked in a write to its
+     * carrier thread.
+     */
+    static class DetachableResponse extends HttpServletResponseWrapper {
+        private static final HttpServletResponse DETACHED = (HttpServletResponse)
+            Proxy.newProxyInstance(HttpServletResponse.class.getClassLoader(),
+                new Class<?>[]{HttpServletResponse.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method m, Object[] args) {
+                        Class<?> type = m.getReturnType();
+                        if (type == boolean.class) return Boolean.TRUE;
+                        if (type == int.class) return 0;
+                        if (type == long.class) return 0L;
+                        return null;
+                    }
+                });
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile boolean detached;
+        private ServletOutputStream stream;
+        private PrintWriter writer;
+
+        DetachableResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        void detach() {
+            lock.lock();
+            try {
+                detached = true;
+                setResponse(DETACHED);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean isDetached() {
+            return detached;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            lock.lock();
+            try {
+                if (stream == null) {
+                    stream = new GuardedOutputStream(super.getOutputStream());
+                }
+                return stream;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            lock.lock();
+            try {
+                if (writer == null) {
+                    try {
+                        writer = new PrintWriter(new OutputStreamWriter(
+                                getOutputStream(), getCharacterEncoding()));
+                    } catch (UnsupportedEncodingException ex) {
+                        writer = new PrintWriter(getOutputStream());
+                    }
+                }
+                return writer;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Writes to the actual stream only while the response is attached.
+         */
+        class GuardedOutputStream extends ServletOutputStream {
+            private final ServletOutputStream out;
+
+            GuardedOutputStream(ServletOutputStream out) {
+                this.out = out;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                lock.lock();
+                try {
+                    check();
+                    out.write(b);
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                lock.lock();
+                try {
+                    check();
+                    out.write(b, off, len);
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                lock.lock();
+                try {
+                    check();
+                    out.flush();
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            @Override
+            public boolean isReady() {
+                return out.isReady();
+            }
+
+            @Override
+            public void setWriteListener(WriteListener listener) {
+                out.setWriteListener(listener);
+            }
+
+            private void check() throws IOException {
+                if (detached) {
+                    throw new IOException("Response is no longer available " +
+                            "because the request has timed out");
+                }
+            }
+        }
+    }
+}
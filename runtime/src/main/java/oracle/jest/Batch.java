@@ -0,0 +1,32 @@
+package oracle.jest;
+
+import java.util.List;
+
+/**
+ * Persistent instances found for a list of identities, in the order of
+ * the identities, along with the identities for which no instance exists.
+ *  
+ * @author pinaki poddar
+ *
+ */
+public class Batch {
+    private final List<?> items;
+    private final List<String> missing;
+    
+    public Batch(List<?> items, List<String> missing) {
+        this.items = items;
+        this.missing = missing;
+    }
+    
+    public List<?> getItems() {
+        return items;
+    }
+    
+    /**
+     * Gets the identities, as given in the request, for which no 
+     * instance exists.
+     */
+    public List<String> getMissing() {
+        return missing;
+    }
+}
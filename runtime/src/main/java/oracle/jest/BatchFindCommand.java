@@ -0,0 +1,219 @@
+package oracle.jest;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.Query;
+import javax.persistence.metamodel.EntityType;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.json.JSONException;
+import org.json.JSONTokener;
+
+/**
+ * Finds many instances of an entity type by their identities in a
+ * single request.
+ * <pre>
+ *    GET  /{type}?filter[id]=1,2,3   identities as comma separated list
+ *    POST /{type}/_find              identities as JSON array in the body
+ * </pre>
+ * All identities are resolved with <code>IN</code> queries, as few as the
+ * database permits, rather than one query per identity. The instances
+ * are returned in the order of the given identities, and the identities
+ * that do not exist are listed as <code>missing</code> in the meta section
+ * of the document.
+ * <p>
+ * The number of identities in a single query is controlled by the
+ * <code>find-batch-size</code> servlet parameter, which should be set
+ * within the limit of bound parameters of the database. It must be at
+ * least 1.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class BatchFindCommand extends JESTCommand {
+    static final String PARAM_FILTER_ID = "filter[id]";
+    static final String VERB_FIND       = "_find";
+    static final String INIT_BATCH_SIZE = "find-batch-size";
+    static final int DEFAULT_BATCH_SIZE = 500;
+    static final int MAX_IDENTITIES     = 10000;
+    private static final String PARAM_IDS = "ids";
+
+    public BatchFindCommand(JESTContext ctx) throws ServletException {
+        super(ctx);
+    }
+
+    @Override
+    public void execute() throws ServletException, IOException {
+        HttpServletRequest request = getContext().getRequest();
+        HttpServletResponse response = getContext().getResponse();
+        RequestPath path = getContext().getRequestPath();
+        EntityType<?> eType = path.getEntityType();
+        if (eType == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND,
+                    "Unknown entity type " + path.getTypeName());
+            return;
+        }
+        if (!eType.hasSingleIdAttribute()) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                    "Can not find " + eType.getName() + " by identities" +
+                    " because it has a composite identity");
+            return;
+        }
+        List<String> ids;
+        List<Object> keys = new ArrayList<Object>();
+        Map<String, Object> hints;
+        try {
+            ids = readIdentities(request);
+            // the body is read before the parameters of selection
+            hints = getFetchHints(eType);
+            IdConverter converter = getContext().getMetamodelIndex()
+                    .getIdConverter(eType);
+            for (String id : ids) {
+                keys.add(converter.parse(id));
+            }
+        } catch (IllegalArgumentException ex) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                    ex.getMessage());
+            return;
+        } catch (JSONException ex) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                    "Request body is not a JSON array of identities: "
+                    + ex.getMessage());
+            return;
+        }
+
+        Map<Object, Object> found = find(eType, keys, hints);
+        List<Object> items = new ArrayList<Object>(ids.size());
+        List<String> missing = new ArrayList<String>();
+        for (int i = 0; i < ids.size(); i++) {
+            Object pc = found.get(keys.get(i));
+            if (pc == null) {
+                missing.add(ids.get(i));
+            } else {
+                items.add(pc);
+            }
+        }
+        response.setStatus(200);
+        getContext().getResponseTransformer()
+            .transform(new Batch(items, missing), response);
+    }
+
+    /**
+     * Reads the identities either from the <code>filter[id]</code>
+     * parameter or from the request body. The body is read one identity
+     * at a time, and no further than the identities a request may have.
+     *
+     * @exception IllegalArgumentException if there are more than {@value
+     * #MAX_IDENTITIES} identities
+     */
+    List<String> readIdentities(HttpServletRequest request) throws IOException {
+        List<String> ids = new ArrayList<String>();
+        if ("GET".equals(request.getMethod())) {
+            // parameters are not read for POST, as that would consume
+            // the body of a form encoded request
+            String filter = request.getParameter(PARAM_FILTER_ID);
+            for (String id : filter.split(",")) {
+                id = id.trim();
+                if (id.isEmpty()) continue;
+                addIdentity(ids, id);
+            }
+        } else {
+            JSONTokener tokener = new JSONTokener(
+                    new InputStreamReader(request.getInputStream(), "UTF-8"));
+            if (tokener.nextClean() != '[') {
+                throw tokener.syntaxError("A JSON array must start with '['");
+            }
+            if (tokener.nextClean() != ']') {
+                tokener.back();
+                for (char c = ','; c != ']'; c = tokener.nextClean()) {
+                    if (c != ',') {
+                        throw tokener.syntaxError("Expected ',' or ']'");
+                    }
+                    addIdentity(ids, tokener.nextValue().toString());
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static void addIdentity(List<String> ids, String id) {
+        if (ids.size() == MAX_IDENTITIES) {
+            throw new IllegalArgumentException("Can not find more than " +
+                    MAX_IDENTITIES + " instances in a request");
+        }
+        ids.add(id);
+    }
+
+    /**
+     * Finds the instances of given identities in as many queries as
+     * the batch size requires.
+     *
+     * @param hints given to each query
+     *
+     * @return the instances found keyed by their identity.
+     */
+    Map<Object, Object> find(EntityType<?> eType, List<Object> keys,
+            Map<String, Object> hints) {
+        EntityManager em = getContext().getPersistenceContext();
+        PersistenceUnitUtil util = em.getEntityManagerFactory()
+                .getPersistenceUnitUtil();
+        int batchSize = getInitParameter(INIT_BATCH_SIZE, DEFAULT_BATCH_SIZE);
+        String jpql = "SELECT e FROM " + eType.getName() + " e WHERE e."
+                + MetamodelIndex.getIdAttribute(eType).getName()
+                + " IN :" + PARAM_IDS;
+        Set<Object> unique = new LinkedHashSet<Object>(keys);
+        Map<Object, Object> found = new HashMap<Object, Object>();
+        List<Object> chunk = new ArrayList<Object>(batchSize);
+        for (Object key : unique) {
+            chunk.add(key);
+            if (chunk.size() == batchSize) {
+                find(em, util, jpql, chunk, hints, found);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            find(em, util, jpql, pad(chunk, batchSize), hints, found);
+        }
+        return found;
+    }
+
+    private void find(EntityManager em, PersistenceUnitUtil util, String jpql,
+            List<Object> chunk, Map<String, Object> hints,
+            Map<Object, Object> found) {
+        Query query = em.createQuery(jpql).setParameter(PARAM_IDS, chunk);
+        for (Map.Entry<String, Object> hint : hints.entrySet()) {
+            query.setHint(hint.getKey(), hint.getValue());
+        }
+        for (Object pc : query.getResultList()) {
+            found.put(util.getIdentifier(pc), pc);
+        }
+    }
+
+    /**
+     * Pads the given identities up to the next power of two, but not
+     * beyond the batch size, by repeating the last identity. The query
+     * then has only a few distinct shapes which the database can cache
+     * as prepared statements.
+     */
+    List<Object> pad(List<Object> chunk, int batchSize) {
+        int size = Integer.highestOneBit(chunk.size());
+        if (size < chunk.size()) size <<= 1;
+        size = Math.min(size, batchSize);
+        Object last = chunk.get(chunk.size()-1);
+        while (chunk.size() < size) {
+            chunk.add(last);
+        }
+        return chunk;
+    }
+}
@@ -0,0 +1,311 @@
+package oracle.jest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Writes tokens directly to an output stream in
+ * <a href="https://tools.ietf.org/html/rfc7049">CBOR</a>, a binary
+ * encoding of the JSON data model.
+ * <br>
+ * Objects and arrays are written with indefinite length, so that their
+ * members are written as they come, without being counted first. Numbers
+ * are written in binary rather than as digits, and a floating point
+ * number in single precision if that loses nothing. A big integer beyond
+ * 64 bits is written as a bignum and a big decimal as a decimal fraction,
+ * exactly, with the tags CBOR defines for them. Strings are written
+ * as UTF-8 preceded by their length, so a reader does not scan them for
+ * a terminating quote or escaped characters.
+ * <p>
+ * The writer borrows its buffer from the pool {@link JSONStreamWriter}
+ * shares and returns it on {@link #close()}.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class CBORStreamWriter implements TokenWriter {
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1 << 5;
+    private static final int MAJOR_BYTES    = 2 << 5;
+    private static final int MAJOR_TEXT     = 3 << 5;
+    private static final int MAJOR_ARRAY    = 4 << 5;
+    private static final int MAJOR_TAG      = 6 << 5;
+    private static final int TAG_POSITIVE_BIGNUM  = 2;
+    private static final int TAG_NEGATIVE_BIGNUM  = 3;
+    private static final int TAG_DECIMAL_FRACTION = 4;
+    private static final int BEGIN_ARRAY    = 0x9F;
+    private static final int BEGIN_MAP      = 0xBF;
+    private static final int BREAK          = 0xFF;
+    private static final int FALSE          = 0xF4;
+    private static final int TRUE           = 0xF5;
+    private static final int NULL           = 0xF6;
+    private static final int FLOAT32        = 0xFA;
+    private static final int FLOAT64        = 0xFB;
+
+    private final OutputStream out;
+    private byte[] buf;
+    private int pos;
+
+    public CBORStreamWriter(OutputStream out) {
+        this.out = out;
+        this.buf = JSONStreamWriter.borrowBuffer();
+    }
+
+    @Override
+    public CBORStreamWriter beginObject() throws IOException {
+        write(BEGIN_MAP);
+        return this;
+    }
+
+    @Override
+    public CBORStreamWriter endObject() throws IOException {
+        write(BREAK);
+        return this;
+    }
+
+    @Override
+    public CBORStreamWriter beginArray() throws IOException {
+        write(BEGIN_ARRAY);
+        return this;
+    }
+
+    @Override
+    public CBORStreamWriter endArray() throws IOException {
+        write(BREAK);
+        return this;
+    }
+
+    @Override
+    public CBORStreamWriter name(String name) throws IOException {
+        return value(name);
+    }
+
+    @Override
+    public CBORStreamWriter value(String v) throws IOException {
+        if (v == null) return nullValue();
+        writeString(v);
+        return this;
+    }
+
+    @Override
+    public CBORStreamWriter value(long v) throws IOException {
+        if (v >= 0) {
+            writeHead(MAJOR_UNSIGNED, v);
+        } else {
+            writeHead(MAJOR_NEGATIVE, -1 - v);
+        }
+        return this;
+    }
+
+    @Override
+    public CBORStreamWriter value(double v) throws IOException {
+        if (v == (long)v && !(v == 0 && 1/v < 0)) {
+            return value((long)v);
+        }
+        float f = (float)v;
+        if (f == v || Double.isNaN(v)) {
+            write(FLOAT32);
+            writeInt(Float.floatToIntBits(f));
+        } else {
+            write(FLOAT64);
+            long bits = Double.doubleToLongBits(v);
+            writeInt((int)(bits >>> 32));
+            writeInt((int)bits);
+        }
+        return this;
+    }
+
+    @Override
+    public CBORStreamWriter value(boolean v) throws IOException {
+        write(v ? TRUE : FALSE);
+        return this;
+    }
+
+    @Override
+    public CBORStreamWriter nullValue() throws IOException {
+        write(NULL);
+        return this;
+    }
+
+    @Override
+    public CBORStreamWriter value(Object v) throws IOException {
+        if (v == null) {
+            return nullValue();
+        } else if (v instanceof String) {
+            return value((String)v);
+        } else if (v instanceof Integer || v instanceof Long
+                || v instanceof Short || v instanceof Byte) {
+            return value(((Number)v).longValue());
+        } else if (v instanceof BigInteger) {
+            return value((BigInteger)v);
+        } else if (v instanceof BigDecimal) {
+            return value((BigDecimal)v);
+        } else if (v instanceof Number) {
+            return value(((Number)v).doubleValue());
+        } else if (v instanceof Boolean) {
+            return value(((Boolean)v).booleanValue());
+        } else if (v instanceof Enum) {
+            return value(((Enum<?>)v).name());
+        } else {
+            return value(v.toString());
+        }
+    }
+
+    /**
+     * Writes the given integer exactly, as a bignum if it does not fit
+     * in 64 bits.
+     */
+    public CBORStreamWriter value(BigInteger v) throws IOException {
+        boolean negative = v.signum() < 0;
+        // a negative integer n is encoded as -1-n
+        BigInteger n = negative ? v.not() : v;
+        if (n.bitLength() < 64) {
+            writeHead(negative ? MAJOR_NEGATIVE : MAJOR_UNSIGNED, n.longValue());
+            return this;
+        }
+        writeHead(MAJOR_TAG, negative ? TAG_NEGATIVE_BIGNUM : TAG_POSITIVE_BIGNUM);
+        byte[] bytes = n.toByteArray();
+        // without the sign byte
+        int off = bytes[0] == 0 ? 1 : 0;
+        writeHead(MAJOR_BYTES, bytes.length - off);
+        for (int i = off; i < bytes.length; i++) {
+            write(bytes[i] & 0xFF);
+        }
+        return this;
+    }
+
+    /**
+     * Writes the given decimal exactly, as a decimal fraction of its
+     * unscaled value and its scale.
+     */
+    public CBORStreamWriter value(BigDecimal v) throws IOException {
+        writeHead(MAJOR_TAG, TAG_DECIMAL_FRACTION);
+        writeHead(MAJOR_ARRAY, 2);
+        value(-(long)v.scale());
+        return value(v.unscaledValue());
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (pos > 0) {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buf == null) return;
+        try {
+            flush();
+        } finally {
+            JSONStreamWriter.returnBuffer(buf);
+            buf = null;
+        }
+    }
+
+    /*
+     * writes the initial byte of a data item and its argument in as few
+     * bytes as the value permits.
+     */
+    private void writeHead(int major, long arg) throws IOException {
+        if (pos + 9 > buf.length) drain();
+        if (arg < 24) {
+            buf[pos++] = (byte)(major | arg);
+        } else if (arg < 0x100) {
+            buf[pos++] = (byte)(major | 24);
+            buf[pos++] = (byte)arg;
+        } else if (arg < 0x10000) {
+            buf[pos++] = (byte)(major | 25);
+            buf[pos++] = (byte)(arg >> 8);
+            buf[pos++] = (byte)arg;
+        } else if (arg < 0x100000000L) {
+            buf[pos++] = (byte)(major | 26);
+            putInt((int)arg);
+        } else {
+            buf[pos++] = (byte)(major | 27);
+            putInt((int)(arg >>> 32));
+            putInt((int)arg);
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        int n = s.length();
+        int length = utf8Length(s);
+        writeHead(MAJOR_TEXT, length);
+        if (length == n) {
+            // all ASCII
+            for (int i = 0; i < n; i++) {
+                if (pos == buf.length) drain();
+                buf[pos++] = (byte)s.charAt(i);
+            }
+            return;
+        }
+        for (int i = 0; i < n; i++) {
+            if (pos + 4 > buf.length) drain();
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buf[pos++] = (byte)c;
+            } else if (c < 0x800) {
+                buf[pos++] = (byte)(0xC0 | (c >> 6));
+                buf[pos++] = (byte)(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i+1 < n
+                    && Character.isLowSurrogate(s.charAt(i+1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buf[pos++] = (byte)(0xF0 | (cp >> 18));
+                buf[pos++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+                buf[pos++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+                buf[pos++] = (byte)(0x80 | (cp & 0x3F));
+            } else {
+                buf[pos++] = (byte)(0xE0 | (c >> 12));
+                buf[pos++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte)(0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static int utf8Length(String s) {
+        int n = s.length();
+        int length = n;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) continue;
+            if (c < 0x800) {
+                length += 1;
+            } else if (Character.isHighSurrogate(c) && i+1 < n
+                    && Character.isLowSurrogate(s.charAt(i+1))) {
+                // a pair of chars encoded in 4 bytes
+                length += 2;
+                i++;
+            } else {
+                length += 2;
+            }
+        }
+        return length;
+    }
+
+    private void writeInt(int v) throws IOException {
+        if (pos + 4 > buf.length) drain();
+        putInt(v);
+    }
+
+    private void putInt(int v) {
+        buf[pos++] = (byte)(v >> 24);
+        buf[pos++] = (byte)(v >> 16);
+        buf[pos++] = (byte)(v >> 8);
+        buf[pos++] = (byte)v;
+    }
+
+    private void write(int b) throws IOException {
+        if (pos == buf.length) drain();
+        buf[pos++] = (byte)b;
+    }
+
+    private void drain() throws IOException {
+        out.write(buf, 0, pos);
+        pos = 0;
+    }
+}
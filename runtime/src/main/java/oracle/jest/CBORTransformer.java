@@ -0,0 +1,50 @@
+package oracle.jest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Transforms persistent objects and the domain model to the same
+ * <a href="http://jsonapi.org">JSON API</a> document as
+ * {@link JSONAPITransformer}, encoded in
+ * <a href="https://tools.ietf.org/html/rfc7049">CBOR</a> rather than
+ * as JSON text.
+ * <br>
+ * A binary document is smaller and is cheaper to write and to parse,
+ * since numbers are not converted to digits and strings are neither
+ * escaped nor scanned for their end.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class CBORTransformer extends JSONAPITransformer {
+    public CBORTransformer(JESTContext ctx) {
+        super(ctx);
+    }
+
+    @Override
+    public String getMimeType() {
+        return TransformerRegistry.MIMETYPE_CBOR;
+    }
+
+    @Override
+    protected TokenWriter newWriter(OutputStream stream) {
+        return new CBORStreamWriter(stream);
+    }
+
+    /**
+     * Writes the document with a binary content type, without a
+     * character encoding.
+     */
+    @Override
+    public void transform(Object pObject, HttpServletResponse response) {
+        response.setContentType(getMimeType());
+        try {
+            transform(pObject, response.getOutputStream());
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package oracle.jest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A document that has been serialized once and is served as bytes.
+ * <br>
+ * The document holds its content both plain and gzip compressed, and
+ * a strong entity tag computed from the content, unless it is given a
+ * tag, such as a weak tag of the version of the instance it serves.
+ * A request is served the compressed content if it accepts gzip
+ * encoding, and a conditional request whose <code>If-None-Match</code>
+ * header matches the tag is answered with <code>304 Not Modified</code>
+ * without any content.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class CachedDocument {
+    public static final String HEADER_ETAG             = "ETag";
+    public static final String HEADER_IF_NONE_MATCH    = "If-None-Match";
+    public static final String HEADER_ACCEPT_ENCODING  = "Accept-Encoding";
+    public static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    public static final String HEADER_VARY             = "Vary";
+    public static final String ENCODING_GZIP           = "gzip";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String mimeType;
+    private final byte[] content;
+    private final byte[] gzipped;
+    private final String etag;
+    private final String gzipEtag;
+
+    public CachedDocument(String mimeType, byte[] content) {
+        this(mimeType, content, null);
+    }
+
+    /**
+     * Creates a document with the given entity tag, such as a {@link
+     * #weakTag weak tag} of the version of an instance, for both its
+     * plain and compressed content.
+     *
+     * @param etag null to compute a strong tag from the content
+     */
+    public CachedDocument(String mimeType, byte[] content, String etag) {
+        this.mimeType = mimeType;
+        this.content = content;
+        this.gzipped = gzip(content);
+        if (etag == null) {
+            String digest = digest(content);
+            // each representation has its own strong tag
+            this.etag     = '"' + digest + '"';
+            this.gzipEtag = '"' + digest + "-gz\"";
+        } else {
+            // a weak tag holds for any content coding
+            this.etag     = etag;
+            this.gzipEtag = etag;
+        }
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public String getETag() {
+        return etag;
+    }
+
+    public byte[] getContent() {
+        return content;
+    }
+
+    public byte[] getGzippedContent() {
+        return gzipped;
+    }
+
+    /**
+     * Writes this document to the given response, or only the status
+     * <code>304</code> if the request already has the current version.
+     */
+    public void writeTo(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        // a document too small to compress is always served plain
+        boolean gzip = gzipped.length < content.length
+                && accepts(request.getHeader(HEADER_ACCEPT_ENCODING), ENCODING_GZIP);
+        String tag = gzip ? gzipEtag : etag;
+        response.setHeader(HEADER_VARY, 
+                JESTContext.HEADER_ACCEPT + ", " + HEADER_ACCEPT_ENCODING);
+        response.setHeader(HEADER_ETAG, tag);
+        if (matches(request.getHeader(HEADER_IF_NONE_MATCH))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        byte[] bytes = gzip ? gzipped : content;
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(mimeType);
+        if (gzip) {
+            response.setHeader(HEADER_CONTENT_ENCODING, ENCODING_GZIP);
+        }
+        response.setContentLength(bytes.length);
+        response.getOutputStream().write(bytes);
+    }
+
+    /**
+     * Affirms if the given <code>If-None-Match</code> header value names
+     * either representation of this document. As required for
+     * <code>If-None-Match</code>, a weak tag matches as well.
+     */
+    public boolean matches(String ifNoneMatch) {
+        return matches(ifNoneMatch, etag) || matches(ifNoneMatch, gzipEtag);
+    }
+
+    /**
+     * Affirms if the given <code>If-None-Match</code> header value names
+     * the given tag, by the weak comparison.
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return false;
+        String opaque = opaque(etag);
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*")) return true;
+            if (opaque(tag).equals(opaque)) return true;
+        }
+        return false;
+    }
+
+    private static String opaque(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    /**
+     * Gets a weak entity tag of the given value, such as the version of
+     * an instance and the representation it is served in.
+     */
+    public static String weakTag(String value) {
+        return "W/\"" + digest(value.getBytes(StandardCharsets.UTF_8)) + '"';
+    }
+
+    /**
+     * Affirms if the given <code>Accept-Encoding</code> header value
+     * accepts the given encoding with a non-zero quality. An encoding
+     * named explicitly takes precedence over the wildcard.
+     */
+    static boolean accepts(String acceptEncoding, String encoding) {
+        if (acceptEncoding == null) return false;
+        Boolean wildcard = null;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            boolean explicit = name.equalsIgnoreCase(encoding);
+            if (!explicit && !name.equals("*")) continue;
+            boolean accepted = true;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        accepted = Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException ex) {
+                        accepted = false;
+                    }
+                }
+            }
+            if (explicit) return accepted;
+            wildcard = accepted;
+        }
+        return wildcard != null && wildcard;
+    }
+
+    static byte[] gzip(byte[] content) {
+        try {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(content.length/4 + 64);
+            GZIPOutputStream out = new GZIPOutputStream(buf);
+            out.write(content);
+            out.close();
+            return buf.toByteArray();
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    static String digest(byte[] content) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(content);
+            char[] hex = new char[32];
+            for (int i = 0; i < 16; i++) {
+                hex[2*i]   = HEX[(hash[i] >> 4) & 0xF];
+                hex[2*i+1] = HEX[hash[i] & 0xF];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
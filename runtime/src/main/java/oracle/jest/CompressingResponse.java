@@ -0,0 +1,373 @@
+package oracle.jest;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.Deflater;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * A response that compresses its content in the encoding negotiated with
+ * the client, if the content is large enough to be worth compressing.
+ * <br>
+ * The content is held in a buffer of the minimum size first. If the
+ * response completes before the buffer fills up, the content is written
+ * as it is, with its length. Otherwise the content is compressed as it
+ * is written, with a deflater borrowed from a {@link DeflaterPool pool},
+ * and the length of the response is not known in advance.
+ * <p>
+ * A command that sets the <code>Content-Encoding</code> itself, such as
+ * for a {@link CachedDocument document} kept already compressed, has its
+ * content written as it is.
+ * <p>
+ * Flushing a compressed response flushes the data compressed so far to
+ * the client, so that a streamed response reaches the client as it is
+ * written. Flushing a response that has not yet filled the buffer has no
+ * effect, as that would decide against compression before the size of
+ * the content is known.
+ * <p>
+ * The response must be {@link #finish() finished} once the command is
+ * done with it, to write the end of compressed content.
+ *
+ * @author pinaki poddar
+ *
+ */
+class CompressingResponse extends HttpServletResponseWrapper {
+    static final String ENCODING_GZIP    = CachedDocument.ENCODING_GZIP;
+    static final String ENCODING_DEFLATE = "deflate";
+    private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+
+    private static final byte[] GZIP_HEADER = {
+        0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte)0xff
+    };
+    private static final byte[] ZLIB_HEADER = {0x78, (byte)0x9c};
+    private static final int OUTPUT_SIZE = 8*1024;
+
+    private final DeflaterPool pool;
+    private final String encoding;
+    private final int minSize;
+    private CompressingStream stream;
+    private PrintWriter writer;
+    private long contentLength = -1;
+    private boolean encoded;
+
+    /**
+     * @param encoding either gzip or deflate
+     * @param minSize minimum number of bytes of content to compress
+     */
+    CompressingResponse(HttpServletResponse response, DeflaterPool pool,
+            String encoding, int minSize) {
+        super(response);
+        this.pool = pool;
+        this.encoding = encoding;
+        this.minSize = Math.max(0, minSize);
+    }
+
+    /**
+     * Gets the encoding to compress a response in for the given
+     * <code>Accept-Encoding</code> header, gzip in preference to deflate.
+     *
+     * @return null if the client accepts neither encoding
+     */
+    static String negotiate(String acceptEncoding) {
+        if (CachedDocument.accepts(acceptEncoding, ENCODING_GZIP)) {
+            return ENCODING_GZIP;
+        }
+        if (CachedDocument.accepts(acceptEncoding, ENCODING_DEFLATE)) {
+            return ENCODING_DEFLATE;
+        }
+        return null;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (stream == null) {
+            stream = new CompressingStream(super.getOutputStream());
+        }
+        return stream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            try {
+                writer = new PrintWriter(new OutputStreamWriter(
+                        getOutputStream(), getCharacterEncoding()));
+            } catch (UnsupportedEncodingException ex) {
+                writer = new PrintWriter(getOutputStream());
+            }
+        }
+        return writer;
+    }
+
+    @Override
+    public void setContentLength(int length) {
+        setContentLengthLong(length);
+    }
+
+    @Override
+    public void setContentLengthLong(long length) {
+        if (encoded) {
+            super.setContentLengthLong(length);
+        } else {
+            contentLength = length;
+        }
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        if (isContentLength(name)) {
+            setContentLengthLong(Long.parseLong(value));
+        } else {
+            if (isContentEncoding(name)) encoded = true;
+            super.setHeader(name, value);
+        }
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        if (isContentLength(name)) {
+            setContentLengthLong(Long.parseLong(value));
+        } else {
+            if (isContentEncoding(name)) encoded = true;
+            super.addHeader(name, value);
+        }
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+        if (isContentLength(name)) {
+            setContentLengthLong(value);
+        } else {
+            super.setIntHeader(name, value);
+        }
+    }
+
+    @Override
+    public void sendError(int status, String message) throws IOException {
+        super.sendError(status, message);
+        abandon();
+    }
+
+    @Override
+    public void sendError(int status) throws IOException {
+        super.sendError(status);
+        abandon();
+    }
+
+    @Override
+    public void reset() {
+        discard();
+        encoded = false;
+        contentLength = -1;
+        super.reset();
+    }
+
+    @Override
+    public void resetBuffer() {
+        discard();
+        super.resetBuffer();
+    }
+
+    @Override
+    public boolean isCommitted() {
+        return super.isCommitted() || (stream != null && stream.decided);
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if (writer != null) writer.flush();
+        if (stream != null) stream.flush();
+        super.flushBuffer();
+    }
+
+    /**
+     * Writes the content held in the buffer or the end of the compressed
+     * content, and releases the deflater.
+     */
+    void finish() throws IOException {
+        if (writer != null) writer.flush();
+        if (stream != null) stream.finish();
+    }
+
+    private void discard() {
+        if (stream != null && !stream.decided) stream.count = 0;
+    }
+
+    /*
+     * the container writes the response of an error. The content held,
+     * or written afterwards, is dropped.
+     */
+    private void abandon() {
+        if (stream == null) {
+            stream = new CompressingStream(null);
+        }
+        discard();
+        stream.finished = true;
+    }
+
+    private static boolean isContentLength(String name) {
+        return HEADER_CONTENT_LENGTH.equalsIgnoreCase(name);
+    }
+
+    private static boolean isContentEncoding(String name) {
+        return CachedDocument.HEADER_CONTENT_ENCODING.equalsIgnoreCase(name);
+    }
+
+    /**
+     * Holds the content till it reaches the minimum size, then either
+     * writes it as it is or compresses it.
+     */
+    class CompressingStream extends ServletOutputStream {
+        private final ServletOutputStream out;
+        private final byte[] buf;
+        private int count;
+        private boolean decided;
+        private boolean finished;
+        private Deflater deflater;
+        private Checksum checksum;
+        private byte[] output;
+
+        CompressingStream(ServletOutputStream out) {
+            this.out = out;
+            this.buf = new byte[Math.max(minSize, 512)];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte)b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (finished) return;
+            if (!decided) {
+                if (!encoded && count + len < minSize) {
+                    System.arraycopy(b, off, buf, count, len);
+                    count += len;
+                    return;
+                }
+                decide(!encoded);
+            }
+            if (deflater == null) {
+                out.write(b, off, len);
+            } else {
+                deflate(b, off, len, Deflater.NO_FLUSH);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (finished) return;
+            if (!decided) {
+                if (!encoded) return;
+                decide(false);
+            }
+            if (deflater != null) {
+                deflate(buf, 0, 0, Deflater.SYNC_FLUSH);
+            }
+            out.flush();
+        }
+
+        @Override
+        public boolean isReady() {
+            return out.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener listener) {
+            out.setWriteListener(listener);
+        }
+
+        /**
+         * Writes the content as it is or starts to compress it, beginning
+         * with the content held so far.
+         */
+        private void decide(boolean compress) throws IOException {
+            decided = true;
+            byte[] held = buf;
+            int n = count;
+            count = 0;
+            if (!compress) {
+                if (contentLength >= 0) {
+                    CompressingResponse.super.setContentLengthLong(contentLength);
+                }
+                if (n > 0) out.write(held, 0, n);
+                return;
+            }
+            CompressingResponse.super.setHeader(
+                    CachedDocument.HEADER_CONTENT_ENCODING, encoding);
+            deflater = pool.acquire();
+            output = new byte[OUTPUT_SIZE];
+            if (ENCODING_GZIP.equals(encoding)) {
+                checksum = new CRC32();
+                out.write(GZIP_HEADER);
+            } else {
+                checksum = new Adler32();
+                out.write(ZLIB_HEADER);
+            }
+            deflate(held, 0, n, Deflater.NO_FLUSH);
+        }
+
+        /*
+         * compresses the given bytes and writes the compressed bytes
+         * the deflater produces.
+         */
+        private void deflate(byte[] b, int off, int len, int flush)
+                throws IOException {
+            checksum.update(b, off, len);
+            deflater.setInput(b, off, len);
+            int n;
+            if (flush == Deflater.NO_FLUSH) {
+                while (!deflater.needsInput()) {
+                    n = deflater.deflate(output, 0, output.length, flush);
+                    if (n > 0) out.write(output, 0, n);
+                }
+            } else {
+                do {
+                    n = deflater.deflate(output, 0, output.length, flush);
+                    if (n > 0) out.write(output, 0, n);
+                } while (n == output.length);
+            }
+        }
+
+        void finish() throws IOException {
+            if (finished) return;
+            finished = true;
+            if (!decided) {
+                if (contentLength < 0) contentLength = count;
+                decide(false);
+                return;
+            }
+            if (deflater == null) return;
+            try {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(output, 0, output.length);
+                    if (n > 0) out.write(output, 0, n);
+                }
+                long crc = checksum.getValue();
+                if (ENCODING_GZIP.equals(encoding)) {
+                    long size = deflater.getBytesRead();
+                    out.write(new byte[]{
+                        (byte)crc, (byte)(crc >> 8), (byte)(crc >> 16), (byte)(crc >> 24),
+                        (byte)size, (byte)(size >> 8), (byte)(size >> 16), (byte)(size >> 24)});
+                } else {
+                    out.write(new byte[]{
+                        (byte)(crc >> 24), (byte)(crc >> 16), (byte)(crc >> 8), (byte)crc});
+                }
+            } finally {
+                pool.release(deflater);
+                deflater = null;
+            }
+        }
+    }
+}
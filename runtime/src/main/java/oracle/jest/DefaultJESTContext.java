@@ -3,26 +3,37 @@ package oracle.jest;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.metamodel.Metamodel;
+import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 class DefaultJESTContext implements JESTContext {
+    private final ServletConfig servletConfig;
     private final ServletContext servletCtx;
-    private final EntityManagerFactory persistenceUnit;
+    private final PersistenceUnitHolder unit;
     private  EntityManager persistenceCtx;
     private final HttpServletRequest request;
     private final HttpServletResponse response;
+    private final RequestTimer timer = new RequestTimer();
     
     private ResponseTransformer responseTransfomer;
+    private FieldSelection fieldSelection;
+    private RequestPath path;
     
-    public DefaultJESTContext(ServletContext servletCtx, 
-            EntityManagerFactory persistenceUnit, 
+    /**
+     * @param unit the persistence unit of the request. null for a request
+     * that does not use a persistence unit.
+     */
+    public DefaultJESTContext(ServletConfig servletConfig, 
+            PersistenceUnitHolder unit,
             HttpServletRequest request,
             HttpServletResponse response) {
         super();
-        this.servletCtx = servletCtx;
-        this.persistenceUnit = persistenceUnit;
+        this.servletConfig = servletConfig;
+        this.servletCtx = servletConfig == null 
+                ? null : servletConfig.getServletContext();
+        this.unit = unit;
         this.request = request;
         this.response = response;
     }
@@ -32,27 +43,75 @@ class DefaultJESTContext implements JESTContext {
         return servletCtx;
     }
 
+    @Override
+    public String getInitParameter(String name) {
+        return servletConfig == null ? null : servletConfig.getInitParameter(name);
+    }
+
     @Override
     public EntityManagerFactory getPersistenceUnit() {
-        return persistenceUnit;
+        return unit == null ? null : unit.getPersistenceUnit();
     }
 
     @Override
     public EntityManager getPersistenceContext() {
         if (persistenceCtx == null) {
-            persistenceCtx = persistenceUnit.createEntityManager();;
+            timer.enter(RequestTimer.QUERY);
+            PersistenceContextPool pool = unit.getPersistenceContextPool();
+            persistenceCtx = pool == null
+                    ? unit.getPersistenceUnit().createEntityManager()
+                    : pool.acquire();
         }
         return persistenceCtx;
     }
 
+    @Override
+    public void close() {
+        EntityManager em = persistenceCtx;
+        if (em == null) return;
+        persistenceCtx = null;
+        PersistenceContextPool pool = unit.getPersistenceContextPool();
+        if (pool == null) {
+            if (em.isOpen()) em.close();
+        } else {
+            pool.release(em);
+        }
+    }
+
     @Override
     public ResponseTransformer getResponseTransformer() {
         if (responseTransfomer == null) {
-            responseTransfomer = new JSONAPITransformer(this);
+            TransformerRegistry registry = servletCtx == null ? null
+                    : (TransformerRegistry)servletCtx.getAttribute(
+                            RESPONSE_TRANSFORMER);
+            responseTransfomer = registry == null
+                    ? new JSONAPITransformer(this) : registry.create(this);
         }
         return responseTransfomer;
     }
 
+    @Override
+    public FieldSelection getFieldSelection() {
+        if (fieldSelection == null) {
+            fieldSelection = request == null ? FieldSelection.ALL
+                    : FieldSelection.parse(request, getMetamodelIndex());
+        }
+        return fieldSelection;
+    }
+
+    @Override
+    public RequestPath getRequestPath() {
+        if (path == null) {
+            Router router = servletCtx == null ? null
+                    : (Router)servletCtx.getAttribute(ROUTER);
+            String pathInfo = request == null ? null : request.getPathInfo();
+            path = router == null 
+                    ? RequestPath.parse(pathInfo, getMetamodelIndex(), new NameTrie<String>())
+                    : router.parse(pathInfo, getMetamodelIndex());
+        }
+        return path;
+    }
+
     @Override
     public HttpServletRequest getRequest() {
         return request;
@@ -63,9 +122,37 @@ class DefaultJESTContext implements JESTContext {
         return response;
     }
 
+    @Override
+    public RequestTimer getTimer() {
+        return timer;
+    }
+
     @Override
     public Metamodel getPersistenceModel() {
-        return persistenceUnit.getMetamodel();
+        return unit == null ? null : unit.getPersistenceUnit().getMetamodel();
+    }
+
+    @Override
+    public MetamodelIndex getMetamodelIndex() {
+        return unit == null ? null : unit.getMetamodelIndex();
+    }
+
+    @Override
+    public Object getAttribute(String key) {
+        Object value = unit == null ? null : unit.getAttribute(key);
+        if (value == null && servletCtx != null) {
+            value = servletCtx.getAttribute(key);
+        }
+        return value;
+    }
+
+    @Override
+    public void setAttribute(String key, Object value) {
+        if (unit != null) {
+            unit.setAttribute(key, value);
+        } else if (servletCtx != null) {
+            servletCtx.setAttribute(key, value);
+        }
     }
 
 }
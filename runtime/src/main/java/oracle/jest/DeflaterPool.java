@@ -0,0 +1,129 @@
+package oracle.jest;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+/**
+ * Supplies the {@link Deflater deflaters} that compress responses and
+ * accounts for the compression.
+ * <br>
+ * A deflater holds a sizable native buffer which is only released when
+ * the deflater is ended or garbage collected. So a deflater is not
+ * created for each response, but {@link #acquire() acquired} from this
+ * pool and {@link #release(Deflater) released} to it once the response
+ * is complete. At most a fixed number of idle deflaters are kept; the
+ * ones beyond are ended.
+ * <p>
+ * The deflaters write raw deflate data, without header or trailer, so
+ * that the same deflater serves both <code>gzip</code> and
+ * <code>deflate</code> encodings, which differ only in the framing the
+ * {@link CompressingResponse response} writes around the data.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class DeflaterPool {
+    private final int level;
+    private final BlockingQueue<Deflater> idle;
+
+    private final AtomicLong created    = new AtomicLong();
+    private final AtomicLong reused     = new AtomicLong();
+    private final AtomicLong compressed = new AtomicLong();
+    private final AtomicLong bytesIn    = new AtomicLong();
+    private final AtomicLong bytesOut   = new AtomicLong();
+
+    /**
+     * @param level compression level from 0 to 9, or
+     * {@link Deflater#DEFAULT_COMPRESSION}
+     * @param maxIdle number of released deflaters kept for reuse
+     */
+    public DeflaterPool(int level, int maxIdle) {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < 0 || level > 9)) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+        this.level = level;
+        this.idle = new ArrayBlockingQueue<Deflater>(Math.max(1, maxIdle));
+    }
+
+    /**
+     * Gets a deflater ready to compress a new stream.
+     */
+    public Deflater acquire() {
+        Deflater deflater = idle.poll();
+        if (deflater != null) {
+            reused.incrementAndGet();
+            return deflater;
+        }
+        created.incrementAndGet();
+        return new Deflater(level, true);
+    }
+
+    /**
+     * Releases the given deflater acquired from this pool.
+     * The deflater must not be used afterwards.
+     */
+    public void release(Deflater deflater) {
+        compressed.incrementAndGet();
+        bytesIn.addAndGet(deflater.getBytesRead());
+        bytesOut.addAndGet(deflater.getBytesWritten());
+        deflater.reset();
+        if (!idle.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Ends the idle deflaters.
+     */
+    public void close() {
+        Deflater deflater;
+        while ((deflater = idle.poll()) != null) {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Gets the number of deflaters created so far.
+     */
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    /**
+     * Gets the number of acquisitions served by a reused deflater.
+     */
+    public long getReusedCount() {
+        return reused.get();
+    }
+
+    /**
+     * Gets the number of responses compressed so far.
+     */
+    public long getCompressedCount() {
+        return compressed.get();
+    }
+
+    /**
+     * Gets the number of bytes compressed so far.
+     */
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    /**
+     * Gets the number of compressed bytes written so far, without the
+     * framing of the encoding.
+     */
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    @Override
+    public String toString() {
+        return "deflaters created:" + getCreatedCount() + " reused:"
+            + getReusedCount() + " responses compressed:" + getCompressedCount()
+            + " bytes in:" + getBytesIn() + " out:" + getBytesOut();
+    }
+}
@@ -0,0 +1,115 @@
+package oracle.jest;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.metamodel.EntityType;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Exports all instances of an entity type as newline-delimited JSON.
+ * <pre>
+ *    GET /{type}    with Accept: application/x-ndjson
+ * </pre>
+ * Each instance is written as a resource object on a line of its own.
+ * The instances are read in the order of their identity, a chunk of
+ * <code>export-batch-size</code> instances at a time, by seeking past the
+ * last identity of the previous chunk. The persistence context is cleared
+ * after each chunk and the chunk is flushed to the client, so that the
+ * memory used by an export does not depend on the number of instances.
+ * The batch size must be at least 1.
+ * <p>
+ * The queries are given the fetch size hints of common providers, so that
+ * a chunk is fetched from the database in as few round trips as possible.
+ * The <code>fields[type]</code>, <code>filter</code> and <code>sort</code>
+ * parameters select the attributes and instances as they do for a page;
+ * <code>include</code> is not supported.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class ExportCommand extends JESTCommand {
+    static final String INIT_BATCH_SIZE   = "export-batch-size";
+    static final int DEFAULT_BATCH_SIZE   = 1000;
+
+    private static final String[] FETCH_SIZE_HINTS = {
+        "eclipselink.jdbc.fetch-size",
+        "org.hibernate.fetchSize",
+        "openjpa.FetchPlan.FetchBatchSize"
+    };
+
+    public ExportCommand(JESTContext ctx) throws ServletException {
+        super(ctx);
+    }
+
+    /**
+     * Affirms if the given request asks for an export.
+     */
+    static boolean accepts(HttpServletRequest request) {
+        String accept = request.getHeader(JESTContext.HEADER_ACCEPT);
+        return accept != null && accept.contains(JESTContext.MIMETYPE_NDJSON);
+    }
+
+    @Override
+    public void execute() throws ServletException, IOException {
+        HttpServletRequest request = getContext().getRequest();
+        HttpServletResponse response = getContext().getResponse();
+        RequestPath path = getContext().getRequestPath();
+        EntityType<?> eType = path.getEntityType();
+        if (eType == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND,
+                    "Unknown entity type " + path.getTypeName());
+            return;
+        }
+        int batchSize = getInitParameter(INIT_BATCH_SIZE, DEFAULT_BATCH_SIZE);
+        Map<String, Object> hints = new HashMap<String, Object>();
+        KeysetQuery<?> query;
+        try {
+            if (getContext().getFieldSelection().hasIncludes()) {
+                throw new IllegalArgumentException(FieldSelection.PARAM_INCLUDE
+                        + " is not supported for an export");
+            }
+            hints.putAll(getFetchHints(eType));
+            for (String hint : FETCH_SIZE_HINTS) {
+                hints.put(hint, batchSize);
+            }
+            query = newKeysetQuery(eType).setHints(hints);
+        } catch (IllegalArgumentException ex) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, ex.getMessage());
+            return;
+        } catch (UnsupportedOperationException ex) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, ex.getMessage());
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(JESTContext.MIMETYPE_NDJSON);
+        response.setCharacterEncoding("UTF-8");
+        EntityManager em = getContext().getPersistenceContext();
+        JSONAPITransformer transformer = new JSONAPITransformer(getContext());
+        JSONStreamWriter out = new JSONStreamWriter(response.getOutputStream());
+        try {
+            Object[] after = null;
+            RequestTimer timer = getContext().getTimer();
+            for (;;) {
+                timer.enter(RequestTimer.QUERY);
+                List<?> chunk = query.next(after, batchSize);
+                timer.enter(RequestTimer.SERIALIZE);
+                for (Object pc : chunk) {
+                    transformer.writeRecord(pc, out);
+                }
+                if (chunk.size() < batchSize) break;
+                after = query.getKey(chunk.get(chunk.size()-1));
+                em.clear();
+                out.flush();
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
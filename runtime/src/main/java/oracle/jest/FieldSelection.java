@@ -0,0 +1,272 @@
+package oracle.jest;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.persistence.EntityGraph;
+import javax.persistence.EntityManager;
+import javax.persistence.Subgraph;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.SingularAttribute;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * The attributes and related resources a request asks for, as specified
+ * by JSON API <code>fields[type]</code> and <code>include</code>
+ * parameters.
+ * <pre>
+ *    fields[Movie]=title,director   only these attributes of Movie
+ *    include=director,actors        the related resources as well
+ *    include=director.movies        paths of relationships are allowed
+ * </pre>
+ * The selection is validated against the domain model and is used in two
+ * ways. It is translated to an {@link EntityGraph entity graph} given to
+ * the query as <code>javax.persistence.fetchgraph</code>, so that only the
+ * selected attributes and relations are fetched from the database. And
+ * the transformer serializes only the selected attributes and adds the
+ * included resources to the document.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class FieldSelection {
+    public static final String HINT_FETCH_GRAPH = "javax.persistence.fetchgraph";
+    static final String PARAM_FIELDS_PREFIX = "fields[";
+    static final String PARAM_INCLUDE = "include";
+
+    /**
+     * Selects all attributes and includes nothing.
+     */
+    static final FieldSelection ALL = new FieldSelection(
+            Collections.<String, Set<String>>emptyMap(),
+            Collections.<String>emptySet());
+
+    private final Map<String, Set<String>> fields;
+    private final Set<String> includes;
+    private final String key;
+
+    private FieldSelection(Map<String, Set<String>> fields,
+            Set<String> includes) {
+        this.fields = fields;
+        this.includes = includes;
+        // both are sorted, so that the key does not depend on the order
+        // of parameters
+        this.key = fields.isEmpty() && includes.isEmpty() ? ""
+                : fields.toString() + includes;
+    }
+
+    /**
+     * Parses the selection from the parameters of given request.
+     *
+     * @exception IllegalArgumentException if a parameter names a type,
+     * an attribute or a relationship that does not exist.
+     */
+    public static FieldSelection parse(HttpServletRequest request,
+            MetamodelIndex index) {
+        Map<String, Set<String>> fields = new TreeMap<String, Set<String>>();
+        for (Map.Entry<String, String[]> param : request.getParameterMap().entrySet()) {
+            String name = param.getKey();
+            if (!name.startsWith(PARAM_FIELDS_PREFIX) || !name.endsWith("]")) {
+                continue;
+            }
+            String typeName = name.substring(PARAM_FIELDS_PREFIX.length(),
+                    name.length()-1);
+            EntityType<?> type = index.getEntityType(typeName);
+            if (type == null) {
+                throw new IllegalArgumentException("Unknown entity type "
+                        + typeName + " in " + name);
+            }
+            Set<String> attrs = new TreeSet<String>();
+            for (String attr : split(param.getValue()[0])) {
+                if (index.getAttribute(type, attr) == null) {
+                    throw new IllegalArgumentException(typeName
+                            + " has no attribute " + attr);
+                }
+                attrs.add(attr);
+            }
+            fields.put(typeName, attrs);
+        }
+        Set<String> includes = new TreeSet<String>();
+        String include = request.getParameter(PARAM_INCLUDE);
+        if (include != null) {
+            for (String path : split(include)) {
+                if (!path.isEmpty()) includes.add(path);
+            }
+        }
+        if (fields.isEmpty() && includes.isEmpty()) {
+            return ALL;
+        }
+        return new FieldSelection(fields, includes);
+    }
+
+    /**
+     * Affirms if the selection restricts anything at all.
+     */
+    public boolean isSelective() {
+        return this != ALL;
+    }
+
+    /**
+     * Affirms if any related resource is to be included.
+     */
+    public boolean hasIncludes() {
+        return !includes.isEmpty();
+    }
+
+    /**
+     * Gets a key that is equal for equal selections.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Affirms if the given attribute of the given type is selected.
+     * All attributes of a type are selected unless a field set is given
+     * for the type.
+     */
+    public boolean isSelected(EntityType<?> type, Attribute<?, ?> attr) {
+        Set<String> selected = fields.get(type.getName());
+        return selected == null || selected.contains(attr.getName());
+    }
+
+    /**
+     * Gets the relationships to include from the given entity type.
+     *
+     * @exception IllegalArgumentException if an include path does not
+     * name a relationship.
+     */
+    public Include getIncludes(EntityType<?> type, MetamodelIndex index) {
+        Include root = new Include(null, type);
+        for (String path : includes) {
+            Include node = root;
+            for (String segment : path.split("\\.")) {
+                Attribute<?, ?> attr = index.getAttribute(node.type, segment);
+                if (attr == null || !attr.isAssociation()) {
+                    throw new IllegalArgumentException(path + " is not a " +
+                        "relationship path of " + type.getName());
+                }
+                node = node.child(attr, index);
+            }
+        }
+        return root;
+    }
+
+    /**
+     * Gets the query hints to fetch the selected attributes and the
+     * included relationships of the given entity type.
+     *
+     * @return empty if the selection is not selective.
+     */
+    public Map<String, Object> getHints(EntityManager em, EntityType<?> type,
+            MetamodelIndex index) {
+        if (!isSelective()) return Collections.emptyMap();
+        return Collections.<String, Object>singletonMap(HINT_FETCH_GRAPH,
+                toEntityGraph(em, type, index));
+    }
+
+    /**
+     * Creates an entity graph to fetch the selected attributes and the
+     * included relationships of given type.
+     */
+    public <X> EntityGraph<X> toEntityGraph(EntityManager em,
+            EntityType<X> type, MetamodelIndex index) {
+        EntityGraph<X> graph = em.createEntityGraph(type.getJavaType());
+        Include includes = getIncludes(type, index);
+        for (Attribute<?, ?> attr : index.getAttributes(type)) {
+            if (isFetched(type, attr, includes)) {
+                graph.addAttributeNodes(attr.getName());
+            }
+        }
+        for (Include child : includes.children.values()) {
+            addSubgraph(graph.addSubgraph(child.attribute.getName()), child, index);
+        }
+        return graph;
+    }
+
+    private void addSubgraph(Subgraph<?> graph, Include node, MetamodelIndex index) {
+        for (Attribute<?, ?> attr : index.getAttributes(node.type)) {
+            if (isFetched(node.type, attr, node)) {
+                graph.addAttributeNodes(attr.getName());
+            }
+        }
+        for (Include child : node.children.values()) {
+            addSubgraph(graph.addSubgraph(child.attribute.getName()), child, index);
+        }
+    }
+
+    /**
+     * Affirms if the given attribute is fetched as a plain attribute node,
+     * i.e. it is selected, it is not the identity which is always fetched,
+     * and it is not included which is fetched as a subgraph.
+     */
+    private boolean isFetched(EntityType<?> type, Attribute<?, ?> attr, Include node) {
+        if (attr instanceof SingularAttribute
+         && ((SingularAttribute<?, ?>)attr).isId()) {
+            return false;
+        }
+        return !node.children.containsKey(attr.getName())
+            && isSelected(type, attr);
+    }
+
+    private static String[] split(String s) {
+        String[] parts = s.split(",");
+        for (int i = 0; i < parts.length; i++) parts[i] = parts[i].trim();
+        return parts;
+    }
+
+    /**
+     * A node in the tree of relationships to include.
+     */
+    public static class Include {
+        private final Attribute<?, ?> attribute;
+        private final EntityType<?> type;
+        private final Map<String, Include> children =
+                new LinkedHashMap<String, Include>();
+
+        Include(Attribute<?, ?> attribute, EntityType<?> type) {
+            this.attribute = attribute;
+            this.type = type;
+        }
+
+        Include child(Attribute<?, ?> attr, MetamodelIndex index) {
+            Include child = children.get(attr.getName());
+            if (child == null) {
+                ManagedType<?> target = index.getTargetType(attr);
+                child = new Include(attr, (EntityType<?>)target);
+                children.put(attr.getName(), child);
+            }
+            return child;
+        }
+
+        /**
+         * The relationship attribute this node includes. null for the root.
+         */
+        public Attribute<?, ?> getAttribute() {
+            return attribute;
+        }
+
+        public Iterable<Include> getChildren() {
+            return children.values();
+        }
+
+        /**
+         * Gets the node that includes the relationship of given name.
+         *
+         * @return null if the relationship is not included.
+         */
+        public Include getChild(String name) {
+            return children.get(name);
+        }
+
+        public boolean isEmpty() {
+            return children.isEmpty();
+        }
+    }
+}
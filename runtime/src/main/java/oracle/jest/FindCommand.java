@@ -1,20 +1,69 @@
 package oracle.jest;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.net.URLEncoder;
+import java.util.List;
+import java.util.Map;
 
 import javax.persistence.EntityManager;
-import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.Query;
+import javax.persistence.metamodel.Attribute;
 import javax.persistence.metamodel.EntityType;
-import javax.servlet.ServletContext;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.SingularAttribute;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.json.JSONObject;
-
+/**
+ * Finds persistent instances.
+ * <pre>
+ *    /{type}/{id}/[field]...  an instance of given type and identity,
+ *                             or the value reached by navigating the
+ *                             given fields from that instance
+ *
+ *    /{type}                  a page of instances of given type.
+ *                             The page is controlled by parameters
+ *       page[size]            maximum number of instances in a page
+ *       page[after]           identity of the last instance of
+ *                             previous page
+ *       filter[path][op]=v    only the instances whose value at path
+ *                             compares to v, see {@link QuerySpec}
+ *       sort=path,-path       order of the instances
+ *
+ *    fields[{type}]=a,b       only the given attributes of a type
+ *    include=r,r.s            related resources to include as well
+ * </pre>
+ * Instances in a collection are ordered as sorted and then by their
+ * identity, and the response carries a <code>next</code> link to the
+ * following page.
+ * <br>
+ * The selected attributes and relations are fetched with an entity graph
+ * so that the unselected ones are not loaded from the database.
+ * <br>
+ * The document of a single instance is served from the {@link ResponseCache
+ * response cache}, if the servlet is configured with one.
+ * <br>
+ * An instance of a type with a version attribute is tagged with a weak
+ * entity tag of its type, identity and version. A request that names a
+ * tag in its <code>If-None-Match</code> header reads only the version of
+ * the instance, and is answered <code>304 Not Modified</code> if the tag
+ * is current, without the instance being loaded or transformed. A
+ * document that selects a relationship mapped by the other side is not
+ * tagged, because the relationship changes without the version.
+ *
+ * @author pinaki poddar
+ *
+ */
 public class FindCommand extends JESTCommand {
+    static final String PARAM_PAGE_SIZE  = "page[size]";
+    static final String PARAM_PAGE_AFTER = "page[after]";
+    static final int DEFAULT_PAGE_SIZE = 20;
+    static final int MAX_PAGE_SIZE     = 1000;
+    static final String PARAM_ID       = "id";
 
-    public FindCommand(JESTContext ctx) 
+    public FindCommand(JESTContext ctx)
         throws ServletException {
         super(ctx);
     }
@@ -23,46 +72,283 @@ public class FindCommand extends JESTCommand {
     @Override
     public void execute() throws ServletException,IOException {
         HttpServletRequest request = getContext().getRequest();
-        String[] splats = request.getPathInfo().split("/");
-        String entityTypeName = splats[0];
+        HttpServletResponse response = getContext().getResponse();
+        RequestPath path = getContext().getRequestPath();
+        int segments = path.getSegmentCount();
+        EntityType<?> eType = path.getEntityType();
+        if (eType == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND,
+                    "Unknown entity type " + path.getTypeName());
+            return;
+        }
+        FieldSelection selection;
+        Object id = null;
+        ResponseCache cache = null;
+        SingularAttribute<?, ?> version = null;
+        try {
+            selection = getContext().getFieldSelection();
+            if (segments > 2 && selection.hasIncludes()) {
+                throw new IllegalArgumentException(FieldSelection.PARAM_INCLUDE
+                        + " is not supported for a navigated value");
+            }
+            if (segments > 1) {
+                id = toId(eType, path.getId());
+            }
+            // a document with included resources is not cached, as it
+            // would not be invalidated when an included resource changes
+            if (segments == 2 && !selection.hasIncludes()) {
+                cache = getContextAttribute(JESTContext.RESPONSE_CACHE,
+                        ResponseCache.class);
+                if (eType.hasSingleIdAttribute()
+                 && !selectsInverse(eType, selection)) {
+                    version = getContext().getMetamodelIndex()
+                            .getVersionAttribute(eType);
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                    ex.getMessage());
+            return;
+        }
+        String key = null;
+        long stamp = 0;
+        if (cache != null) {
+            key = cache.key(eType, id, selection,
+                    getContext().getResponseTransformer().getMimeType());
+            CachedDocument document = cache.get(key);
+            if (document != null) {
+                document.writeTo(request, response);
+                return;
+            }
+            stamp = cache.getStamp(eType, id);
+        }
+        String ifNoneMatch = request.getHeader(CachedDocument.HEADER_IF_NONE_MATCH);
+        if (version != null && ifNoneMatch != null) {
+            Object current = findVersion(eType, version, id);
+            if (current != null) {
+                String tag = versionTag(eType, id, current, selection);
+                if (CachedDocument.matches(ifNoneMatch, tag)) {
+                    // added to the Accept-Encoding the servlet may vary by
+                    response.addHeader(CachedDocument.HEADER_VARY,
+                            JESTContext.HEADER_ACCEPT);
+                    response.setHeader(CachedDocument.HEADER_ETAG, tag);
+                    response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    return;
+                }
+            }
+        }
+
         EntityManager em = getContext().getPersistenceContext();
-        EntityType<?> eType = resolveTypeByName(entityTypeName);
+        Map<String, Object> hints;
+        try {
+            hints = getFetchHints(eType);
+        } catch (IllegalArgumentException ex) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                    ex.getMessage());
+            return;
+        }
         Object pObject = null;
-        if (splats.length > 1) {
-            Object id = convert(splats[1], eType.getIdType().getJavaType());
-            pObject = em.find(eType.getJavaType(), id);
-            for (int i = 2; i < splats.length; i++) {
-                pObject = Reflection.getValue(pObject, splats[i]);
-                
+        if (segments > 1) {
+            pObject = em.find(eType.getJavaType(), id, hints);
+            for (int i = 2; i < segments && pObject != null; i++) {
+                try {
+                    pObject = navigate(pObject, path.getSegment(i));
+                } catch (IllegalArgumentException ex) {
+                    response.sendError(HttpServletResponse.SC_NOT_FOUND,
+                            ex.getMessage());
+                    return;
+                }
             }
         } else {
-            CriteriaQuery<?> q = em.getCriteriaBuilder().createQuery();
-            q.from(eType);
-            em.createQuery(q).getResultList();
+            pObject = findPage(eType, hints);
+            if (pObject == null) return;
         }
 
 
-        HttpServletResponse response = getContext().getResponse();
+        String tag = null;
+        if (version != null && pObject != null) {
+            tag = versionTag(eType, id, Reflection.getValue(pObject, version),
+                    selection);
+        }
         if (pObject == null) {
             response.setStatus(404);
+        } else if (cache != null) {
+            ResponseTransformer transformer = getContext().getResponseTransformer();
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            transformer.transform(pObject, buf);
+            CachedDocument document = new CachedDocument(
+                    transformer.getMimeType(), buf.toByteArray(), tag);
+            cache.put(eType, id, key, document, stamp);
+            document.writeTo(request, response);
         } else {
             ResponseTransformer transfomer = getContext().getResponseTransformer();
-            
-            transfomer.transform(pObject, response);
+
+            if (tag != null) {
+                response.addHeader(CachedDocument.HEADER_VARY,
+                        JESTContext.HEADER_ACCEPT);
+                response.setHeader(CachedDocument.HEADER_ETAG, tag);
+            }
             response.setStatus(200);
+            transfomer.transform(pObject, response);
+        }
+
+    }
+
+    /**
+     * Reads only the version of the instance of the given type and
+     * identity. The query is registered by its type to the {@link
+     * QueryRegistry registry}, if any, so that it is prepared once.
+     *
+     * @return null if no such instance exists
+     */
+    Object findVersion(EntityType<?> eType, SingularAttribute<?, ?> version,
+            Object id) {
+        EntityManager em = getContext().getPersistenceContext();
+        QueryRegistry registry = getContextAttribute(JESTContext.QUERY_REGISTRY,
+                QueryRegistry.class);
+        String shape = eType.getName() + '#' + version.getName();
+        String name = registry == null ? null : registry.getName(shape);
+        Query query;
+        if (name != null) {
+            query = em.createNamedQuery(name);
+        } else {
+            query = em.createQuery("SELECT e." + version.getName() + " FROM "
+                    + eType.getName() + " e WHERE e."
+                    + MetamodelIndex.getIdAttribute(eType).getName()
+                    + " = :" + PARAM_ID);
+            if (registry != null) {
+                registry.register(shape, query);
+            }
+        }
+        List<?> result = query.setParameter(PARAM_ID, id).getResultList();
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    /**
+     * Affirms if the selection selects a relationship of the given type that
+     * is mapped by the other side. Its linkage can change without a change
+     * of the version, so the version does not tag a document that has it.
+     */
+    boolean selectsInverse(EntityType<?> eType, FieldSelection selection) {
+        for (Attribute<?, ?> attr : getContext().getMetamodelIndex()
+                .getInverseAssociations(eType)) {
+            if (selection.isSelected(eType, attr)) return true;
         }
+        return false;
+    }
 
+    /**
+     * Gets the weak entity tag of the given version of an instance. The
+     * tag is of the representation as well, i.e. the selected fields and
+     * the mime type, as each is a different document of the instance.
+     */
+    String versionTag(EntityType<?> eType, Object id, Object version,
+            FieldSelection selection) {
+        return CachedDocument.weakTag(eType.getName() + '/' + formatId(eType, id)
+                + '/' + version + '?' + selection.getKey() + ';'
+                + getContext().getResponseTransformer().getMimeType());
     }
 
+    /**
+     * Gets the value of the named property of the given object. The
+     * property of a managed instance is resolved as a persistent
+     * attribute through the metamodel index.
+     *
+     * @exception IllegalArgumentException if the object has no such
+     * property
+     */
+    Object navigate(Object pObject, String property) {
+        MetamodelIndex index = getContext().getMetamodelIndex();
+        ManagedType<?> type = index.getEntityType(pObject.getClass());
+        if (type == null) {
+            type = index.getEmbeddableType(pObject.getClass());
+        }
+        if (type == null) {
+            return Reflection.getValue(pObject, property);
+        }
+        Attribute<?, ?> attr = index.getAttribute(type, property);
+        if (attr == null) {
+            throw new IllegalArgumentException(index.getTypeName(type)
+                    + " has no attribute " + property);
+        }
+        return Reflection.getValue(pObject, attr);
+    }
 
-    Object convert(String data, Class<?> targetType) {
-        if (targetType == String.class) {
-            return data;
-        } else if (targetType == int.class || targetType == Integer.class) {
-            return Integer.parseInt(data);
-        } else if (targetType == double.class || targetType == Double.class) {
-            return Double.parseDouble(data);
+    /**
+     * Finds a page of instances of the given type as specified by the
+     * paging parameters of the request.
+     *
+     * @param hints given to the query
+     *
+     * @return null if the parameters are invalid, in which case an error
+     * has been sent.
+     */
+    Page findPage(EntityType<?> eType, Map<String, Object> hints)
+            throws IOException {
+        HttpServletRequest request = getContext().getRequest();
+        HttpServletResponse response = getContext().getResponse();
+        int size = DEFAULT_PAGE_SIZE;
+        Object after = null;
+        KeysetQuery<?> query;
+        Object[] key = null;
+        try {
+            String sizeParam = request.getParameter(PARAM_PAGE_SIZE);
+            if (sizeParam != null) {
+                size = Integer.parseInt(sizeParam);
+                if (size < 1 || size > MAX_PAGE_SIZE) {
+                    throw new IllegalArgumentException(PARAM_PAGE_SIZE
+                            + " must be between 1 and " + MAX_PAGE_SIZE);
+                }
+            }
+            query = newKeysetQuery(eType).setHints(hints);
+            String afterParam = request.getParameter(PARAM_PAGE_AFTER);
+            if (afterParam != null) {
+                after = toId(eType, afterParam);
+                key = query.getKeyOf(after);
+            }
+        } catch (IllegalArgumentException ex) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                    ex.getMessage());
+            return null;
+        } catch (UnsupportedOperationException ex) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                    ex.getMessage());
+            return null;
+        }
+        // one more than the page size tells whether there is a next page
+        List<?> items = query.next(key, size+1);
+        String next = null;
+        if (items.size() > size) {
+            items = items.subList(0, size);
+            next = pageLink(size, formatId(eType, query.getId(items.get(size-1))));
+        }
+        return new Page(items, pageLink(size, formatId(eType, after)), next);
+    }
+
+    /**
+     * Gets the link to a page. The link carries the parameters of the
+     * request other than paging, such as the selected fields, so that
+     * every page has the same shape.
+     */
+    String pageLink(int size, String after) throws IOException {
+        HttpServletRequest request = getContext().getRequest();
+        StringBuilder link = new StringBuilder()
+            .append(request.getRequestURL())
+            .append('?').append(PARAM_PAGE_SIZE).append('=').append(size);
+        if (after != null) {
+            link.append('&').append(PARAM_PAGE_AFTER).append('=')
+                .append(URLEncoder.encode(after, "UTF-8"));
+        }
+        for (Map.Entry<String, String[]> param : request.getParameterMap().entrySet()) {
+            String name = param.getKey();
+            if (PARAM_PAGE_SIZE.equals(name) || PARAM_PAGE_AFTER.equals(name)) {
+                continue;
+            }
+            for (String value : param.getValue()) {
+                link.append('&').append(URLEncoder.encode(name, "UTF-8"))
+                    .append('=').append(URLEncoder.encode(value, "UTF-8"));
+            }
         }
-        return data;
+        return link.toString();
     }
 }
@@ -0,0 +1,568 @@
+package oracle.jest;
+
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Convert;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EmbeddableType;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.SingularAttribute;
+import javax.persistence.metamodel.Type.PersistenceType;
+
+/**
+ * Converts the identity of an entity type to and from the string that
+ * identifies a resource in a path or in a document.
+ * <br>
+ * A converter is computed once for an entity type from its identity
+ * type, when the {@link MetamodelIndex index} of the persistence unit is
+ * built, so that converting an identity of a request neither inspects
+ * the type nor looks up a method reflectively.
+ * <p>
+ * An identity of a basic type is the string form of its value, such as
+ * <code>42</code>, <code>2016-03-01</code> for a date or an ISO instant
+ * for a <code>java.util.Date</code>. A type other than the basic types
+ * of JPA is converted by its static <code>valueOf</code>,
+ * <code>fromString</code> or <code>parse</code> method or its constructor
+ * of a string. An identity attribute with an {@link Convert attribute
+ * converter} is converted from the string form of its database value.
+ * <p>
+ * A composite identity, of an {@link javax.persistence.IdClass id class}
+ * or an {@link javax.persistence.EmbeddedId embedded id}, is the values
+ * of its attributes in the order they are declared in the identity class,
+ * separated by <code>~</code>, such as <code>US~1999</code>. A
+ * <code>~</code> or a <code>%</code> within a value is escaped as
+ * <code>%7E</code> or <code>%25</code>.
+ *
+ * @author pinaki poddar
+ *
+ */
+public abstract class IdConverter {
+    public static final char SEPARATOR = '~';
+    private static final char ESCAPE   = '%';
+
+    private static final int STRING          = 1;
+    private static final int INTEGER         = 2;
+    private static final int LONG            = 3;
+    private static final int SHORT           = 4;
+    private static final int BYTE            = 5;
+    private static final int DOUBLE          = 6;
+    private static final int FLOAT           = 7;
+    private static final int BIG_INTEGER     = 8;
+    private static final int BIG_DECIMAL     = 9;
+    private static final int CHARACTER       = 10;
+    private static final int BOOLEAN         = 11;
+    private static final int UUID            = 12;
+    private static final int DATE            = 13;
+    private static final int SQL_DATE        = 14;
+    private static final int SQL_TIME        = 15;
+    private static final int SQL_TIMESTAMP   = 16;
+    private static final int LOCAL_DATE      = 17;
+    private static final int LOCAL_TIME      = 18;
+    private static final int LOCAL_DATE_TIME = 19;
+    private static final int INSTANT         = 20;
+    private static final int ENUM            = 21;
+
+    private static final Map<Class<?>, Integer> KINDS = new HashMap<Class<?>, Integer>();
+    static {
+        KINDS.put(String.class,                  STRING);
+        KINDS.put(Integer.class,                 INTEGER);
+        KINDS.put(Long.class,                    LONG);
+        KINDS.put(Short.class,                   SHORT);
+        KINDS.put(Byte.class,                    BYTE);
+        KINDS.put(Double.class,                  DOUBLE);
+        KINDS.put(Float.class,                   FLOAT);
+        KINDS.put(BigInteger.class,              BIG_INTEGER);
+        KINDS.put(BigDecimal.class,              BIG_DECIMAL);
+        KINDS.put(Character.class,               CHARACTER);
+        KINDS.put(Boolean.class,                 BOOLEAN);
+        KINDS.put(java.util.UUID.class,          UUID);
+        KINDS.put(java.util.Date.class,          DATE);
+        KINDS.put(java.sql.Date.class,           SQL_DATE);
+        KINDS.put(java.sql.Time.class,           SQL_TIME);
+        KINDS.put(java.sql.Timestamp.class,      SQL_TIMESTAMP);
+        KINDS.put(java.time.LocalDate.class,     LOCAL_DATE);
+        KINDS.put(java.time.LocalTime.class,     LOCAL_TIME);
+        KINDS.put(java.time.LocalDateTime.class, LOCAL_DATE_TIME);
+        KINDS.put(java.time.Instant.class,       INSTANT);
+    }
+
+    private static final String[] FACTORY_METHODS = {"valueOf", "fromString", "parse"};
+
+    /**
+     * Gets the type of the identity this converter converts.
+     */
+    public abstract Class<?> getType();
+
+    /**
+     * Converts the given string to an identity.
+     *
+     * @exception IllegalArgumentException if the string is not an
+     * identity of the type
+     */
+    public abstract Object parse(String s);
+
+    /**
+     * Converts the given identity to its string.
+     */
+    public abstract String format(Object id);
+
+    /**
+     * Creates the converter for the identity of the given entity type.
+     * A converter is always created. The converter of an identity that
+     * can not be converted fails to {@link #parse(String) parse}.
+     */
+    public static IdConverter of(EntityType<?> type) {
+        Class<?> idType = type.getIdType() == null
+                ? null : type.getIdType().getJavaType();
+        if (!type.hasSingleIdAttribute()) {
+            Map<String, Member> members = new HashMap<String, Member>();
+            for (SingularAttribute<?, ?> attr : type.getIdClassAttributes()) {
+                members.put(attr.getName(), attr.getJavaMember());
+            }
+            if (idType == null) {
+                return new Unsupported(Object.class, type.getName()
+                        + " has a composite identity without an identity class");
+            }
+            List<PropertyAccessor> components = new ArrayList<PropertyAccessor>();
+            List<IdConverter> converters = new ArrayList<IdConverter>();
+            for (String name : inDeclarationOrder(idType, members.keySet())) {
+                PropertyAccessor accessor = PropertyAccessor.of(idType, name);
+                components.add(accessor);
+                converters.add(of(accessor.getType(), members.get(name)));
+            }
+            return new Composite(idType, components, converters);
+        }
+        SingularAttribute<?, ?> id = MetamodelIndex.getIdAttribute(type);
+        if (id.getType().getPersistenceType() == PersistenceType.EMBEDDABLE) {
+            EmbeddableType<?> embeddable = (EmbeddableType<?>)id.getType();
+            Map<String, Attribute<?, ?>> attrs = new HashMap<String, Attribute<?, ?>>();
+            for (Attribute<?, ?> attr : embeddable.getAttributes()) {
+                attrs.put(attr.getName(), attr);
+            }
+            List<PropertyAccessor> components = new ArrayList<PropertyAccessor>();
+            List<IdConverter> converters = new ArrayList<IdConverter>();
+            for (String name : inDeclarationOrder(idType, attrs.keySet())) {
+                Attribute<?, ?> attr = attrs.get(name);
+                components.add(PropertyAccessor.of(attr));
+                converters.add(of(attr.getJavaType(), attr.getJavaMember()));
+            }
+            return new Composite(idType, components, converters);
+        }
+        return of(idType, id.getJavaMember());
+    }
+
+    /**
+     * Creates the converter for a value of the given type, held by the
+     * given member, which may carry an attribute converter.
+     */
+    static IdConverter of(Class<?> type, Member member) {
+        if (member instanceof AnnotatedElement) {
+            Convert convert = ((AnnotatedElement)member).getAnnotation(Convert.class);
+            if (convert != null && !convert.disableConversion()
+             && convert.converter() != void.class
+             && AttributeConverter.class.isAssignableFrom(convert.converter())) {
+                try {
+                    return new Converted(type, convert.converter());
+                } catch (RuntimeException ex) {
+                    return new Unsupported(type, ex.getMessage());
+                }
+            }
+        }
+        return of(type);
+    }
+
+    /**
+     * Creates the converter for a value of the given type.
+     */
+    public static IdConverter of(Class<?> type) {
+        Class<?> cls = Reflection.toWrapper(type);
+        Integer kind = KINDS.get(cls);
+        if (kind != null) {
+            return new Basic(cls, kind);
+        }
+        if (cls.isEnum()) {
+            return new Basic(cls, ENUM);
+        }
+        for (String name : FACTORY_METHODS) {
+            try {
+                Method m = cls.getMethod(name, String.class);
+                if (Modifier.isStatic(m.getModifiers()) && cls.isAssignableFrom(m.getReturnType())) {
+                    return new Factory(cls, m, null);
+                }
+            } catch (NoSuchMethodException ex) {
+                // try the next
+            }
+        }
+        try {
+            return new Factory(cls, null, cls.getConstructor(String.class));
+        } catch (NoSuchMethodException ex) {
+            return new Unsupported(cls, "Can not convert a string to " + cls.getName());
+        }
+    }
+
+    /**
+     * Splits the given string at the separators, and unescapes the parts.
+     */
+    static String[] split(String s, int n) {
+        String[] parts = new String[n];
+        int start = 0;
+        for (int i = 0; i < n; i++) {
+            int end = i == n-1 ? s.length() : s.indexOf(SEPARATOR, start);
+            if (end < 0 || (i == n-1 && s.indexOf(SEPARATOR, start) >= 0)) {
+                throw new IllegalArgumentException("Identity " + s + " is not "
+                    + n + " values separated by " + SEPARATOR);
+            }
+            parts[i] = unescape(s.substring(start, end));
+            start = end + 1;
+        }
+        return parts;
+    }
+
+    static String escape(String s) {
+        if (s.indexOf(SEPARATOR) < 0 && s.indexOf(ESCAPE) < 0) return s;
+        StringBuilder buf = new StringBuilder(s.length() + 8);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == SEPARATOR || c == ESCAPE) {
+                buf.append(ESCAPE).append(Character.toUpperCase(
+                        Character.forDigit(c >> 4, 16)))
+                   .append(Character.toUpperCase(Character.forDigit(c & 0xF, 16)));
+            } else {
+                buf.append(c);
+            }
+        }
+        return buf.toString();
+    }
+
+    static String unescape(String s) {
+        if (s.indexOf(ESCAPE) < 0) return s;
+        StringBuilder buf = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == ESCAPE) {
+                int hi = i+2 < s.length() ? Character.digit(s.charAt(i+1), 16) : -1;
+                int lo = hi < 0 ? -1 : Character.digit(s.charAt(i+2), 16);
+                if (lo < 0) {
+                    throw new IllegalArgumentException("Invalid escape in " + s);
+                }
+                buf.append((char)((hi << 4) | lo));
+                i += 2;
+            } else {
+                buf.append(c);
+            }
+        }
+        return buf.toString();
+    }
+
+    /*
+     * the given names in the order their fields are declared, the fields
+     * of a superclass first. A name without a field, as for an identity
+     * class accessed by property, follows in alphabetic order.
+     */
+    private static List<String> inDeclarationOrder(Class<?> cls, Set<String> names) {
+        LinkedList<Class<?>> hierarchy = new LinkedList<Class<?>>();
+        for (Class<?> c = cls; c != null && c != Object.class; c = c.getSuperclass()) {
+            hierarchy.addFirst(c);
+        }
+        List<String> ordered = new ArrayList<String>();
+        for (Class<?> c : hierarchy) {
+            for (Field f : c.getDeclaredFields()) {
+                if (names.contains(f.getName()) && !ordered.contains(f.getName())) {
+                    ordered.add(f.getName());
+                }
+            }
+        }
+        Set<String> rest = new TreeSet<String>(names);
+        rest.removeAll(ordered);
+        ordered.addAll(rest);
+        return Collections.unmodifiableList(ordered);
+    }
+
+    /**
+     * Converts a value of a basic type.
+     */
+    static class Basic extends IdConverter {
+        private final Class<?> type;
+        private final int kind;
+
+        Basic(Class<?> type, int kind) {
+            this.type = type;
+            this.kind = kind;
+        }
+
+        @Override
+        public Class<?> getType() {
+            return type;
+        }
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        @Override
+        public Object parse(String s) {
+            try {
+                switch (kind) {
+                case STRING:          return s;
+                case INTEGER:         return Integer.valueOf(s);
+                case LONG:            return Long.valueOf(s);
+                case SHORT:           return Short.valueOf(s);
+                case BYTE:            return Byte.valueOf(s);
+                case DOUBLE:          return Double.valueOf(s);
+                case FLOAT:           return Float.valueOf(s);
+                case BIG_INTEGER:     return new BigInteger(s);
+                case BIG_DECIMAL:     return new BigDecimal(s);
+                case UUID:            return java.util.UUID.fromString(s);
+                case SQL_DATE:        return java.sql.Date.valueOf(s);
+                case SQL_TIME:        return java.sql.Time.valueOf(s);
+                case SQL_TIMESTAMP:   return java.sql.Timestamp.valueOf(s);
+                case DATE:            return java.util.Date.from(java.time.Instant.parse(s));
+                case LOCAL_DATE:      return java.time.LocalDate.parse(s);
+                case LOCAL_TIME:      return java.time.LocalTime.parse(s);
+                case LOCAL_DATE_TIME: return java.time.LocalDateTime.parse(s);
+                case INSTANT:         return java.time.Instant.parse(s);
+                case ENUM:            return Enum.valueOf((Class<Enum>)type, s);
+                case CHARACTER:
+                    if (s.length() != 1) break;
+                    return s.charAt(0);
+                case BOOLEAN:
+                    if ("true".equals(s))  return Boolean.TRUE;
+                    if ("false".equals(s)) return Boolean.FALSE;
+                    break;
+                default:
+                    break;
+                }
+            } catch (IllegalArgumentException ex) {
+                throw invalid(s, ex);
+            } catch (java.time.DateTimeException ex) {
+                throw invalid(s, ex);
+            }
+            throw invalid(s, null);
+        }
+
+        @Override
+        public String format(Object id) {
+            if (id == null) return null;
+            switch (kind) {
+            case DATE:
+                // a provider may hold a java.sql.Timestamp for a Date
+                return java.time.Instant.ofEpochMilli(
+                        ((java.util.Date)id).getTime()).toString();
+            case ENUM:
+                return ((Enum<?>)id).name();
+            default:
+                return id.toString();
+            }
+        }
+
+        private IllegalArgumentException invalid(String s, RuntimeException ex) {
+            return new IllegalArgumentException(s + " is not a valid "
+                    + type.getSimpleName()
+                    + (ex == null || ex.getMessage() == null ? "" : ": " + ex.getMessage()));
+        }
+    }
+
+    /**
+     * Converts a value by a static factory method or a constructor of a
+     * string, and to a string by its <code>toString()</code>.
+     */
+    static class Factory extends IdConverter {
+        private final Class<?> type;
+        private final Method method;
+        private final Constructor<?> constructor;
+
+        Factory(Class<?> type, Method method, Constructor<?> constructor) {
+            this.type = type;
+            this.method = method;
+            this.constructor = constructor;
+        }
+
+        @Override
+        public Class<?> getType() {
+            return type;
+        }
+
+        @Override
+        public Object parse(String s) {
+            try {
+                return method != null ? method.invoke(null, s) : constructor.newInstance(s);
+            } catch (Exception ex) {
+                Throwable cause = ex.getCause() == null ? ex : ex.getCause();
+                throw new IllegalArgumentException(s + " is not a valid "
+                        + type.getSimpleName() + ": " + cause.getMessage());
+            }
+        }
+
+        @Override
+        public String format(Object id) {
+            return id == null ? null : id.toString();
+        }
+    }
+
+    /**
+     * Converts a value by an {@link AttributeConverter attribute converter}
+     * from and to the string of its database value.
+     */
+    static class Converted extends IdConverter {
+        private final Class<?> type;
+        private final AttributeConverter<Object, Object> converter;
+        private final IdConverter column;
+
+        @SuppressWarnings("unchecked")
+        Converted(Class<?> type, Class<?> converterClass) {
+            this.type = type;
+            try {
+                Constructor<?> c = converterClass.getDeclaredConstructor();
+                if (!c.isAccessible()) c.setAccessible(true);
+                this.converter = (AttributeConverter<Object, Object>)c.newInstance();
+            } catch (Exception ex) {
+                throw new RuntimeException("Can not create attribute converter "
+                        + converterClass.getName(), ex);
+            }
+            this.column = of(getColumnType(converterClass));
+        }
+
+        @Override
+        public Class<?> getType() {
+            return type;
+        }
+
+        @Override
+        public Object parse(String s) {
+            Object value = column.parse(s);
+            try {
+                return converter.convertToEntityAttribute(value);
+            } catch (RuntimeException ex) {
+                throw new IllegalArgumentException(s + " is not a valid "
+                        + type.getSimpleName() + ": " + ex.getMessage());
+            }
+        }
+
+        @Override
+        public String format(Object id) {
+            return id == null ? null : column.format(converter.convertToDatabaseColumn(id));
+        }
+
+        /*
+         * the database type Y of the AttributeConverter<X,Y> the given
+         * class implements, or String if it can not be resolved.
+         */
+        private static Class<?> getColumnType(Class<?> cls) {
+            for (Class<?> c = cls; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Type t : c.getGenericInterfaces()) {
+                    if (t instanceof ParameterizedType
+                     && ((ParameterizedType)t).getRawType() == AttributeConverter.class) {
+                        Type y = ((ParameterizedType)t).getActualTypeArguments()[1];
+                        if (y instanceof Class) return (Class<?>)y;
+                    }
+                }
+            }
+            return String.class;
+        }
+    }
+
+    /**
+     * Converts a composite identity from and to the values of its
+     * attributes.
+     */
+    static class Composite extends IdConverter {
+        private final Class<?> type;
+        private final Constructor<?> constructor;
+        private final PropertyAccessor[] components;
+        private final IdConverter[] converters;
+
+        Composite(Class<?> type, List<PropertyAccessor> components,
+                List<IdConverter> converters) {
+            this.type = type;
+            this.components = components.toArray(new PropertyAccessor[components.size()]);
+            this.converters = converters.toArray(new IdConverter[converters.size()]);
+            Constructor<?> c = null;
+            try {
+                c = type.getDeclaredConstructor();
+                if (!c.isAccessible()) c.setAccessible(true);
+            } catch (NoSuchMethodException ex) {
+                // can not parse, but can format
+            }
+            this.constructor = c;
+        }
+
+        @Override
+        public Class<?> getType() {
+            return type;
+        }
+
+        @Override
+        public Object parse(String s) {
+            if (constructor == null) {
+                throw new IllegalArgumentException(type.getName()
+                        + " has no constructor without argument");
+            }
+            String[] parts = split(s, components.length);
+            Object id;
+            try {
+                id = constructor.newInstance();
+            } catch (Exception ex) {
+                throw new RuntimeException("Can not create " + type.getName(), ex);
+            }
+            for (int i = 0; i < parts.length; i++) {
+                components[i].set(id, converters[i].parse(parts[i]));
+            }
+            return id;
+        }
+
+        @Override
+        public String format(Object id) {
+            if (id == null) return null;
+            StringBuilder buf = new StringBuilder();
+            for (int i = 0; i < components.length; i++) {
+                if (i > 0) buf.append(SEPARATOR);
+                String part = converters[i].format(components[i].get(id));
+                buf.append(escape(String.valueOf(part)));
+            }
+            return buf.toString();
+        }
+    }
+
+    /**
+     * Refuses to convert a type that has no conversion from a string.
+     */
+    static class Unsupported extends IdConverter {
+        private final Class<?> type;
+        private final String reason;
+
+        Unsupported(Class<?> type, String reason) {
+            this.type = type;
+            this.reason = reason;
+        }
+
+        @Override
+        public Class<?> getType() {
+            return type;
+        }
+
+        @Override
+        public Object parse(String s) {
+            throw new IllegalArgumentException(reason);
+        }
+
+        @Override
+        public String format(Object id) {
+            return id == null ? null : id.toString();
+        }
+    }
+}
@@ -2,7 +2,8 @@ package oracle.jest;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.util.Set;
+import java.util.Collections;
+import java.util.Map;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
@@ -18,6 +19,7 @@ import javax.servlet.http.HttpServletResponse;
  *
  */
 public abstract class JESTCommand implements Closeable {
+
     protected final JESTContext context;
 
     public JESTCommand(JESTContext context) throws ServletException {
@@ -34,32 +36,102 @@ public abstract class JESTCommand implements Closeable {
         return context.getPersistenceUnit().getMetamodel();
     }
 
+    /**
+     * Gets the transformer for the media type the request accepts.
+     */
     ResponseTransformer selectTransformer()  {
-        return new JSONAPITransformer(this.context);
-        /*
-         * String accept = request.getHeader(HEADER_ACCEPT); if
-         * (MIMETYPE_JSON_API.equals(accept)) { return new JSONAPITransformer();
-         * } else { throw new ServletException("Unsupported " + HEADER_ACCEPT +
-         * " header " + accept); }
-         */
+        return context.getResponseTransformer();
     }
 
+    /**
+     * Releases the resources of the request, such as its persistence
+     * context. Called once the command is done, whether or not it
+     * completed normally.
+     */
     public void close() {
+        context.close();
+    }
 
+    /**
+     * Gets the value of the given servlet parameter as an integer.
+     * 
+     * @param def the value if the parameter is not configured
+     */
+    protected int getInitParameter(String name, int def) {
+        String value = context.getInitParameter(name);
+        if (value == null) return def;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException ex) {
+            throw new RuntimeException("Invalid value " + value + 
+                    " for servlet parameter " + name, ex);
+        }
     }
 
-    public EntityType<?> resolveTypeByName(String entityTypeName) {
-        Set<EntityType<?>> types = getDomainModel().getEntities();
-        for (EntityType<?> t : types) {
-            if (t.getName().equals(entityTypeName)) {
-                return t;
-            }
+    /**
+     * Converts the given string to an identity of the given type by the
+     * {@link IdConverter converter} of the type.
+     *
+     * @exception IllegalArgumentException if the string is not an identity
+     * of the type
+     */
+    protected Object toId(EntityType<?> type, String id) {
+        return context.getMetamodelIndex().getIdConverter(type).parse(id);
+    }
+
+    /**
+     * Converts the given identity of the given type to a string.
+     */
+    protected String formatId(EntityType<?> type, Object id) {
+        return context.getMetamodelIndex().getIdConverter(type).format(id);
+    }
+
+    /**
+     * Gets the hints to fetch only the attributes and relations that the
+     * request selects for the given type.
+     *
+     * @return empty if the request selects everything or the persistence
+     * unit can not apply a fetch graph.
+     * @exception IllegalArgumentException if the selection is invalid for
+     * the given type.
+     */
+    protected Map<String, Object> getFetchHints(EntityType<?> type) {
+        FieldSelection selection = context.getFieldSelection();
+        MetamodelIndex index = context.getMetamodelIndex();
+        // validates the includes even if the graph is not applied
+        selection.getIncludes(type, index);
+        if (Boolean.FALSE.equals(getContextAttribute(
+                JESTContext.FETCH_GRAPH_SUPPORTED, Boolean.class))) {
+            return Collections.emptyMap();
         }
-        return null;
+        return selection.getHints(context.getPersistenceContext(), type, index);
+    }
+
+    /**
+     * Creates a query to read the instances of the given type in pages,
+     * filtered and sorted as the request specifies.
+     *
+     * @exception IllegalArgumentException if the filter or sort parameters
+     * are invalid for the given type.
+     * @exception UnsupportedOperationException if the instances of the type
+     * can not be paged.
+     */
+    protected KeysetQuery<?> newKeysetQuery(EntityType<?> type) {
+        EntityManager em = context.getPersistenceContext();
+        QuerySpec spec = QuerySpec.parse(context.getRequest(), type,
+                context.getMetamodelIndex(), new ResourceReader(this, em));
+        return new KeysetQuery<>(em, type)
+                .setSpec(spec)
+                .setRegistry(getContextAttribute(JESTContext.QUERY_REGISTRY,
+                        QueryRegistry.class));
+    }
+
+    public EntityType<?> resolveTypeByName(String entityTypeName) {
+        return context.getMetamodelIndex().getEntityType(entityTypeName);
     }
     
     private <T> T getContextAttribute(String key, Class<T> cls, boolean mustExist) {
-        Object value = context.getServletContext().getAttribute(key);
+        Object value = context.getAttribute(key);
         if (value == null) {
             if (mustExist) {
                 throw new RuntimeException(key + " not found in context");
@@ -74,12 +146,12 @@ public abstract class JESTCommand implements Closeable {
         return cls.cast(value);
     }
     
-    private <T> T getContextAttribute(String key, Class<T> cls) {
+    protected <T> T getContextAttribute(String key, Class<T> cls) {
         return getContextAttribute(key, cls, false);
     }
     
-    private void setContextAttribute(String key, Object value) {
-        context.getServletContext().setAttribute(key, value);
+    protected void setContextAttribute(String key, Object value) {
+        context.setAttribute(key, value);
     }
 
 
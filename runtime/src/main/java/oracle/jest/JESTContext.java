@@ -21,13 +21,21 @@ import org.json.JSONObject;
  *
  */
 public interface JESTContext {
-    public static final String PERSISTENCE_UNIT     = "emf";
+    public static final String PERSISTENCE_UNITS    = "persistence-units";
     public static final String PERSISTENCE_CONTEXT  = "em";
+    public static final String METAMODEL_DOCUMENT   = "metamodel-document";
+    public static final String RESPONSE_CACHE       = "response-cache";
+    public static final String QUERY_REGISTRY       = "query-registry";
+    public static final String FETCH_GRAPH_SUPPORTED = "fetch-graph-supported";
     public static final String RESPONSE_TRANSFORMER = "response-transformer";
+    public static final String ROUTER               = "router";
+    public static final String DEFLATER_POOL        = "deflater-pool";
+    public static final String METRICS              = "metrics";
     
     public static final String HEADER_ACCEPT = "Accept";
     
     public static final String MIMETYPE_JSON_API = "application/vnd.api+json";
+    public static final String MIMETYPE_NDJSON   = "application/x-ndjson";
     
     /**
      * Gets the persistence unit associated with this context.
@@ -38,6 +46,14 @@ public interface JESTContext {
     public EntityManagerFactory getPersistenceUnit();
     
     public ServletContext getServletContext();
+    
+    /**
+     * Gets the value of the given initialization parameter of the
+     * servlet.
+     * 
+     * @return null if the parameter is not configured.
+     */
+    public String getInitParameter(String name);
 
     /**
      * Gets the persistence context.
@@ -47,12 +63,59 @@ public interface JESTContext {
      * @return
      */
     public EntityManager getPersistenceContext();
+
+    /**
+     * Releases the persistence context associated with this context, if
+     * any. The instances managed by the persistence context are detached
+     * and must not be accessed afterwards.
+     */
+    public void close();
     public Metamodel getPersistenceModel();
+    
+    /**
+     * Gets the index over the persistence model. The index is built
+     * once for the persistence unit.
+     * 
+     * @return
+     */
+    public MetamodelIndex getMetamodelIndex();
 
     
     public ResponseTransformer getResponseTransformer();
+
+    /**
+     * Gets the attributes and related resources selected by the request.
+     *
+     * @exception IllegalArgumentException if the request selects a type
+     * or an attribute that does not exist.
+     */
+    public FieldSelection getFieldSelection();
+
+    /**
+     * Gets the path of the request parsed into its segments.
+     */
+    public RequestPath getRequestPath();
     
     public HttpServletRequest getRequest();
     public HttpServletResponse getResponse();
 
+    /**
+     * Gets the timer of the phases of the request.
+     */
+    public RequestTimer getTimer();
+
+    /**
+     * Gets the attribute of the given key of the persistence unit of this
+     * context, or else of the servlet.
+     *
+     * @return null if neither has the attribute
+     */
+    public Object getAttribute(String key);
+
+    /**
+     * Sets the attribute of the given key of the persistence unit of this
+     * context, or of the servlet if this context has no persistence unit.
+     */
+    public void setAttribute(String key, Object value);
+
 }
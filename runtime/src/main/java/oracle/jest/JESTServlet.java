@@ -1,26 +1,27 @@
 package oracle.jest;
 
+import java.io.IOException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 
+import javax.persistence.EntityGraph;
+import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
+import javax.persistence.metamodel.EntityType;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
 import javax.servlet.http.HttpServletResponse;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
 
 /**
  * A servlet to process entities as REST document.
@@ -31,6 +32,23 @@ import org.w3c.dom.NodeList;
  * of a <code>META-INF/persistence.xml</code> resource within the
  * deployed package.
  * <p>
+ * The servlet serves the units named by the comma-separated
+ * <code>persistence-unit</code> parameter, or else all units found. A
+ * single unit is served at the root path of the servlet. Several units
+ * are each served at a path prefix of the unit name, as in
+ * <code>/{unit}/{type}/{id}</code>, and the root path lists the units.
+ * The units are created in parallel on initialization, or, if the
+ * <code>persistence-unit-bootstrap</code> parameter is <code>lazy</code>,
+ * on the first request of each unit. A unit that no request has used for
+ * <code>persistence-unit-idle-timeout</code> milliseconds is closed, and
+ * created again on its next request.
+ * <p>
+ * If the application has a {@link PersistenceUnitSnapshot snapshot} of
+ * its persistence units taken at build time, the servlet takes the units
+ * from the snapshot rather than scanning for them, and serves their domain
+ * model as recorded, unless the <code>persistence-unit-snapshot</code>
+ * parameter is <code>false</code>.
+ * <p>
  * The servlet process HTTP requests via a set of {@link JESTCommand
  * commands}. The servlet passes an {@link JESTContext execution context}
  * before invoking a command.
@@ -41,33 +59,169 @@ import org.w3c.dom.NodeList;
 @SuppressWarnings("serial")
 public class JESTServlet extends HttpServlet {
     
-    private static final String PERSISTENCE_UNIT_RESOURCE = "META-INF/persistence.xml";
+    static final String PERSISTENCE_UNIT_RESOURCE = "META-INF/persistence.xml";
     private static final String PERSISTENCE_UNIT_NAME = "persistence-unit";
+    private static final String UNIT_BOOTSTRAP        = "persistence-unit-bootstrap";
+    private static final String UNIT_IDLE_TIMEOUT     = "persistence-unit-idle-timeout";
+    private static final String UNIT_SNAPSHOT         = "persistence-unit-snapshot";
+    private static final String BOOTSTRAP_EAGER       = "eager";
+    private static final String BOOTSTRAP_LAZY        = "lazy";
+    private static final String ASYNC                 = "async";
+    private static final String ASYNC_MAX_CONCURRENCY = "async-max-concurrency";
+    private static final String ASYNC_TIMEOUT         = "async-timeout";
+    private static final String READ_ONLY             = "read-only";
+    private static final String POOL_SIZE             = "persistence-context-pool-size";
+    private static final String CACHE_SIZE            = "response-cache-size";
+    private static final String CACHE_TTL             = "response-cache-ttl";
+    private static final String QUERY_CACHE_SIZE      = "query-cache-size";
+    private static final String COMPRESSION           = "compression";
+    private static final String COMPRESSION_MIN_SIZE  = "compression-min-size";
+    private static final String COMPRESSION_LEVEL     = "compression-level";
+    private static final String COMPRESSION_POOL_SIZE = "compression-pool-size";
+    private static final String METRICS               = "metrics";
+    private static final String TRACE                 = "trace";
+    private static final String TRACE_BUFFER_SIZE     = "trace-buffer-size";
+    private static final int  DEFAULT_ASYNC_MAX_CONCURRENCY = 64;
+    private static final long DEFAULT_ASYNC_TIMEOUT         = 30*1000;
+    private static final int  DEFAULT_POOL_SIZE             = 16;
+    private static final long DEFAULT_CACHE_TTL             = 60*1000;
+    private static final int  DEFAULT_QUERY_CACHE_SIZE      = 256;
+    private static final int  DEFAULT_COMPRESSION_MIN_SIZE  = 1024;
+    private static final int  DEFAULT_COMPRESSION_POOL_SIZE = 16;
+    private static final int  DEFAULT_TRACE_BUFFER_SIZE     = 8*1024;
     
     private static final Logger logger = Logger.getLogger("RUNTIME");
     
+    private PersistenceUnitRegistry units;
+    private PersistenceUnitSnapshot snapshot;
+    // whether the units are served at a path prefix of their name
+    private boolean prefixed;
+    private Router router;
+    private AsyncDispatcher dispatcher;
+    private boolean readOnly;
+    private DeflaterPool deflaters;
+    private int compressionMinSize;
+    private Metrics metrics;
+    
     @Override
     public void init(ServletConfig config) throws ServletException {
         super.init(config);
-        ClassLoader cl = Thread.currentThread().getContextClassLoader();
-        printResourceVisbility(cl, PERSISTENCE_UNIT_RESOURCE);
-        List<String> unitNames = scanResources(cl, PERSISTENCE_UNIT_RESOURCE);
-        logger.info("Found " + unitNames.size() + " persistence units " + unitNames);
-        String unitName = "";
+        configureTrace(config);
+        final ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        String useSnapshot = config.getInitParameter(UNIT_SNAPSHOT);
+        if (useSnapshot == null || Boolean.parseBoolean(useSnapshot)) {
+            snapshot = PersistenceUnitSnapshot.load(cl);
+        }
+        List<String> unitNames;
+        if (snapshot != null) {
+            unitNames = snapshot.getUnitNames();
+            logger.info("Found " + unitNames.size() + " persistence units " + unitNames
+                    + " in " + PersistenceUnitSnapshot.RESOURCE);
+        } else {
+            printResourceVisbility(cl, PERSISTENCE_UNIT_RESOURCE);
+            unitNames = PersistenceUnitSnapshot.scanResources(cl, 
+                    PERSISTENCE_UNIT_RESOURCE);
+            logger.info("Found " + unitNames.size() + " persistence units " + unitNames);
+        }
         if (unitNames.isEmpty()) {
             throw new RuntimeException("No persistence unit found in " + 
                     "deployed application. " +
                     " A persistence unit is defined in " + PERSISTENCE_UNIT_RESOURCE +
                     " and must be available in current deployment unit");
-        } else if (unitNames.size() > 1) {
-            unitName = config.getInitParameter(PERSISTENCE_UNIT_NAME);
-            if (unitName == null) {
-                throw new RuntimeException(
-                        "Found " + unitNames.size() + " persistence units " +
-                        unitNames + " in deployed unit." +
-                        " However no persistent unit name is specified in" +  
-                        " deployment descriptor to distinguis a unit");
-            } else if (!unitNames.contains(unitName)) {
+        }
+        List<String> exposed = selectUnits(config, unitNames);
+        prefixed = exposed.size() > 1;
+        TransformerRegistry transformers = new TransformerRegistry();
+        transformers.register(config.getInitParameter(
+                TransformerRegistry.INIT_TRANSFORMERS), cl);
+        logger.info("Responses are available in " + transformers.getMimeTypes());
+        getServletContext().setAttribute(JESTContext.RESPONSE_TRANSFORMER,
+                transformers);
+        this.readOnly = Boolean.parseBoolean(config.getInitParameter(READ_ONLY));
+        router = new Router();
+        registerRoutes(router);
+        getServletContext().setAttribute(JESTContext.ROUTER, router);
+        final ServletConfig unitConfig = config;
+        long idleTimeout = getInitParameter(config, UNIT_IDLE_TIMEOUT, 0L);
+        units = new PersistenceUnitRegistry(exposed, 
+            new PersistenceUnitRegistry.Factory() {
+                @Override
+                public PersistenceUnitHolder create(String unitName) {
+                    return createUnit(unitConfig, unitName, cl);
+                }
+            }, idleTimeout);
+        getServletContext().setAttribute(JESTContext.PERSISTENCE_UNITS, units);
+        if (prefixed) {
+            logger.info("Persistence units " + exposed + " are served at /{unit}/");
+        }
+        if (idleTimeout > 0) {
+            logger.info("Persistence units idle for " + idleTimeout + " ms are closed");
+        }
+        String bootstrap = config.getInitParameter(UNIT_BOOTSTRAP);
+        if (bootstrap == null || BOOTSTRAP_EAGER.equals(bootstrap)) {
+            long start = System.currentTimeMillis();
+            units.start();
+            logger.info("Started " + exposed.size() + " persistence units in " 
+                    + (System.currentTimeMillis() - start) + " ms");
+        } else if (BOOTSTRAP_LAZY.equals(bootstrap)) {
+            logger.info("Persistence units are created on first request");
+        } else {
+            throw new RuntimeException("Invalid value " + bootstrap + 
+                    " for servlet parameter " + UNIT_BOOTSTRAP + ". Valid values are " 
+                    + BOOTSTRAP_EAGER + " and " + BOOTSTRAP_LAZY);
+        }
+        // validates the parameters the commands read on each request
+        getInitParameter(config, BatchFindCommand.INIT_BATCH_SIZE,
+                BatchFindCommand.DEFAULT_BATCH_SIZE, 1);
+        getInitParameter(config, ExportCommand.INIT_BATCH_SIZE,
+                ExportCommand.DEFAULT_BATCH_SIZE, 1);
+        String compression = config.getInitParameter(COMPRESSION);
+        if (compression == null || Boolean.parseBoolean(compression)) {
+            compressionMinSize = getInitParameter(config, COMPRESSION_MIN_SIZE, 
+                    DEFAULT_COMPRESSION_MIN_SIZE);
+            deflaters = new DeflaterPool(
+                getInitParameter(config, COMPRESSION_LEVEL, Deflater.DEFAULT_COMPRESSION),
+                getInitParameter(config, COMPRESSION_POOL_SIZE, 
+                        DEFAULT_COMPRESSION_POOL_SIZE));
+            getServletContext().setAttribute(JESTContext.DEFLATER_POOL, deflaters);
+            logger.info("Responses of at least " + compressionMinSize 
+                    + " bytes are compressed");
+        }
+        String metered = config.getInitParameter(METRICS);
+        if (metered == null || Boolean.parseBoolean(metered)) {
+            metrics = new Metrics();
+            getServletContext().setAttribute(JESTContext.METRICS, metrics);
+            logger.info("Metrics are available at " + MetricsCommand.PATH);
+        }
+        if (Boolean.parseBoolean(config.getInitParameter(ASYNC))) {
+            int maxConcurrency = getInitParameter(config, ASYNC_MAX_CONCURRENCY,
+                    DEFAULT_ASYNC_MAX_CONCURRENCY);
+            long timeout = getInitParameter(config, ASYNC_TIMEOUT, 
+                    DEFAULT_ASYNC_TIMEOUT);
+            logger.info("Requests execute asynchronously with at most " +
+                    maxConcurrency + " concurrent requests and timeout of " +
+                    timeout + " ms");
+            dispatcher = new AsyncDispatcher(this, maxConcurrency, timeout, metrics);
+        }
+    }
+    
+    /**
+     * Selects the units to serve: the units named by the comma-separated
+     * <code>persistence-unit</code> parameter, or else all units found.
+     */
+    private List<String> selectUnits(ServletConfig config, List<String> unitNames) {
+        String names = config.getInitParameter(PERSISTENCE_UNIT_NAME);
+        List<String> selected = new ArrayList<String>();
+        if (names == null) {
+            for (String unitName : unitNames) {
+                if (!selected.contains(unitName)) selected.add(unitName);
+            }
+            return selected;
+        }
+        for (String unitName : names.split(",")) {
+            unitName = unitName.trim();
+            if (unitName.isEmpty() || selected.contains(unitName)) continue;
+            if (!unitNames.contains(unitName)) {
                 throw new RuntimeException(
                         "Found " + unitNames.size() + " persistence units " +
                         unitNames + " in deployed unit." +
@@ -75,19 +229,164 @@ public class JESTServlet extends HttpServlet {
                         " specified in deployment descriptor does not" +
                         " match any of these units.");
             }
-        } else {
-            unitName = unitNames.get(0);
-            logger.info("Found persistent unit " + unitName + " in deployment unit");
-            try {
-                logger.info("Resolving persistence unit " + unitName);
-                EntityManagerFactory emf = Persistence.createEntityManagerFactory(unitName);
-                logger.info(" persistence unit is resolved to "+ emf);
-                getServletContext().setAttribute(JESTContext.PERSISTENCE_UNIT, emf);
-            } catch (Exception ex) {
-                throw new RuntimeException("Can not resolve persistence unit " + 
-                        unitName, ex);
-                
-            } 
+            selected.add(unitName);
+        }
+        if (selected.isEmpty()) {
+            throw new RuntimeException("Invalid value " + names + 
+                    " for servlet parameter " + PERSISTENCE_UNIT_NAME);
+        }
+        return selected;
+    }
+
+    /**
+     * Creates the persistence unit of the given name with its pool of
+     * persistence contexts, its queries and its response cache, if any.
+     * The unit is resolved by the given class loader, whichever thread
+     * creates it.
+     */
+    private PersistenceUnitHolder createUnit(ServletConfig config, String unitName,
+            ClassLoader cl) {
+        Thread thread = Thread.currentThread();
+        ClassLoader current = thread.getContextClassLoader();
+        thread.setContextClassLoader(cl);
+        try {
+            logger.info("Resolving persistence unit " + unitName);
+            EntityManagerFactory emf = Persistence.createEntityManagerFactory(unitName);
+            logger.info(" persistence unit is resolved to "+ emf);
+            PersistenceUnitHolder unit = new PersistenceUnitHolder(unitName, emf,
+                    createPool(config, emf));
+            if (snapshot != null && snapshot.apply(unit)) {
+                logger.info("Domain model of " + unitName + " is served from "
+                        + PersistenceUnitSnapshot.RESOURCE);
+            }
+            unit.setAttribute(JESTContext.FETCH_GRAPH_SUPPORTED,
+                    isFetchGraphSupported(unitName, emf));
+            unit.setAttribute(JESTContext.QUERY_REGISTRY,
+                    new QueryRegistry(emf, getInitParameter(config, 
+                            QUERY_CACHE_SIZE, DEFAULT_QUERY_CACHE_SIZE)));
+            long cacheSize = getInitParameter(config, CACHE_SIZE, 0L);
+            if (cacheSize > 0) {
+                long ttl = getInitParameter(config, CACHE_TTL, DEFAULT_CACHE_TTL);
+                logger.info("Documents of single instances of " + unitName 
+                        + " are cached up to " + cacheSize + " bytes for " 
+                        + ttl + " ms");
+                unit.setAttribute(JESTContext.RESPONSE_CACHE,
+                    new ResponseCache(unit.getMetamodelIndex(), 
+                        emf.getPersistenceUnitUtil(), cacheSize, ttl));
+            }
+            return unit;
+        } catch (Exception ex) {
+            throw new RuntimeException("Can not resolve persistence unit " + 
+                    unitName, ex);
+        } finally {
+            thread.setContextClassLoader(current);
+        }
+    }
+
+    /**
+     * Affirms if the given persistence unit can apply a fetch graph, which
+     * a provider may not for entities that are not enhanced. An entity of
+     * the unit is queried once with a fetch graph, so that the queries of
+     * the requests never have to be retried without one.
+     */
+    private boolean isFetchGraphSupported(String unitName, EntityManagerFactory emf) {
+        EntityType<?> type = null;
+        for (EntityType<?> t : emf.getMetamodel().getEntities()) {
+            if (t.hasSingleIdAttribute()) {
+                type = t;
+                break;
+            }
+        }
+        if (type == null) return false;
+        EntityManager em = emf.createEntityManager();
+        try {
+            EntityGraph<?> graph = em.createEntityGraph(type.getJavaType());
+            graph.addAttributeNodes(MetamodelIndex.getIdAttribute(type).getName());
+            em.createQuery("SELECT e FROM " + type.getName() + " e WHERE 1 = 0")
+                .setHint(FieldSelection.HINT_FETCH_GRAPH, graph)
+                .getResultList();
+            return true;
+        } catch (RuntimeException ex) {
+            logger.warning("Queries of " + unitName + " are executed without"
+                    + " fetch graph because the persistence unit can not"
+                    + " apply a fetch graph: " + ex);
+            return false;
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Configures the {@link Trace trace} to the level given by the
+     * <code>trace</code> parameter, if any. The events are written by a
+     * background thread unless <code>trace-buffer-size</code> is zero.
+     */
+    private void configureTrace(ServletConfig config) {
+        String level = config.getInitParameter(TRACE);
+        if (level == null) return;
+        try {
+            Trace.configure(Level.parse(level.trim().toUpperCase()),
+                getInitParameter(config, TRACE_BUFFER_SIZE, DEFAULT_TRACE_BUFFER_SIZE));
+        } catch (IllegalArgumentException ex) {
+            throw new RuntimeException("Invalid value " + level + 
+                    " for servlet parameter " + TRACE, ex);
+        }
+        logger.info("Requests are traced at level " + level);
+    }
+
+    /**
+     * Creates the pool of persistence contexts. A read-only servlet reuses
+     * persistence contexts across requests, otherwise each request gets
+     * a new persistence context.
+     */
+    private PersistenceContextPool createPool(ServletConfig config,
+            EntityManagerFactory emf) {
+        int maxIdle = 0;
+        if (Boolean.parseBoolean(config.getInitParameter(READ_ONLY))) {
+            maxIdle = getInitParameter(config, POOL_SIZE, DEFAULT_POOL_SIZE);
+            logger.info("Servlet is read-only. Up to " + maxIdle + 
+                    " persistence contexts are reused across requests");
+        }
+        return new PersistenceContextPool(emf, maxIdle);
+    }
+
+    @Override
+    public void destroy() {
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+        if (units != null) {
+            units.close();
+        }
+        if (deflaters != null) {
+            deflaters.close();
+            logger.info("Closed " + deflaters);
+        }
+        Trace.shutdown();
+        super.destroy();
+    }
+    
+    private int getInitParameter(ServletConfig config, String name, int def) {
+        return (int)getInitParameter(config, name, (long)def);
+    }
+    
+    private int getInitParameter(ServletConfig config, String name, int def, int min) {
+        int value = getInitParameter(config, name, def);
+        if (value < min) {
+            throw new RuntimeException("Invalid value " + value + 
+                    " for servlet parameter " + name + ". It must be at least " + min);
+        }
+        return value;
+    }
+    
+    private long getInitParameter(ServletConfig config, String name, long def) {
+        String value = config.getInitParameter(name);
+        if (value == null) return def;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ex) {
+            throw new RuntimeException("Invalid value " + value + 
+                    " for servlet parameter " + name, ex);
         }
     }
     
@@ -98,99 +397,392 @@ public class JESTServlet extends HttpServlet {
      *                          given identifier (if provided) and 
      *                          navigates to specific field (if provided) 
      *                          
+     *    /{type}?filter[id]=.. get the resources of specific type with
+     *                          given identifiers
+     *                          
+     *    /{type}?filter[path][op]=..&sort=..
+     *                          get a page of the resources of specific
+     *                          type that pass the filters, in sort order
+     *                          
+     *    /{type}               with Accept: application/x-ndjson, export
+     *                          all resources of specific type one per line
+     *                          
      *    /                     get the structure of all types and their
      *                          attributes
+     *                          
+     *    /{unit}/...           any of the above on the given unit, if
+     *                          the servlet serves several units. The root
+     *                          path lists the units
+     *
+     *    /_metrics             get the metrics of the requests
      * </pre>
+     * If the servlet is configured with <code>async</code> parameter and 
+     * the container supports asynchronous processing for this request, 
+     * the request is processed asynchronously.
      */
-    private static final String ROOT_PATH = "/";
     @Override
     public void doGet(HttpServletRequest request, HttpServletResponse response) 
     throws ServletException {
-          
-        
-        String path = request.getPathInfo();
-        System.err.println("Received request GET " + path);
-        JESTContext ctx = new DefaultJESTContext(
-                getServletContext(), 
-                (EntityManagerFactory)getServletContext().getAttribute(JESTContext.PERSISTENCE_UNIT),
+        dispatch(request, response);
+    }
+    
+    /**
+     * A POST request has following URL
+     * <pre>
+     *    /{type}/_find         get the resources of specific type with
+     *                          identifiers given as JSON array in the body 
+     *                          
+     *    /{type}               create resources of specific type given
+     *                          in the body
+     * </pre>
+     */
+    @Override
+    public void doPost(HttpServletRequest request, HttpServletResponse response) 
+    throws ServletException {
+        dispatch(request, response);
+    }
+    
+    /**
+     * A PATCH request has following URL
+     * <pre>
+     *    /{type}/[id]          update the resources of specific type given
+     *                          in the body
+     * </pre>
+     */
+    public void doPatch(HttpServletRequest request, HttpServletResponse response) 
+    throws ServletException {
+        dispatch(request, response);
+    }
+    
+    /**
+     * Routes PATCH requests, which the base servlet does not know, to
+     * {@link #doPatch(HttpServletRequest, HttpServletResponse)}.
+     */
+    @Override
+    protected void service(HttpServletRequest request, HttpServletResponse response) 
+    throws ServletException, IOException {
+        if (WriteCommand.METHOD_PATCH.equals(request.getMethod())) {
+            doPatch(request, response);
+        } else {
+            super.service(request, response);
+        }
+    }
+    
+    void dispatch(HttpServletRequest request, HttpServletResponse response) 
+    throws ServletException {
+        if (dispatcher != null && request.isAsyncSupported()) {
+            try {
+                String unitName = getUnitName(request.getPathInfo());
+                dispatcher.dispatch(unitName != null && units.contains(unitName) 
+                        ? unitName : "", request, response);
+            } catch (IOException ex) {
+                throw new ServletException(ex);
+            }
+        } else {
+            process(request, response);
+        }
+    }
+    
+    /**
+     * Processes the given request on the calling thread.
+     * <br>
+     * Unless disabled by the <code>compression</code> parameter, the
+     * response is compressed in an encoding the request accepts if it
+     * is at least <code>compression-min-size</code> bytes. The response
+     * is compressed here rather than by the container, so that it is
+     * compressed the same way in any container, and a document kept
+     * already compressed is served as it is.
+     * <p>
+     * Unless disabled by the <code>metrics</code> parameter, the latency,
+     * status and size of the response are recorded to the {@link Metrics
+     * metrics} of the command.
+     * <p>
+     * The request is {@link Trace traced} with the correlation id of its
+     * <code>X-Request-Id</code> header, or with an id generated if tracing
+     * is enabled. The response carries the id in the same header.
+     */
+    void process(HttpServletRequest request, HttpServletResponse response) 
+    throws ServletException {
+        String id = Trace.begin(request.getHeader(Trace.HEADER_REQUEST_ID));
+        try {
+            if (id != null) response.setHeader(Trace.HEADER_REQUEST_ID, id);
+            process(request, response, request.getPathInfo());
+        } finally {
+            Trace.end();
+        }
+    }
+
+    /*
+     * routes the request to its persistence unit. A request of a unit
+     * served at a path prefix is seen by the command without the prefix.
+     */
+    private void process(HttpServletRequest request, HttpServletResponse response,
+            String path) throws ServletException {
+        Trace.event(Level.FINE, "request", "method", request.getMethod(), 
+                "path", path, "query", request.getQueryString());
+        String unitName = getUnitName(path);
+        if (unitName == null) {
+            execute(request, response, path, null);
+            return;
+        }
+        try {
+            if (!units.contains(unitName)) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND, 
+                        "No persistence unit " + unitName + ". Persistence units are " 
+                        + units.getNames());
+                return;
+            }
+            PersistenceUnitHolder unit;
+            try {
+                unit = units.acquire(unitName);
+            } catch (RuntimeException ex) {
+                logger.warning("Persistence unit " + unitName + " is not available: " + ex);
+                Trace.event(Level.FINE, "failed", ex);
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                        "Persistence unit " + unitName + " is not available");
+                return;
+            }
+            try {
+                if (prefixed) {
+                    request = new UnitRequest(request, 
+                            path.substring(unitName.length() + 1));
+                }
+                execute(request, response, path, unit);
+            } finally {
+                unit.release();
+            }
+        } catch (IOException ex) {
+            throw new ServletException(ex);
+        }
+    }
+
+    /**
+     * Gets the name of the persistence unit of the request of the given
+     * path: the only unit, or else the unit named by the first segment of
+     * the path.
+     * 
+     * @return null if the request is not for a persistence unit
+     */
+    private String getUnitName(String path) {
+        if (MetricsCommand.PATH.equals(path)) return null;
+        if (!prefixed) return units.getNames().get(0);
+        if (path == null || path.length() <= 1) return null;
+        int end = path.indexOf('/', 1);
+        return end < 0 ? path.substring(1) : path.substring(1, end);
+    }
+
+    /*
+     * executes the request with the given unit, or with no unit if the
+     * request is not for a unit
+     */
+    private void execute(HttpServletRequest request, HttpServletResponse response,
+            String path, PersistenceUnitHolder unit) throws ServletException {
+        MeteredResponse metered = null;
+        if (metrics != null) {
+            response = metered = new MeteredResponse(response);
+        }
+        CompressingResponse compressing = null;
+        if (deflaters != null) {
+            response.addHeader(CachedDocument.HEADER_VARY, 
+                    CachedDocument.HEADER_ACCEPT_ENCODING);
+            String encoding = CompressingResponse.negotiate(
+                    request.getHeader(CachedDocument.HEADER_ACCEPT_ENCODING));
+            if (encoding != null) {
+                response = compressing = new CompressingResponse(response, 
+                        deflaters, encoding, compressionMinSize);
+            }
+        }
+        JESTContext ctx = new DefaultJESTContext(getServletConfig(), unit, 
                 request, response);
         
-        JESTCommand command = path == null || ROOT_PATH.equals(path) 
-                ? new MetamodelCommand(ctx)
-                : new FindCommand(ctx);
+        JESTCommand command = createCommand(ctx);
+        if (command == null) {
+            try {
+                response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED, 
+                    request.getMethod() + " is not supported on " + path);
+            } catch (IOException ex) {
+                throw new ServletException(ex);
+            } finally {
+                record(null, ctx, metered, unit);
+            }
+            return;
+        }
             
         try {
-            System.err.println("executing " + command.getClass().getName());
+            Trace.event(Level.FINER, "execute", "command", 
+                    command.getClass().getSimpleName());
             command.execute();
         } catch (Exception ex) {
-            command.close();
+            logger.warning(command.getClass().getSimpleName() + " failed on " 
+                    + request.getMethod() + " " + path + ": " + ex);
+            Trace.event(Level.FINE, "failed", ex);
+            if (!response.isCommitted()) {
+                try {
+                    response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                            String.valueOf(ex.getMessage()));
+                } catch (IOException ioe) {
+                    // the client is gone
+                }
+            }
+        } finally {
+            try {
+                if (compressing != null) compressing.finish();
+            } catch (IOException ex) {
+                // the client is gone
+            } finally {
+                command.close();
+                record(command, ctx, metered, unit);
+                if (Trace.isEnabled(Level.FINE)) {
+                    Trace.event(Level.FINE, "response", 
+                        "status", response.getStatus(),
+                        "ms", ctx.getTimer().getTotal() / 1000000.0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the given request of the given command to the metrics. The
+     * request is recorded for the entity type named by the first segment
+     * of its path, if there is such a type, so that the number of series
+     * is bounded by the domain model whatever path is requested. The type
+     * of a unit served at a path prefix is qualified by the name of the
+     * unit.
+     */
+    private void record(JESTCommand command, JESTContext ctx,
+            MeteredResponse response, PersistenceUnitHolder unit) {
+        if (response == null) return;
+        RequestTimer timer = ctx.getTimer();
+        timer.stop();
+        String name = command == null ? "none" : command.getClass().getSimpleName();
+        if (name.endsWith("Command")) {
+            name = name.substring(0, name.length() - "Command".length()).toLowerCase();
         }
+        String type = "";
+        EntityType<?> entityType = ctx.getRequestPath().getEntityType();
+        if (entityType != null) {
+            type = prefixed ? unit.getName() + '/' + entityType.getName() 
+                    : entityType.getName();
+        }
+        metrics.record(name, type, response.getStatus(), timer,
+                response.getBytesWritten());
     }
     
-    @Override
-    public void doPost(HttpServletRequest request, HttpServletResponse response) 
-    throws ServletException {
-       
+    /**
+     * Registers the {@link Router routes} of the commands. A read-only
+     * servlet has no route to write. A servlet that extends this servlet
+     * may register more routes, before or after these.
+     */
+    protected void registerRoutes(Router router) {
+        router.register("GET", "/", new Router.Factory() {
+            @Override
+            public JESTCommand create(JESTContext ctx) throws ServletException {
+                return ctx.getPersistenceUnit() == null 
+                     ? new PersistenceUnitsCommand(ctx) : new MetamodelCommand(ctx);
+            }
+        });
+        router.register("GET", MetricsCommand.PATH, new Router.Factory() {
+            @Override
+            public JESTCommand create(JESTContext ctx) throws ServletException {
+                return new MetricsCommand(ctx);
+            }
+        });
+        Router.Factory find = new Router.Factory() {
+            @Override
+            public JESTCommand create(JESTContext ctx) throws ServletException {
+                return new FindCommand(ctx);
+            }
+        };
+        Router.Factory batchFind = new Router.Factory() {
+            @Override
+            public JESTCommand create(JESTContext ctx) throws ServletException {
+                return new BatchFindCommand(ctx);
+            }
+        };
+        router.register("GET", "/{type}", new Router.Condition() {
+            @Override
+            public boolean accepts(HttpServletRequest request) {
+                return request.getParameter(BatchFindCommand.PARAM_FILTER_ID) != null;
+            }
+        }, batchFind);
+        router.register("GET", "/{type}", new Router.Condition() {
+            @Override
+            public boolean accepts(HttpServletRequest request) {
+                return ExportCommand.accepts(request);
+            }
+        }, new Router.Factory() {
+            @Override
+            public JESTCommand create(JESTContext ctx) throws ServletException {
+                return new ExportCommand(ctx);
+            }
+        });
+        router.register("GET", "/{type}", find);
+        router.register("GET", "/{type}/{id}", find);
+        router.register("GET", "/{type}/{id}/{path}", find);
+        router.register("POST", "/{type}/" + BatchFindCommand.VERB_FIND, batchFind);
+        if (readOnly) return;
+        Router.Factory write = new Router.Factory() {
+            @Override
+            public JESTCommand create(JESTContext ctx) throws ServletException {
+                return new WriteCommand(ctx);
+            }
+        };
+        router.register("POST", "/{type}", write);
+        router.register(WriteCommand.METHOD_PATCH, "/{type}", write);
+        router.register(WriteCommand.METHOD_PATCH, "/{type}/{id}", write);
+    }
+
+    /**
+     * Creates a command for the request of the given context by its
+     * {@link #registerRoutes(Router) route}.
+     * 
+     * @return null if no command processes the request.
+     */
+    JESTCommand createCommand(JESTContext ctx) throws ServletException {
+        return router.route(ctx);
+    }
+    
+    /**
+     * A request of a persistence unit served at a path prefix, with the
+     * prefix removed from its path.
+     */
+    private static class UnitRequest extends HttpServletRequestWrapper {
+        private final String path;
+
+        UnitRequest(HttpServletRequest request, String path) {
+            super(request);
+            this.path = path.isEmpty() ? null : path;
+        }
+
+        @Override
+        public String getPathInfo() {
+            return path;
+        }
     }
     
+    /**
+     * Traces where the given resource is found by the given class loader,
+     * and the class path of the loader.
+     */
     void printResourceVisbility(ClassLoader cl, String rsrc) {
+        if (!Trace.isEnabled(Level.FINER)) return;
         int i = 0;
         try {
             Enumeration<URL> urls = cl.getResources(rsrc);
-            System.err.println(this + " looking for " + rsrc + " with " + cl);
             while (urls.hasMoreElements()) {
                 i++;
-                System.err.println(" found - " + urls.nextElement());
+                Trace.event(Level.FINER, "resource", "name", rsrc, 
+                        "url", urls.nextElement());
             }
         } catch (Exception ex) {
-            ex.printStackTrace();
+            Trace.event(Level.FINER, "resource", ex);
         }
-        System.err.println(" found  " + i + " " + rsrc);
+        Trace.event(Level.FINER, "resources", "name", rsrc, "found", i, 
+                "loader", cl);
         if (URLClassLoader.class.isInstance(cl)) {
-            URL[] urls = URLClassLoader.class.cast(cl).getURLs();
-            System.err.println("Classpath used :");
-            for (int j = 0; j < urls.length; j++) {
-                System.err.println("\t" + urls[j]);
+            for (URL url : URLClassLoader.class.cast(cl).getURLs()) {
+                Trace.event(Level.FINEST, "classpath", "url", url);
             }
         }
     }
-   
-    /**
-     * Scans all persistence units visible to given classloader
-     * and collects unit names.
-     * 
-     * @param cl
-     * @param rsrc
-     * @return
-     */
-    List<String> scanResources(ClassLoader cl, String rsrc) {
-        List<String> unitNames = new ArrayList<String>();
-        try {
-            List<URL> urls = toList(cl.getResources(rsrc));
-            if (urls.isEmpty()) return unitNames;
-            DocumentBuilder parser = DocumentBuilderFactory.newInstance()
-                    .newDocumentBuilder();
-            for (URL xml : urls) {
-                Document doc = parser.parse(xml.toURI().toString());
-                NodeList units = 
-                doc.getDocumentElement().getElementsByTagName("persistence-unit");
-                for (int i = 0; i < units.getLength(); i++) {
-                    Element unit = (Element)units.item(i);
-                    if (unit.hasAttribute("name")) {
-                        unitNames.add(unit.getAttribute("name"));
-                    }
-                }
-            }
-            
-        } catch (Exception ex) {
-            throw new RuntimeException(ex);
-        }
-        return unitNames;
-    }
-    
-    <X> List<X> toList(Enumeration<X> e) {
-        List<X> list = new ArrayList<X>();
-        while (e.hasMoreElements()) list.add(e.nextElement());
-        return list;
-    }
 }
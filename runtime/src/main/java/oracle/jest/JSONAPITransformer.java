@@ -1,56 +1,359 @@
 package oracle.jest;
 
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import javax.persistence.PersistenceUnitUtil;
 import javax.persistence.metamodel.Attribute;
-import javax.persistence.metamodel.Attribute.PersistentAttributeType;
-import javax.persistence.metamodel.Bindable.BindableType;
-import javax.persistence.metamodel.CollectionAttribute;
-import javax.persistence.metamodel.EmbeddableType;
 import javax.persistence.metamodel.EntityType;
 import javax.persistence.metamodel.ManagedType;
-import javax.persistence.metamodel.MappedSuperclassType;
 import javax.persistence.metamodel.Metamodel;
-import javax.persistence.metamodel.PluralAttribute;
-import javax.persistence.metamodel.SingularAttribute;
-import javax.persistence.metamodel.Type.PersistenceType;
 import javax.servlet.http.HttpServletResponse;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
+/**
+ * Transforms persistent objects and the domain model to
+ * <a href="http://jsonapi.org">JSON API</a> format.
+ * <br>
+ * The document is written token by token to the response stream
+ * through a {@link JSONStreamWriter}, rather than being built
+ * in memory first. A subclass writes the same document in another
+ * encoding by {@link #newWriter(OutputStream) creating} another
+ * {@link TokenWriter}.
+ * <p>
+ * Only the attributes {@link FieldSelection selected} by the request are
+ * written. The related resources the request includes are written in the
+ * <code>included</code> section, each only once and none that is already
+ * in the primary data.
+ * <p>
+ * The linkage of a relationship is written without loading it, so that
+ * a resource costs no query for each of its relationships. A to-one
+ * linkage is the identity of the reference. A to-many relationship that
+ * is neither loaded, for example by the fetch graph of the selection,
+ * nor included, is written without its <code>data</code>.
+ *
+ * @author pinaki poddar
+ *
+ */
 public class JSONAPITransformer implements ResponseTransformer {
+    private static final String ATTR_DATA = "data";
+    private static final String ATTR_RESOURCE_ID = "id";
+    private static final String ATTR_RESOURCE_TYPE = "type";
+    private static final String ATTR_RESOURCE_ATTRIBUTES = "attributes";
+    private static final String ATTR_RESOURCE_RELATIONSHIPS = "relationships";
+    private static final String ATTR_LINKS = "links";
+    private static final String ATTR_META = "meta";
+    private static final String ATTR_MISSING = "missing";
+    private static final String ATTR_LOADED = "loaded";
+    private static final String ATTR_LINK_SELF = "self";
+    private static final String ATTR_LINK_NEXT = "next";
+    private static final String ATTR_INCLUDED = "included";
+
     private final JESTContext ctx;
-    
+    private FieldSelection selection;
+    // the resources written in the document and the ones yet to be included
+    private Set<Object> written;
+    private List<Object> pending;
+    private List<FieldSelection.Include> pendingIncludes;
+    private Map<EntityType<?>, FieldSelection.Include> includes;
+
     public JSONAPITransformer(JESTContext ctx) {
         this.ctx = ctx;
     }
-    
+
+    @Override
+    public String getMimeType() {
+        return JESTContext.MIMETYPE_JSON_API;
+    }
+
+    /**
+     * Creates the writer that encodes the document to the given stream.
+     */
+    protected TokenWriter newWriter(OutputStream stream) {
+        return new JSONStreamWriter(stream);
+    }
+
     @Override
     public void transform(Object pObject, HttpServletResponse response) {
-        System.err.println(this + ".transform() " + pObject.getClass());
-
-        JSONObject json = null;
-        if (Metamodel.class.isInstance(pObject)) {
-            Metamodel model = Metamodel.class.cast(pObject);
-            json = new MetamodelTransformer(model).transformModel();
-        } else if (EntityType.class.isInstance(pObject)) {
-            json = new MetamodelTransformer(ctx.getPersistenceModel())
-                    .transformType(EntityType.class.cast(pObject));
-        } else {
-            throw new UnsupportedOperationException();
-        }
-        PrintWriter writer = null;
+        response.setContentType(getMimeType());
+        response.setCharacterEncoding("UTF-8");
         try {
-            writer = response.getWriter();
+            transform(pObject, response.getOutputStream());
         } catch (IOException ex) {
             throw new RuntimeException(ex);
         }
+    }
+
+    @Override
+    public void transform(Object pObject, OutputStream stream)
+            throws IOException {
+        ctx.getTimer().enter(RequestTimer.SERIALIZE);
+        TokenWriter out = newWriter(stream);
+        selection = null;
         try {
-            json.write(writer);
-        } catch (Exception ex) {
-            ex.printStackTrace(writer);
+            if (Metamodel.class.isInstance(pObject)) {
+                new MetamodelTransformer(ctx.getMetamodelIndex())
+                    .transformModel(out);
+            } else if (EntityType.class.isInstance(pObject)) {
+                new MetamodelTransformer(ctx.getMetamodelIndex())
+                    .transformType(EntityType.class.cast(pObject), out);
+            } else if (Page.class.isInstance(pObject)) {
+                writePage(Page.class.cast(pObject), out);
+            } else if (Batch.class.isInstance(pObject)) {
+                writeBatch(Batch.class.cast(pObject), out);
+            } else {
+                out.beginObject();
+                out.name(ATTR_DATA);
+                writeData(pObject, out);
+                writeIncluded(out);
+                out.endObject();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the given entity as a resource object on a line of its own,
+     * as a record of newline-delimited JSON.
+     */
+    public void writeRecord(Object pc, JSONStreamWriter out) throws IOException {
+        writeResource(pc, ctx.getMetamodelIndex().getEntityType(pc.getClass()),
+                null, out);
+        out.newLine();
+    }
+
+    /**
+     * Writes the resources of a page followed by the links to navigate
+     * to the next page.
+     */
+    void writePage(Page page, TokenWriter out) throws IOException {
+        out.beginObject();
+        out.name(ATTR_DATA);
+        writeData(page.getItems(), out);
+        writeIncluded(out);
+        out.name(ATTR_LINKS).beginObject();
+        out.name(ATTR_LINK_SELF).value(page.getSelfLink());
+        if (!page.isLast()) {
+            out.name(ATTR_LINK_NEXT).value(page.getNextLink());
+        }
+        out.endObject();
+        out.endObject();
+    }
+
+    /**
+     * Writes the resources found by identities, followed by the
+     * identities that were not found.
+     */
+    void writeBatch(Batch batch, TokenWriter out) throws IOException {
+        out.beginObject();
+        out.name(ATTR_DATA);
+        writeData(batch.getItems(), out);
+        writeIncluded(out);
+        out.name(ATTR_META).beginObject();
+        out.name(ATTR_MISSING).beginArray();
+        for (String id : batch.getMissing()) {
+            out.value(id);
+        }
+        out.endArray();
+        out.endObject();
+        out.endObject();
+    }
+
+    /**
+     * Writes a resource for an entity, an array for a collection,
+     * or the value itself for anything else.
+     */
+    void writeData(Object value, TokenWriter out) throws IOException {
+        if (value instanceof Collection) {
+            out.beginArray();
+            for (Object element : (Collection<?>)value) {
+                writeData(element, out);
+            }
+            out.endArray();
+        } else {
+            EntityType<?> type = value == null
+                    ? null : ctx.getMetamodelIndex().getEntityType(value.getClass());
+            if (type != null) {
+                writeResource(value, type, getIncludes(type), out);
+            } else {
+                out.value(value);
+            }
+        }
+    }
+
+    /**
+     * Writes the given entity as a resource object. Basic and embedded
+     * attributes are written as attributes and associations are written
+     * as relationships with resource identifiers, or, for a to-many
+     * association that is not loaded, without them.
+     *
+     * @param include the relationships whose resources are to be included.
+     * null if none.
+     */
+    void writeResource(Object pc, EntityType<?> type,
+            FieldSelection.Include include, TokenWriter out)
+            throws IOException {
+        MetamodelIndex index = ctx.getMetamodelIndex();
+        PersistenceUnitUtil util = ctx.getPersistenceUnit().getPersistenceUnitUtil();
+        if (written != null) written.add(pc);
+        out.beginObject();
+        writeIdentifier(pc, type, out);
+        out.name(ATTR_RESOURCE_ATTRIBUTES).beginObject();
+        for (Attribute<?, ?> attr : index.getBasicAttributes(type)) {
+            if (!getSelection().isSelected(type, attr)) continue;
+            out.name(attr.getName());
+            writeValue(Reflection.getValue(pc, attr), out);
+        }
+        out.endObject();
+        out.name(ATTR_RESOURCE_RELATIONSHIPS).beginObject();
+        for (Attribute<?, ?> attr : index.getAssociations(type)) {
+            if (!getSelection().isSelected(type, attr)) continue;
+            FieldSelection.Include related = include == null
+                    ? null : include.getChild(attr.getName());
+            out.name(attr.getName()).beginObject();
+            if (attr.isCollection() && related == null
+             && !util.isLoaded(pc, attr.getName())) {
+                out.name(ATTR_META).beginObject();
+                out.name(ATTR_LOADED).value(false);
+                out.endObject();
+                out.endObject();
+                continue;
+            }
+            out.name(ATTR_DATA);
+            Object value = Reflection.getValue(pc, attr);
+            if (value == null) {
+                out.nullValue();
+            } else if (value instanceof Collection) {
+                out.beginArray();
+                for (Object element : (Collection<?>)value) {
+                    writeLinkage(element, out);
+                    if (related != null) include(element, related);
+                }
+                out.endArray();
+            } else {
+                writeLinkage(value, out);
+                if (related != null) include(value, related);
+            }
+            out.endObject();
+        }
+        out.endObject();
+        out.endObject();
+    }
+
+    /**
+     * Writes the included resources. A resource included by another
+     * included resource is appended to the ones pending, so that the
+     * relationship paths are followed to their end.
+     */
+    void writeIncluded(TokenWriter out) throws IOException {
+        if (!getSelection().hasIncludes()) return;
+        out.name(ATTR_INCLUDED).beginArray();
+        for (int i = 0; i < pending.size(); i++) {
+            Object pc = pending.get(i);
+            if (written.contains(pc)) continue;
+            writeResource(pc, ctx.getMetamodelIndex().getEntityType(pc.getClass()),
+                    pendingIncludes.get(i), out);
+        }
+        out.endArray();
+    }
+
+    private void include(Object pc, FieldSelection.Include include) {
+        if (!written.contains(pc)) {
+            pending.add(pc);
+            pendingIncludes.add(include);
+        }
+    }
+
+    /**
+     * Gets the selection of the request, when a resource is first written.
+     * A document that has no resource, such as the domain model, does not
+     * depend on the selection.
+     */
+    private FieldSelection getSelection() {
+        if (selection == null) {
+            selection = ctx.getFieldSelection();
+            if (selection.hasIncludes()) {
+                written = Collections.newSetFromMap(
+                        new IdentityHashMap<Object, Boolean>());
+                pending = new ArrayList<Object>();
+                pendingIncludes = new ArrayList<FieldSelection.Include>();
+                includes = new HashMap<EntityType<?>, FieldSelection.Include>();
+            } else {
+                written = null;
+                pending = null;
+                pendingIncludes = null;
+                includes = null;
+            }
+        }
+        return selection;
+    }
+
+    private FieldSelection.Include getIncludes(EntityType<?> type) {
+        if (!getSelection().hasIncludes()) return null;
+        FieldSelection.Include include = includes.get(type);
+        if (include == null) {
+            include = selection.getIncludes(type, ctx.getMetamodelIndex());
+            includes.put(type, include);
+        }
+        return include;
+    }
+
+    void writeLinkage(Object pc, TokenWriter out) throws IOException {
+        out.beginObject();
+        writeIdentifier(pc, 
+                ctx.getMetamodelIndex().getEntityType(pc.getClass()), out);
+        out.endObject();
+    }
+
+    void writeIdentifier(Object pc, EntityType<?> type, TokenWriter out)
+            throws IOException {
+        PersistenceUnitUtil util = ctx.getPersistenceUnit().getPersistenceUnitUtil();
+        out.name(ATTR_RESOURCE_TYPE).value(type.getName());
+        out.name(ATTR_RESOURCE_ID).value(ctx.getMetamodelIndex().getIdConverter(type)
+                .format(util.getIdentifier(pc)));
+    }
+
+    /**
+     * Writes value of a basic, embedded or element collection attribute.
+     */
+    void writeValue(Object value, TokenWriter out) throws IOException {
+        if (value == null) {
+            out.nullValue();
+        } else if (value instanceof Collection) {
+            out.beginArray();
+            for (Object element : (Collection<?>)value) {
+                writeValue(element, out);
+            }
+            out.endArray();
+        } else if (value instanceof Map) {
+            out.beginObject();
+            for (Map.Entry<?, ?> e : ((Map<?, ?>)value).entrySet()) {
+                out.name(String.valueOf(e.getKey()));
+                writeValue(e.getValue(), out);
+            }
+            out.endObject();
+        } else {
+            ManagedType<?> embedded = ctx.getMetamodelIndex()
+                    .getEmbeddableType(value.getClass());
+            if (embedded == null) {
+                out.value(value);
+            } else {
+                out.beginObject();
+                for (Attribute<?, ?> attr : 
+                    ctx.getMetamodelIndex().getAttributes(embedded)) {
+                    out.name(attr.getName());
+                    writeValue(Reflection.getValue(value, attr), out);
+                }
+                out.endObject();
+            }
         }
     }
 
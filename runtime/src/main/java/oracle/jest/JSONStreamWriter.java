@@ -0,0 +1,329 @@
+package oracle.jest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes JSON tokens directly to an output stream as UTF-8 bytes.
+ * <br>
+ * Unlike {@link org.json.JSONObject JSON object} model, the writer does not
+ * hold the document in memory. Each token is encoded into a byte buffer
+ * which is flushed to the underlying stream whenever it fills up. The
+ * buffer is borrowed from a small pool shared by all threads and returned
+ * on {@link #close()}, so requests reuse the same few buffers, even when
+ * each runs on a new virtual thread, and the heap used to write a document
+ * does not grow with size of the document.
+ * <p>
+ * The writer tracks nesting to place the separators, but does not
+ * otherwise validate the sequence of calls.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class JSONStreamWriter implements TokenWriter {
+    private static final int BUFFER_SIZE = 8*1024;
+    // buffers beyond these many are left to the garbage collector
+    static final int MAX_POOLED_BUFFERS = 64;
+    private static final Queue<byte[]> BUFFERS = new ConcurrentLinkedQueue<byte[]>();
+    private static final AtomicInteger POOLED = new AtomicInteger();
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] NULL  = "null".getBytes();
+    private static final byte[] TRUE  = "true".getBytes();
+    private static final byte[] FALSE = "false".getBytes();
+
+    private final OutputStream out;
+    private byte[] buf;
+    private int pos;
+    /*
+     * one entry per nesting level: whether a value has been written
+     * at that level. Level 0 is the top-level document.
+     */
+    private boolean[] started = new boolean[32];
+    private int depth;
+    private boolean afterName;
+
+    public JSONStreamWriter(OutputStream out) {
+        this.out = out;
+        // the buffer is owned by this writer till it is closed
+        this.buf = borrowBuffer();
+    }
+
+    /**
+     * Borrows a buffer from the pool, or creates one if the pool is empty.
+     */
+    static byte[] borrowBuffer() {
+        byte[] buf = BUFFERS.poll();
+        if (buf == null) return new byte[BUFFER_SIZE];
+        POOLED.decrementAndGet();
+        return buf;
+    }
+
+    /**
+     * Returns a buffer to the pool, unless the pool is full.
+     */
+    static void returnBuffer(byte[] buf) {
+        if (POOLED.incrementAndGet() > MAX_POOLED_BUFFERS) {
+            POOLED.decrementAndGet();
+            return;
+        }
+        BUFFERS.offer(buf);
+    }
+
+    @Override
+    public JSONStreamWriter beginObject() throws IOException {
+        separate();
+        write('{');
+        push();
+        return this;
+    }
+
+    @Override
+    public JSONStreamWriter endObject() throws IOException {
+        depth--;
+        write('}');
+        return this;
+    }
+
+    @Override
+    public JSONStreamWriter beginArray() throws IOException {
+        separate();
+        write('[');
+        push();
+        return this;
+    }
+
+    @Override
+    public JSONStreamWriter endArray() throws IOException {
+        depth--;
+        write(']');
+        return this;
+    }
+
+    /**
+     * Writes the name of a property. Must be followed by a value.
+     */
+    @Override
+    public JSONStreamWriter name(String name) throws IOException {
+        separate();
+        writeString(name);
+        write(':');
+        afterName = true;
+        return this;
+    }
+
+    @Override
+    public JSONStreamWriter value(String v) throws IOException {
+        if (v == null) return nullValue();
+        separate();
+        writeString(v);
+        return this;
+    }
+
+    @Override
+    public JSONStreamWriter value(long v) throws IOException {
+        separate();
+        writeLong(v);
+        return this;
+    }
+
+    @Override
+    public JSONStreamWriter value(double v) throws IOException {
+        if (Double.isNaN(v) || Double.isInfinite(v)) return nullValue();
+        separate();
+        if (v == (long)v) {
+            writeLong((long)v);
+        } else {
+            writeAscii(Double.toString(v));
+        }
+        return this;
+    }
+
+    @Override
+    public JSONStreamWriter value(boolean v) throws IOException {
+        separate();
+        write(v ? TRUE : FALSE);
+        return this;
+    }
+
+    @Override
+    public JSONStreamWriter nullValue() throws IOException {
+        separate();
+        write(NULL);
+        return this;
+    }
+
+    /**
+     * Writes a value of basic type. Numbers and booleans are written
+     * as JSON literals, any other value as a string. A big decimal or
+     * integer is written with all its digits.
+     */
+    @Override
+    public JSONStreamWriter value(Object v) throws IOException {
+        if (v == null) {
+            return nullValue();
+        } else if (v instanceof String) {
+            return value((String)v);
+        } else if (v instanceof Integer || v instanceof Long
+                || v instanceof Short || v instanceof Byte) {
+            return value(((Number)v).longValue());
+        } else if (v instanceof BigDecimal || v instanceof BigInteger) {
+            // exactly, as a double would round a big number
+            separate();
+            writeAscii(v.toString());
+            return this;
+        } else if (v instanceof Number) {
+            return value(((Number)v).doubleValue());
+        } else if (v instanceof Boolean) {
+            return value(((Boolean)v).booleanValue());
+        } else if (v instanceof Enum) {
+            return value(((Enum<?>)v).name());
+        } else {
+            return value(v.toString());
+        }
+    }
+
+    /**
+     * Ends a top-level value with a line feed, so that the next top-level
+     * value is written on a new line without a separator, as a record of
+     * newline-delimited JSON.
+     */
+    public JSONStreamWriter newLine() throws IOException {
+        write('\n');
+        started[0] = false;
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (pos > 0) {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+        out.flush();
+    }
+
+    /**
+     * Flushes the content and returns the buffer to the pool.
+     * Does not close the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (buf == null) return;
+        try {
+            flush();
+        } finally {
+            returnBuffer(buf);
+            buf = null;
+        }
+    }
+
+    private void push() {
+        if (++depth == started.length) {
+            boolean[] grown = new boolean[depth*2];
+            System.arraycopy(started, 0, grown, 0, depth);
+            started = grown;
+        }
+        started[depth] = false;
+    }
+
+    /*
+     * writes a comma if the current value is not the first one at
+     * its level. A value that follows a name is never separated.
+     */
+    private void separate() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (started[depth]) {
+            write(',');
+        } else {
+            started[depth] = true;
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        write('"');
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                switch (c) {
+                case '"':  write('\\'); write('"');  break;
+                case '\\': write('\\'); write('\\'); break;
+                case '\n': write('\\'); write('n');  break;
+                case '\r': write('\\'); write('r');  break;
+                case '\t': write('\\'); write('t');  break;
+                case '\b': write('\\'); write('b');  break;
+                case '\f': write('\\'); write('f');  break;
+                default:
+                    if (c < 0x20) {
+                        write('\\'); write('u'); write('0'); write('0');
+                        write(HEX[c >> 4]); write(HEX[c & 0xF]);
+                    } else {
+                        write(c);
+                    }
+                }
+            } else if (c < 0x800) {
+                write(0xC0 | (c >> 6));
+                write(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i+1 < n
+                    && Character.isLowSurrogate(s.charAt(i+1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                write(0xF0 | (cp >> 18));
+                write(0x80 | ((cp >> 12) & 0x3F));
+                write(0x80 | ((cp >> 6) & 0x3F));
+                write(0x80 | (cp & 0x3F));
+            } else {
+                write(0xE0 | (c >> 12));
+                write(0x80 | ((c >> 6) & 0x3F));
+                write(0x80 | (c & 0x3F));
+            }
+        }
+        write('"');
+    }
+
+    private void writeLong(long v) throws IOException {
+        if (v == Long.MIN_VALUE) {
+            writeAscii(Long.toString(v));
+            return;
+        }
+        if (v < 0) {
+            write('-');
+            v = -v;
+        }
+        if (pos + 20 > buf.length) drain();
+        int start = pos;
+        do {
+            buf[pos++] = (byte)('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        // digits were written in reverse order
+        for (int i = start, j = pos-1; i < j; i++, j--) {
+            byte t = buf[i]; buf[i] = buf[j]; buf[j] = t;
+        }
+    }
+
+    private void writeAscii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) write(s.charAt(i));
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        for (int i = 0; i < bytes.length; i++) write(bytes[i]);
+    }
+
+    private void write(int b) throws IOException {
+        if (pos == buf.length) drain();
+        buf[pos++] = (byte)b;
+    }
+
+    private void drain() throws IOException {
+        out.write(buf, 0, pos);
+        pos = 0;
+    }
+}
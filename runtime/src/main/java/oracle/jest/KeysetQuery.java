@@ -0,0 +1,347 @@
+package oracle.jest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.From;
+import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Order;
+import javax.persistence.criteria.ParameterExpression;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.SingularAttribute;
+
+/**
+ * Reads instances of an entity type one page at a time in the order of
+ * their identity, or in the order a {@link QuerySpec specification} sorts
+ * them and then by identity.
+ * <br>
+ * A page is located by <em>seeking</em> past the key of the last
+ * instance of the previous page rather than by skipping an offset.
+ * The database can then start the scan from an index on the key and
+ * the cost of reading a page does not depend on how deep the page is.
+ * The key of an instance is the values it is sorted by followed by its
+ * identity, so that the key of every instance is distinct. As null values
+ * are sorted last, the seek condition accounts for them explicitly rather
+ * than rely on how a database sorts nulls.
+ * <p>
+ * The instances are filtered by the database with the filters of the
+ * specification. A query is built once for its shape and then registered
+ * to a {@link QueryRegistry registry}, if one is given, so that a
+ * following query of same shape only binds its values.
+ * <p>
+ * Only entity types with a single identity attribute can be paged.
+ *
+ * @author pinaki poddar
+ *
+ */
+class KeysetQuery<X> {
+    private static final String PARAM_FILTER = "f";
+    private static final String PARAM_AFTER  = "k";
+
+    private final EntityManager em;
+    private final EntityType<X> type;
+    private final SingularAttribute<? super X, ?> id;
+    private Map<String, Object> hints = Collections.emptyMap();
+    private QuerySpec spec = QuerySpec.NONE;
+    private QueryRegistry registry;
+
+    KeysetQuery(EntityManager em, EntityType<X> type) {
+        if (!type.hasSingleIdAttribute()) {
+            throw new UnsupportedOperationException("Can not page " +
+                type.getName() + " because it has a composite identity");
+        }
+        this.em = em;
+        this.type = type;
+        this.id = MetamodelIndex.getIdAttribute(type);
+    }
+
+    SingularAttribute<? super X, ?> getIdAttribute() {
+        return id;
+    }
+
+    /**
+     * Sets the hints, such as a fetch graph, given to every query.
+     */
+    KeysetQuery<X> setHints(Map<String, Object> hints) {
+        this.hints = hints;
+        return this;
+    }
+
+    /**
+     * Sets the filters and order of the instances.
+     */
+    KeysetQuery<X> setSpec(QuerySpec spec) {
+        this.spec = spec == null ? QuerySpec.NONE : spec;
+        return this;
+    }
+
+    /**
+     * Sets the registry of the query shapes.
+     *
+     * @param registry null to build every query
+     */
+    KeysetQuery<X> setRegistry(QueryRegistry registry) {
+        this.registry = registry;
+        return this;
+    }
+
+    /**
+     * Gets at most given number of instances that follow the instance of
+     * the given identity.
+     *
+     * @param after identity of the last instance of the previous page.
+     * null for the first page.
+     * @param size maximum number of instances in the page.
+     */
+    List<X> next(Object after, int size) {
+        return next(after == null ? null : getKeyOf(after), size);
+    }
+
+    /**
+     * Gets at most given number of instances that follow the given key.
+     *
+     * @param after key of the last instance of the previous page.
+     * null for the first page.
+     * @param size maximum number of instances in the page.
+     */
+    List<X> next(Object[] after, int size) {
+        return query(after).setMaxResults(size).getResultList();
+    }
+
+    /**
+     * Gets the key of the instance of given identity.
+     *
+     * @exception IllegalArgumentException if the instances are sorted
+     * and no instance has the given identity
+     */
+    Object[] getKeyOf(Object id) {
+        if (spec.getSorts().isEmpty()) {
+            return new Object[]{id};
+        }
+        Object pc = em.find(type.getJavaType(), id);
+        if (pc == null) {
+            throw new IllegalArgumentException(type.getName() + " " + id
+                    + " does not exist");
+        }
+        return getKey(pc);
+    }
+
+    /**
+     * Gets the key of the given instance, i.e. the values it is sorted
+     * by followed by its identity.
+     */
+    Object[] getKey(Object pc) {
+        List<QuerySpec.Sort> sorts = spec.getSorts();
+        Object[] key = new Object[sorts.size()+1];
+        for (int i = 0; i < sorts.size(); i++) {
+            Object value = pc;
+            for (Attribute<?, ?> attr : sorts.get(i).attributes) {
+                if (value == null) break;
+                value = Reflection.getValue(value, attr);
+            }
+            key[i] = value;
+        }
+        key[sorts.size()] = getId(pc);
+        return key;
+    }
+
+    TypedQuery<X> query(Object[] after) {
+        String shape = null;
+        TypedQuery<X> query = null;
+        if (registry != null) {
+            shape = getShape(after);
+            String name = registry.getName(shape);
+            if (name != null) {
+                query = em.createNamedQuery(name, type.getJavaType());
+            }
+        }
+        if (query == null) {
+            query = em.createQuery(build(after));
+            if (registry != null) {
+                registry.register(shape, query);
+            }
+        }
+        List<QuerySpec.Filter> filters = spec.getFilters();
+        for (int i = 0; i < filters.size(); i++) {
+            QuerySpec.Filter filter = filters.get(i);
+            if (!QuerySpec.OP_NULL.equals(filter.op)) {
+                query.setParameter(PARAM_FILTER + i, filter.value);
+            }
+        }
+        if (after != null) {
+            for (int i = 0; i < after.length; i++) {
+                if (after[i] != null) {
+                    query.setParameter(PARAM_AFTER + i, after[i]);
+                }
+            }
+        }
+        return withHints(query);
+    }
+
+    /*
+     * the shape of a query is its type, its specification and, for the
+     * key to seek past, which of the values are null.
+     */
+    private String getShape(Object[] after) {
+        StringBuilder shape = new StringBuilder(type.getName())
+            .append('?').append(spec.getSignature());
+        if (after != null) {
+            shape.append('>');
+            for (Object value : after) {
+                shape.append(value == null ? '0' : '1');
+            }
+        }
+        return shape.toString();
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private CriteriaQuery<X> build(Object[] after) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<X> q = cb.createQuery(type.getJavaType());
+        Root<X> root = q.from(type);
+        Map<String, From<?, ?>> joins = new HashMap<String, From<?, ?>>();
+        List<Predicate> where = new ArrayList<Predicate>();
+        List<QuerySpec.Filter> filters = spec.getFilters();
+        for (int i = 0; i < filters.size(); i++) {
+            QuerySpec.Filter filter = filters.get(i);
+            where.add(toPredicate(cb, getPath(root, filter.attributes, joins),
+                    filter, PARAM_FILTER + i));
+        }
+        // the keys, their direction and whether they can be null
+        List<QuerySpec.Sort> sorts = spec.getSorts();
+        List<Path<Comparable>> keys = new ArrayList<Path<Comparable>>();
+        List<Boolean> descending = new ArrayList<Boolean>();
+        List<Boolean> optional = new ArrayList<Boolean>();
+        for (QuerySpec.Sort sort : sorts) {
+            keys.add((Path<Comparable>)getPath(root, sort.attributes, joins));
+            descending.add(sort.descending);
+            optional.add(QuerySpec.isOptional(sort.attributes));
+        }
+        keys.add(root.get((SingularAttribute)id));
+        descending.add(false);
+        optional.add(false);
+
+        List<Order> orders = new ArrayList<Order>();
+        for (int i = 0; i < keys.size(); i++) {
+            Path<Comparable> key = keys.get(i);
+            if (optional.get(i)) {
+                // nulls last, whatever the database does
+                orders.add(cb.asc(cb.selectCase()
+                        .when(cb.isNull(key), 1).otherwise(0)));
+            }
+            orders.add(descending.get(i) ? cb.desc(key) : cb.asc(key));
+        }
+        if (after != null) {
+            // (k0 > a0) or (k0 = a0 and k1 > a1) or ...
+            List<Predicate> seek = new ArrayList<Predicate>();
+            List<Predicate> equal = new ArrayList<Predicate>();
+            for (int i = 0; i < keys.size(); i++) {
+                Path<Comparable> key = keys.get(i);
+                if (after[i] == null) {
+                    // nothing but a null follows a null
+                    equal.add(cb.isNull(key));
+                    continue;
+                }
+                ParameterExpression<Comparable> p = cb.parameter(
+                    (Class<Comparable>)Reflection.toWrapper(key.getJavaType()),
+                    PARAM_AFTER + i);
+                Predicate beyond = descending.get(i)
+                        ? cb.lessThan(key, p) : cb.greaterThan(key, p);
+                if (optional.get(i)) {
+                    beyond = cb.or(beyond, cb.isNull(key));
+                }
+                List<Predicate> term = new ArrayList<Predicate>(equal);
+                term.add(beyond);
+                seek.add(cb.and(term.toArray(new Predicate[term.size()])));
+                equal.add(cb.equal(key, p));
+            }
+            where.add(cb.or(seek.toArray(new Predicate[seek.size()])));
+        }
+        return q.select(root)
+                .where(where.toArray(new Predicate[where.size()]))
+                .orderBy(orders);
+    }
+
+    /*
+     * gets the path to the given attributes. A relationship on the path
+     * is joined outer, so that an instance without a related instance is
+     * neither lost for a sort nor for a null test, and is joined once for
+     * all paths through it.
+     */
+    private Path<?> getPath(Root<X> root, List<Attribute<?, ?>> attrs,
+            Map<String, From<?, ?>> joins) {
+        Path<?> path = root;
+        StringBuilder prefix = new StringBuilder();
+        for (int i = 0; i < attrs.size(); i++) {
+            Attribute<?, ?> attr = attrs.get(i);
+            prefix.append('.').append(attr.getName());
+            if (attr.isAssociation() && i < attrs.size()-1) {
+                From<?, ?> join = joins.get(prefix.toString());
+                if (join == null) {
+                    join = ((From<?, ?>)path).join(attr.getName(), JoinType.LEFT);
+                    joins.put(prefix.toString(), join);
+                }
+                path = join;
+            } else {
+                path = path.get(attr.getName());
+            }
+        }
+        return path;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Predicate toPredicate(CriteriaBuilder cb, Path<?> path,
+            QuerySpec.Filter filter, String name) {
+        if (QuerySpec.OP_NULL.equals(filter.op)) {
+            return Boolean.TRUE.equals(filter.value)
+                    ? cb.isNull(path) : cb.isNotNull(path);
+        }
+        if (QuerySpec.OP_IN.equals(filter.op)) {
+            return path.in(cb.parameter(Collection.class, name));
+        }
+        Class<?> cls = Reflection.toWrapper(path.getJavaType());
+        Expression<Comparable> key = (Expression<Comparable>)path;
+        ParameterExpression<Comparable> p = cb.parameter((Class<Comparable>)cls, name);
+        switch (filter.op) {
+        case QuerySpec.OP_EQ:   return cb.equal(key, p);
+        case QuerySpec.OP_NE:   return cb.notEqual(key, p);
+        case QuerySpec.OP_LT:   return cb.lessThan(key, p);
+        case QuerySpec.OP_LE:   return cb.lessThanOrEqualTo(key, p);
+        case QuerySpec.OP_GT:   return cb.greaterThan(key, p);
+        case QuerySpec.OP_GE:   return cb.greaterThanOrEqualTo(key, p);
+        case QuerySpec.OP_LIKE: return cb.like((Expression<String>)path,
+                    cb.parameter(String.class, name));
+        default:
+            throw new IllegalArgumentException("Unknown filter operator "
+                    + filter.op);
+        }
+    }
+
+    private TypedQuery<X> withHints(TypedQuery<X> query) {
+        for (Map.Entry<String, Object> hint : hints.entrySet()) {
+            query.setHint(hint.getKey(), hint.getValue());
+        }
+        return query;
+    }
+
+    /**
+     * Gets the identity of the given instance.
+     */
+    Object getId(Object pc) {
+        return em.getEntityManagerFactory().getPersistenceUnitUtil()
+                .getIdentifier(pc);
+    }
+}
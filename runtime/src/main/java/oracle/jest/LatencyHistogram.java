@@ -0,0 +1,135 @@
+package oracle.jest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts durations in buckets of bounded relative error, in the manner
+ * of an HDR histogram.
+ * <br>
+ * Durations are counted in microseconds. Each power of two is divided
+ * into {@value #SUB_BUCKETS} buckets of equal width, so that a value is
+ * resolved to within about 6% of itself from a microsecond up to a day,
+ * with a fixed array of counters. Recording a duration locates its
+ * bucket by bit arithmetic and increments a counter, without a lock and
+ * without allocation, so that it may be recorded for every request.
+ * <p>
+ * A percentile is read from the counts at the time it is asked for. As
+ * the counts are not read atomically, a percentile read while durations
+ * are being recorded is approximate.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS    = 4;
+    static final int SUB_BUCKETS         = 1 << SUB_BITS;
+    private static final int MAX_OCTAVE  = 37;
+    private static final long MAX_VALUE  = (1L << MAX_OCTAVE+SUB_BITS-1) - 1;
+
+    private final AtomicLongArray counts =
+            new AtomicLongArray((MAX_OCTAVE+1) * SUB_BUCKETS);
+    private final LongAdder sum   = new LongAdder();
+    private final AtomicLong max  = new AtomicLong();
+
+    /**
+     * Records the given duration.
+     *
+     * @param nanos duration in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = Math.min(Math.max(nanos / 1000, 0), MAX_VALUE);
+        counts.incrementAndGet(indexOf(micros));
+        sum.add(micros);
+        long m = max.get();
+        while (micros > m && !max.compareAndSet(m, micros)) {
+            m = max.get();
+        }
+    }
+
+    /**
+     * Gets the number of durations recorded.
+     */
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Gets the sum of the durations recorded, in microseconds.
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Gets the longest duration recorded, in microseconds.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Gets the mean of the durations recorded, in microseconds.
+     */
+    public double getMean() {
+        long n = getCount();
+        return n == 0 ? 0 : (double)getSum() / n;
+    }
+
+    /**
+     * Gets the duration that the given fraction of the durations recorded
+     * do not exceed, in microseconds. The duration is the highest value
+     * of its bucket, but not more than the longest duration recorded.
+     *
+     * @param fraction between 0 and 1, such as 0.99 for 99th percentile
+     */
+    public long getPercentile(double fraction) {
+        long total = getCount();
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long)Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestOf(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /*
+     * a value below SUB_BUCKETS is its own bucket. Above that, the bucket
+     * is given by the position of the highest bit and the SUB_BITS bits
+     * that follow it.
+     */
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) return (int)value;
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int octave = exp - SUB_BITS + 1;
+        int sub = (int)(value >>> (exp - SUB_BITS)) & (SUB_BUCKETS-1);
+        return octave * SUB_BUCKETS + sub;
+    }
+
+    static long lowestOf(int index) {
+        int octave = index / SUB_BUCKETS;
+        int sub = index % SUB_BUCKETS;
+        return octave == 0 ? sub : (long)(SUB_BUCKETS + sub) << (octave-1);
+    }
+
+    static long highestOf(int index) {
+        int octave = index / SUB_BUCKETS;
+        return lowestOf(index) + (octave == 0 ? 0 : (1L << (octave-1)) - 1);
+    }
+
+    @Override
+    public String toString() {
+        return "count:" + getCount() + " mean:" + Math.round(getMean())
+            + "us p50:" + getPercentile(0.5) + "us p99:" + getPercentile(0.99)
+            + "us max:" + getMax() + "us";
+    }
+}
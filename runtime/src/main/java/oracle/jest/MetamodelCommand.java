@@ -1,40 +1,59 @@
 package oracle.jest;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.logging.Level;
 
-import javax.persistence.metamodel.Metamodel;
-import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
-import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpServletResponse;
-
-import org.json.JSONObject;
 
+/**
+ * Gets the structure of all entity types and their attributes.
+ * <br>
+ * The domain model can not change once the persistence unit is created.
+ * So the document is serialized only once, on the first request, and
+ * kept with the persistence unit as a {@link CachedDocument} which is
+ * served to every subsequent request with an entity tag. A document is
+ * kept for each media type that has been requested.
+ *  
+ * @author pinaki poddar
+ *
+ */
 public class MetamodelCommand extends JESTCommand {
     public MetamodelCommand(JESTContext ctx)
      throws ServletException {
         super(ctx);
-        System.err.println("Created " + this);
     }
 
     @Override
     public void execute() throws ServletException, IOException {
-        System.err.println(this + ".execute() ");
-        Metamodel model = getDomainModel();
+        getDocument().writeTo(getContext().getRequest(), 
+                getContext().getResponse());
+    }
+    
+    /**
+     * Gets the serialized document of the domain model in the media type
+     * the request accepts, serializing it if this is the first request
+     * for that media type.
+     */
+    CachedDocument getDocument() throws IOException {
         ResponseTransformer transformer = getContext().getResponseTransformer();
-        
-        HttpServletResponse response = getContext().getResponse();
-        
-        try {
-            transformer.transform(model, response);
-        } catch (Exception ex) {
-            ex.printStackTrace();
+        String key = JESTContext.METAMODEL_DOCUMENT + ';' 
+                + transformer.getMimeType();
+        CachedDocument doc = getContextAttribute(key, CachedDocument.class);
+        if (doc != null) return doc;
+        synchronized (getContext().getMetamodelIndex()) {
+            doc = getContextAttribute(key, CachedDocument.class);
+            if (doc == null) {
+                ByteArrayOutputStream buf = new ByteArrayOutputStream();
+                transformer.transform(getDomainModel(), buf);
+                doc = new CachedDocument(transformer.getMimeType(), 
+                        buf.toByteArray());
+                setContextAttribute(key, doc);
+                Trace.event(Level.FINE, "metamodel", "type", 
+                        transformer.getMimeType(), "bytes", buf.size());
+            }
         }
-
-        
-        response.setStatus(200);
+        return doc;
     }
-    
-    
 
 }
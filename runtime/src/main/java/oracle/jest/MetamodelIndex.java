@@ -0,0 +1,378 @@
+package oracle.jest;
+
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Member;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.ManyToMany;
+import javax.persistence.OneToMany;
+import javax.persistence.OneToOne;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EmbeddableType;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.PluralAttribute;
+import javax.persistence.metamodel.SingularAttribute;
+
+/**
+ * An immutable index over a {@link Metamodel persistent domain model}.
+ * <br>
+ * The domain model of a persistence unit can not change once the unit
+ * is created. The index is built once for a unit and shared by all
+ * commands and transformers, so that resolving a type by its name or
+ * by its Java class or finding an attribute by name do not search the
+ * model on every request.
+ * <p>
+ * The index also computes the {@link IdConverter converter} of the
+ * identity and the version attribute of each entity type, and the edges
+ * between the types, i.e. the relations via association attributes and
+ * the inheritance relations.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class MetamodelIndex {
+    public static final String EDGE_RELATION    = "relation";
+    public static final String EDGE_INHERITANCE = "inheritance";
+
+    private final Metamodel model;
+    private final List<EntityType<?>> entities;
+    private final Map<String, EntityType<?>> entitiesByName;
+    private final NameTrie<EntityType<?>> entityNames = new NameTrie<EntityType<?>>();
+    private final Map<Class<?>, ManagedType<?>> typesByClass;
+    private final Map<Class<?>, AttributeTable> attributes;
+    private final Map<String, IdConverter> idConverters;
+    private final Map<String, SingularAttribute<?, ?>> versions;
+    private final List<Edge> edges;
+
+    public MetamodelIndex(Metamodel model) {
+        this.model = model;
+        List<EntityType<?>> entities = new ArrayList<EntityType<?>>();
+        Map<String, EntityType<?>> entitiesByName = new HashMap<String, EntityType<?>>();
+        Map<Class<?>, ManagedType<?>> typesByClass = new HashMap<Class<?>, ManagedType<?>>();
+        Map<Class<?>, AttributeTable> attributes = new HashMap<Class<?>, AttributeTable>();
+        Map<String, IdConverter> idConverters = new HashMap<String, IdConverter>();
+        Map<String, SingularAttribute<?, ?>> versions = new HashMap<String, SingularAttribute<?, ?>>();
+        for (ManagedType<?> t : model.getManagedTypes()) {
+            typesByClass.put(t.getJavaType(), t);
+            attributes.put(t.getJavaType(), new AttributeTable(t));
+        }
+        for (EntityType<?> t : model.getEntities()) {
+            entities.add(t);
+            entitiesByName.put(t.getName(), t);
+            entityNames.put(t.getName(), t);
+            idConverters.put(t.getName(), IdConverter.of(t));
+            for (SingularAttribute<?, ?> attr : t.getSingularAttributes()) {
+                if (attr.isVersion()) versions.put(t.getName(), attr);
+            }
+        }
+        this.entities       = Collections.unmodifiableList(entities);
+        this.entitiesByName = Collections.unmodifiableMap(entitiesByName);
+        this.typesByClass   = Collections.unmodifiableMap(typesByClass);
+        this.attributes     = Collections.unmodifiableMap(attributes);
+        this.idConverters   = Collections.unmodifiableMap(idConverters);
+        this.versions       = Collections.unmodifiableMap(versions);
+
+        List<Edge> edges = new ArrayList<Edge>();
+        for (EntityType<?> t : entities) {
+            for (Attribute<?, ?> attr : getAttributes(t)) {
+                ManagedType<?> target = getTargetType(attr);
+                if (target != null) {
+                    edges.add(new Edge(EDGE_RELATION,
+                            getTypeName(attr.getDeclaringType()),
+                            getTypeName(target)));
+                }
+            }
+            if (t.getSupertype() != null) {
+                ManagedType<?> superType = getManagedType(
+                        t.getSupertype().getJavaType());
+                if (superType != null) {
+                    edges.add(new Edge(EDGE_INHERITANCE,
+                            getTypeName(t), getTypeName(superType)));
+                }
+            }
+        }
+        this.edges = Collections.unmodifiableList(edges);
+    }
+
+    public Metamodel getModel() {
+        return model;
+    }
+
+    /**
+     * Gets all entity types in the order they were found in the model.
+     */
+    public List<EntityType<?>> getEntityTypes() {
+        return entities;
+    }
+
+    /**
+     * Gets the entity type of given name.
+     *
+     * @return null if no entity type of given name exists.
+     */
+    public EntityType<?> getEntityType(String name) {
+        return entitiesByName.get(name);
+    }
+
+    /**
+     * Gets the entity type named by the given range of the given string,
+     * such as a segment of a path, without taking the name out of the
+     * string.
+     *
+     * @return null if no entity type of given name exists.
+     */
+    public EntityType<?> getEntityType(String s, int start, int end) {
+        return entityNames.get(s, start, end);
+    }
+
+    /**
+     * Gets the entity type of given class or of its nearest persistent
+     * superclass, which may be the case for instances enhanced by the
+     * provider.
+     *
+     * @return null if neither the class nor its superclasses are entity.
+     */
+    public EntityType<?> getEntityType(Class<?> cls) {
+        for (Class<?> c = cls; c != null && c != Object.class; c = c.getSuperclass()) {
+            ManagedType<?> t = typesByClass.get(c);
+            if (t instanceof EntityType) return (EntityType<?>)t;
+        }
+        return null;
+    }
+
+    /**
+     * Gets the converter of the identity of the given entity type.
+     */
+    public IdConverter getIdConverter(EntityType<?> type) {
+        IdConverter converter = idConverters.get(type.getName());
+        if (converter == null) {
+            throw new IllegalArgumentException(type + " is not in " + model);
+        }
+        return converter;
+    }
+
+    /**
+     * Gets the version attribute of the given entity type, declared or
+     * inherited, that the persistence unit uses for optimistic locking.
+     *
+     * @return null if the type has no version attribute.
+     */
+    public SingularAttribute<?, ?> getVersionAttribute(EntityType<?> type) {
+        return versions.get(type.getName());
+    }
+
+    /**
+     * Gets the single identity attribute of the given entity type, declared
+     * or inherited. The attribute is found among the attributes rather
+     * than by {@link EntityType#getId(Class)}, which a provider may refuse
+     * for an identity of primitive type when given the identity type it
+     * reports, the wrapper type.
+     *
+     * @return null if the type has a composite identity of an id class.
+     */
+    @SuppressWarnings("unchecked")
+    public static <X> SingularAttribute<? super X, ?> getIdAttribute(EntityType<X> type) {
+        if (!type.hasSingleIdAttribute()) return null;
+        for (SingularAttribute<? super X, ?> attr : type.getSingularAttributes()) {
+            if (attr.isId()) return attr;
+        }
+        return null;
+    }
+
+    /**
+     * Gets the embeddable type of given class.
+     *
+     * @return null if the class is not an embeddable.
+     */
+    public EmbeddableType<?> getEmbeddableType(Class<?> cls) {
+        ManagedType<?> t = typesByClass.get(cls);
+        return t instanceof EmbeddableType ? (EmbeddableType<?>)t : null;
+    }
+
+    /**
+     * Gets the managed type of given class.
+     *
+     * @return null if the class is not a managed type.
+     */
+    public ManagedType<?> getManagedType(Class<?> cls) {
+        return typesByClass.get(cls);
+    }
+
+    /**
+     * Gets all attributes of the given type, including inherited ones.
+     */
+    public List<Attribute<?, ?>> getAttributes(ManagedType<?> type) {
+        return getTable(type).all;
+    }
+
+    /**
+     * Gets the attributes of the given type that are neither identity
+     * nor association.
+     */
+    public List<Attribute<?, ?>> getBasicAttributes(ManagedType<?> type) {
+        return getTable(type).basic;
+    }
+
+    /**
+     * Gets the association attributes of the given type.
+     */
+    public List<Attribute<?, ?>> getAssociations(ManagedType<?> type) {
+        return getTable(type).associations;
+    }
+
+    /**
+     * Gets the association attributes of the given type that are mapped by
+     * the other side of the relation. A change to such a relation does not
+     * update the version of the type.
+     */
+    public List<Attribute<?, ?>> getInverseAssociations(ManagedType<?> type) {
+        return getTable(type).inverse;
+    }
+
+    /**
+     * Gets the attribute of given name of the given type.
+     *
+     * @return null if the type has no attribute of given name.
+     */
+    public Attribute<?, ?> getAttribute(ManagedType<?> type, String name) {
+        return getTable(type).byName.get(name);
+    }
+
+    /**
+     * Gets the relation and inheritance edges between the entity types.
+     */
+    public List<Edge> getEdges() {
+        return edges;
+    }
+
+    /**
+     * Gets the type an attribute refers to. For a collection attribute,
+     * the element type.
+     *
+     * @return null if the attribute does not refer to a managed type.
+     */
+    public ManagedType<?> getTargetType(Attribute<?, ?> attr) {
+        Class<?> cls = attr.getJavaType();
+        if (attr.isCollection()) {
+            cls = PluralAttribute.class.cast(attr)
+                    .getElementType()
+                    .getJavaType();
+        }
+        return getManagedType(cls);
+    }
+
+    /**
+     * Gets the name of a type as it appears in the documents.
+     */
+    public String getTypeName(ManagedType<?> type) {
+        switch (type.getPersistenceType()) {
+        case ENTITY:
+            return ((EntityType<?>)type).getName();
+        case EMBEDDABLE:
+        case MAPPED_SUPERCLASS:
+            return type.getJavaType().getSimpleName();
+        default:
+            return null;
+        }
+    }
+
+    private AttributeTable getTable(ManagedType<?> type) {
+        AttributeTable table = attributes.get(type.getJavaType());
+        if (table == null) {
+            throw new IllegalArgumentException(type + " is not in " + model);
+        }
+        return table;
+    }
+
+    /**
+     * Attributes of a managed type indexed by name and partitioned by kind.
+     */
+    private static class AttributeTable {
+        final List<Attribute<?, ?>> all;
+        final List<Attribute<?, ?>> basic;
+        final List<Attribute<?, ?>> associations;
+        final List<Attribute<?, ?>> inverse;
+        final Map<String, Attribute<?, ?>> byName;
+
+        AttributeTable(ManagedType<?> type) {
+            List<Attribute<?, ?>> all = new ArrayList<Attribute<?, ?>>();
+            List<Attribute<?, ?>> basic = new ArrayList<Attribute<?, ?>>();
+            List<Attribute<?, ?>> associations = new ArrayList<Attribute<?, ?>>();
+            List<Attribute<?, ?>> inverse = new ArrayList<Attribute<?, ?>>();
+            Map<String, Attribute<?, ?>> byName = new HashMap<String, Attribute<?, ?>>();
+            for (Attribute<?, ?> attr : type.getAttributes()) {
+                all.add(attr);
+                byName.put(attr.getName(), attr);
+                if (attr.isAssociation()) {
+                    associations.add(attr);
+                    if (isInverse(attr)) inverse.add(attr);
+                } else if (!isId(attr)) {
+                    basic.add(attr);
+                }
+            }
+            this.all = Collections.unmodifiableList(all);
+            this.basic = Collections.unmodifiableList(basic);
+            this.associations = Collections.unmodifiableList(associations);
+            this.inverse = Collections.unmodifiableList(inverse);
+            this.byName = Collections.unmodifiableMap(byName);
+        }
+
+        /*
+         * affirms if the given association is mapped by the other side, as
+         * annotated on its field or property.
+         */
+        static boolean isInverse(Attribute<?, ?> attr) {
+            Member member = attr.getJavaMember();
+            if (!(member instanceof AnnotatedElement)) return false;
+            AnnotatedElement e = (AnnotatedElement)member;
+            OneToMany oneToMany = e.getAnnotation(OneToMany.class);
+            if (oneToMany != null) return !oneToMany.mappedBy().isEmpty();
+            ManyToMany manyToMany = e.getAnnotation(ManyToMany.class);
+            if (manyToMany != null) return !manyToMany.mappedBy().isEmpty();
+            OneToOne oneToOne = e.getAnnotation(OneToOne.class);
+            return oneToOne != null && !oneToOne.mappedBy().isEmpty();
+        }
+
+        static boolean isId(Attribute<?, ?> attr) {
+            return attr instanceof SingularAttribute
+                && ((SingularAttribute<?, ?>)attr).isId();
+        }
+    }
+
+    /**
+     * A directed edge between two types of the model.
+     */
+    public static class Edge {
+        private final String category;
+        private final String source;
+        private final String target;
+
+        Edge(String category, String source, String target) {
+            this.category = category;
+            this.source = source;
+            this.target = target;
+        }
+
+        /**
+         * Either {@link MetamodelIndex#EDGE_RELATION relation} or
+         * {@link MetamodelIndex#EDGE_INHERITANCE inheritance}.
+         */
+        public String getCategory() {
+            return category;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public String getTarget() {
+            return target;
+        }
+    }
+}
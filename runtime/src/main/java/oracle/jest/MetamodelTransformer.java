@@ -1,14 +1,9 @@
 package oracle.jest;
 
+import java.io.IOException;
+
 import javax.persistence.metamodel.Attribute;
-import javax.persistence.metamodel.CollectionAttribute;
 import javax.persistence.metamodel.EntityType;
-import javax.persistence.metamodel.ManagedType;
-import javax.persistence.metamodel.Metamodel;
-import javax.persistence.metamodel.PluralAttribute;
-
-import org.json.JSONArray;
-import org.json.JSONObject;
 
 public class MetamodelTransformer  {
     private static final String ATTR_TYPE_NAME = "name";
@@ -31,114 +26,57 @@ public class MetamodelTransformer  {
     private static final String ATTR_LINK_SOURCE = "source";
     private static final String ATTR_LINK_TARGET = "target";
 
-    private final Metamodel model;
-    private final JSONObject json;
+    private final MetamodelIndex index;
     
-    public MetamodelTransformer(Metamodel model) {
-        this.model = model;
-        this.json = new JSONObject();
-        
-        System.err.println("Created " + this);
-    }
-    
-    JSONObject transformModel() {
-        System.err.println(this + ".transformModel() " + 
-    model.getManagedTypes().size() + " types");
-        json.put(ATTR_ENTITIES, new JSONArray());
-        json.put(ATTR_LINKS,    new JSONArray());
-        for (EntityType<?> t : model.getEntities()) {
-            json.accumulate(ATTR_ENTITIES, transformType(t));
-        }
-        System.err.println("created Metamodel json\r\n" + json.toString(4));
-        return json;
+    public MetamodelTransformer(MetamodelIndex index) {
+        this.index = index;
     }
     
-    JSONObject transformType(EntityType<?> type) {
-        System.err.println(this + ".transformType() " + type.getName());
-        JSONObject result = new JSONObject();
-        result.put(ATTR_TYPE_NAME, type.getName());
-        result.put(ATTR_RESOURCE_ATTRIBUTES, new JSONArray());
-        for (Attribute<?, ?> attr : type.getAttributes()) {
-            result.accumulate(ATTR_RESOURCE_ATTRIBUTES, 
-                    transformAttribute(attr));
-            
-            ManagedType<?> targetType = getTargetType(attr);
-            if (targetType != null) {
-                JSONObject relation = newLink("relation",
-                        getTypeName(attr.getDeclaringType()),
-                        getTypeName(targetType));
-                json.accumulate(ATTR_LINKS, relation);
-            }
+    /**
+     * Writes all entity types and the relations between them.
+     */
+    void transformModel(TokenWriter out) throws IOException {
+        out.beginObject();
+        out.name(ATTR_ENTITIES).beginArray();
+        for (EntityType<?> t : index.getEntityTypes()) {
+            transformType(t, out);
         }
-        if (type.getSupertype() != null) {
-            // inheritance relation
-            ManagedType<?> superType = getManagedTypeForJavaClass(
-                    type.getSupertype().getJavaType());
-            if (superType != null) {
-                JSONObject inheritance = newLink("inheritance",
-                    getTypeName(type), 
-                    getTypeName(superType));
-                json.accumulate(ATTR_LINKS, inheritance);
-            }
+        out.endArray();
+        out.name(ATTR_LINKS).beginArray();
+        for (MetamodelIndex.Edge edge : index.getEdges()) {
+            newLink(edge.getCategory(), edge.getSource(), edge.getTarget(), out);
         }
-        return result;
-    }
-
-    
-        
-    
-    JSONObject transformAttribute(Attribute<?, ?> attr) {
-        System.err.println(this + ".transformAttribute() " + attr.getName());
-        JSONObject result = new JSONObject();
-        result.put(ATTR_ATTRIBUTE_NAME, attr.getName());
-        result.put(ATTR_ATTRIBUTE_TYPE, attr.getJavaType().getSimpleName());
-        return result;
-    }
-    
-
-    
-    JSONObject newLink(String category, String source, String target) {
-        JSONObject link = new JSONObject();
-        link.put(ATTR_LINK_SOURCE, source);
-        link.put(ATTR_LINK_TARGET, target);
-        link.put(ATTR_LINK_TYPE, category);
-        
-        return link;
-        
+        out.endArray();
+        out.endObject();
     }
     
-    
-    /**
-     * gets target type of given attribute.
-     * @return
-     */
-    ManagedType<?> getTargetType(Attribute<?, ?> attr) {
-        Class<?> cls = attr.getJavaType();
-        if (attr.isCollection()) {
-            cls = PluralAttribute.class.cast(attr)
-                    .getElementType()
-                    .getJavaType();
+    void transformType(EntityType<?> type, TokenWriter out) 
+            throws IOException {
+        out.beginObject();
+        out.name(ATTR_TYPE_NAME).value(type.getName());
+        out.name(ATTR_RESOURCE_ATTRIBUTES).beginArray();
+        for (Attribute<?, ?> attr : index.getAttributes(type)) {
+            transformAttribute(attr, out);
         }
-        return getManagedTypeForJavaClass(cls);
+        out.endArray();
+        out.endObject();
     }
     
-    ManagedType<?> getManagedTypeForJavaClass(Class<?> cls) {
-        for (ManagedType<?> t : model.getManagedTypes()) {
-            if (t.getJavaType() == cls) return t;
-        }
-        return null;
+    void transformAttribute(Attribute<?, ?> attr, TokenWriter out) 
+            throws IOException {
+        out.beginObject();
+        out.name(ATTR_ATTRIBUTE_NAME).value(attr.getName());
+        out.name(ATTR_ATTRIBUTE_TYPE).value(attr.getJavaType().getSimpleName());
+        out.endObject();
     }
     
-    String getTypeName(ManagedType<?> type) {
-        switch (type.getPersistenceType()) {
-        case ENTITY:
-            return ((EntityType<?>)type).getName();
-        case EMBEDDABLE:
-        case MAPPED_SUPERCLASS:
-            return type.getJavaType().getSimpleName();
-        default:
-            return null;
-        }
+    void newLink(String category, String source, String target, 
+            TokenWriter out) throws IOException {
+        out.beginObject();
+        out.name(ATTR_LINK_SOURCE).value(source);
+        out.name(ATTR_LINK_TARGET).value(target);
+        out.name(ATTR_LINK_TYPE).value(category);
+        out.endObject();
     }
 
 }
@@ -0,0 +1,106 @@
+package oracle.jest;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * A response that counts the bytes of content written to it.
+ * <br>
+ * The response wraps the response of the container, outside of any
+ * {@link CompressingResponse compression}, so that it counts the bytes
+ * sent to the client.
+ *
+ * @author pinaki poddar
+ *
+ */
+class MeteredResponse extends HttpServletResponseWrapper {
+    private CountingStream stream;
+    private PrintWriter writer;
+
+    MeteredResponse(HttpServletResponse response) {
+        super(response);
+    }
+
+    /**
+     * Gets the number of bytes written so far.
+     */
+    long getBytesWritten() {
+        if (writer != null) writer.flush();
+        return stream == null ? 0 : stream.count;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (stream == null) {
+            stream = new CountingStream(super.getOutputStream());
+        }
+        return stream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            try {
+                writer = new PrintWriter(new OutputStreamWriter(
+                        getOutputStream(), getCharacterEncoding()));
+            } catch (UnsupportedEncodingException ex) {
+                writer = new PrintWriter(getOutputStream());
+            }
+        }
+        return writer;
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if (writer != null) writer.flush();
+        super.flushBuffer();
+    }
+
+    static class CountingStream extends ServletOutputStream {
+        private final ServletOutputStream out;
+        private long count;
+
+        CountingStream(ServletOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return out.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener listener) {
+            out.setWriteListener(listener);
+        }
+    }
+}
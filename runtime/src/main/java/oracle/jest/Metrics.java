@@ -0,0 +1,187 @@
+package oracle.jest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the requests the servlet processes, their errors, the bytes of
+ * their responses and their {@link LatencyHistogram latency}, for each
+ * command and entity type.
+ * <br>
+ * The latency of a request is recorded in total and for each
+ * {@link RequestTimer phase} of its processing. The series of a command
+ * and type is created the first time a request of the command on the
+ * type completes. Recording a request afterwards only increments
+ * counters.
+ * <p>
+ * The metrics are served by {@link MetricsCommand}.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class Metrics {
+    private final long started = System.currentTimeMillis();
+    private final ConcurrentMap<String, ConcurrentMap<String, Series>> series =
+            new ConcurrentHashMap<String, ConcurrentMap<String, Series>>();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    /**
+     * Records a completed request.
+     *
+     * @param command name of the command that processed the request
+     * @param type name of the entity type of the request, or empty
+     * @param status status code of the response
+     * @param bytes number of bytes of the response
+     */
+    public void record(String command, String type, int status,
+            RequestTimer timer, long bytes) {
+        getSeries(command, type).record(status, timer, bytes);
+    }
+
+    /**
+     * Records a request rejected because too many requests were executing.
+     */
+    public void recordRejected() {
+        rejected.increment();
+    }
+
+    /**
+     * Records a request that did not complete in time.
+     */
+    public void recordTimeout() {
+        timedOut.increment();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getTimeoutCount() {
+        return timedOut.sum();
+    }
+
+    /**
+     * Gets the milliseconds since the metrics started to be recorded.
+     */
+    public long getUptime() {
+        return System.currentTimeMillis() - started;
+    }
+
+    /**
+     * Gets the series recorded so far, ordered by command and type.
+     */
+    public List<Series> getSeries() {
+        List<Series> list = new ArrayList<Series>();
+        for (ConcurrentMap<String, Series> byType : series.values()) {
+            list.addAll(byType.values());
+        }
+        Collections.sort(list, new Comparator<Series>() {
+            @Override
+            public int compare(Series a, Series b) {
+                int c = a.command.compareTo(b.command);
+                return c != 0 ? c : a.type.compareTo(b.type);
+            }
+        });
+        return list;
+    }
+
+    private Series getSeries(String command, String type) {
+        ConcurrentMap<String, Series> byType = series.get(command);
+        if (byType == null) {
+            byType = new ConcurrentHashMap<String, Series>();
+            ConcurrentMap<String, Series> other = series.putIfAbsent(command, byType);
+            if (other != null) byType = other;
+        }
+        Series s = byType.get(type);
+        if (s == null) {
+            s = new Series(command, type);
+            Series other = byType.putIfAbsent(type, s);
+            if (other != null) s = other;
+        }
+        return s;
+    }
+
+    /**
+     * The metrics of the requests of a command on an entity type.
+     */
+    public static class Series {
+        private final String command;
+        private final String type;
+        private final LongAdder requests     = new LongAdder();
+        private final LongAdder clientErrors = new LongAdder();
+        private final LongAdder serverErrors = new LongAdder();
+        private final LongAdder bytes        = new LongAdder();
+        private final LatencyHistogram total = new LatencyHistogram();
+        private final LatencyHistogram[] phases =
+                new LatencyHistogram[RequestTimer.PHASES.length];
+
+        Series(String command, String type) {
+            this.command = command;
+            this.type = type;
+            for (int i = 0; i < phases.length; i++) {
+                phases[i] = new LatencyHistogram();
+            }
+        }
+
+        void record(int status, RequestTimer timer, long n) {
+            requests.increment();
+            if (status >= 500) {
+                serverErrors.increment();
+            } else if (status >= 400) {
+                clientErrors.increment();
+            }
+            bytes.add(n);
+            total.record(timer.getTotal());
+            for (int i = 0; i < phases.length; i++) {
+                phases[i].record(timer.getElapsed(i));
+            }
+        }
+
+        public String getCommand() {
+            return command;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public long getRequestCount() {
+            return requests.sum();
+        }
+
+        /**
+         * Gets the number of responses with a 4xx status.
+         */
+        public long getClientErrorCount() {
+            return clientErrors.sum();
+        }
+
+        /**
+         * Gets the number of responses with a 5xx status.
+         */
+        public long getServerErrorCount() {
+            return serverErrors.sum();
+        }
+
+        public long getBytesWritten() {
+            return bytes.sum();
+        }
+
+        public LatencyHistogram getLatency() {
+            return total;
+        }
+
+        /**
+         * Gets the latency of the given {@link RequestTimer phase}.
+         */
+        public LatencyHistogram getLatency(int phase) {
+            return phases[phase];
+        }
+    }
+}
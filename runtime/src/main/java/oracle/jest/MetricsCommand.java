@@ -0,0 +1,317 @@
+package oracle.jest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Gets the {@link Metrics metrics} of the servlet, along with the
+ * statistics of its persistence contexts, response cache, compression
+ * and registered queries.
+ * <br>
+ * The metrics are a JSON object by default. A request that accepts
+ * <code>text/plain</code>, as a Prometheus server does when it scrapes
+ * the path, or that has the parameter <code>format=prometheus</code>
+ * gets the metrics in the text format of Prometheus. The latency of the
+ * requests of a command on an entity type is a summary of quantiles for
+ * the total and for each phase of the request.
+ * <p>
+ * The statistics of the persistence contexts, response cache and queries
+ * are given for each persistence unit that is open, in an object of the
+ * unit in JSON and with a <code>unit</code> label in Prometheus.
+ * <pre>
+ *    GET /_metrics
+ *    GET /_metrics?format=prometheus
+ * </pre>
+ *
+ * @author pinaki poddar
+ *
+ */
+public class MetricsCommand extends JESTCommand {
+    public static final String PATH = "/_metrics";
+    public static final String PARAM_FORMAT = "format";
+    public static final String FORMAT_PROMETHEUS = "prometheus";
+    static final String MIMETYPE_PROMETHEUS = "text/plain; version=0.0.4; charset=utf-8";
+    static final String MIMETYPE_TEXT = "text/plain";
+    private static final String PREFIX = "jest_";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] QUANTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    public MetricsCommand(JESTContext ctx) throws ServletException {
+        super(ctx);
+    }
+
+    @Override
+    public void execute() throws ServletException, IOException {
+        HttpServletRequest request = getContext().getRequest();
+        HttpServletResponse response = getContext().getResponse();
+        Metrics metrics = getContextAttribute(JESTContext.METRICS, Metrics.class);
+        if (metrics == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND,
+                    "Metrics are not recorded");
+            return;
+        }
+        List<Stat> stats = getStats(metrics);
+        response.setHeader("Cache-Control", "no-store");
+        String accept = request.getHeader(JESTContext.HEADER_ACCEPT);
+        if (FORMAT_PROMETHEUS.equals(request.getParameter(PARAM_FORMAT))
+         || (accept != null && accept.contains(MIMETYPE_TEXT))) {
+            byte[] text = toPrometheus(metrics, stats).getBytes(StandardCharsets.UTF_8);
+            response.setContentType(MIMETYPE_PROMETHEUS);
+            response.setContentLength(text.length);
+            response.getOutputStream().write(text);
+        } else {
+            response.setContentType("application/json");
+            response.setCharacterEncoding("UTF-8");
+            JSONStreamWriter out = new JSONStreamWriter(response.getOutputStream());
+            try {
+                writeJSON(metrics, stats, out);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /*
+     * the statistics of the components of the servlet that are configured,
+     * followed by the statistics of each persistence unit that is open
+     */
+    private List<Stat> getStats(Metrics metrics) {
+        List<Stat> stats = new ArrayList<Stat>();
+        stats.add(new Stat("async", "rejected", true, metrics.getRejectedCount()));
+        stats.add(new Stat("async", "timed_out", true, metrics.getTimeoutCount()));
+        DeflaterPool deflaters = getContextAttribute(JESTContext.DEFLATER_POOL,
+                DeflaterPool.class);
+        if (deflaters != null) {
+            stats.add(new Stat("compression", "responses", true, deflaters.getCompressedCount()));
+            stats.add(new Stat("compression", "bytes_in",  true, deflaters.getBytesIn()));
+            stats.add(new Stat("compression", "bytes_out", true, deflaters.getBytesOut()));
+            stats.add(new Stat("compression", "deflaters_created", true, deflaters.getCreatedCount()));
+            stats.add(new Stat("compression", "deflaters_reused",  true, deflaters.getReusedCount()));
+        }
+        PersistenceUnitRegistry units = getContextAttribute(
+                JESTContext.PERSISTENCE_UNITS, PersistenceUnitRegistry.class);
+        if (units == null) return stats;
+        List<PersistenceUnitHolder> open = units.getOpenHolders();
+        stats.add(new Stat("persistence_units", "configured", false, units.getNames().size()));
+        stats.add(new Stat("persistence_units", "open",       false, open.size()));
+        for (PersistenceUnitHolder unit : open) {
+            addStats(unit, stats);
+        }
+        return stats;
+    }
+
+    private void addStats(PersistenceUnitHolder unit, List<Stat> stats) {
+        String name = unit.getName();
+        PersistenceContextPool pool = unit.getPersistenceContextPool();
+        if (pool != null) {
+            stats.add(new Stat(name, "persistence_contexts", "open",    false, pool.getOpenCount()));
+            stats.add(new Stat(name, "persistence_contexts", "active",  false, pool.getActiveCount()));
+            stats.add(new Stat(name, "persistence_contexts", "idle",    false, pool.getIdleCount()));
+            stats.add(new Stat(name, "persistence_contexts", "created", true,  pool.getCreatedCount()));
+            stats.add(new Stat(name, "persistence_contexts", "reused",  true,  pool.getReusedCount()));
+            stats.add(new Stat(name, "persistence_contexts", "closed",  true,  pool.getClosedCount()));
+        }
+        ResponseCache cache = (ResponseCache)unit.getAttribute(JESTContext.RESPONSE_CACHE);
+        if (cache != null) {
+            stats.add(new Stat(name, "response_cache", "documents", false, cache.getSize()));
+            stats.add(new Stat(name, "response_cache", "bytes",     false, cache.getBytes()));
+            stats.add(new Stat(name, "response_cache", "hits",      true,  cache.getHitCount()));
+            stats.add(new Stat(name, "response_cache", "misses",    true,  cache.getMissCount()));
+            stats.add(new Stat(name, "response_cache", "evictions", true,  cache.getEvictionCount()));
+        }
+        QueryRegistry queries = (QueryRegistry)unit.getAttribute(JESTContext.QUERY_REGISTRY);
+        if (queries != null) {
+            stats.add(new Stat(name, "queries", "registered", false, queries.getSize()));
+            stats.add(new Stat(name, "queries", "hits",       true,  queries.getHitCount()));
+            stats.add(new Stat(name, "queries", "misses",     true,  queries.getMissCount()));
+        }
+    }
+
+    /*
+     * durations are written in milliseconds
+     */
+    void writeJSON(Metrics metrics, List<Stat> stats, JSONStreamWriter out)
+            throws IOException {
+        out.beginObject();
+        out.name("uptime").value(metrics.getUptime());
+        out.name("requests").beginArray();
+        for (Metrics.Series series : metrics.getSeries()) {
+            long count = series.getRequestCount();
+            long errors = series.getClientErrorCount() + series.getServerErrorCount();
+            out.beginObject();
+            out.name("command").value(series.getCommand());
+            out.name("type").value(series.getType());
+            out.name("count").value(count);
+            out.name("clientErrors").value(series.getClientErrorCount());
+            out.name("serverErrors").value(series.getServerErrorCount());
+            out.name("errorRate").value(count == 0 ? 0 : (double)errors / count);
+            out.name("bytes").value(series.getBytesWritten());
+            out.name("latency").beginObject();
+            writeJSON("total", series.getLatency(), out);
+            for (int i = 0; i < RequestTimer.PHASES.length; i++) {
+                writeJSON(RequestTimer.PHASES[i], series.getLatency(i), out);
+            }
+            out.endObject();
+            out.endObject();
+        }
+        out.endArray();
+        String unit = null;
+        String group = null;
+        for (Stat stat : stats) {
+            if (stat.unit != null && !stat.unit.equals(unit)) {
+                if (group != null) out.endObject();
+                group = null;
+                if (unit == null) {
+                    out.name("units").beginObject();
+                } else {
+                    out.endObject();
+                }
+                unit = stat.unit;
+                out.name(unit).beginObject();
+            }
+            if (!stat.group.equals(group)) {
+                if (group != null) out.endObject();
+                group = stat.group;
+                out.name(group).beginObject();
+            }
+            out.name(stat.name).value(stat.value);
+        }
+        if (group != null) out.endObject();
+        if (unit != null) {
+            out.endObject();
+            out.endObject();
+        }
+        out.endObject();
+    }
+
+    private void writeJSON(String name, LatencyHistogram h, JSONStreamWriter out)
+            throws IOException {
+        out.name(name).beginObject();
+        out.name("count").value(h.getCount());
+        out.name("mean").value(h.getMean() / 1000);
+        for (int i = 0; i < QUANTILES.length; i++) {
+            out.name(QUANTILE_NAMES[i]).value(h.getPercentile(QUANTILES[i]) / 1000.0);
+        }
+        out.name("max").value(h.getMax() / 1000.0);
+        out.endObject();
+    }
+
+    /*
+     * durations are written in seconds, as Prometheus expects
+     */
+    String toPrometheus(Metrics metrics, List<Stat> stats) {
+        StringBuilder buf = new StringBuilder(4096);
+        List<Metrics.Series> all = metrics.getSeries();
+        String requests = PREFIX + "requests_total";
+        header(buf, requests, "counter", "Requests processed");
+        for (Metrics.Series s : all) {
+            sample(buf, requests, labels(s), s.getRequestCount());
+        }
+        String errors = PREFIX + "request_errors_total";
+        header(buf, errors, "counter", "Requests answered with an error status");
+        for (Metrics.Series s : all) {
+            sample(buf, errors, labels(s) + ",class=\"4xx\"", s.getClientErrorCount());
+            sample(buf, errors, labels(s) + ",class=\"5xx\"", s.getServerErrorCount());
+        }
+        String bytes = PREFIX + "response_bytes_total";
+        header(buf, bytes, "counter", "Bytes of response content sent");
+        for (Metrics.Series s : all) {
+            sample(buf, bytes, labels(s), s.getBytesWritten());
+        }
+        String duration = PREFIX + "request_duration_seconds";
+        header(buf, duration, "summary", "Latency of requests in total and by phase");
+        for (Metrics.Series s : all) {
+            summary(buf, duration, labels(s) + ",phase=\"total\"", s.getLatency());
+            for (int i = 0; i < RequestTimer.PHASES.length; i++) {
+                summary(buf, duration, labels(s) + ",phase=\""
+                        + RequestTimer.PHASES[i] + '"', s.getLatency(i));
+            }
+        }
+        // the samples of a statistic of all units are written together
+        Map<String, List<Stat>> families = new LinkedHashMap<String, List<Stat>>();
+        for (Stat stat : stats) {
+            String name = PREFIX + stat.group + '_' + stat.name
+                    + (stat.counter ? "_total" : "");
+            List<Stat> family = families.get(name);
+            if (family == null) {
+                family = new ArrayList<Stat>();
+                families.put(name, family);
+            }
+            family.add(stat);
+        }
+        for (Map.Entry<String, List<Stat>> family : families.entrySet()) {
+            String name = family.getKey();
+            header(buf, name, family.getValue().get(0).counter ? "counter" : "gauge", null);
+            for (Stat stat : family.getValue()) {
+                sample(buf, name, stat.unit == null ? null 
+                        : "unit=\"" + escape(stat.unit) + '"', stat.value);
+            }
+        }
+        return buf.toString();
+    }
+
+    private static void header(StringBuilder buf, String name, String type,
+            String help) {
+        if (help != null) {
+            buf.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        }
+        buf.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder buf, String name, String labels,
+            Number value) {
+        buf.append(name);
+        if (labels != null) buf.append('{').append(labels).append('}');
+        buf.append(' ').append(value).append('\n');
+    }
+
+    private static void summary(StringBuilder buf, String name, String labels,
+            LatencyHistogram h) {
+        for (double q : QUANTILES) {
+            sample(buf, name, labels + ",quantile=\"" + q + '"',
+                    h.getPercentile(q) / 1e6);
+        }
+        sample(buf, name + "_sum", labels, h.getSum() / 1e6);
+        sample(buf, name + "_count", labels, h.getCount());
+    }
+
+    private static String labels(Metrics.Series s) {
+        return "command=\"" + escape(s.getCommand()) + "\",type=\""
+                + escape(s.getType()) + '"';
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * A statistic of a component of the servlet, or of a persistence unit.
+     */
+    static class Stat {
+        final String unit;
+        final String group;
+        final String name;
+        final boolean counter;
+        final long value;
+
+        Stat(String group, String name, boolean counter, long value) {
+            this(null, group, name, counter, value);
+        }
+
+        Stat(String unit, String group, String name, boolean counter, long value) {
+            this.unit = unit;
+            this.group = group;
+            this.name = name;
+            this.counter = counter;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package oracle.jest;
+
+/**
+ * A trie of names, to look up a name given as a range of characters of
+ * a string, such as a segment of a request path, without taking the
+ * range out of the string.
+ * <br>
+ * A lookup visits one node for each character of the range, and each
+ * node has as many children as there are different characters after
+ * its prefix, which is few for the names of a domain model.
+ * <p>
+ * A trie is filled once and is then only read, so it may be read by
+ * many threads once it is safely published.
+ *
+ * @author pinaki poddar
+ *
+ */
+class NameTrie<V> {
+    private static final char[] NO_KEYS = new char[0];
+    private static final NameTrie<?>[] NO_CHILDREN = new NameTrie<?>[0];
+
+    private char[] keys = NO_KEYS;
+    private NameTrie<?>[] children = NO_CHILDREN;
+    private V value;
+
+    /**
+     * Puts the given value for the given name, replacing the value put
+     * before, if any.
+     */
+    void put(String name, V value) {
+        NameTrie<V> node = this;
+        for (int i = 0; i < name.length(); i++) {
+            NameTrie<V> child = node.child(name.charAt(i));
+            if (child == null) {
+                child = new NameTrie<V>();
+                node.add(name.charAt(i), child);
+            }
+            node = child;
+        }
+        node.value = value;
+    }
+
+    /**
+     * Gets the value of the name that is the given range of the given
+     * string.
+     *
+     * @param start index of the first character of the name
+     * @param end index after the last character of the name
+     * @return null if no such name is put
+     */
+    V get(String s, int start, int end) {
+        NameTrie<V> node = this;
+        for (int i = start; i < end && node != null; i++) {
+            node = node.child(s.charAt(i));
+        }
+        return node == null ? null : node.value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private NameTrie<V> child(char c) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == c) return (NameTrie<V>)children[i];
+        }
+        return null;
+    }
+
+    private void add(char c, NameTrie<V> child) {
+        int n = keys.length;
+        char[] keys = new char[n+1];
+        NameTrie<?>[] children = new NameTrie<?>[n+1];
+        System.arraycopy(this.keys, 0, keys, 0, n);
+        System.arraycopy(this.children, 0, children, 0, n);
+        keys[n] = c;
+        children[n] = child;
+        this.keys = keys;
+        this.children = children;
+    }
+}
@@ -0,0 +1,43 @@
+package oracle.jest;
+
+import java.util.List;
+
+/**
+ * A page of persistent instances in a larger result, along with 
+ * the link to fetch the page that follows it.
+ *  
+ * @author pinaki poddar
+ *
+ */
+public class Page {
+    private final List<?> items;
+    private final String self;
+    private final String next;
+    
+    /**
+     * @param items the instances in this page
+     * @param self link to this page
+     * @param next link to the next page. null if this is the last page.
+     */
+    public Page(List<?> items, String self, String next) {
+        this.items = items;
+        this.self = self;
+        this.next = next;
+    }
+    
+    public List<?> getItems() {
+        return items;
+    }
+    
+    public String getSelfLink() {
+        return self;
+    }
+    
+    public String getNextLink() {
+        return next;
+    }
+    
+    public boolean isLast() {
+        return next == null;
+    }
+}
@@ -0,0 +1,176 @@
+package oracle.jest;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Supplies the persistence contexts for requests against a persistence
+ * unit and accounts for them.
+ * <br>
+ * A persistence context is {@link #acquire() acquired} when a request
+ * first needs one and {@link #release(EntityManager) released} when the
+ * request completes. A released persistence context is closed, so that
+ * neither it nor the instances it manages outlive the request.
+ * <p>
+ * If the servlet is <em>read-only</em>, a released persistence context
+ * is instead cleared and kept for a following request, as creating a
+ * persistence context is not free for many providers. At most a fixed
+ * number of idle persistence contexts are kept; the ones beyond are
+ * closed. A persistence context that is still joined to a transaction
+ * or has been closed is never reused.
+ * <p>
+ * The pool is not bound to a thread. A request processed asynchronously
+ * may acquire a persistence context on one thread and release it on
+ * another.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class PersistenceContextPool {
+    private static final Logger logger = Logger.getLogger("RUNTIME");
+
+    private final EntityManagerFactory emf;
+    private final BlockingQueue<EntityManager> idle;
+
+    private final AtomicLong created  = new AtomicLong();
+    private final AtomicLong closed   = new AtomicLong();
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong reused   = new AtomicLong();
+
+    /**
+     * @param emf the persistence unit
+     * @param maxIdle number of released persistence contexts kept for
+     * reuse. Zero to close every released persistence context.
+     */
+    public PersistenceContextPool(EntityManagerFactory emf, int maxIdle) {
+        this.emf = emf;
+        this.idle = maxIdle > 0
+                ? new ArrayBlockingQueue<EntityManager>(maxIdle) : null;
+    }
+
+    /**
+     * Gets a persistence context that manages no instance.
+     */
+    public EntityManager acquire() {
+        acquired.incrementAndGet();
+        if (idle != null) {
+            EntityManager em = idle.poll();
+            if (em != null) {
+                reused.incrementAndGet();
+                return em;
+            }
+        }
+        EntityManager em = emf.createEntityManager();
+        created.incrementAndGet();
+        return em;
+    }
+
+    /**
+     * Releases the given persistence context acquired from this pool.
+     * The persistence context must not be used afterwards.
+     */
+    public void release(EntityManager em) {
+        acquired.decrementAndGet();
+        if (idle != null && isReusable(em)) {
+            try {
+                em.clear();
+                if (idle.offer(em)) return;
+            } catch (RuntimeException ex) {
+                logger.warning("Can not clear persistence context: " + ex);
+            }
+        }
+        close(em);
+    }
+
+    /**
+     * Closes the idle persistence contexts.
+     */
+    public void close() {
+        if (idle == null) return;
+        EntityManager em;
+        while ((em = idle.poll()) != null) {
+            close(em);
+        }
+    }
+
+    /**
+     * Affirms if released persistence contexts are kept for reuse.
+     */
+    public boolean isReusing() {
+        return idle != null;
+    }
+
+    /**
+     * Gets the number of persistence contexts created so far.
+     */
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    /**
+     * Gets the number of persistence contexts closed so far.
+     */
+    public long getClosedCount() {
+        return closed.get();
+    }
+
+    /**
+     * Gets the number of acquisitions served by a reused persistence context.
+     */
+    public long getReusedCount() {
+        return reused.get();
+    }
+
+    /**
+     * Gets the number of persistence contexts in use by requests.
+     */
+    public long getActiveCount() {
+        return acquired.get();
+    }
+
+    /**
+     * Gets the number of persistence contexts kept for reuse.
+     */
+    public int getIdleCount() {
+        return idle == null ? 0 : idle.size();
+    }
+
+    /**
+     * Gets the number of persistence contexts that are open, whether in
+     * use or idle.
+     */
+    public long getOpenCount() {
+        return created.get() - closed.get();
+    }
+
+    @Override
+    public String toString() {
+        return "persistence contexts open:" + getOpenCount()
+            + " active:" + getActiveCount() + " idle:" + getIdleCount()
+            + " created:" + getCreatedCount() + " reused:" + getReusedCount()
+            + " closed:" + getClosedCount();
+    }
+
+    private boolean isReusable(EntityManager em) {
+        try {
+            return em.isOpen() && !em.isJoinedToTransaction();
+        } catch (RuntimeException ex) {
+            return false;
+        }
+    }
+
+    private void close(EntityManager em) {
+        try {
+            if (em.isOpen()) em.close();
+        } catch (RuntimeException ex) {
+            logger.warning("Can not close persistence context: " + ex);
+        } finally {
+            closed.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package oracle.jest;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Holds a persistence unit with the components the servlet builds for it:
+ * its {@link MetamodelIndex index}, its {@link PersistenceContextPool pool
+ * of persistence contexts} and the attributes that apply to the unit
+ * alone, such as its {@link QueryRegistry queries}, its {@link
+ * ResponseCache response cache} and its cached domain model.
+ * <br>
+ * A request {@link #acquire() acquires} the holder while it uses the
+ * unit, so that the holder is only {@link #closeIfIdle(long) closed} for
+ * being idle when no request uses it. A closed holder can not be acquired
+ * again.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class PersistenceUnitHolder {
+    private static final Logger logger = Logger.getLogger("RUNTIME");
+    // the number of requests using the unit, or negative once closed
+    private static final int CLOSED = -1;
+
+    private final String name;
+    private final EntityManagerFactory emf;
+    private final MetamodelIndex index;
+    private final PersistenceContextPool pool;
+    private final ConcurrentMap<String, Object> attributes =
+            new ConcurrentHashMap<String, Object>();
+    private final AtomicInteger active = new AtomicInteger();
+    private volatile long lastUsed = System.currentTimeMillis();
+
+    /**
+     * @param name name of the persistence unit
+     * @param emf the persistence unit
+     * @param pool the pool of persistence contexts of the unit
+     */
+    public PersistenceUnitHolder(String name, EntityManagerFactory emf,
+            PersistenceContextPool pool) {
+        this.name = name;
+        this.emf = emf;
+        this.index = new MetamodelIndex(emf.getMetamodel());
+        this.pool = pool;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public EntityManagerFactory getPersistenceUnit() {
+        return emf;
+    }
+
+    public MetamodelIndex getMetamodelIndex() {
+        return index;
+    }
+
+    public PersistenceContextPool getPersistenceContextPool() {
+        return pool;
+    }
+
+    /**
+     * Gets the attribute of the unit of the given key.
+     *
+     * @return null if the unit has no such attribute
+     */
+    public Object getAttribute(String key) {
+        return attributes.get(key);
+    }
+
+    public void setAttribute(String key, Object value) {
+        attributes.put(key, value);
+    }
+
+    /**
+     * Marks the unit as used by a request till {@link #release() released}.
+     *
+     * @return false if the holder is closed, and the unit can not be used
+     */
+    public boolean acquire() {
+        for (;;) {
+            int n = active.get();
+            if (n == CLOSED) return false;
+            if (active.compareAndSet(n, n+1)) return true;
+        }
+    }
+
+    /**
+     * Marks the end of a request that {@link #acquire() acquired} the unit.
+     */
+    public void release() {
+        lastUsed = System.currentTimeMillis();
+        active.decrementAndGet();
+    }
+
+    /**
+     * Closes the holder if no request has used the unit since the given
+     * time.
+     *
+     * @return true if closed
+     */
+    boolean closeIfIdle(long since) {
+        if (lastUsed >= since || !active.compareAndSet(0, CLOSED)) return false;
+        doClose();
+        return true;
+    }
+
+    /**
+     * Closes the holder whether or not a request uses the unit.
+     */
+    public void close() {
+        if (active.getAndSet(CLOSED) != CLOSED) doClose();
+    }
+
+    private void doClose() {
+        ResponseCache cache = (ResponseCache)getAttribute(JESTContext.RESPONSE_CACHE);
+        if (cache != null) {
+            logger.info("Closed " + cache);
+            cache.close();
+        }
+        QueryRegistry queries = (QueryRegistry)getAttribute(JESTContext.QUERY_REGISTRY);
+        if (queries != null) {
+            logger.info(queries.toString());
+        }
+        if (pool != null) {
+            pool.close();
+            logger.info("Closed " + pool);
+        }
+        if (emf.isOpen()) emf.close();
+        logger.info("Closed persistence unit " + name);
+    }
+
+    @Override
+    public String toString() {
+        return "persistence unit " + name;
+    }
+}
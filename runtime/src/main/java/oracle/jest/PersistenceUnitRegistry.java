@@ -0,0 +1,251 @@
+package oracle.jest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Holds the persistence units the servlet exposes, each {@link
+ * PersistenceUnitHolder held} with its components.
+ * <br>
+ * A unit is created by the {@link Factory factory} of the registry either
+ * for all units at once, in parallel, by {@link #start()}, or for a unit
+ * on the first request that uses it. Requests that arrive while a unit is
+ * being created wait for it rather than create it again. If the creation
+ * fails, the requests that waited fail, and the next request tries again.
+ * <p>
+ * If an idle timeout is given, a unit that no request has used for that
+ * long is closed, to release its memory and connections, and is created
+ * again on the next request that uses it.
+ *
+ * @author pinaki poddar
+ *
+ */
+class PersistenceUnitRegistry {
+    private static final Logger logger = Logger.getLogger("RUNTIME");
+
+    /**
+     * Creates the holder of a persistence unit.
+     */
+    interface Factory {
+        PersistenceUnitHolder create(String unitName) throws Exception;
+    }
+
+    private final List<String> names;
+    private final Factory factory;
+    private final long idleTimeout;
+    private final ConcurrentMap<String, Future<PersistenceUnitHolder>> holders =
+            new ConcurrentHashMap<String, Future<PersistenceUnitHolder>>();
+    private ScheduledExecutorService evictor;
+
+    /**
+     * @param names names of the units
+     * @param factory creates the holder of a unit
+     * @param idleTimeout milliseconds a unit may be idle before it is
+     * closed. Zero or negative to keep the units open.
+     */
+    PersistenceUnitRegistry(List<String> names, Factory factory, long idleTimeout) {
+        this.names = Collections.unmodifiableList(new ArrayList<String>(names));
+        this.factory = factory;
+        this.idleTimeout = idleTimeout;
+        if (idleTimeout > 0) {
+            evictor = Executors.newSingleThreadScheduledExecutor(
+                    daemon("jest-unit-evictor"));
+            long period = Math.max(1, idleTimeout / 2);
+            evictor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    evictIdle();
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Gets the names of the units, in the order they were found.
+     */
+    List<String> getNames() {
+        return names;
+    }
+
+    boolean contains(String name) {
+        return names.contains(name);
+    }
+
+    /**
+     * Creates all units in parallel, and waits till all are created, so
+     * that it takes as long as the slowest unit.
+     *
+     * @exception RuntimeException if any unit can not be created
+     */
+    void start() {
+        if (names.size() == 1) {
+            get(names.get(0));
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(names.size(),
+                daemon("jest-unit-bootstrap"));
+        try {
+            List<Future<PersistenceUnitHolder>> started =
+                    new ArrayList<Future<PersistenceUnitHolder>>();
+            for (final String name : names) {
+                started.add(executor.submit(new Callable<PersistenceUnitHolder>() {
+                    @Override
+                    public PersistenceUnitHolder call() {
+                        return get(name);
+                    }
+                }));
+            }
+            for (Future<PersistenceUnitHolder> f : started) {
+                try {
+                    f.get();
+                } catch (ExecutionException ex) {
+                    throw unwrap(ex);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(ex);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Acquires the holder of the given unit for a request, creating the
+     * unit if it is not open. The request must {@link
+     * PersistenceUnitHolder#release() release} the holder.
+     *
+     * @exception RuntimeException if the unit can not be created
+     */
+    PersistenceUnitHolder acquire(String name) {
+        for (;;) {
+            Future<PersistenceUnitHolder> f = getFuture(name);
+            PersistenceUnitHolder holder = await(name, f);
+            if (holder.acquire()) return holder;
+            // closed for being idle since it was created
+            holders.remove(name, f);
+        }
+    }
+
+    /**
+     * Gets the holders of the units that are open.
+     */
+    List<PersistenceUnitHolder> getOpenHolders() {
+        List<PersistenceUnitHolder> open = new ArrayList<PersistenceUnitHolder>();
+        for (String name : names) {
+            PersistenceUnitHolder holder = getIfOpen(holders.get(name));
+            if (holder != null) open.add(holder);
+        }
+        return open;
+    }
+
+    private PersistenceUnitHolder get(String name) {
+        return await(name, getFuture(name));
+    }
+
+    /*
+     * gets the future holder of the given unit, creating the unit on this
+     * thread if no other thread is creating it
+     */
+    private Future<PersistenceUnitHolder> getFuture(final String name) {
+        Future<PersistenceUnitHolder> f = holders.get(name);
+        if (f != null) return f;
+        FutureTask<PersistenceUnitHolder> task = new FutureTask<PersistenceUnitHolder>(
+            new Callable<PersistenceUnitHolder>() {
+                @Override
+                public PersistenceUnitHolder call() throws Exception {
+                    long start = System.currentTimeMillis();
+                    PersistenceUnitHolder holder = factory.create(name);
+                    logger.info("Created persistence unit " + name + " in "
+                            + (System.currentTimeMillis() - start) + " ms");
+                    return holder;
+                }
+            });
+        f = holders.putIfAbsent(name, task);
+        if (f != null) return f;
+        task.run();
+        return task;
+    }
+
+    /*
+     * waits for the given unit to be created. A unit that failed to be
+     * created is forgotten, so that the next request creates it again.
+     */
+    private PersistenceUnitHolder await(String name, Future<PersistenceUnitHolder> f) {
+        try {
+            return f.get();
+        } catch (ExecutionException ex) {
+            holders.remove(name, f);
+            throw unwrap(ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static RuntimeException unwrap(ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        return cause instanceof RuntimeException
+            ? (RuntimeException)cause : new RuntimeException(cause);
+    }
+
+    private static PersistenceUnitHolder getIfOpen(Future<PersistenceUnitHolder> f) {
+        if (f == null || !f.isDone()) return null;
+        try {
+            return f.get();
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Closes the units that no request has used for the idle timeout.
+     */
+    void evictIdle() {
+        long since = System.currentTimeMillis() - idleTimeout;
+        for (String name : names) {
+            Future<PersistenceUnitHolder> f = holders.get(name);
+            PersistenceUnitHolder holder = getIfOpen(f);
+            if (holder != null && holder.closeIfIdle(since)) {
+                holders.remove(name, f);
+                logger.info("Closed persistence unit " + name + " idle for "
+                        + idleTimeout + " ms");
+            }
+        }
+    }
+
+    /**
+     * Closes all units.
+     */
+    void close() {
+        if (evictor != null) evictor.shutdownNow();
+        for (PersistenceUnitHolder holder : getOpenHolders()) {
+            holder.close();
+        }
+        holders.clear();
+    }
+
+    private static ThreadFactory daemon(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+}
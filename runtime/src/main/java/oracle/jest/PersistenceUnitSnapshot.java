@@ -0,0 +1,378 @@
+package oracle.jest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.IdentifiableType;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.PluralAttribute;
+import javax.persistence.metamodel.SingularAttribute;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * A snapshot of the persistence units of an application taken at build
+ * time, so that the servlet starts without scanning for the units.
+ * <br>
+ * The snapshot is the resource {@value #RESOURCE}. It names each unit
+ * with its entity types and the document of its domain model in each
+ * media type the servlet serves by default. The servlet finds the units
+ * by the snapshot rather than by parsing every
+ * <code>META-INF/persistence.xml</code>, and serves the documents without
+ * rendering them. The documents of a unit are not used if the domain
+ * model of the unit differs from the snapshot, as the snapshot is then
+ * older than the unit. The model is compared by a fingerprint of its
+ * managed types and of the name, Java type and kind of their attributes,
+ * so that a changed attribute is noticed as well as a changed entity.
+ * <p>
+ * The snapshot is written by running this class on the class path of the
+ * application:
+ * <pre>
+ *    java oracle.jest.PersistenceUnitSnapshot {directory} [unit]... [property=value]...
+ * </pre>
+ * where the resource is written under the given directory, such as the
+ * directory of compiled classes. All units found are recorded unless
+ * some are named. Each unit is created once to get its domain model, with
+ * the given properties, if any, so its database must be reachable.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class PersistenceUnitSnapshot {
+    public static final String RESOURCE = "META-INF/jest-snapshot.json";
+    private static final int VERSION = 2;
+    private static final Logger logger = Logger.getLogger("RUNTIME");
+
+    private final Map<String, Unit> units = new LinkedHashMap<String, Unit>();
+
+    /**
+     * The entity types, the fingerprint and the documents of the domain
+     * model of a unit.
+     */
+    static class Unit {
+        final String name;
+        final Set<String> entities = new TreeSet<String>();
+        String fingerprint;
+        final Map<String, byte[]> documents = new LinkedHashMap<String, byte[]>();
+
+        Unit(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Loads the snapshots visible to the given class loader.
+     *
+     * @return null if there is no snapshot
+     */
+    public static PersistenceUnitSnapshot load(ClassLoader cl) {
+        try {
+            Enumeration<URL> urls = cl.getResources(RESOURCE);
+            if (!urls.hasMoreElements()) return null;
+            PersistenceUnitSnapshot snapshot = new PersistenceUnitSnapshot();
+            while (urls.hasMoreElements()) {
+                URL url = urls.nextElement();
+                InputStream in = url.openStream();
+                try {
+                    snapshot.read(new JSONObject(new JSONTokener(in)));
+                } catch (RuntimeException ex) {
+                    throw new RuntimeException("Can not read snapshot " + url, ex);
+                } finally {
+                    in.close();
+                }
+            }
+            return snapshot;
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Reads the units of the given snapshot. A unit of a snapshot of an
+     * earlier version has no fingerprint, and is never applied.
+     */
+    void read(JSONObject json) {
+        int version = json.getInt("version");
+        if (version < 1 || version > VERSION) {
+            throw new RuntimeException("Snapshot version " + version
+                    + " is not supported. Expected version " + VERSION);
+        }
+        JSONArray array = json.getJSONArray("units");
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject u = array.getJSONObject(i);
+            Unit unit = new Unit(u.getString("name"));
+            JSONArray entities = u.getJSONArray("entities");
+            for (int j = 0; j < entities.length(); j++) {
+                unit.entities.add(entities.getString(j));
+            }
+            unit.fingerprint = u.optString("fingerprint", null);
+            JSONObject documents = u.getJSONObject("documents");
+            Iterator<?> mimeTypes = documents.keys();
+            while (mimeTypes.hasNext()) {
+                String mimeType = (String)mimeTypes.next();
+                unit.documents.put(mimeType,
+                        Base64.getDecoder().decode(documents.getString(mimeType)));
+            }
+            units.put(unit.name, unit);
+        }
+    }
+
+    /**
+     * Gets the names of the units in the snapshot.
+     */
+    public List<String> getUnitNames() {
+        return new ArrayList<String>(units.keySet());
+    }
+
+    /**
+     * Sets the documents of the domain model of the given unit as the
+     * {@link JESTContext#METAMODEL_DOCUMENT documents} of the unit, if the
+     * unit has the domain model of the snapshot.
+     *
+     * @return true if the documents are set
+     */
+    public boolean apply(PersistenceUnitHolder holder) {
+        Unit unit = units.get(holder.getName());
+        if (unit == null) return false;
+        Metamodel model = holder.getPersistenceUnit().getMetamodel();
+        Set<String> entities = getEntityNames(model);
+        if (!unit.entities.equals(entities)) {
+            logger.warning("Snapshot of persistence unit " + unit.name + " has entities "
+                    + unit.entities + " but the unit has " + entities
+                    + ". The snapshot is not used");
+            return false;
+        }
+        if (!getFingerprint(model).equals(unit.fingerprint)) {
+            logger.warning("Snapshot of persistence unit " + unit.name
+                    + " is of another version of its entities. The snapshot is not used");
+            return false;
+        }
+        for (Map.Entry<String, byte[]> doc : unit.documents.entrySet()) {
+            holder.setAttribute(JESTContext.METAMODEL_DOCUMENT + ';' + doc.getKey(),
+                    new CachedDocument(doc.getKey(), doc.getValue()));
+        }
+        return true;
+    }
+
+    private static Set<String> getEntityNames(Metamodel model) {
+        Set<String> names = new TreeSet<String>();
+        for (EntityType<?> type : model.getEntities()) {
+            names.add(type.getName());
+        }
+        return names;
+    }
+
+    /**
+     * Gets the fingerprint of the given domain model, a digest of the
+     * managed types and their attributes in the order of their names.
+     */
+    static String getFingerprint(Metamodel model) {
+        Set<String> types = new TreeSet<String>();
+        for (ManagedType<?> type : model.getManagedTypes()) {
+            StringBuilder buf = new StringBuilder(type.getJavaType().getName())
+                .append(' ').append(type.getPersistenceType());
+            if (type instanceof EntityType) {
+                buf.append(' ').append(((EntityType<?>)type).getName());
+            }
+            if (type instanceof IdentifiableType
+             && ((IdentifiableType<?>)type).getSupertype() != null) {
+                buf.append(" extends ").append(((IdentifiableType<?>)type)
+                        .getSupertype().getJavaType().getName());
+            }
+            Set<String> attrs = new TreeSet<String>();
+            for (Attribute<?, ?> attr : type.getAttributes()) {
+                attrs.add(getFingerprint(attr));
+            }
+            for (String attr : attrs) {
+                buf.append('\n').append(attr);
+            }
+            types.add(buf.toString());
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String type : types) {
+                digest.update(type.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte)0);
+            }
+            return Base64.getEncoder().encodeToString(digest.digest());
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static String getFingerprint(Attribute<?, ?> attr) {
+        StringBuilder buf = new StringBuilder(attr.getName())
+            .append(' ').append(attr.getPersistentAttributeType())
+            .append(' ').append(attr.getJavaType().getName());
+        if (attr instanceof PluralAttribute) {
+            buf.append('<').append(((PluralAttribute<?, ?, ?>)attr)
+                    .getElementType().getJavaType().getName()).append('>');
+        } else if (attr instanceof SingularAttribute) {
+            SingularAttribute<?, ?> singular = (SingularAttribute<?, ?>)attr;
+            if (singular.isId())       buf.append(" id");
+            if (singular.isVersion())  buf.append(" version");
+            if (singular.isOptional()) buf.append(" optional");
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Records the given unit. The document of its domain model is
+     * rendered by each transformer of a {@link TransformerRegistry default
+     * registry}.
+     */
+    void add(PersistenceUnitHolder holder) throws IOException {
+        Unit unit = new Unit(holder.getName());
+        Metamodel model = holder.getPersistenceUnit().getMetamodel();
+        unit.entities.addAll(getEntityNames(model));
+        unit.fingerprint = getFingerprint(model);
+        JESTContext ctx = new DefaultJESTContext(null, holder, null, null);
+        TransformerRegistry transformers = new TransformerRegistry();
+        for (String mimeType : transformers.getMimeTypes()) {
+            ResponseTransformer transformer = transformers.select(mimeType).create(ctx);
+            // media types of the same transformer have the same document
+            if (unit.documents.containsKey(transformer.getMimeType())) continue;
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            transformer.transform(model, buf);
+            unit.documents.put(transformer.getMimeType(), buf.toByteArray());
+        }
+        units.put(unit.name, unit);
+    }
+
+    void write(OutputStream out) throws IOException {
+        JSONStreamWriter json = new JSONStreamWriter(out);
+        json.beginObject();
+        json.name("version").value(VERSION);
+        json.name("units").beginArray();
+        for (Unit unit : units.values()) {
+            json.beginObject();
+            json.name("name").value(unit.name);
+            json.name("entities").beginArray();
+            for (String entity : unit.entities) {
+                json.value(entity);
+            }
+            json.endArray();
+            json.name("fingerprint").value(unit.fingerprint);
+            json.name("documents").beginObject();
+            for (Map.Entry<String, byte[]> doc : unit.documents.entrySet()) {
+                json.name(doc.getKey())
+                    .value(Base64.getEncoder().encodeToString(doc.getValue()));
+            }
+            json.endObject();
+            json.endObject();
+        }
+        json.endArray();
+        json.endObject();
+        json.close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: " + PersistenceUnitSnapshot.class.getName()
+                + " directory [unit]... [property=value]...");
+            System.exit(1);
+        }
+        List<String> unitNames = new ArrayList<String>();
+        Map<String, Object> props = new HashMap<String, Object>();
+        for (int i = 1; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            if (eq > 0) {
+                props.put(args[i].substring(0, eq), args[i].substring(eq+1));
+            } else {
+                unitNames.add(args[i]);
+            }
+        }
+        ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        if (unitNames.isEmpty()) {
+            unitNames = scanResources(cl, JESTServlet.PERSISTENCE_UNIT_RESOURCE);
+        }
+        PersistenceUnitSnapshot snapshot = new PersistenceUnitSnapshot();
+        for (String unitName : unitNames) {
+            EntityManagerFactory emf = Persistence.createEntityManagerFactory(unitName, props);
+            try {
+                snapshot.add(new PersistenceUnitHolder(unitName, emf, null));
+            } finally {
+                emf.close();
+            }
+        }
+        File file = new File(args[0], RESOURCE);
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            snapshot.write(out);
+        } finally {
+            out.close();
+        }
+        logger.info("Wrote snapshot of persistence units " + unitNames + " to " + file);
+    }
+
+    /**
+     * Scans all persistence units visible to given classloader
+     * and collects unit names.
+     * 
+     * @param cl
+     * @param rsrc
+     * @return
+     */
+    static List<String> scanResources(ClassLoader cl, String rsrc) {
+        List<String> unitNames = new ArrayList<String>();
+        try {
+            List<URL> urls = toList(cl.getResources(rsrc));
+            if (urls.isEmpty()) return unitNames;
+            DocumentBuilder parser = DocumentBuilderFactory.newInstance()
+                    .newDocumentBuilder();
+            for (URL xml : urls) {
+                Document doc = parser.parse(xml.toURI().toString());
+                NodeList units = 
+                doc.getDocumentElement().getElementsByTagName("persistence-unit");
+                for (int i = 0; i < units.getLength(); i++) {
+                    Element unit = (Element)units.item(i);
+                    if (unit.hasAttribute("name")) {
+                        unitNames.add(unit.getAttribute("name"));
+                    }
+                }
+            }
+            
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+        return unitNames;
+    }
+    
+    static <X> List<X> toList(Enumeration<X> e) {
+        List<X> list = new ArrayList<X>();
+        while (e.hasMoreElements()) list.add(e.nextElement());
+        return list;
+    }
+}
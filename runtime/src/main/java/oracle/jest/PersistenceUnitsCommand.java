@@ -0,0 +1,62 @@
+package oracle.jest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Gets the persistence units of a servlet that serves each unit at a path
+ * prefix of its name. A unit is listed with the link to its domain model
+ * and whether it is open, as a unit may be created only on its first
+ * request, or closed after being idle.
+ * <pre>
+ *    GET /
+ * </pre>
+ *
+ * @author pinaki poddar
+ *
+ */
+public class PersistenceUnitsCommand extends JESTCommand {
+    public PersistenceUnitsCommand(JESTContext ctx) throws ServletException {
+        super(ctx);
+    }
+
+    @Override
+    public void execute() throws ServletException, IOException {
+        HttpServletResponse response = getContext().getResponse();
+        PersistenceUnitRegistry units = getContextAttribute(
+                JESTContext.PERSISTENCE_UNITS, PersistenceUnitRegistry.class);
+        List<String> open = new ArrayList<String>();
+        for (PersistenceUnitHolder unit : units.getOpenHolders()) {
+            open.add(unit.getName());
+        }
+        String base = getContext().getRequest().getRequestURL().toString();
+        if (!base.endsWith("/")) base += '/';
+        response.setContentType(JESTContext.MIMETYPE_JSON_API);
+        response.setCharacterEncoding("UTF-8");
+        JSONStreamWriter out = new JSONStreamWriter(response.getOutputStream());
+        try {
+            out.beginObject();
+            out.name("data").beginArray();
+            for (String name : units.getNames()) {
+                out.beginObject();
+                out.name("type").value("persistence-unit");
+                out.name("id").value(name);
+                out.name("meta").beginObject()
+                   .name("open").value(open.contains(name))
+                   .endObject();
+                out.name("links").beginObject()
+                   .name("self").value(base + name + '/')
+                   .endObject();
+                out.endObject();
+            }
+            out.endArray();
+            out.endObject();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package oracle.jest;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.persistence.metamodel.Attribute;
+
+/**
+ * Reads and writes a property of a class through method handles.
+ * <br>
+ * An accessor is created once for a property of a class and cached
+ * thereafter. The method handles are resolved when the accessor is
+ * created, so that getting or setting a value does not look up any
+ * method or field reflectively.
+ * <p>
+ * The property is accessed through the getter and setter methods
+ * if the class has them, otherwise through the field directly. The
+ * latter is the case for entities such as <code>domain.Movie</code>
+ * that are mapped by field and have no getter methods.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class PropertyAccessor {
+    private static final MethodType GETTER_TYPE =
+            MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE =
+            MethodType.methodType(void.class, Object.class, Object.class);
+
+    private static final ClassValue<ConcurrentMap<String, PropertyAccessor>> CACHE =
+        new ClassValue<ConcurrentMap<String, PropertyAccessor>>() {
+            @Override
+            protected ConcurrentMap<String, PropertyAccessor> computeValue(Class<?> type) {
+                return new ConcurrentHashMap<String, PropertyAccessor>();
+            }
+        };
+
+    private final Class<?> owner;
+    private final String name;
+    private final Class<?> type;
+    private final MethodHandle getter;
+    private final MethodHandle setter;
+
+    private PropertyAccessor(Class<?> owner, String name, Class<?> type,
+            MethodHandle getter, MethodHandle setter) {
+        this.owner  = owner;
+        this.name   = name;
+        this.type   = type;
+        this.getter = getter;
+        this.setter = setter;
+    }
+
+    /**
+     * Gets the accessor for the given persistent attribute. The accessor
+     * is created from the Java member of the attribute.
+     */
+    public static PropertyAccessor of(Attribute<?, ?> attr) {
+        Class<?> owner = attr.getDeclaringType().getJavaType();
+        ConcurrentMap<String, PropertyAccessor> accessors = CACHE.get(owner);
+        PropertyAccessor accessor = accessors.get(attr.getName());
+        if (accessor == null) {
+            accessor = create(owner, attr.getName(), attr.getJavaMember());
+            PropertyAccessor other = accessors.putIfAbsent(attr.getName(), accessor);
+            if (other != null) accessor = other;
+        }
+        return accessor;
+    }
+
+    /**
+     * Gets the accessor for the property of given name of the given class.
+     *
+     * @exception IllegalArgumentException if the class has neither a getter
+     * method nor a field for the given property.
+     */
+    public static PropertyAccessor of(Class<?> owner, String name) {
+        ConcurrentMap<String, PropertyAccessor> accessors = CACHE.get(owner);
+        PropertyAccessor accessor = accessors.get(name);
+        if (accessor == null) {
+            accessor = create(owner, name, null);
+            PropertyAccessor other = accessors.putIfAbsent(name, accessor);
+            if (other != null) accessor = other;
+        }
+        return accessor;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    public boolean isWritable() {
+        return setter != null;
+    }
+
+    /**
+     * Gets the value of this property of the given instance.
+     */
+    public Object get(Object target) {
+        try {
+            return (Object)getter.invokeExact(target);
+        } catch (RuntimeException ex) {
+            throw ex;
+        } catch (Throwable t) {
+            throw new RuntimeException("Can not get " + this + " of " + target, t);
+        }
+    }
+
+    /**
+     * Sets the value of this property of the given instance.
+     */
+    public void set(Object target, Object value) {
+        if (setter == null) {
+            throw new UnsupportedOperationException(this + " is not writable");
+        }
+        try {
+            setter.invokeExact(target, value);
+        } catch (RuntimeException ex) {
+            throw ex;
+        } catch (Throwable t) {
+            throw new RuntimeException("Can not set " + this + " of " + target, t);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return owner.getName() + '.' + name;
+    }
+
+    private static PropertyAccessor create(Class<?> owner, String name, Member member) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            // a persistent attribute is accessed as the provider does
+            Method getterMethod = member instanceof Method ? (Method)member
+                    : member == null ? findGetter(owner, name) : null;
+            Field field = member instanceof Field ? (Field)member
+                    : findField(owner, name);
+            if (getterMethod != null) {
+                Method setterMethod = findSetter(owner, name, getterMethod.getReturnType());
+                return new PropertyAccessor(owner, name, getterMethod.getReturnType(),
+                    unreflect(lookup, getterMethod).asType(GETTER_TYPE),
+                    setterMethod != null
+                        ? unreflect(lookup, setterMethod).asType(SETTER_TYPE)
+                        : field != null ? unreflectSetter(lookup, field) : null);
+            } else if (field != null) {
+                if (!field.isAccessible()) field.setAccessible(true);
+                return new PropertyAccessor(owner, name, field.getType(),
+                    lookup.unreflectGetter(field).asType(GETTER_TYPE),
+                    unreflectSetter(lookup, field));
+            }
+        } catch (IllegalAccessException ex) {
+            throw new RuntimeException("Can not access " + owner.getName()
+                    + '.' + name, ex);
+        }
+        throw new IllegalArgumentException(owner.getName() + " has no property "
+                + name);
+    }
+
+    private static MethodHandle unreflect(MethodHandles.Lookup lookup, Method m)
+        throws IllegalAccessException {
+        if (!m.isAccessible()) m.setAccessible(true);
+        return lookup.unreflect(m);
+    }
+
+    private static MethodHandle unreflectSetter(MethodHandles.Lookup lookup, Field f)
+        throws IllegalAccessException {
+        if (Modifier.isFinal(f.getModifiers())) return null;
+        if (!f.isAccessible()) f.setAccessible(true);
+        return lookup.unreflectSetter(f).asType(SETTER_TYPE);
+    }
+
+    private static Method findGetter(Class<?> cls, String name) {
+        String suffix = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        for (String prefix : new String[]{"get", "is"}) {
+            try {
+                Method m = cls.getMethod(prefix + suffix);
+                if (m.getReturnType() != void.class
+                 && !Modifier.isStatic(m.getModifiers())) {
+                    return m;
+                }
+            } catch (NoSuchMethodException ex) {
+                // try next
+            }
+        }
+        return null;
+    }
+
+    private static Method findSetter(Class<?> cls, String name, Class<?> type) {
+        String methodName = "set" + Character.toUpperCase(name.charAt(0))
+                + name.substring(1);
+        for (Class<?> c = cls; c != null; c = c.getSuperclass()) {
+            try {
+                return c.getDeclaredMethod(methodName, type);
+            } catch (NoSuchMethodException ex) {
+                // try superclass
+            }
+        }
+        return null;
+    }
+
+    private static Field findField(Class<?> cls, String name) {
+        for (Class<?> c = cls; c != null; c = c.getSuperclass()) {
+            try {
+                return c.getDeclaredField(name);
+            } catch (NoSuchFieldException ex) {
+                // try superclass
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,114 @@
+package oracle.jest;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Query;
+
+/**
+ * Registers the queries the servlet builds as named queries of the
+ * persistence unit, by the shape of the query.
+ * <br>
+ * A query is built with the criteria API the first time a request needs
+ * a query of its shape, such as the filters and sort of a page, and is
+ * then registered to the persistence unit. A following request of same
+ * shape creates the named query and only binds its parameters, so that
+ * neither the criteria query is built nor its JPQL or SQL is generated
+ * again, as providers prepare a named query once.
+ * <p>
+ * The number of shapes registered is bounded. A query of a shape beyond
+ * the bound is built for every request. If the persistence unit can not
+ * register a criteria query, no query is registered at all.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class QueryRegistry {
+    private static final Logger logger = Logger.getLogger("RUNTIME");
+    private static final String PREFIX = "jest.";
+
+    private final EntityManagerFactory emf;
+    private final int maxShapes;
+    private final ConcurrentMap<String, String> names =
+            new ConcurrentHashMap<String, String>();
+    private final AtomicInteger count = new AtomicInteger();
+    private volatile boolean unsupported;
+
+    private final AtomicLong hits   = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param emf the persistence unit to register queries to
+     * @param maxShapes maximum number of queries registered
+     */
+    public QueryRegistry(EntityManagerFactory emf, int maxShapes) {
+        this.emf = emf;
+        this.maxShapes = maxShapes;
+    }
+
+    /**
+     * Gets the name of the query registered for the given shape.
+     *
+     * @return null if no query of the shape is registered
+     */
+    public String getName(String shape) {
+        String name = names.get(shape);
+        if (name == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return name;
+    }
+
+    /**
+     * Registers the given query for the given shape, unless the registry
+     * is full. The query must not have its parameters bound yet.
+     */
+    public void register(String shape, Query query) {
+        if (unsupported || names.size() >= maxShapes || names.containsKey(shape)) {
+            return;
+        }
+        String name = PREFIX + count.incrementAndGet();
+        try {
+            emf.addNamedQuery(name, query);
+        } catch (RuntimeException ex) {
+            unsupported = true;
+            logger.warning("Queries are built for every request because " +
+                "the persistence unit can not register a query: " + ex);
+            return;
+        }
+        names.putIfAbsent(shape, name);
+    }
+
+    /**
+     * Gets the number of queries registered.
+     */
+    public int getSize() {
+        return names.size();
+    }
+
+    /**
+     * Gets the number of queries found registered.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of queries that were not registered.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "registered queries:" + getSize() + " hits:" + getHitCount()
+            + " misses:" + getMissCount();
+    }
+}
@@ -0,0 +1,332 @@
+package oracle.jest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.SingularAttribute;
+import javax.servlet.http.HttpServletRequest;
+
+import org.json.JSONObject;
+
+/**
+ * The filters and the order a request specifies for a collection of
+ * instances.
+ * <pre>
+ *    filter[path]=value           path equals value
+ *    filter[path][op]=value       path compares to value by op, one of
+ *       eq ne lt le gt ge         comparison
+ *       like                      SQL pattern, for a string
+ *       in                        one of comma separated values
+ *       null                      true if path is null, false if not
+ *
+ *    sort=path,-path              ascending or, with minus, descending
+ * </pre>
+ * A path is an attribute of the type, or a dotted path through embedded
+ * values and to-one relationships to a basic attribute. The null test
+ * also applies to a to-one relationship. All filters must hold. The
+ * instances are ordered by the sort paths, with null values last, and
+ * then by their identity.
+ * <p>
+ * The paths and values are validated against the metamodel when the
+ * request is parsed. The filters are kept in a canonical order, so that
+ * the {@link #getSignature() signature} identifies the shape of the query
+ * regardless of the values and of the order of the parameters.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class QuerySpec {
+    public static final String PARAM_FILTER_PREFIX = "filter[";
+    public static final String PARAM_SORT = "sort";
+
+    static final String OP_EQ   = "eq";
+    static final String OP_NE   = "ne";
+    static final String OP_LT   = "lt";
+    static final String OP_LE   = "le";
+    static final String OP_GT   = "gt";
+    static final String OP_GE   = "ge";
+    static final String OP_LIKE = "like";
+    static final String OP_IN   = "in";
+    static final String OP_NULL = "null";
+
+    private static final Pattern FILTER =
+            Pattern.compile("filter\\[([^\\]]+)\\](?:\\[([a-z]+)\\])?");
+
+    static final QuerySpec NONE = new QuerySpec(
+            Collections.<Filter>emptyList(), Collections.<Sort>emptyList());
+
+    private final List<Filter> filters;
+    private final List<Sort> sorts;
+    private final String signature;
+
+    private QuerySpec(List<Filter> filters, List<Sort> sorts) {
+        this.filters = filters;
+        this.sorts = sorts;
+        StringBuilder buf = new StringBuilder();
+        for (Filter filter : filters) {
+            buf.append(filter.getSignature()).append(',');
+        }
+        buf.append(';');
+        for (Sort sort : sorts) {
+            buf.append(sort.descending ? "-" : "").append(sort.path).append(',');
+        }
+        this.signature = buf.toString();
+    }
+
+    /**
+     * Parses the filter and sort parameters of the given request for the
+     * given type.
+     *
+     * @param reader converts the values to the type of their attribute
+     * @exception IllegalArgumentException if a parameter is not valid for
+     * the type
+     */
+    static QuerySpec parse(HttpServletRequest request, EntityType<?> type,
+            MetamodelIndex index, ResourceReader reader) {
+        // sorted by path and operator for a canonical signature
+        Map<String, List<Filter>> filters = new TreeMap<String, List<Filter>>();
+        List<Sort> sorts = new ArrayList<Sort>();
+        for (Map.Entry<String, String[]> param : request.getParameterMap().entrySet()) {
+            String name = param.getKey();
+            if (name.startsWith(PARAM_FILTER_PREFIX)) {
+                Matcher m = FILTER.matcher(name);
+                if (!m.matches()) {
+                    throw new IllegalArgumentException("Invalid filter " + name
+                            + ". Expected filter[path] or filter[path][op]");
+                }
+                String path = m.group(1);
+                String op = m.group(2) == null ? OP_EQ : m.group(2);
+                List<Attribute<?, ?>> attrs = resolve(type, path, index,
+                        OP_NULL.equals(op));
+                for (String value : param.getValue()) {
+                    Filter filter = new Filter(path, attrs, op,
+                            toValue(attrs, op, value, reader));
+                    String key = path + ':' + op;
+                    if (!filters.containsKey(key)) {
+                        filters.put(key, new ArrayList<Filter>());
+                    }
+                    filters.get(key).add(filter);
+                }
+            } else if (PARAM_SORT.equals(name)) {
+                for (String value : param.getValue()) {
+                    for (String key : value.split(",")) {
+                        key = key.trim();
+                        if (key.isEmpty()) continue;
+                        boolean descending = key.startsWith("-");
+                        String path = descending ? key.substring(1) : key;
+                        List<Attribute<?, ?>> attrs = resolve(type, path, index, false);
+                        Class<?> cls = Reflection.toWrapper(last(attrs).getJavaType());
+                        if (!Comparable.class.isAssignableFrom(cls)) {
+                            throw new IllegalArgumentException("Can not sort by "
+                                    + path + " of type " + cls.getSimpleName());
+                        }
+                        sorts.add(new Sort(path, attrs, descending));
+                    }
+                }
+            }
+        }
+        if (filters.isEmpty() && sorts.isEmpty()) return NONE;
+        List<Filter> all = new ArrayList<Filter>();
+        for (List<Filter> list : filters.values()) {
+            all.addAll(list);
+        }
+        return new QuerySpec(all, sorts);
+    }
+
+    /**
+     * Affirms if this specification neither filters nor sorts.
+     */
+    public boolean isEmpty() {
+        return filters.isEmpty() && sorts.isEmpty();
+    }
+
+    public List<Filter> getFilters() {
+        return filters;
+    }
+
+    public List<Sort> getSorts() {
+        return sorts;
+    }
+
+    /**
+     * Gets a string that is same for two specifications if and only if
+     * they differ at most in the values they compare to.
+     */
+    public String getSignature() {
+        return signature;
+    }
+
+    @Override
+    public String toString() {
+        return signature;
+    }
+
+    /**
+     * Resolves the given dotted path to the attributes it traverses.
+     *
+     * @param relationship whether the path may end at a relationship
+     */
+    static List<Attribute<?, ?>> resolve(EntityType<?> type, String path,
+            MetamodelIndex index, boolean relationship) {
+        List<Attribute<?, ?>> attrs = new ArrayList<Attribute<?, ?>>();
+        ManagedType<?> current = type;
+        String[] segments = path.split("\\.");
+        for (int i = 0; i < segments.length; i++) {
+            Attribute<?, ?> attr = current == null
+                    ? null : index.getAttribute(current, segments[i]);
+            if (attr == null) {
+                throw new IllegalArgumentException(
+                        (current == null ? segments[i-1] : index.getTypeName(current))
+                        + " has no attribute " + segments[i] + " in " + path);
+            }
+            if (attr.isCollection()) {
+                throw new IllegalArgumentException("Can not filter or sort by "
+                        + path + " because " + attr.getName() + " is a collection");
+            }
+            attrs.add(attr);
+            current = index.getTargetType(attr);
+        }
+        if (relationship && last(attrs).isAssociation()) {
+            return attrs;
+        }
+        if (last(attrs).isAssociation() || current != null) {
+            throw new IllegalArgumentException("Can not filter or sort by "
+                    + path + " because it is not a basic attribute");
+        }
+        return attrs;
+    }
+
+    static Attribute<?, ?> last(List<Attribute<?, ?>> attrs) {
+        return attrs.get(attrs.size()-1);
+    }
+
+    /**
+     * Affirms if the value at the end of the given path may be null.
+     */
+    static boolean isOptional(List<Attribute<?, ?>> attrs) {
+        for (Attribute<?, ?> attr : attrs) {
+            if (!(attr instanceof SingularAttribute)
+             || ((SingularAttribute<?, ?>)attr).isOptional()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Object toValue(List<Attribute<?, ?>> attrs, String op,
+            String value, ResourceReader reader) {
+        Attribute<?, ?> attr = last(attrs);
+        Class<?> cls = Reflection.toWrapper(attr.getJavaType());
+        switch (op) {
+        case OP_EQ:
+        case OP_NE:
+            return convert(attr, cls, value, reader);
+        case OP_LT:
+        case OP_LE:
+        case OP_GT:
+        case OP_GE:
+            if (!Comparable.class.isAssignableFrom(cls)) {
+                throw new IllegalArgumentException("Can not compare "
+                        + attr.getName() + " of type " + cls.getSimpleName());
+            }
+            return convert(attr, cls, value, reader);
+        case OP_LIKE:
+            if (cls != String.class) {
+                throw new IllegalArgumentException("Can not match "
+                        + attr.getName() + " of type " + cls.getSimpleName()
+                        + " to a pattern");
+            }
+            return value;
+        case OP_IN:
+            List<Object> values = new ArrayList<Object>();
+            for (String v : value.split(",")) {
+                values.add(convert(attr, cls, v.trim(), reader));
+            }
+            return values;
+        case OP_NULL:
+            if (!"true".equals(value) && !"false".equals(value)) {
+                throw new IllegalArgumentException("Filter " + OP_NULL
+                        + " on " + attr.getName() + " must be true or false");
+            }
+            return Boolean.valueOf(value);
+        default:
+            throw new IllegalArgumentException("Unknown filter operator " + op
+                    + ". Expected one of " + OP_EQ + " " + OP_NE + " " + OP_LT
+                    + " " + OP_LE + " " + OP_GT + " " + OP_GE + " " + OP_LIKE
+                    + " " + OP_IN + " " + OP_NULL);
+        }
+    }
+
+    private static Object convert(Attribute<?, ?> attr, Class<?> cls,
+            String value, ResourceReader reader) {
+        try {
+            // a number or boolean is read as JSON, anything else as string
+            Object json = Number.class.isAssignableFrom(cls) || cls == Boolean.class
+                    ? JSONObject.stringToValue(value) : value;
+            return reader.toValue(json, cls);
+        } catch (IllegalArgumentException ex) {
+            throw ex;
+        } catch (RuntimeException ex) {
+            throw new IllegalArgumentException("Invalid value " + value
+                    + " for " + attr.getName() + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * A comparison of the value at a path.
+     */
+    public static class Filter {
+        final String path;
+        final List<Attribute<?, ?>> attributes;
+        final String op;
+        final Object value;
+
+        Filter(String path, List<Attribute<?, ?>> attributes, String op,
+                Object value) {
+            this.path = path;
+            this.attributes = attributes;
+            this.op = op;
+            this.value = value;
+        }
+
+        /*
+         * the value of a null test decides the shape of the query
+         */
+        String getSignature() {
+            return path + ':' + op + (OP_NULL.equals(op) ? ":" + value : "");
+        }
+
+        @Override
+        public String toString() {
+            return path + ':' + op + '=' + value;
+        }
+    }
+
+    /**
+     * An ordering by the value at a path.
+     */
+    public static class Sort {
+        final String path;
+        final List<Attribute<?, ?>> attributes;
+        final boolean descending;
+
+        Sort(String path, List<Attribute<?, ?>> attributes, boolean descending) {
+            this.path = path;
+            this.attributes = attributes;
+            this.descending = descending;
+        }
+
+        @Override
+        public String toString() {
+            return (descending ? "-" : "") + path;
+        }
+    }
+}
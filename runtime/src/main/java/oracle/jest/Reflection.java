@@ -1,27 +1,44 @@
 package oracle.jest;
 
-import java.lang.reflect.Method;
-
 import javax.persistence.metamodel.Attribute;
 
 public class Reflection {
-    private static Class<?>[]  EMPTY_PARAMETER_TYPES = {};
-    private static Object[]    EMPTY_ARG_TYPES = {};
-
     public Reflection() {
         // TODO Auto-generated constructor stub
     }
     
+    /**
+     * Gets the value of the given property via a cached
+     * {@link PropertyAccessor accessor}.
+     */
     public static Object getValue(Object source, String prop) {
-        try {
-            String methodName = "get" + Character.toUpperCase(prop.charAt(0))
-                          + prop.substring(1);
-            Method getter = source.getClass().getMethod(methodName, EMPTY_PARAMETER_TYPES);
-            return getter.invoke(source, EMPTY_ARG_TYPES);
-        } catch (Exception ex) {
-            throw new RuntimeException(ex);
-        }
-        
+        return PropertyAccessor.of(source.getClass(), prop).get(source);
+    }
+    
+    /**
+     * Gets the value of the given persistent attribute. The value is 
+     * read via the {@link Attribute#getJavaMember() Java member} of the 
+     * attribute, which is a field for field-mapped entities.
+     */
+    public static Object getValue(Object source, Attribute<?, ?> attr) {
+        return PropertyAccessor.of(attr).get(source);
+    }
+    
+    /**
+     * Gets the wrapper class of the given class if it is primitive,
+     * otherwise the class itself.
+     */
+    public static Class<?> toWrapper(Class<?> cls) {
+        if (!cls.isPrimitive()) return cls;
+        if (cls == int.class)     return Integer.class;
+        if (cls == long.class)    return Long.class;
+        if (cls == short.class)   return Short.class;
+        if (cls == byte.class)    return Byte.class;
+        if (cls == char.class)    return Character.class;
+        if (cls == double.class)  return Double.class;
+        if (cls == float.class)   return Float.class;
+        if (cls == boolean.class) return Boolean.class;
+        return cls;
     }
     
     Object getAssociation(Object source, Attribute<?, ?> attr) {
@@ -0,0 +1,169 @@
+package oracle.jest;
+
+import javax.persistence.metamodel.EntityType;
+
+/**
+ * The path of a request parsed into its segments.
+ * <br>
+ * A path is <code>/{type}/{id}/{attribute}...</code>, where each segment
+ * is optional after the ones before it, or a verb, such as
+ * <code>/_metrics</code> or <code>/{type}/_find</code>. The {@link Shape
+ * shape} of a path is known by the number of its segments and its verbs,
+ * and selects the {@link Router route} of a request.
+ * <p>
+ * The path is parsed in place: a segment is resolved to its entity type
+ * or verb by a {@link NameTrie trie} over the characters of the path, and
+ * is taken out of the path only when its text is asked for, as for the
+ * identity. A trailing slash does not start a segment.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class RequestPath {
+    /**
+     * The shape of a path, by the number and kind of its segments.
+     */
+    public static enum Shape {
+        /** <code>/</code> */
+        ROOT,
+        /** <code>/_verb</code> */
+        VERB,
+        /** <code>/{type}</code> */
+        TYPE,
+        /** <code>/{type}/_verb</code> */
+        TYPE_VERB,
+        /** <code>/{type}/{id}</code> */
+        INSTANCE,
+        /** <code>/{type}/{id}/{attribute}...</code> */
+        NAVIGATION
+    }
+
+    static final RequestPath ROOT = new RequestPath("/", 1, Shape.ROOT, 0, 0, null, null);
+
+    private final String path;
+    // index after the last character of the path, without trailing slashes
+    private final int end;
+    private final Shape shape;
+    private final int segments;
+    // index after the first segment
+    private final int typeEnd;
+    private final EntityType<?> type;
+    private final String verb;
+
+    private RequestPath(String path, int end, Shape shape, int segments,
+            int typeEnd, EntityType<?> type, String verb) {
+        this.path = path;
+        this.end = end;
+        this.shape = shape;
+        this.segments = segments;
+        this.typeEnd = typeEnd;
+        this.type = type;
+        this.verb = verb;
+    }
+
+    /**
+     * Parses the given path.
+     *
+     * @param index resolves the entity type of the first segment. May
+     * be null if there is no domain model.
+     * @param verbs the verbs a segment may be
+     */
+    static RequestPath parse(String path, MetamodelIndex index,
+            NameTrie<String> verbs) {
+        if (path == null) return ROOT;
+        int end = path.length();
+        while (end > 0 && path.charAt(end-1) == '/') end--;
+        if (end <= 1) return ROOT;
+        int segments = 1;
+        int typeEnd = end;
+        for (int i = 1; i < end; i++) {
+            if (path.charAt(i) != '/') continue;
+            if (segments == 1) typeEnd = i;
+            segments++;
+        }
+        if (segments == 1) {
+            String verb = verbs.get(path, 1, end);
+            if (verb != null) {
+                return new RequestPath(path, end, Shape.VERB, 1, end, null, verb);
+            }
+        }
+        EntityType<?> type = index == null ? null
+                : index.getEntityType(path, 1, typeEnd);
+        Shape shape;
+        String verb = null;
+        if (segments == 1) {
+            shape = Shape.TYPE;
+        } else if (segments == 2) {
+            verb = verbs.get(path, typeEnd + 1, end);
+            shape = verb == null ? Shape.INSTANCE : Shape.TYPE_VERB;
+        } else {
+            shape = Shape.NAVIGATION;
+        }
+        return new RequestPath(path, end, shape, segments, typeEnd, type, verb);
+    }
+
+    public Shape getShape() {
+        return shape;
+    }
+
+    /**
+     * Gets the number of segments of the path.
+     */
+    public int getSegmentCount() {
+        return segments;
+    }
+
+    /**
+     * Gets the entity type named by the first segment.
+     *
+     * @return null if the first segment names no entity type
+     */
+    public EntityType<?> getEntityType() {
+        return type;
+    }
+
+    /**
+     * Gets the first segment, which names the entity type.
+     *
+     * @return null if the path has no segment
+     */
+    public String getTypeName() {
+        return segments == 0 ? null : path.substring(1, typeEnd);
+    }
+
+    /**
+     * Gets the second segment, which is the identity of an instance.
+     *
+     * @return null if the path has no second segment or it is a verb
+     */
+    public String getId() {
+        return verb != null || segments < 2 ? null : getSegment(1);
+    }
+
+    /**
+     * Gets the verb of the path, if any.
+     */
+    public String getVerb() {
+        return verb;
+    }
+
+    /**
+     * Gets the segment of the given position, the first being zero.
+     */
+    public String getSegment(int i) {
+        if (i < 0 || i >= segments) {
+            throw new IndexOutOfBoundsException("Segment " + i + " of " + this);
+        }
+        int start = 1;
+        for (int k = 0; k < i; k++) {
+            start = path.indexOf('/', start) + 1;
+        }
+        int next = path.indexOf('/', start);
+        return path.substring(start, next < 0 || next > end ? end : next);
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
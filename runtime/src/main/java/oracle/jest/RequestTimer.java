@@ -0,0 +1,72 @@
+package oracle.jest;
+
+/**
+ * Measures the time a request spends in each phase of its processing.
+ * <br>
+ * A request is in one phase at a time. It starts in the
+ * {@link #RESOLVE resolve} phase, where the path and parameters are
+ * resolved against the domain model, and moves to the {@link #QUERY
+ * query} phase when it gets a persistence context and to the
+ * {@link #SERIALIZE serialize} phase when its response is written. A
+ * command that streams its response moves back and forth between query
+ * and serialize. The time between two moves is counted for the phase
+ * that was left.
+ * <p>
+ * A timer belongs to a single request and is not thread-safe.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class RequestTimer {
+    public static final int RESOLVE   = 0;
+    public static final int QUERY     = 1;
+    public static final int SERIALIZE = 2;
+    static final String[] PHASES = {"resolve", "query", "serialize"};
+
+    private final long start;
+    private final long[] elapsed = new long[PHASES.length];
+    private int phase = RESOLVE;
+    private long mark;
+    private long end;
+
+    public RequestTimer() {
+        start = mark = System.nanoTime();
+    }
+
+    /**
+     * Moves the request to the given phase. Moving to the current phase
+     * has no effect.
+     */
+    public void enter(int phase) {
+        if (phase == this.phase || end != 0) return;
+        long now = System.nanoTime();
+        elapsed[this.phase] += now - mark;
+        mark = now;
+        this.phase = phase;
+    }
+
+    /**
+     * Ends the request. The time since the last move is counted for the
+     * current phase.
+     */
+    public void stop() {
+        if (end != 0) return;
+        end = System.nanoTime();
+        elapsed[phase] += end - mark;
+    }
+
+    /**
+     * Gets the nanoseconds spent in the given phase.
+     */
+    public long getElapsed(int phase) {
+        return elapsed[phase];
+    }
+
+    /**
+     * Gets the nanoseconds from the start to the end of the request, or
+     * till now if the request has not ended.
+     */
+    public long getTotal() {
+        return (end == 0 ? System.nanoTime() : end) - start;
+    }
+}
@@ -0,0 +1,341 @@
+package oracle.jest;
+
+import java.lang.reflect.Constructor;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EmbeddableType;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.PluralAttribute;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Reads a JSON API resource object into a persistent instance.
+ * <br>
+ * The reader is the inverse of {@link JSONAPITransformer}. The members of
+ * <code>attributes</code> are converted to the Java type of the attribute
+ * of same name, and an embedded value is read recursively. The resource
+ * identifiers in <code>relationships</code> are resolved to references
+ * of the persistence context, without loading the related instances.
+ * Only the attributes and relationships present in the resource are set.
+ * All values of a resource are read before any is set, so that a resource
+ * with an invalid value leaves the instance as it was.
+ *
+ * @author pinaki poddar
+ *
+ */
+class ResourceReader {
+    static final String ATTR_DATA          = "data";
+    static final String ATTR_TYPE          = "type";
+    static final String ATTR_ID            = "id";
+    static final String ATTR_ATTRIBUTES    = "attributes";
+    static final String ATTR_RELATIONSHIPS = "relationships";
+
+    private final JESTCommand command;
+    private final MetamodelIndex index;
+    private final EntityManager em;
+
+    ResourceReader(JESTCommand command, EntityManager em) {
+        this.command = command;
+        this.index = command.getContext().getMetamodelIndex();
+        this.em = em;
+    }
+
+    /**
+     * Gets the entity type named by the given resource.
+     *
+     * @param type the type of the resource if it does not name one
+     * @exception IllegalArgumentException if the resource names a type
+     * that is neither the given type nor its subtype
+     */
+    EntityType<?> getType(JSONObject resource, EntityType<?> type) {
+        String name = resource.optString(ATTR_TYPE, null);
+        if (name == null || name.equals(type.getName())) return type;
+        EntityType<?> actual = index.getEntityType(name);
+        if (actual == null
+         || !type.getJavaType().isAssignableFrom(actual.getJavaType())) {
+            throw new IllegalArgumentException("Resource type " + name
+                    + " is not a " + type.getName());
+        }
+        return actual;
+    }
+
+    /**
+     * Gets the identity of the given resource.
+     *
+     * @return null if the resource has no identity
+     */
+    Object getId(JSONObject resource, EntityType<?> type) {
+        String id = resource.optString(ATTR_ID, null);
+        return id == null
+            ? null : index.getIdConverter(type).parse(id);
+    }
+
+    /**
+     * Creates a new instance of the given type from the given resource.
+     */
+    Object create(JSONObject resource, EntityType<?> type) {
+        Object pc = newInstance(type.getJavaType());
+        Object id = getId(resource, type);
+        if (id != null) {
+            if (!type.hasSingleIdAttribute()) {
+                throw new IllegalArgumentException("Can not set identity of "
+                    + type.getName() + " because it has a composite identity");
+            }
+            PropertyAccessor.of(MetamodelIndex.getIdAttribute(type))
+                .set(pc, id);
+        }
+        update(resource, type, pc);
+        return pc;
+    }
+
+    /**
+     * Sets the attributes and relationships present in given resource
+     * to the given instance.
+     *
+     * @exception IllegalArgumentException if a value of the resource is
+     * not valid, in which case the instance is not changed
+     */
+    void update(JSONObject resource, EntityType<?> type, Object pc) {
+        List<PropertyAccessor> accessors = new ArrayList<PropertyAccessor>();
+        List<Object> values = new ArrayList<Object>();
+        JSONObject attributes = resource.optJSONObject(ATTR_ATTRIBUTES);
+        if (attributes != null) {
+            readAttributes(attributes, type, accessors, values);
+        }
+        JSONObject relationships = resource.optJSONObject(ATTR_RELATIONSHIPS);
+        if (relationships != null) {
+            Iterator<?> names = relationships.keys();
+            while (names.hasNext()) {
+                String name = names.next().toString();
+                Attribute<?, ?> attr = getAttribute(type, name);
+                if (!attr.isAssociation()) {
+                    throw new IllegalArgumentException(name + " of "
+                            + type.getName() + " is not a relationship");
+                }
+                JSONObject relationship = relationships.getJSONObject(name);
+                accessors.add(getWritable(attr));
+                values.add(toReference(relationship.opt(ATTR_DATA), attr));
+            }
+        }
+        set(pc, accessors, values);
+    }
+
+    /*
+     * reads the values of the given attributes without setting them
+     */
+    private void readAttributes(JSONObject attributes, ManagedType<?> type,
+            List<PropertyAccessor> accessors, List<Object> values) {
+        Iterator<?> names = attributes.keys();
+        while (names.hasNext()) {
+            String name = names.next().toString();
+            Attribute<?, ?> attr = getAttribute(type, name);
+            if (attr.isAssociation()) {
+                throw new IllegalArgumentException(name + " of "
+                        + index.getTypeName(type) + " is a relationship");
+            }
+            accessors.add(getWritable(attr));
+            values.add(toAttributeValue(attributes.get(name), attr));
+        }
+    }
+
+    private static void set(Object target, List<PropertyAccessor> accessors,
+            List<Object> values) {
+        for (int i = 0; i < accessors.size(); i++) {
+            accessors.get(i).set(target, values.get(i));
+        }
+    }
+
+    private static PropertyAccessor getWritable(Attribute<?, ?> attr) {
+        PropertyAccessor accessor = PropertyAccessor.of(attr);
+        if (!accessor.isWritable()) {
+            throw new UnsupportedOperationException(accessor + " is not writable");
+        }
+        return accessor;
+    }
+
+    private Attribute<?, ?> getAttribute(ManagedType<?> type, String name) {
+        Attribute<?, ?> attr = index.getAttribute(type, name);
+        if (attr == null) {
+            throw new IllegalArgumentException(index.getTypeName(type)
+                    + " has no attribute " + name);
+        }
+        return attr;
+    }
+
+    private Object toAttributeValue(Object json, Attribute<?, ?> attr) {
+        if (json == JSONObject.NULL) return null;
+        if (attr.isCollection()) {
+            PluralAttribute<?, ?, ?> plural = (PluralAttribute<?, ?, ?>)attr;
+            if (!(json instanceof JSONArray)) {
+                throw new IllegalArgumentException(attr.getName()
+                        + " requires an array");
+            }
+            JSONArray array = (JSONArray)json;
+            Collection<Object> values = newCollection(plural, array.length());
+            for (int i = 0; i < array.length(); i++) {
+                values.add(toValue(array.get(i),
+                        plural.getElementType().getJavaType()));
+            }
+            return values;
+        }
+        return toValue(json, attr.getJavaType());
+    }
+
+    /**
+     * Converts the given JSON value to a value of given type. A JSON
+     * object is read as an embedded value.
+     */
+    Object toValue(Object json, Class<?> type) {
+        if (json == null || json == JSONObject.NULL) {
+            if (type.isPrimitive()) {
+                throw new IllegalArgumentException("null is not a " + type);
+            }
+            return null;
+        }
+        EmbeddableType<?> embeddable = index.getEmbeddableType(type);
+        if (embeddable != null) {
+            if (!(json instanceof JSONObject)) {
+                throw new IllegalArgumentException(json + " is not an "
+                        + "object for embedded " + type.getSimpleName());
+            }
+            List<PropertyAccessor> accessors = new ArrayList<PropertyAccessor>();
+            List<Object> values = new ArrayList<Object>();
+            readAttributes((JSONObject)json, embeddable, accessors, values);
+            Object embedded = newInstance(type);
+            set(embedded, accessors, values);
+            return embedded;
+        }
+        Class<?> cls = Reflection.toWrapper(type);
+        if (cls.isInstance(json)) return json;
+        if (json instanceof Number) {
+            Object value = toNumber((Number)json, cls);
+            if (value != null) return value;
+        }
+        if (json instanceof JSONObject || json instanceof JSONArray) {
+            throw new IllegalArgumentException(json + " is not a "
+                    + cls.getSimpleName());
+        }
+        String s = json.toString();
+        if (cls == String.class)     return s;
+        return IdConverter.of(cls).parse(s);
+    }
+
+    /*
+     * converts the given number exactly to the given type, or null if the
+     * type is not numeric. A fraction for an integral type, or a number out
+     * of the range of the type, is not a value of the type.
+     */
+    private static Object toNumber(Number n, Class<?> cls) {
+        try {
+            BigDecimal d = new BigDecimal(n.toString());
+            if (cls == Integer.class)    return d.intValueExact();
+            if (cls == Long.class)       return d.longValueExact();
+            if (cls == Short.class)      return d.shortValueExact();
+            if (cls == Byte.class)       return d.byteValueExact();
+            if (cls == BigDecimal.class) return d;
+            if (cls == BigInteger.class) return d.toBigIntegerExact();
+            if (cls == Double.class) {
+                double v = d.doubleValue();
+                if (Double.isInfinite(v)) throw new ArithmeticException("Overflow");
+                return v;
+            }
+            if (cls == Float.class) {
+                float v = d.floatValue();
+                if (Float.isInfinite(v)) throw new ArithmeticException("Overflow");
+                return v;
+            }
+            if (cls == java.util.Date.class) {
+                return new java.util.Date(d.longValueExact());
+            }
+            if (cls == java.sql.Timestamp.class) {
+                return new java.sql.Timestamp(d.longValueExact());
+            }
+            return null;
+        } catch (ArithmeticException ex) {
+            throw new IllegalArgumentException(n + " is not a valid "
+                    + cls.getSimpleName() + ": " + ex.getMessage());
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(n + " is not a valid "
+                    + cls.getSimpleName());
+        }
+    }
+
+    /**
+     * Converts the resource linkage of a relationship to references.
+     */
+    private Object toReference(Object linkage, Attribute<?, ?> attr) {
+        if (linkage == null || linkage == JSONObject.NULL) return null;
+        EntityType<?> target = (EntityType<?>)index.getTargetType(attr);
+        if (attr.isCollection()) {
+            if (!(linkage instanceof JSONArray)) {
+                throw new IllegalArgumentException(attr.getName()
+                        + " requires an array of resource identifiers");
+            }
+            JSONArray array = (JSONArray)linkage;
+            Collection<Object> refs = newCollection(
+                    (PluralAttribute<?, ?, ?>)attr, array.length());
+            for (int i = 0; i < array.length(); i++) {
+                refs.add(toReference(array.getJSONObject(i), target));
+            }
+            return refs;
+        }
+        if (!(linkage instanceof JSONObject)) {
+            throw new IllegalArgumentException(attr.getName()
+                    + " requires a resource identifier");
+        }
+        return toReference((JSONObject)linkage, target);
+    }
+
+    private Object toReference(JSONObject identifier, EntityType<?> type) {
+        EntityType<?> actual = getType(identifier, type);
+        Object id = getId(identifier, actual);
+        if (id == null) {
+            throw new IllegalArgumentException("Resource identifier of "
+                    + actual.getName() + " has no id");
+        }
+        // a reference that does not exist would mark the transaction for rollback
+        Object ref = em.find(actual.getJavaType(), id);
+        if (ref == null) {
+            throw new IllegalArgumentException(actual.getName() + " "
+                    + identifier.opt(ATTR_ID) + " does not exist");
+        }
+        return ref;
+    }
+
+    private Collection<Object> newCollection(PluralAttribute<?, ?, ?> attr, int size) {
+        switch (attr.getCollectionType()) {
+        case SET:
+            return new HashSet<Object>();
+        case LIST:
+        case COLLECTION:
+            return new ArrayList<Object>(size);
+        default:
+            throw new IllegalArgumentException("Can not set " + attr.getName()
+                    + " of type " + attr.getCollectionType());
+        }
+    }
+
+    private static Object newInstance(Class<?> cls) {
+        try {
+            Constructor<?> c = cls.getDeclaredConstructor();
+            if (!c.isAccessible()) c.setAccessible(true);
+            return c.newInstance();
+        } catch (NoSuchMethodException ex) {
+            throw new IllegalArgumentException(cls.getName()
+                    + " has no constructor without argument");
+        } catch (Exception ex) {
+            throw new RuntimeException("Can not create " + cls.getName(), ex);
+        }
+    }
+}
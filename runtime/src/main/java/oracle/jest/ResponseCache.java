@@ -0,0 +1,280 @@
+package oracle.jest;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.metamodel.EntityType;
+
+/**
+ * A cache of serialized documents of single instances.
+ * <br>
+ * A document is cached by the type and identity of the instance, the
+ * fields selected by the request and the media type of the document.
+ * A request for a cached document is served from the cache without a
+ * query to the database and without a transformation.
+ * <p>
+ * The cache is bounded by the total size of the documents in bytes.
+ * When the bound is exceeded, the least recently used documents are
+ * evicted. A document also expires after a fixed time to live.
+ * <p>
+ * All documents of an instance are invalidated when the instance is
+ * updated or removed, either by a command of this servlet or, if the
+ * persistence unit is configured with {@link ResponseCacheListener},
+ * by any application that shares the persistence unit. An instance
+ * updated in the database by other means is served stale until its
+ * documents expire.
+ * <p>
+ * A document read while its instance is invalidated is not cached. Each
+ * instance has a stamp of its invalidations, shared by the few instances
+ * of the same stripe of stamps, so that a write to one instance does not
+ * stop the documents of others from being cached.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class ResponseCache {
+    private static final Set<ResponseCache> caches =
+            new CopyOnWriteArraySet<ResponseCache>();
+    // a power of two
+    private static final int STRIPES = 1024;
+
+    private final MetamodelIndex index;
+    private final PersistenceUnitUtil util;
+    private final long maxBytes;
+    private final long timeToLive;
+
+    // guarded by this
+    private final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<String, Entry>(64, 0.75f, true);
+    private final Map<String, Set<String>> keysByInstance =
+            new HashMap<String, Set<String>>();
+    private long bytes;
+    private final long[] invalidations = new long[STRIPES];
+
+    private final AtomicLong hits      = new AtomicLong();
+    private final AtomicLong misses    = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a cache and registers it to be invalidated by
+     * {@link ResponseCacheListener}.
+     *
+     * @param maxBytes maximum total size of cached documents
+     * @param timeToLive milliseconds a document is served from cache.
+     * Zero or negative for no expiry.
+     */
+    public ResponseCache(MetamodelIndex index, PersistenceUnitUtil util,
+            long maxBytes, long timeToLive) {
+        this.index = index;
+        this.util = util;
+        this.maxBytes = maxBytes;
+        this.timeToLive = timeToLive;
+        caches.add(this);
+    }
+
+    /**
+     * Gets the key of the document of the given instance.
+     */
+    public String key(EntityType<?> type, Object id,
+            FieldSelection selection, String mimeType) {
+        return instanceKey(type, id) + '?' + selection.getKey()
+                + ';' + mimeType;
+    }
+
+    /**
+     * Gets the stamp of the given instance to be given to a following
+     * {@link #put put} of its document. Get the stamp before reading the
+     * instance from the database, so that a document read before an
+     * invalidation is not cached after it.
+     */
+    public synchronized long getStamp(EntityType<?> type, Object id) {
+        return invalidations[stripe(instanceKey(type, id))];
+    }
+
+    /**
+     * Gets the cached document of given key.
+     *
+     * @return null if the document is not cached or has expired.
+     */
+    public CachedDocument get(String key) {
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (!entry.isExpired(System.currentTimeMillis())) {
+                    hits.incrementAndGet();
+                    return entry.document;
+                }
+                remove(key);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Caches the given document of given instance, unless the instance has
+     * been invalidated since the given stamp was obtained.
+     */
+    public synchronized void put(EntityType<?> type, Object id, String key,
+            CachedDocument document, long stamp) {
+        String instance = instanceKey(type, id);
+        if (stamp != invalidations[stripe(instance)]) return;
+        long size = size(document);
+        if (size > maxBytes) return;
+        remove(key);
+        long expires = timeToLive > 0
+                ? System.currentTimeMillis() + timeToLive : Long.MAX_VALUE;
+        entries.put(key, new Entry(instance, document, size, expires));
+        Set<String> keys = keysByInstance.get(instance);
+        if (keys == null) {
+            keys = new HashSet<String>();
+            keysByInstance.put(instance, keys);
+        }
+        keys.add(key);
+        bytes += size;
+        Iterator<Map.Entry<String, Entry>> lru = entries.entrySet().iterator();
+        while (bytes > maxBytes && lru.hasNext()) {
+            Map.Entry<String, Entry> eldest = lru.next();
+            lru.remove();
+            unlink(eldest.getKey(), eldest.getValue());
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Invalidates all documents of the instance of given type and identity.
+     */
+    public synchronized void invalidate(EntityType<?> type, Object id) {
+        String instance = instanceKey(type, id);
+        invalidations[stripe(instance)]++;
+        Set<String> keys = keysByInstance.remove(instance);
+        if (keys == null) return;
+        for (String key : keys) {
+            Entry entry = entries.remove(key);
+            if (entry != null) bytes -= entry.size;
+        }
+    }
+
+    /**
+     * Invalidates all documents of all instances.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < STRIPES; i++) {
+            invalidations[i]++;
+        }
+        entries.clear();
+        keysByInstance.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Invalidates all documents of the given instance, if the instance
+     * belongs to the persistence unit of this cache.
+     */
+    public void invalidate(Object pc) {
+        EntityType<?> type = index.getEntityType(pc.getClass());
+        if (type != null) {
+            invalidate(type, util.getIdentifier(pc));
+        }
+    }
+
+    /**
+     * Invalidates the documents of the given instance in every cache.
+     */
+    static void invalidateAll(Object pc) {
+        for (ResponseCache cache : caches) {
+            cache.invalidate(pc);
+        }
+    }
+
+    /**
+     * Removes all documents and stops this cache from being invalidated
+     * by {@link ResponseCacheListener}.
+     */
+    public synchronized void close() {
+        caches.remove(this);
+        entries.clear();
+        keysByInstance.clear();
+        bytes = 0;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "response cache documents:" + getSize() + " bytes:" + getBytes()
+            + " hits:" + getHitCount() + " misses:" + getMissCount()
+            + " evictions:" + getEvictionCount();
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) unlink(key, entry);
+    }
+
+    private void unlink(String key, Entry entry) {
+        bytes -= entry.size;
+        Set<String> keys = keysByInstance.get(entry.instance);
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty()) keysByInstance.remove(entry.instance);
+        }
+    }
+
+    private String instanceKey(EntityType<?> type, Object id) {
+        return type.getName() + '/' + index.getIdConverter(type).format(id);
+    }
+
+    private static int stripe(String instance) {
+        int h = instance.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    private static long size(CachedDocument document) {
+        return document.getContent().length
+             + document.getGzippedContent().length;
+    }
+
+    private static class Entry {
+        final String instance;
+        final CachedDocument document;
+        final long size;
+        final long expires;
+
+        Entry(String instance, CachedDocument document, long size, long expires) {
+            this.instance = instance;
+            this.document = document;
+            this.size = size;
+            this.expires = expires;
+        }
+
+        boolean isExpired(long now) {
+            return now > expires;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package oracle.jest;
+
+import java.util.logging.Logger;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * An entity listener that invalidates the {@link ResponseCache cached
+ * documents} of an instance when the instance is updated or removed.
+ * <br>
+ * JEST invalidates the cache for the instances its own commands update.
+ * To invalidate the cache for updates made by other parts of the
+ * application through the same persistence unit, add the mapping file
+ * shipped with JEST to the persistence unit:
+ * <pre>
+ *   &lt;persistence-unit name="app"&gt;
+ *      &lt;mapping-file&gt;META-INF/jest-orm.xml&lt;/mapping-file&gt;
+ *      ...
+ * </pre>
+ * The mapping file declares this class as a default entity listener, so
+ * that it applies to every entity of the unit without changing the
+ * entity classes.
+ * <p>
+ * The callbacks are invoked when the update is flushed, before it is
+ * committed, and a request may read the instance as it was and cache it
+ * after the invalidation. In a JTA transaction, the documents are
+ * invalidated again once the transaction completes. A resource-local
+ * transaction has no such notification, so for a unit of resource-local
+ * transactions this listener is not safe: a document may be served
+ * stale until it expires, and the cache should be configured with a
+ * short <code>response-cache-ttl</code>.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class ResponseCacheListener {
+    private static final Logger logger = Logger.getLogger("RUNTIME");
+    static final String JNDI_REGISTRY = "java:comp/TransactionSynchronizationRegistry";
+
+    // whether the transactions are JTA, null till known
+    private static volatile Boolean jta;
+
+    @PostUpdate
+    @PostRemove
+    public void invalidate(Object pc) {
+        ResponseCache.invalidateAll(pc);
+        if (isJTA()) {
+            JTA.invalidateOnCompletion(pc);
+        }
+    }
+
+    private static boolean isJTA() {
+        Boolean available = jta;
+        if (available == null) {
+            String reason;
+            try {
+                reason = JTA.lookup();
+            } catch (LinkageError ex) {
+                // no JTA classes, as in a servlet container
+                reason = ex.toString();
+            }
+            available = reason == null;
+            if (!available) {
+                logger.warning("Cached documents are invalidated when an update"
+                    + " is flushed, not when it is committed, because there is no "
+                    + JNDI_REGISTRY + ": " + reason);
+            }
+            jta = available;
+        }
+        return available;
+    }
+
+    /*
+     * refers to the JTA classes only once they are known to exist
+     */
+    private static class JTA {
+        static TransactionSynchronizationRegistry registry;
+
+        /*
+         * returns the reason the registry is not available, if so
+         */
+        static String lookup() {
+            try {
+                registry = (TransactionSynchronizationRegistry)
+                        new InitialContext().lookup(JNDI_REGISTRY);
+                return null;
+            } catch (NamingException ex) {
+                return ex.toString();
+            }
+        }
+
+        static void invalidateOnCompletion(final Object pc) {
+            if (registry.getTransactionStatus() != Status.STATUS_ACTIVE) return;
+            registry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    ResponseCache.invalidateAll(pc);
+                }
+            });
+        }
+    }
+}
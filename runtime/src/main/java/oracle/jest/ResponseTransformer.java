@@ -1,5 +1,8 @@
 package oracle.jest;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
 import javax.servlet.http.HttpServletResponse;
 
 import org.json.JSONObject;
@@ -12,6 +15,11 @@ import org.json.JSONObject;
  *
  */
 public interface ResponseTransformer {
+    /**
+     * Gets the media type of the representation this transformer writes.
+     */
+    String getMimeType();
+
     /**
      * Transforms the given object to a representation
      * and write to given response.
@@ -20,6 +28,15 @@ public interface ResponseTransformer {
      * or an entire data model
      */
     void transform(Object pObject, HttpServletResponse response);
-    
 
+    /**
+     * Transforms the given object to a representation
+     * and writes it to the given stream as it is being transformed.
+     * The stream is flushed but not closed.
+     * 
+     * @param pObject can be a persistence instance or type 
+     * or an entire data model
+     * @param out the stream to write to
+     */
+    void transform(Object pObject, OutputStream out) throws IOException;
 }
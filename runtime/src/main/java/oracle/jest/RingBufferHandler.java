@@ -0,0 +1,156 @@
+package oracle.jest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * A handler that holds the records in a ring buffer of fixed size, for a
+ * background thread to publish them to another handler.
+ * <br>
+ * A thread that logs a record only claims a slot of the buffer and puts
+ * the record in it, without a lock, so that it neither waits for the
+ * record to be written nor for other threads that log at the same time.
+ * If the buffer is full, because records are logged faster than they are
+ * written, the record is dropped and counted rather than have the thread
+ * wait. The background thread sleeps while the buffer is empty and is
+ * woken by the thread that logs a record, only if it sleeps.
+ * <p>
+ * Closing the handler publishes the records held and closes the other
+ * handler. A record logged once the handler is closed is ignored.
+ *
+ * @author pinaki poddar
+ *
+ */
+class RingBufferHandler extends Handler {
+    // set in the head once closed, so that no slot is claimed after
+    private static final long CLOSED = Long.MIN_VALUE;
+
+    private final Handler target;
+    private final AtomicReferenceArray<LogRecord> slots;
+    private final int capacity;
+    // the next slot to claim and the next slot to publish
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread publisher;
+    private volatile boolean sleeping;
+
+    /**
+     * @param target handler that writes the records
+     * @param capacity maximum number of records held
+     */
+    RingBufferHandler(Handler target, int capacity) {
+        this.target = target;
+        this.capacity = capacity;
+        this.slots = new AtomicReferenceArray<LogRecord>(capacity);
+        this.publisher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "jest-trace");
+        publisher.setDaemon(true);
+        publisher.start();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (!isLoggable(record)) return;
+        long h;
+        do {
+            h = head.get();
+            if (h < 0) return;
+            if (h - tail.get() >= capacity) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!head.compareAndSet(h, h+1));
+        slots.lazySet((int)(h % capacity), record);
+        if (sleeping) {
+            LockSupport.unpark(publisher);
+        }
+    }
+
+    /**
+     * Gets the number of records dropped because the buffer was full.
+     */
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    @Override
+    public void flush() {
+        target.flush();
+    }
+
+    @Override
+    public void close() {
+        long h;
+        do {
+            h = head.get();
+            if (h < 0) return;
+        } while (!head.compareAndSet(h, h | CLOSED));
+        LockSupport.unpark(publisher);
+        try {
+            publisher.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        target.close();
+    }
+
+    /*
+     * publishes the records in the order their slots were claimed. A slot
+     * claimed but not yet filled is waited for. A slot is emptied before
+     * the tail moves past it, so that it is not claimed again till then.
+     * The head is read again after the thread declares it sleeps, so that
+     * either the thread sees a record claimed since or the thread that
+     * claimed it sees the thread sleep and wakes it.
+     */
+    private void drain() {
+        boolean pending = false;
+        for (;;) {
+            long t = tail.get();
+            long h = head.get();
+            if (t == (h & ~CLOSED)) {
+                if (h < 0) break;
+                if (pending) {
+                    target.flush();
+                    pending = false;
+                    continue;
+                }
+                sleeping = true;
+                if (head.get() == h) {
+                    LockSupport.park(this);
+                }
+                sleeping = false;
+                continue;
+            }
+            int slot = (int)(t % capacity);
+            LogRecord record = slots.get(slot);
+            if (record == null) {
+                Thread.yield();
+                continue;
+            }
+            slots.set(slot, null);
+            tail.set(t+1);
+            try {
+                target.publish(record);
+                pending = true;
+            } catch (RuntimeException ex) {
+                reportError(null, ex, ErrorManager.WRITE_FAILURE);
+            }
+        }
+        if (dropped.get() > 0) {
+            target.publish(new LogRecord(Level.WARNING,
+                    "trace dropped " + dropped.get() + " records"));
+        }
+        target.flush();
+    }
+}
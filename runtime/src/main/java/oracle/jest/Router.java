@@ -0,0 +1,170 @@
+package oracle.jest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Selects the {@link JESTCommand command} of a request by its method and
+ * the {@link RequestPath.Shape shape} of its path.
+ * <br>
+ * A command is registered for a method and a path pattern, which is one of
+ * <pre>
+ *    /                         the root
+ *    /_verb                    a verb of the servlet
+ *    /{type}                   an entity type
+ *    /{type}/_verb             a verb on an entity type
+ *    /{type}/{id}              an instance
+ *    /{type}/{id}/{path}       an attribute navigated from an instance
+ * </pre>
+ * optionally with a {@link Condition condition} on the request, such as
+ * a parameter or a header it must have. The routes of the same method and
+ * pattern are tried in the order of their registration, and the first
+ * whose condition holds creates the command. A <code>HEAD</code> request
+ * takes the routes of <code>GET</code>, unless routes are registered for
+ * <code>HEAD</code>, as the container discards the content of its
+ * response.
+ * <p>
+ * The routes are registered once, when the servlet is initialized, and
+ * are then only read. A request is routed by parsing its path once, in
+ * place, and looking up the routes of its shape, so that routing takes
+ * time in the length of the path whatever the number of routes or
+ * entity types.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class Router {
+    private static final String PATTERN_TYPE       = "{type}";
+    private static final String PATTERN_ID         = "{id}";
+    private static final String PATTERN_NAVIGATION = "{path}";
+    private static final String METHOD_GET  = "GET";
+    private static final String METHOD_HEAD = "HEAD";
+
+    /**
+     * Creates the command of a request.
+     */
+    public static interface Factory {
+        JESTCommand create(JESTContext ctx) throws ServletException;
+    }
+
+    /**
+     * A condition on a request for a route to apply.
+     */
+    public static interface Condition {
+        boolean accepts(HttpServletRequest request);
+    }
+
+    private final NameTrie<String> verbs = new NameTrie<String>();
+    private final Map<String, Route[][]> routes = new HashMap<String, Route[][]>();
+
+    private static class Route {
+        final String verb;
+        final Condition condition;
+        final Factory factory;
+
+        Route(String verb, Condition condition, Factory factory) {
+            this.verb = verb;
+            this.condition = condition;
+            this.factory = factory;
+        }
+    }
+
+    /**
+     * Registers the given factory for the requests of the given method on
+     * the paths of the given pattern.
+     */
+    public void register(String method, String pattern, Factory factory) {
+        register(method, pattern, null, factory);
+    }
+
+    /**
+     * Registers the given factory for the requests of the given method on
+     * the paths of the given pattern that satisfy the given condition.
+     *
+     * @param condition null if the route applies to any request
+     * @exception IllegalArgumentException if the pattern is not valid
+     */
+    public void register(String method, String pattern, Condition condition,
+            Factory factory) {
+        String[] segments = pattern.equals("/") ? new String[0]
+                : pattern.substring(pattern.startsWith("/") ? 1 : 0).split("/");
+        String verb = null;
+        RequestPath.Shape shape;
+        if (segments.length == 0) {
+            shape = RequestPath.Shape.ROOT;
+        } else if (segments.length == 1 && isVerb(segments[0])) {
+            shape = RequestPath.Shape.VERB;
+            verb = segments[0];
+        } else if (!PATTERN_TYPE.equals(segments[0])) {
+            throw new IllegalArgumentException(invalid(pattern));
+        } else if (segments.length == 1) {
+            shape = RequestPath.Shape.TYPE;
+        } else if (segments.length == 2 && isVerb(segments[1])) {
+            shape = RequestPath.Shape.TYPE_VERB;
+            verb = segments[1];
+        } else if (segments.length == 2 && PATTERN_ID.equals(segments[1])) {
+            shape = RequestPath.Shape.INSTANCE;
+        } else if (segments.length == 3 && PATTERN_ID.equals(segments[1])
+                && PATTERN_NAVIGATION.equals(segments[2])) {
+            shape = RequestPath.Shape.NAVIGATION;
+        } else {
+            throw new IllegalArgumentException(invalid(pattern));
+        }
+        if (verb != null) verbs.put(verb, verb);
+        Route[][] byShape = routes.get(method);
+        if (byShape == null) {
+            byShape = new Route[RequestPath.Shape.values().length][0];
+            routes.put(method, byShape);
+        }
+        Route[] current = byShape[shape.ordinal()];
+        Route[] added = new Route[current.length + 1];
+        System.arraycopy(current, 0, added, 0, current.length);
+        added[current.length] = new Route(verb, condition, factory);
+        byShape[shape.ordinal()] = added;
+    }
+
+    private static boolean isVerb(String segment) {
+        return segment.length() > 1 && segment.charAt(0) == '_';
+    }
+
+    private static String invalid(String pattern) {
+        return "Invalid route " + pattern + ". A route is /, /_verb, /{type},"
+                + " /{type}/_verb, /{type}/{id} or /{type}/{id}/{path}";
+    }
+
+    /**
+     * Parses the given path with the verbs of the registered routes.
+     */
+    public RequestPath parse(String path, MetamodelIndex index) {
+        return RequestPath.parse(path, index, verbs);
+    }
+
+    /**
+     * Creates the command of the route of the request of the given
+     * context.
+     *
+     * @return null if no route applies to the request
+     */
+    public JESTCommand route(JESTContext ctx) throws ServletException {
+        HttpServletRequest request = ctx.getRequest();
+        String method = request.getMethod();
+        Route[][] byShape = routes.get(method);
+        if (byShape == null && METHOD_HEAD.equals(method)) {
+            byShape = routes.get(METHOD_GET);
+        }
+        if (byShape == null) return null;
+        RequestPath path = ctx.getRequestPath();
+        Route[] candidates = byShape[path.getShape().ordinal()];
+        for (int i = 0; i < candidates.length; i++) {
+            Route route = candidates[i];
+            if (route.verb != null && !route.verb.equals(path.getVerb())) continue;
+            if (route.condition == null || route.condition.accepts(request)) {
+                return route.factory.create(ctx);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,55 @@
+package oracle.jest;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * Writes the tokens of a document of JSON data model, i.e. objects,
+ * arrays, strings, numbers, booleans and null, in some encoding.
+ * <br>
+ * A transformer describes the structure of a document through this
+ * interface, so that the same structure can be written as text by
+ * {@link JSONStreamWriter} or in a binary encoding such as
+ * {@link CBORStreamWriter}.
+ *
+ * @author pinaki poddar
+ *
+ */
+public interface TokenWriter extends Flushable, Closeable {
+    TokenWriter beginObject() throws IOException;
+
+    TokenWriter endObject() throws IOException;
+
+    TokenWriter beginArray() throws IOException;
+
+    TokenWriter endArray() throws IOException;
+
+    /**
+     * Writes the name of a property. Must be followed by a value.
+     */
+    TokenWriter name(String name) throws IOException;
+
+    TokenWriter value(String v) throws IOException;
+
+    TokenWriter value(long v) throws IOException;
+
+    TokenWriter value(double v) throws IOException;
+
+    TokenWriter value(boolean v) throws IOException;
+
+    TokenWriter nullValue() throws IOException;
+
+    /**
+     * Writes a value of basic type. Numbers and booleans are written
+     * as such, enums by their name and any other value as a string.
+     */
+    TokenWriter value(Object v) throws IOException;
+
+    /**
+     * Flushes the content and releases the resources of the writer.
+     * Does not close the underlying stream.
+     */
+    @Override
+    void close() throws IOException;
+}
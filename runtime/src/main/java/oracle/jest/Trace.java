@@ -0,0 +1,270 @@
+package oracle.jest;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Traces the processing of requests as structured events.
+ * <br>
+ * An event has a name and a few named values, and carries the
+ * correlation id of the request being processed on the current thread.
+ * An event is written as a single line, without the values that are null:
+ * <pre>
+ *    2016-03-01T10:00:00.123Z FINE [3kq9x-1a] request method=GET path=/Movie/m1
+ * </pre>
+ * Events are logged to the <code>TRACE</code> logger of
+ * <code>java.util.logging</code> at a level below <code>INFO</code>,
+ * so that tracing is off unless it is {@link #configure(Level, int)
+ * configured} or the logger is configured otherwise. An event that is not
+ * enabled costs a check of the level of the logger. Its values are neither
+ * formatted nor, for an event of at most three values, collected in an
+ * array. A caller that computes a value only to trace it should check
+ * {@link #isEnabled(Level)} first.
+ * <p>
+ * The correlation id of a request is the <code>X-Request-Id</code> header
+ * of the request, if it has one, otherwise an id generated only if tracing
+ * is enabled.
+ *
+ * @author pinaki poddar
+ *
+ */
+public final class Trace {
+    public static final String HEADER_REQUEST_ID = "X-Request-Id";
+    public static final int MAX_ID_LENGTH = 64;
+    static final Logger logger = Logger.getLogger("TRACE");
+
+    private static final ThreadLocal<String> requestId = new ThreadLocal<String>();
+    private static final String PREFIX = Long.toString(
+            ThreadLocalRandom.current().nextLong(36L*36*36*36, 36L*36*36*36*36), 36);
+    private static final AtomicLong sequence = new AtomicLong();
+    private static Handler handler;
+
+    private Trace() {
+    }
+
+    /**
+     * Sends the events of given level and above to the standard error
+     * stream.
+     *
+     * @param bufferSize number of events held for a background thread to
+     * write, so that a request does not wait for an event to be written.
+     * Zero or negative to write each event on the thread that traces it.
+     */
+    public static synchronized void configure(Level level, int bufferSize) {
+        shutdown();
+        Handler console = new ConsoleHandler();
+        console.setLevel(Level.ALL);
+        console.setFormatter(new TraceFormatter());
+        handler = bufferSize > 0 ? new RingBufferHandler(console, bufferSize) : console;
+        handler.setLevel(Level.ALL);
+        logger.setUseParentHandlers(false);
+        logger.addHandler(handler);
+        logger.setLevel(level);
+    }
+
+    /**
+     * Removes the handler {@link #configure(Level, int) configured}, after
+     * it has written the events it holds.
+     */
+    public static synchronized void shutdown() {
+        if (handler == null) return;
+        logger.removeHandler(handler);
+        handler.close();
+        handler = null;
+    }
+
+    /**
+     * Affirms if events of given level are traced.
+     */
+    public static boolean isEnabled(Level level) {
+        return logger.isLoggable(level);
+    }
+
+    /**
+     * Associates the given correlation id with the request processed by
+     * the current thread. If no id is given, or the id given is not at
+     * most {@value #MAX_ID_LENGTH} letters, digits, dots, dashes or
+     * underscores, an id is generated if the events of a request, at
+     * level <code>FINE</code>, are traced.
+     *
+     * @return the id associated, or null if none
+     */
+    public static String begin(String id) {
+        if (id != null && !isValid(id)) id = null;
+        if (id == null && logger.isLoggable(Level.FINE)) {
+            id = PREFIX + '-' + Long.toString(sequence.incrementAndGet(), 36);
+        }
+        if (id != null) requestId.set(id);
+        return id;
+    }
+
+    /*
+     * an id given by a client is written to the trace and to a header
+     */
+    private static boolean isValid(String id) {
+        if (id.isEmpty() || id.length() > MAX_ID_LENGTH) return false;
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (!(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z')
+             && !(c >= '0' && c <= '9') && c != '.' && c != '-' && c != '_') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Dissociates the correlation id from the current thread.
+     */
+    public static void end() {
+        requestId.remove();
+    }
+
+    /**
+     * Gets the correlation id of the request processed by the current
+     * thread.
+     *
+     * @return null if none
+     */
+    public static String getRequestId() {
+        return requestId.get();
+    }
+
+    public static void event(Level level, String event) {
+        if (logger.isLoggable(level)) {
+            log(level, event, null, null);
+        }
+    }
+
+    public static void event(Level level, String event, String k1, Object v1) {
+        if (logger.isLoggable(level)) {
+            log(level, event, new Object[]{k1, v1}, null);
+        }
+    }
+
+    public static void event(Level level, String event, String k1, Object v1,
+            String k2, Object v2) {
+        if (logger.isLoggable(level)) {
+            log(level, event, new Object[]{k1, v1, k2, v2}, null);
+        }
+    }
+
+    public static void event(Level level, String event, String k1, Object v1,
+            String k2, Object v2, String k3, Object v3) {
+        if (logger.isLoggable(level)) {
+            log(level, event, new Object[]{k1, v1, k2, v2, k3, v3}, null);
+        }
+    }
+
+    /**
+     * Traces an event with the given names and values, which alternate.
+     */
+    public static void event(Level level, String event, Object... values) {
+        if (logger.isLoggable(level)) {
+            log(level, event, values, null);
+        }
+    }
+
+    /**
+     * Traces an event with the given exception.
+     */
+    public static void event(Level level, String event, Throwable thrown) {
+        if (logger.isLoggable(level)) {
+            log(level, event, null, thrown);
+        }
+    }
+
+    private static void log(Level level, String event, Object[] values,
+            Throwable thrown) {
+        TraceRecord record = new TraceRecord(level, event, requestId.get());
+        record.setLoggerName(logger.getName());
+        record.setParameters(values);
+        record.setThrown(thrown);
+        logger.log(record);
+    }
+
+    /**
+     * An event with the correlation id of the request that traced it, as
+     * the event may be written by another thread.
+     */
+    @SuppressWarnings("serial")
+    static class TraceRecord extends LogRecord {
+        final String requestId;
+
+        TraceRecord(Level level, String event, String requestId) {
+            super(level, event);
+            this.requestId = requestId;
+        }
+    }
+
+    /**
+     * Formats an event as a single line of its time, level, correlation
+     * id, name and values.
+     */
+    static class TraceFormatter extends Formatter {
+        private static final String NEWLINE = System.getProperty("line.separator");
+
+        @Override
+        public String format(LogRecord record) {
+            StringBuilder buf = new StringBuilder(128);
+            buf.append(Instant.ofEpochMilli(record.getMillis())).append(' ')
+               .append(record.getLevel().getName()).append(' ');
+            String id = record instanceof TraceRecord
+                    ? ((TraceRecord)record).requestId : null;
+            if (id != null) buf.append('[').append(id).append("] ");
+            buf.append(record.getMessage());
+            Object[] values = record.getParameters();
+            if (values != null) {
+                // a name without value is left out
+                for (int i = 0; i+1 < values.length; i += 2) {
+                    if (values[i+1] == null) continue;
+                    buf.append(' ').append(values[i]).append('=');
+                    appendValue(buf, values[i+1]);
+                }
+            }
+            buf.append(NEWLINE);
+            if (record.getThrown() != null) {
+                StringWriter trace = new StringWriter();
+                record.getThrown().printStackTrace(new PrintWriter(trace));
+                buf.append(trace);
+            }
+            return buf.toString();
+        }
+
+        /*
+         * a value with space, quote or equals sign is quoted
+         */
+        private static void appendValue(StringBuilder buf, Object value) {
+            String s = String.valueOf(value);
+            boolean quote = s.isEmpty();
+            for (int i = 0; i < s.length() && !quote; i++) {
+                char c = s.charAt(i);
+                quote = c <= ' ' || c == '"' || c == '=';
+            }
+            if (!quote) {
+                buf.append(s);
+                return;
+            }
+            buf.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '"' || c == '\\') buf.append('\\');
+                if (c == '\n') {
+                    buf.append("\\n");
+                } else {
+                    buf.append(c);
+                }
+            }
+            buf.append('"');
+        }
+    }
+}
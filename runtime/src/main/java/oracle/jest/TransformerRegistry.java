@@ -0,0 +1,194 @@
+package oracle.jest;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Selects a {@link ResponseTransformer transformer} by the media types
+ * a request accepts.
+ * <br>
+ * Each media type is registered with a {@link Factory factory} that
+ * creates a transformer for a request. The media ranges of an
+ * <code>Accept</code> header are tried in the order of their quality,
+ * a more specific range before a wildcard of same quality, and the first
+ * range that names or covers a registered type selects it. A range with
+ * zero quality is never selected. The type registered first is the
+ * default: it is selected if the request accepts anything, has no
+ * <code>Accept</code> header or accepts no registered type, so that a
+ * client that does not negotiate is always served.
+ * <p>
+ * The registry is created once for a servlet and shared by the requests.
+ * Besides the default types, a servlet may register transformers with
+ * the <code>response-transformers</code> parameter as comma separated
+ * <code>mime-type=class-name</code> pairs, where the class has a public
+ * constructor that takes a {@link JESTContext}.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class TransformerRegistry {
+    public static final String INIT_TRANSFORMERS = "response-transformers";
+    public static final String MIMETYPE_JSON = "application/json";
+    public static final String MIMETYPE_CBOR = "application/cbor";
+
+    private final Map<String, Factory> factories =
+            new LinkedHashMap<String, Factory>();
+
+    /**
+     * Creates a transformer for a request.
+     */
+    public static interface Factory {
+        ResponseTransformer create(JESTContext ctx);
+    }
+
+    /**
+     * Creates a registry of JSON API documents in JSON and CBOR encoding.
+     */
+    public TransformerRegistry() {
+        Factory json = new Factory() {
+            @Override
+            public ResponseTransformer create(JESTContext ctx) {
+                return new JSONAPITransformer(ctx);
+            }
+        };
+        register(JESTContext.MIMETYPE_JSON_API, json);
+        register(MIMETYPE_JSON, json);
+        register(MIMETYPE_CBOR, new Factory() {
+            @Override
+            public ResponseTransformer create(JESTContext ctx) {
+                return new CBORTransformer(ctx);
+            }
+        });
+    }
+
+    /**
+     * Registers the given factory for the given media type, replacing
+     * the factory registered before, if any.
+     */
+    public void register(String mimeType, Factory factory) {
+        factories.put(mimeType.trim().toLowerCase(), factory);
+    }
+
+    /**
+     * Registers the transformers given as comma separated
+     * <code>mime-type=class-name</code> pairs.
+     *
+     * @param config null or empty to register nothing
+     */
+    public void register(String config, ClassLoader loader) {
+        if (config == null) return;
+        for (String pair : config.split(",")) {
+            if (pair.trim().isEmpty()) continue;
+            int i = pair.indexOf('=');
+            if (i <= 0) {
+                throw new RuntimeException("Invalid transformer " + pair
+                        + " in " + INIT_TRANSFORMERS
+                        + ". Expected mime-type=class-name");
+            }
+            register(pair.substring(0, i),
+                    newFactory(pair.substring(i+1).trim(), loader));
+        }
+    }
+
+    /**
+     * Gets the media types in the order of their registration.
+     */
+    public List<String> getMimeTypes() {
+        return new ArrayList<String>(factories.keySet());
+    }
+
+    /**
+     * Selects the factory for the given <code>Accept</code> header.
+     *
+     * @return the default factory if the header accepts no registered type
+     */
+    public Factory select(String accept) {
+        Factory factory = null;
+        if (accept != null) {
+            double best = 0;
+            int bestSpecificity = -1;
+            for (String range : accept.split(",")) {
+                String[] parts = range.split(";");
+                String type = parts[0].trim().toLowerCase();
+                double q = quality(parts);
+                int specificity = type.equals("*/*") ? 0
+                        : type.endsWith("/*") ? 1 : 2;
+                if (q <= 0 || q < best
+                 || (q == best && specificity <= bestSpecificity)) continue;
+                Factory match = match(type);
+                if (match != null) {
+                    factory = match;
+                    best = q;
+                    bestSpecificity = specificity;
+                }
+            }
+        }
+        return factory == null ? factories.values().iterator().next() : factory;
+    }
+
+    /**
+     * Creates a transformer for the request of the given context.
+     */
+    public ResponseTransformer create(JESTContext ctx) {
+        return select(ctx.getRequest() == null ? null
+                : ctx.getRequest().getHeader(JESTContext.HEADER_ACCEPT))
+                .create(ctx);
+    }
+
+    private Factory match(String range) {
+        Factory exact = factories.get(range);
+        if (exact != null) return exact;
+        if (range.equals("*/*")) {
+            return factories.values().iterator().next();
+        }
+        if (range.endsWith("/*")) {
+            String prefix = range.substring(0, range.length()-1);
+            for (Map.Entry<String, Factory> e : factories.entrySet()) {
+                if (e.getKey().startsWith(prefix)) return e.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static double quality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String param = parts[i].trim();
+            if (param.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(param.substring(2));
+                } catch (NumberFormatException ex) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    private static Factory newFactory(String className, ClassLoader loader) {
+        final Constructor<? extends ResponseTransformer> constructor;
+        try {
+            constructor = Class.forName(className, true, loader)
+                    .asSubclass(ResponseTransformer.class)
+                    .getConstructor(JESTContext.class);
+        } catch (Exception ex) {
+            throw new RuntimeException("Can not register transformer "
+                    + className + ". A transformer must implement "
+                    + ResponseTransformer.class.getName() + " and have a public"
+                    + " constructor with " + JESTContext.class.getName(), ex);
+        }
+        return new Factory() {
+            @Override
+            public ResponseTransformer create(JESTContext ctx) {
+                try {
+                    return constructor.newInstance(ctx);
+                } catch (Exception ex) {
+                    throw new RuntimeException("Can not create "
+                            + constructor.getDeclaringClass().getName(), ex);
+                }
+            }
+        };
+    }
+}
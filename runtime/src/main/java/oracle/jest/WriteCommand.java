@@ -0,0 +1,429 @@
+package oracle.jest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.IdentifiableType;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * Creates or updates many persistent instances in a single request.
+ * <pre>
+ *    POST  /{type}        creates an instance for each resource
+ *    PATCH /{type}        updates the instance identified by each resource
+ *    PATCH /{type}/{id}   updates the instance of given identity
+ * </pre>
+ * The body is either a JSON API document whose <code>data</code> is a
+ * resource or an array of resources, or, with content type
+ * <code>application/x-ndjson</code>, a resource per line. The body is
+ * read one resource at a time, so that a request of any size is never
+ * held in memory.
+ * <p>
+ * All resources are written in a single transaction. The persistence
+ * context is flushed and cleared after every <code>write-batch-size</code>
+ * resources, so that it does not grow with the request and the provider
+ * can batch the statements of a flush, if configured to do so.
+ * <p>
+ * The result of each resource is streamed back in the <code>data</code>
+ * array of the response, in the order of the request, as the resources
+ * of a batch are flushed. A resource that can not be read, an instance
+ * that does not exist or, for a create, already exists is reported with
+ * its status and skipped; the other resources are still written. Each of
+ * these is detected before the instance is given to the persistence
+ * context, because a failure of the provider marks the transaction for
+ * rollback.
+ * <p>
+ * A failure to flush aborts the request and rolls back the transaction.
+ * If it happens before any result is streamed, the request fails with an
+ * error status. Otherwise the <code>meta</code> section at the end of the
+ * response tells whether the transaction has been committed. The results
+ * are valid only if it has. The cause of a failure is logged rather than
+ * sent to the client.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class WriteCommand extends JESTCommand {
+    static final String METHOD_PATCH      = "PATCH";
+    static final String INIT_BATCH_SIZE   = "write-batch-size";
+    static final int DEFAULT_BATCH_SIZE   = 100;
+    // updated instances remembered to be invalidated one by one
+    static final int MAX_INVALIDATIONS    = 1000;
+    private static final Logger logger = Logger.getLogger("RUNTIME");
+
+    private static final String ATTR_META      = "meta";
+    private static final String ATTR_STATUS    = "status";
+    private static final String ATTR_DETAIL    = "detail";
+    private static final String ATTR_INDEX     = "index";
+    private static final String ATTR_COMMITTED = "committed";
+    private static final String ATTR_WRITTEN   = "written";
+    private static final String ATTR_FAILED    = "failed";
+    private static final String ATTR_ERROR     = "error";
+
+    private EntityType<?> type;
+    private Object pathId;
+    private boolean create;
+    private EntityManager em;
+    private ResourceReader reader;
+    private JSONStreamWriter out;
+    private int batchSize;
+    private final List<Result> batch = new ArrayList<Result>();
+    // types and identities of the instances updated, to be invalidated in
+    // the cache once committed, or null if there are too many to remember
+    private List<EntityType<?>> updatedTypes = new ArrayList<EntityType<?>>();
+    private List<Object> updatedIds = new ArrayList<Object>();
+    private int index;
+    private int failed;
+
+    public WriteCommand(JESTContext ctx) throws ServletException {
+        super(ctx);
+    }
+
+    @Override
+    public void execute() throws ServletException, IOException {
+        HttpServletRequest request = getContext().getRequest();
+        HttpServletResponse response = getContext().getResponse();
+        RequestPath path = getContext().getRequestPath();
+        type = path.getEntityType();
+        if (type == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND,
+                    "Unknown entity type " + path.getTypeName());
+            return;
+        }
+        create = !METHOD_PATCH.equals(request.getMethod());
+        int segments = path.getSegmentCount();
+        if (segments > 2 || (create && segments > 1)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND,
+                    request.getMethod() + " is not supported on "
+                    + request.getPathInfo());
+            return;
+        }
+        if (segments > 1) {
+            try {
+                pathId = toId(type, path.getId());
+            } catch (IllegalArgumentException ex) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                        ex.getMessage());
+                return;
+            }
+        }
+        batchSize = getInitParameter(INIT_BATCH_SIZE, DEFAULT_BATCH_SIZE);
+        em = getContext().getPersistenceContext();
+        reader = new ResourceReader(this, em);
+        EntityTransaction txn;
+        try {
+            txn = em.getTransaction();
+        } catch (IllegalStateException ex) {
+            response.sendError(HttpServletResponse.SC_NOT_IMPLEMENTED,
+                    "Can not write to a persistence unit with JTA transactions");
+            return;
+        }
+
+        try {
+            write(request, txn);
+        } finally {
+            if (out != null) out.close();
+        }
+    }
+
+    /**
+     * Begins the response, once the first results are to be streamed.
+     */
+    private void begin() throws IOException {
+        HttpServletResponse response = getContext().getResponse();
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(JESTContext.MIMETYPE_JSON_API);
+        response.setCharacterEncoding("UTF-8");
+        out = new JSONStreamWriter(response.getOutputStream());
+        out.beginObject();
+        out.name(ResourceReader.ATTR_DATA).beginArray();
+    }
+
+    private void write(HttpServletRequest request, EntityTransaction txn)
+            throws IOException {
+        String error = null;
+        int status = HttpServletResponse.SC_OK;
+        txn.begin();
+        try {
+            BufferedReader body = new BufferedReader(new InputStreamReader(
+                    request.getInputStream(), "UTF-8"));
+            String contentType = request.getContentType();
+            if (contentType != null && contentType.startsWith(JESTContext.MIMETYPE_NDJSON)) {
+                readLines(body);
+            } else {
+                readDocument(new JSONTokener(body));
+            }
+            flush();
+            txn.commit();
+        } catch (JSONException ex) {
+            status = HttpServletResponse.SC_BAD_REQUEST;
+            error = "Request body is not valid: " + ex.getMessage();
+        } catch (RuntimeException ex) {
+            status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+            error = batch.isEmpty() ? "Failed to commit resources"
+                  : "Failed to write resources " + (index - batch.size())
+                    + " to " + (index-1);
+            logger.log(Level.WARNING, error + " of " + request.getRequestURI(), ex);
+        } finally {
+            if (txn.isActive()) txn.rollback();
+        }
+        if (error == null) {
+            invalidate();
+        }
+        if (out == null) {
+            if (error != null) {
+                getContext().getResponse().sendError(status, error);
+                return;
+            }
+            begin();
+        }
+        out.endArray();
+        out.name(ATTR_META).beginObject();
+        out.name(ATTR_COMMITTED).value(error == null);
+        out.name(ATTR_WRITTEN).value(error == null ? index - failed : 0);
+        out.name(ATTR_FAILED).value(failed);
+        if (error != null) {
+            out.name(ATTR_ERROR).value(error);
+        }
+        out.endObject();
+        out.endObject();
+    }
+
+    /**
+     * Reads a resource from each non-empty line.
+     */
+    void readLines(BufferedReader body) throws IOException {
+        String line;
+        while ((line = body.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty()) continue;
+            JSONObject resource;
+            try {
+                resource = new JSONObject(line);
+            } catch (JSONException ex) {
+                reject(HttpServletResponse.SC_BAD_REQUEST, ex.getMessage());
+                continue;
+            }
+            write(resource);
+        }
+    }
+
+    /**
+     * Reads a document, and the array of resources in its data member one
+     * resource at a time. The members other than data are ignored.
+     */
+    void readDocument(JSONTokener tokener) throws IOException {
+        if (tokener.nextClean() != '{') {
+            throw tokener.syntaxError("A document must be an object");
+        }
+        if (tokener.nextClean() == '}') return;
+        tokener.back();
+        for (;;) {
+            String key = tokener.nextValue().toString();
+            if (tokener.nextClean() != ':') {
+                throw tokener.syntaxError("Expected a ':' after a key");
+            }
+            if (ResourceReader.ATTR_DATA.equals(key)) {
+                if (tokener.nextClean() == '[') {
+                    if (tokener.nextClean() != ']') {
+                        tokener.back();
+                        for (;;) {
+                            write(new JSONObject(tokener));
+                            char c = tokener.nextClean();
+                            if (c == ']') break;
+                            if (c != ',') {
+                                throw tokener.syntaxError("Expected a ',' or ']'");
+                            }
+                        }
+                    }
+                } else {
+                    tokener.back();
+                    write(new JSONObject(tokener));
+                }
+            } else {
+                tokener.nextValue();
+            }
+            char c = tokener.nextClean();
+            if (c == '}') return;
+            if (c != ',') {
+                throw tokener.syntaxError("Expected a ',' or '}'");
+            }
+        }
+    }
+
+    /**
+     * Creates or updates an instance from the given resource. The result
+     * is written once the batch of the resource is flushed.
+     */
+    void write(JSONObject resource) throws IOException {
+        Object pc;
+        EntityType<?> actual;
+        try {
+            actual = reader.getType(resource, type);
+            if (create) {
+                pc = reader.create(resource, actual);
+                Object id = reader.getId(resource, actual);
+                if (id != null && em.find(getRootType(actual), id) != null) {
+                    reject(HttpServletResponse.SC_CONFLICT, actual.getName()
+                            + " " + id + " already exists");
+                    return;
+                }
+                em.persist(pc);
+            } else {
+                Object id = pathId != null ? pathId : reader.getId(resource, actual);
+                if (id == null) {
+                    throw new IllegalArgumentException("Resource has no id");
+                }
+                pc = em.find(actual.getJavaType(), id);
+                if (pc == null) {
+                    reject(HttpServletResponse.SC_NOT_FOUND, actual.getName()
+                            + " " + id + " does not exist");
+                    return;
+                }
+                reader.update(resource, actual, pc);
+            }
+        } catch (IllegalArgumentException ex) {
+            reject(HttpServletResponse.SC_BAD_REQUEST, ex.getMessage());
+            return;
+        } catch (UnsupportedOperationException ex) {
+            reject(HttpServletResponse.SC_BAD_REQUEST, ex.getMessage());
+            return;
+        } catch (JSONException ex) {
+            reject(HttpServletResponse.SC_BAD_REQUEST, ex.getMessage());
+            return;
+        }
+        add(new Result(index++, actual, pc, 0, null));
+    }
+
+    private void add(Result result) throws IOException {
+        batch.add(result);
+        if (batch.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Flushes and clears the persistence context, and writes the results
+     * of the flushed batch.
+     */
+    void flush() throws IOException {
+        if (batch.isEmpty()) return;
+        em.flush();
+        if (out == null) begin();
+        getContext().getTimer().enter(RequestTimer.SERIALIZE);
+        PersistenceUnitUtil util = em.getEntityManagerFactory()
+                .getPersistenceUnitUtil();
+        int status = create ? HttpServletResponse.SC_CREATED
+                            : HttpServletResponse.SC_OK;
+        for (Result result : batch) {
+            out.beginObject();
+            if (result.instance != null) {
+                result.id = util.getIdentifier(result.instance);
+                result.instance = null;
+                out.name(ResourceReader.ATTR_TYPE).value(result.type.getName());
+                out.name(ResourceReader.ATTR_ID).value(formatId(result.type, result.id));
+                if (!create) updated(result.type, result.id);
+            }
+            out.name(ATTR_META).beginObject();
+            out.name(ATTR_INDEX).value(result.index);
+            out.name(ATTR_STATUS).value(result.detail == null ? status : result.status);
+            if (result.detail != null) {
+                out.name(ATTR_DETAIL).value(result.detail);
+            }
+            out.endObject();
+            out.endObject();
+        }
+        batch.clear();
+        em.clear();
+        out.flush();
+        getContext().getTimer().enter(RequestTimer.QUERY);
+    }
+
+    /**
+     * Adds the result of a resource that is not written.
+     */
+    void reject(int status, String detail) throws IOException {
+        failed++;
+        add(new Result(index++, null, null, status, String.valueOf(detail)));
+    }
+
+    /**
+     * Remembers an updated instance, unless there are too many to remember
+     * in which case all documents are invalidated.
+     */
+    private void updated(EntityType<?> type, Object id) {
+        if (updatedIds == null) return;
+        if (updatedIds.size() >= MAX_INVALIDATIONS) {
+            updatedTypes = null;
+            updatedIds = null;
+            return;
+        }
+        updatedTypes.add(type);
+        updatedIds.add(id);
+    }
+
+    /**
+     * Invalidates the cached documents of the updated instances.
+     */
+    private void invalidate() {
+        ResponseCache cache = getContextAttribute(JESTContext.RESPONSE_CACHE,
+                ResponseCache.class);
+        if (cache == null) return;
+        if (updatedIds == null) {
+            cache.clear();
+            return;
+        }
+        for (int i = 0; i < updatedIds.size(); i++) {
+            cache.invalidate(updatedTypes.get(i), updatedIds.get(i));
+        }
+    }
+
+    /**
+     * Gets the class of the root entity of the hierarchy of given type,
+     * which shares the identities of all its types.
+     */
+    private static Class<?> getRootType(EntityType<?> type) {
+        Class<?> root = type.getJavaType();
+        for (IdentifiableType<?> t = type.getSupertype(); t != null; t = t.getSupertype()) {
+            if (t instanceof EntityType) root = t.getJavaType();
+        }
+        return root;
+    }
+
+    /**
+     * The result of a resource, either the instance written or the status
+     * and the reason why it is not written.
+     */
+    private static class Result {
+        final int index;
+        final EntityType<?> type;
+        final int status;
+        final String detail;
+        Object instance;
+        Object id;
+
+        Result(int index, EntityType<?> type, Object instance, int status,
+                String detail) {
+            this.index = index;
+            this.type = type;
+            this.instance = instance;
+            this.status = status;
+            this.detail = detail;
+        }
+    }
+}
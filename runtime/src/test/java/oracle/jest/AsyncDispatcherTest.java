@@ -0,0 +1,52 @@
+package oracle.jest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the admission and the detachable responses of asynchronous
+ * requests.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class AsyncDispatcherTest extends TestCase {
+    public void testWritesReachResponseTillDetached() throws IOException {
+        StubContainer.Response actual = new StubContainer.Response();
+        AsyncDispatcher.DetachableResponse response =
+                new AsyncDispatcher.DetachableResponse(actual.getResponse());
+        OutputStream out = response.getOutputStream();
+        out.write(new byte[]{1, 2});
+        response.detach();
+        assertTrue(response.isDetached());
+        try {
+            out.write(3);
+            fail("Wrote after detachment");
+        } catch (IOException expected) {
+        }
+        response.setStatus(HttpServletResponse.SC_CREATED);
+        response.setHeader("X-Test", "x");
+        assertEquals(2, actual.getContent().length);
+        assertEquals(HttpServletResponse.SC_OK, actual.getStatus());
+        assertNull(actual.getHeader("X-Test"));
+    }
+
+    public void testRequestBeyondConcurrencyIsUnavailable() throws Exception {
+        Metrics metrics = new Metrics();
+        AsyncDispatcher dispatcher = new AsyncDispatcher(new JESTServlet(), 0, 1000, metrics);
+        try {
+            StubContainer.Response response = new StubContainer.Response();
+            dispatcher.dispatch(TestDomain.UNIT_NAME,
+                    StubContainer.request("GET", "/Book/b01", null),
+                    response.getResponse());
+            assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, response.getStatus());
+            assertEquals(1, metrics.getRejectedCount());
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+}
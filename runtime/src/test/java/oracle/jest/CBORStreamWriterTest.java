@@ -0,0 +1,141 @@
+package oracle.jest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the bytes written by {@link CBORStreamWriter} against the encodings
+ * of <a href="https://tools.ietf.org/html/rfc7049#appendix-A">RFC 7049</a>.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class CBORStreamWriterTest extends TestCase {
+
+    private static String write(Object v) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CBORStreamWriter writer = new CBORStreamWriter(out);
+        writer.value(v);
+        writer.close();
+        return hex(out.toByteArray());
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder buf = new StringBuilder();
+        for (byte b : bytes) {
+            buf.append(String.format("%02x", b & 0xFF));
+        }
+        return buf.toString();
+    }
+
+    public void testUnsignedHeads() throws IOException {
+        assertEquals("00", write(0));
+        assertEquals("17", write(23));
+        assertEquals("1818", write(24));
+        assertEquals("18ff", write(255));
+        assertEquals("190100", write(256));
+        assertEquals("19ffff", write(65535));
+        assertEquals("1a00010000", write(65536));
+        assertEquals("1affffffff", write(4294967295L));
+        assertEquals("1b0000000100000000", write(4294967296L));
+        assertEquals("1b7fffffffffffffff", write(Long.MAX_VALUE));
+    }
+
+    public void testNegativeHeads() throws IOException {
+        assertEquals("20", write(-1));
+        assertEquals("37", write(-24));
+        assertEquals("3818", write(-25));
+        assertEquals("38ff", write(-256));
+        assertEquals("390100", write(-257));
+        assertEquals("39ffff", write(-65536));
+        assertEquals("3a00010000", write(-65537));
+        assertEquals("3b7fffffffffffffff", write(Long.MIN_VALUE));
+    }
+
+    public void testFloats() throws IOException {
+        assertEquals("1a000186a0", write(100000.0d));
+        assertEquals("fa3fc00000", write(1.5d));
+        assertEquals("fa3fc00000", write(1.5f));
+        assertEquals("fb3fb999999999999a", write(0.1d));
+        assertEquals("fb7e37e43c8800759c", write(1.0e300));
+        assertEquals("fa80000000", write(-0.0d));
+        assertEquals("fa7fc00000", write(Double.NaN));
+        assertEquals("fa7f800000", write(Double.POSITIVE_INFINITY));
+        assertEquals("faff800000", write(Double.NEGATIVE_INFINITY));
+    }
+
+    public void testBigIntegers() throws IOException {
+        assertEquals("05", write(BigInteger.valueOf(5)));
+        assertEquals("24", write(BigInteger.valueOf(-5)));
+        assertEquals("1b7fffffffffffffff", write(BigInteger.valueOf(Long.MAX_VALUE)));
+        assertEquals("3b7fffffffffffffff", write(BigInteger.valueOf(Long.MIN_VALUE)));
+        assertEquals("c2488000000000000000",
+            write(BigInteger.ONE.shiftLeft(63)));
+        assertEquals("c249010000000000000000",
+            write(new BigInteger("18446744073709551616")));
+        assertEquals("c349010000000000000000",
+            write(new BigInteger("-18446744073709551617")));
+    }
+
+    public void testBigDecimals() throws IOException {
+        assertEquals("c48221196ab3", write(new BigDecimal("273.15")));
+        assertEquals("c482200f", write(new BigDecimal("1.5")));
+        assertEquals("c4820005", write(new BigDecimal("5")));
+        assertEquals("c48221382f", write(new BigDecimal("-0.48")));
+        assertEquals("c48233c249010000000000000000",
+            write(new BigDecimal("1.8446744073709551616E-1")));
+    }
+
+    public void testStrings() throws IOException {
+        assertEquals("60", write(""));
+        assertEquals("6161", write("a"));
+        assertEquals("62c3bc", write("\u00fc"));
+        assertEquals("63e6b0b4", write("\u6c34"));
+        assertEquals("64f0908591", write("\ud800\udd51"));
+        assertEquals("7818" + hex("abcdefghijklmnopqrstuvwx".getBytes("UTF-8")),
+            write("abcdefghijklmnopqrstuvwx"));
+    }
+
+    public void testSimpleValues() throws IOException {
+        assertEquals("f4", write(false));
+        assertEquals("f5", write(true));
+        assertEquals("f6", write(null));
+    }
+
+    public void testIndefiniteLengths() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CBORStreamWriter writer = new CBORStreamWriter(out);
+        writer.beginObject().name("a").beginArray().value(1).value(true).nullValue().endArray()
+              .name("b").beginArray().endArray().endObject();
+        writer.close();
+        assertEquals("bf61619f01f5f6ff61629fffff", hex(out.toByteArray()));
+    }
+
+    public void testValuesSpanningTheBuffer() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            text.append(i % 2 == 0 ? 'x' : '\u00fc');
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CBORStreamWriter writer = new CBORStreamWriter(out);
+        writer.beginArray();
+        for (int i = 0; i < 3000; i++) {
+            writer.value(65536L);
+        }
+        writer.value(text.toString());
+        writer.endArray();
+        writer.close();
+
+        byte[] utf8 = text.toString().getBytes("UTF-8");
+        StringBuilder expected = new StringBuilder("9f");
+        for (int i = 0; i < 3000; i++) {
+            expected.append("1a00010000");
+        }
+        expected.append(String.format("79%04x", utf8.length)).append(hex(utf8)).append("ff");
+        assertEquals(expected.toString(), hex(out.toByteArray()));
+    }
+}
@@ -0,0 +1,120 @@
+package oracle.jest;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import oracle.jest.domain.ChapterId;
+import oracle.jest.domain.EditionId;
+
+/**
+ * Tests the conversion of identities to and from strings by
+ * {@link IdConverter}, for basic, primitive and composite identities.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class IdConverterTest extends TestCase {
+    private MetamodelIndex index;
+
+    @Override
+    protected void setUp() {
+        index = TestDomain.getIndex();
+    }
+
+    private IdConverter converter(String type) {
+        return index.getIdConverter(index.getEntityType(type));
+    }
+
+    private static void assertRoundTrip(IdConverter converter, Object id, String s) {
+        assertEquals(s, converter.format(id));
+        assertEquals(id, converter.parse(s));
+    }
+
+    private static void assertInvalid(IdConverter converter, String s) {
+        try {
+            converter.parse(s);
+            fail("Parsed " + s + " as " + converter.getType().getSimpleName());
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testStringIdentity() {
+        IdConverter converter = converter("Book");
+        assertEquals(String.class, converter.getType());
+        assertRoundTrip(converter, "b01", "b01");
+        // a single value is not escaped
+        assertRoundTrip(converter, "a~b%c", "a~b%c");
+    }
+
+    public void testPrimitiveIdentity() {
+        IdConverter converter = converter("Author");
+        assertRoundTrip(converter, 42L, "42");
+        assertRoundTrip(converter, -1L, "-1");
+        assertInvalid(converter, "x");
+        assertInvalid(converter, "1.5");
+    }
+
+    public void testIdClassIdentity() {
+        IdConverter converter = converter("Edition");
+        assertEquals(EditionId.class, converter.getType());
+        assertRoundTrip(converter, new EditionId("b01", 2), "b01~2");
+        assertRoundTrip(converter, new EditionId("", 0), "~0");
+    }
+
+    public void testEmbeddedIdentity() {
+        IdConverter converter = converter("Chapter");
+        assertEquals(ChapterId.class, converter.getType());
+        assertRoundTrip(converter, new ChapterId("b01", (short)3), "b01~3");
+        assertInvalid(converter, "b01~100000");
+    }
+
+    public void testSeparatorAndEscapeInValueAreEscaped() {
+        IdConverter converter = converter("Chapter");
+        assertRoundTrip(converter, new ChapterId("a~b%c", (short)1), "a%7Eb%25c~1");
+        assertRoundTrip(converter, new ChapterId("%7E", (short)1), "%257E~1");
+        assertRoundTrip(converter, new ChapterId("~", (short)1), "%7E~1");
+    }
+
+    public void testCompositeOfWrongNumberOfValues() {
+        IdConverter converter = converter("Edition");
+        assertInvalid(converter, "b01");
+        assertInvalid(converter, "b01~2~3");
+        assertInvalid(converter, "b01~x");
+    }
+
+    public void testInvalidEscape() {
+        IdConverter converter = converter("Edition");
+        assertInvalid(converter, "b%7~2");
+        assertInvalid(converter, "b%~2");
+        assertInvalid(converter, "b%zz~2");
+    }
+
+    public void testEscape() {
+        assertEquals("abc", IdConverter.escape("abc"));
+        assertEquals("a%7E%25", IdConverter.escape("a~%"));
+        assertEquals("a~%", IdConverter.unescape("a%7E%25"));
+        assertEquals("a~%", IdConverter.unescape("a%7e%25"));
+    }
+
+    public void testBasicTypes() {
+        assertRoundTrip(IdConverter.of(int.class), 7, "7");
+        assertRoundTrip(IdConverter.of(BigDecimal.class), new BigDecimal("1.50"), "1.50");
+        assertRoundTrip(IdConverter.of(LocalDate.class), LocalDate.of(2016, 3, 1), "2016-03-01");
+        UUID uuid = UUID.randomUUID();
+        assertRoundTrip(IdConverter.of(UUID.class), uuid, uuid.toString());
+        assertRoundTrip(IdConverter.of(TimeUnit.class), TimeUnit.SECONDS, "SECONDS");
+        assertRoundTrip(IdConverter.of(char.class), 'x', "x");
+        assertRoundTrip(IdConverter.of(boolean.class), true, "true");
+        assertInvalid(IdConverter.of(boolean.class), "yes");
+        assertInvalid(IdConverter.of(char.class), "xy");
+        assertInvalid(IdConverter.of(TimeUnit.class), "seconds");
+    }
+
+    public void testTypeWithoutConversion() {
+        IdConverter converter = IdConverter.of(Object.class);
+        assertInvalid(converter, "x");
+    }
+}
@@ -0,0 +1,512 @@
+package oracle.jest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.persistence.EntityManager;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.TestCase;
+import oracle.jest.domain.Book;
+
+/**
+ * Tests requests served by {@link JESTServlet} on the {@link TestDomain
+ * test domain}.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class JESTServletTest extends TestCase {
+    private JESTServlet servlet;
+
+    @Override
+    protected void setUp() throws Exception {
+        TestDomain.getPersistenceUnit();
+        servlet = new JESTServlet();
+        servlet.init(StubContainer.config(getInitParameters()));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        servlet.destroy();
+    }
+
+    /**
+     * Gets the parameters the servlet is initialized with.
+     */
+    protected Map<String, String> getInitParameters() {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("persistence-unit", TestDomain.UNIT_NAME);
+        return params;
+    }
+
+    StubContainer.Response service(HttpServletRequest request)
+            throws ServletException, IOException {
+        StubContainer.Response response = new StubContainer.Response();
+        servlet.service(request, response.getResponse());
+        return response;
+    }
+
+    StubContainer.Response service(String method, String path, String query,
+            String... headers) throws ServletException, IOException {
+        return service(StubContainer.request(method, path, query, headers));
+    }
+
+    public void testGetInstance() throws Exception {
+        StubContainer.Response response = service("GET", "/Book/b01", null);
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertTrue(response.getContentAsString().contains("\"b01\""));
+    }
+
+    public void testSelectionIsServedWithoutFetchGraph() throws Exception {
+        // the unit is not enhanced, so it is found unable to apply a fetch graph
+        StubContainer.Response response = service("GET", "/Book/b01", "fields[Book]=title");
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        String content = response.getContentAsString();
+        assertTrue(content, content.contains("\"title\":\"Book 1\""));
+        assertFalse(content, content.contains("\"genre\""));
+        response = service("GET", "/Book", "fields[Book]=title");
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+    }
+
+    public void testHeadIsServedAsGetWithoutContent() throws Exception {
+        for (String path : new String[]{"/", "/Book", "/Book/b01", "/Book/b01/author"}) {
+            StubContainer.Response response = service("HEAD", path, null);
+            assertEquals(path, HttpServletResponse.SC_OK, response.getStatus());
+            assertEquals(path, 0, response.getContent().length);
+        }
+    }
+
+    public void testHeadOfMissingInstance() throws Exception {
+        StubContainer.Response response = service("HEAD", "/Book/none", null);
+        assertEquals(HttpServletResponse.SC_NOT_FOUND, response.getStatus());
+        assertEquals(0, response.getContent().length);
+    }
+
+    public void testIncludedResourceIsWrittenOnce() throws Exception {
+        StubContainer.Response response = service("GET", "/Book",
+                "include=author&" + FindCommand.PARAM_PAGE_SIZE + "=6");
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        String content = response.getContentAsString();
+        String included = content.substring(content.indexOf("\"included\":["));
+        for (int i = 1; i <= TestDomain.AUTHORS; i++) {
+            String author = "{\"type\":\"Author\",\"id\":\"" + i + "\",\"attributes\"";
+            assertTrue(content, included.contains(author));
+            assertEquals(content, included.indexOf(author), included.lastIndexOf(author));
+        }
+    }
+
+    public void testGetInstanceOfPrimitiveOrCompositeIdentity() throws Exception {
+        for (String path : new String[]{"/Author", "/Author/1",
+                "/Edition/" + TestDomain.EDITION_ID, "/Chapter/" + TestDomain.CHAPTER_ID}) {
+            StubContainer.Response response = service("GET", path, null);
+            assertEquals(path, HttpServletResponse.SC_OK, response.getStatus());
+        }
+        assertTrue(service("GET", "/Chapter/" + TestDomain.CHAPTER_ID, null)
+                .getContentAsString().contains('"' + TestDomain.CHAPTER_ID + '"'));
+    }
+
+    public void testUnloadedToManyIsWrittenWithoutLinkage() throws Exception {
+        String content = service("GET", "/Author/1", null).getContentAsString();
+        assertTrue(content, content.contains("\"books\":{\"meta\":{\"loaded\":false}}"));
+        content = service("GET", "/Author/1", "include=books").getContentAsString();
+        assertTrue(content, content.contains("\"books\":{\"data\":[{\"type\":\"Book\""));
+        assertTrue(content, content.contains("\"included\":[{\"type\":\"Book\""));
+    }
+
+    public void testUnknownIncludeIsInvalid() throws Exception {
+        StubContainer.Response response = service("GET", "/Book/b01", "include=unknown");
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, response.getStatus());
+    }
+
+    public void testNavigateToProperty() throws Exception {
+        StubContainer.Response response = service("GET", "/Book/b01/author/name", null);
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertTrue(response.getContentAsString(),
+                response.getContentAsString().contains("Author 2"));
+    }
+
+    public void testNavigateToUnknownProperty() throws Exception {
+        StubContainer.Response response = service("GET", "/Book/b01/unknown", null);
+        assertEquals(HttpServletResponse.SC_NOT_FOUND, response.getStatus());
+    }
+
+    public void testMetamodelIsTaggedAndNotModified() throws Exception {
+        StubContainer.Response response = service("GET", "/", null);
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertTrue(response.getContentAsString().contains("\"Book\""));
+        String etag = response.getHeader(CachedDocument.HEADER_ETAG);
+        assertNotNull(etag);
+        assertEquals(String.valueOf(response.getContent().length),
+                response.getHeader("Content-Length"));
+
+        response = service("GET", "/", null, CachedDocument.HEADER_IF_NONE_MATCH, etag);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+        assertEquals(0, response.getContent().length);
+    }
+
+    public void testMetamodelIsGzippedIfAccepted() throws Exception {
+        StubContainer.Response plain = service("GET", "/", null);
+        StubContainer.Response gzipped = service("GET", "/", null,
+                CachedDocument.HEADER_ACCEPT_ENCODING, "deflate, gzip");
+        assertEquals(CachedDocument.ENCODING_GZIP,
+                gzipped.getHeader(CachedDocument.HEADER_CONTENT_ENCODING));
+        assertFalse(plain.getHeader(CachedDocument.HEADER_ETAG)
+                .equals(gzipped.getHeader(CachedDocument.HEADER_ETAG)));
+        assertTrue(Arrays.equals(plain.getContent(), read(
+                new GZIPInputStream(new ByteArrayInputStream(gzipped.getContent())))));
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        for (int n; (n = in.read(buf)) > 0;) {
+            content.write(buf, 0, n);
+        }
+        return content.toByteArray();
+    }
+
+    public void testDocumentIsEncodedAsAccepted() throws Exception {
+        StubContainer.Response response = service("GET", "/Book/b01", null,
+                JESTContext.HEADER_ACCEPT, TransformerRegistry.MIMETYPE_CBOR);
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertTrue(response.getHeader("Content-Type"),
+                response.getHeader("Content-Type").startsWith(TransformerRegistry.MIMETYPE_CBOR));
+        // an object of indefinite length
+        assertEquals(0xBF, response.getContent()[0] & 0xFF);
+
+        response = service("GET", "/Book/b01", null,
+                JESTContext.HEADER_ACCEPT, "text/plain");
+        assertTrue(response.getHeader("Content-Type"),
+                response.getHeader("Content-Type").startsWith(JESTContext.MIMETYPE_JSON_API));
+    }
+
+    public void testResponseIsCompressedAsAccepted() throws Exception {
+        StubContainer.Response plain = service("GET", "/Book", null);
+        assertNull(plain.getHeader(CachedDocument.HEADER_CONTENT_ENCODING));
+        assertTrue(plain.getContent().length > 1024);
+
+        StubContainer.Response gzipped = service("GET", "/Book", null,
+                CachedDocument.HEADER_ACCEPT_ENCODING, "gzip, deflate");
+        assertEquals(CompressingResponse.ENCODING_GZIP,
+                gzipped.getHeader(CachedDocument.HEADER_CONTENT_ENCODING));
+        assertTrue(Arrays.equals(plain.getContent(), read(
+                new GZIPInputStream(new ByteArrayInputStream(gzipped.getContent())))));
+
+        StubContainer.Response deflated = service("GET", "/Book", null,
+                CachedDocument.HEADER_ACCEPT_ENCODING, "deflate");
+        assertEquals(CompressingResponse.ENCODING_DEFLATE,
+                deflated.getHeader(CachedDocument.HEADER_CONTENT_ENCODING));
+        assertTrue(Arrays.equals(plain.getContent(), read(
+                new InflaterInputStream(new ByteArrayInputStream(deflated.getContent())))));
+    }
+
+    public void testSmallResponseIsNotCompressed() throws Exception {
+        StubContainer.Response response = service("GET", "/Book/b01", null,
+                CachedDocument.HEADER_ACCEPT_ENCODING, "gzip");
+        assertNull(response.getHeader(CachedDocument.HEADER_CONTENT_ENCODING));
+        assertEquals(String.valueOf(response.getContent().length),
+                response.getHeader("Content-Length"));
+    }
+
+    public void testPagesFollowTheNextLink() throws Exception {
+        String query = FindCommand.PARAM_PAGE_SIZE + "=8";
+        int pages = 0;
+        String last = null;
+        while (query != null) {
+            StubContainer.Response response = service("GET", "/Book", query);
+            assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+            String content = response.getContentAsString();
+            pages++;
+            int first = (pages - 1) * 8;
+            assertTrue(content, content.contains('"' + TestDomain.bookId(first) + '"'));
+            if (last != null) {
+                assertFalse(content, content.contains('"' + last + '"'));
+            }
+            last = TestDomain.bookId(Math.min(first + 7, TestDomain.BOOKS - 1));
+            int next = content.indexOf("\"next\":\"");
+            query = next < 0 ? null
+                  : content.substring(content.indexOf('?', next) + 1,
+                          content.indexOf('"', next + 8));
+        }
+        assertEquals((TestDomain.BOOKS + 7) / 8, pages);
+    }
+
+    public void testPageSizeMustBePositive() throws Exception {
+        StubContainer.Response response = service("GET", "/Book",
+                FindCommand.PARAM_PAGE_SIZE + "=0");
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, response.getStatus());
+    }
+
+    public void testFindByIdentities() throws Exception {
+        StubContainer.Response response = service(StubContainer.requestWithContent("POST",
+                "/Book/_find", null, "[\"b01\", \"none\", \"b02\"]",
+                "Content-Type", "application/json"));
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        String content = response.getContentAsString();
+        assertTrue(content, content.indexOf("\"b01\"") < content.indexOf("\"b02\""));
+        assertTrue(content, content.contains("\"none\""));
+    }
+
+    public void testFindByTooManyIdentitiesStopsReading() throws Exception {
+        StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i <= BatchFindCommand.MAX_IDENTITIES; i++) {
+            body.append('"').append(i).append("\",");
+        }
+        // not read, else the body would be invalid
+        body.append("}");
+        StubContainer.Response response = service(StubContainer.requestWithContent("POST",
+                "/Book/_find", null, body.toString(),
+                "Content-Type", "application/json"));
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, response.getStatus());
+        assertTrue(response.getErrorMessage(),
+                response.getErrorMessage().startsWith("Can not find more than"));
+    }
+
+    public void testFindByInvalidIdentities() throws Exception {
+        StubContainer.Response response = service(StubContainer.requestWithContent("POST",
+                "/Book/_find", null, "[\"b01\" \"b02\"]",
+                "Content-Type", "application/json"));
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, response.getStatus());
+    }
+
+    public void testBatchSizeMustBePositive() throws Exception {
+        assertInvalid(BatchFindCommand.INIT_BATCH_SIZE, "0");
+        assertInvalid(BatchFindCommand.INIT_BATCH_SIZE, "-1");
+        assertInvalid(ExportCommand.INIT_BATCH_SIZE, "0");
+        assertInvalid(ExportCommand.INIT_BATCH_SIZE, "-1");
+    }
+
+    private void assertInvalid(String param, String value) {
+        Map<String, String> params = getInitParameters();
+        params.put(param, value);
+        JESTServlet invalid = new JESTServlet();
+        try {
+            invalid.init(StubContainer.config(params));
+            fail("Initialized with " + param + "=" + value);
+        } catch (ServletException ex) {
+            fail(ex.toString());
+        } catch (RuntimeException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains(param));
+        } finally {
+            invalid.destroy();
+        }
+    }
+
+    public void testMetricsAreServed() throws Exception {
+        service("GET", "/Book/b01", null);
+        StubContainer.Response response = service("GET", MetricsCommand.PATH, null);
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertTrue(response.getContentAsString(),
+                response.getContentAsString().contains("\"type\":\"Book\""));
+        response = service("GET", MetricsCommand.PATH,
+                MetricsCommand.PARAM_FORMAT + "=" + MetricsCommand.FORMAT_PROMETHEUS);
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertTrue(response.getContentAsString(),
+                response.getContentAsString().contains("jest_requests_total{"));
+    }
+
+    public void testExportInChunks() throws Exception {
+        Map<String, String> params = getInitParameters();
+        params.put(ExportCommand.INIT_BATCH_SIZE, "7");
+        JESTServlet exporter = new JESTServlet();
+        exporter.init(StubContainer.config(params));
+        try {
+            StubContainer.Response response = new StubContainer.Response();
+            exporter.service(StubContainer.request("GET", "/Book", null,
+                    JESTContext.HEADER_ACCEPT, JESTContext.MIMETYPE_NDJSON),
+                    response.getResponse());
+            assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+            String[] lines = response.getContentAsString().split("\n");
+            assertEquals(TestDomain.BOOKS, lines.length);
+            for (int i = 0; i < lines.length; i++) {
+                assertTrue(lines[i], lines[i].contains('"' + TestDomain.bookId(i) + '"'));
+            }
+        } finally {
+            exporter.destroy();
+        }
+    }
+
+    public void testRejectedResourceIsNotPartlyWritten() throws Exception {
+        String body = "{\"data\":["
+            + "{\"type\":\"Book\",\"id\":\"b15\",\"attributes\":"
+            // the invalid title is read after the other attributes
+            +     "{\"pages\":999,\"genre\":\"changed\",\"title\":{\"a\":1}}},"
+            + "{\"type\":\"Book\",\"id\":\"b18\",\"attributes\":{\"title\":\"changed\"}}"
+            + "]}";
+        try {
+            StubContainer.Response response = service(StubContainer.requestWithContent(
+                    "PATCH", "/Book", null, body,
+                    "Content-Type", JESTContext.MIMETYPE_JSON_API));
+            String content = response.getContentAsString();
+            assertTrue(content, content.contains("\"committed\":true"));
+            assertTrue(content, content.contains("\"status\":400"));
+            EntityManager em = TestDomain.getPersistenceUnit().createEntityManager();
+            try {
+                Book rejected = em.find(Book.class, "b15");
+                assertEquals("fiction", rejected.getGenre());
+                assertEquals(250, rejected.getPages());
+                assertEquals("changed", em.find(Book.class, "b18").getTitle());
+            } finally {
+                em.close();
+            }
+        } finally {
+            service(StubContainer.requestWithContent("PATCH", "/Book/b18", null,
+                    "{\"data\":{\"type\":\"Book\",\"attributes\":{\"title\":\"Book 18\"}}}",
+                    "Content-Type", JESTContext.MIMETYPE_JSON_API));
+        }
+    }
+
+    public void testNumberIsNotNarrowed() throws Exception {
+        EntityManager em = TestDomain.getPersistenceUnit().createEntityManager();
+        int pages;
+        try {
+            pages = em.find(Book.class, "b16").getPages();
+        } finally {
+            em.close();
+        }
+        for (String value : new String[]{"3000000000", "12.5", "1e400"}) {
+            StubContainer.Response response = service(StubContainer.requestWithContent(
+                    "PATCH", "/Book/b16", null,
+                    "{\"data\":{\"type\":\"Book\",\"attributes\":{\"pages\":" + value + "}}}",
+                    "Content-Type", JESTContext.MIMETYPE_JSON_API));
+            String content = response.getContentAsString();
+            assertTrue(content, content.contains("\"status\":400"));
+        }
+        em = TestDomain.getPersistenceUnit().createEntityManager();
+        try {
+            assertEquals(pages, em.find(Book.class, "b16").getPages());
+        } finally {
+            em.close();
+        }
+    }
+
+    public void testDuplicateIsRejectedBeforePersist() throws Exception {
+        String body = "{\"type\":\"Book\",\"id\":\"n01\",\"attributes\":{\"title\":\"New\"}}\n"
+            + "{\"type\":\"Book\",\"id\":\"n01\",\"attributes\":{\"title\":\"Again\"}}\n"
+            + "{\"type\":\"Book\",\"id\":\"b01\",\"attributes\":{\"title\":\"Old\"}}\n";
+        try {
+            StubContainer.Response response = service(StubContainer.requestWithContent(
+                    "POST", "/Book", null, body,
+                    "Content-Type", JESTContext.MIMETYPE_NDJSON));
+            assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+            String content = response.getContentAsString();
+            assertTrue(content, content.contains("\"committed\":true"));
+            assertTrue(content, content.contains("\"status\":201"));
+            assertTrue(content, content.contains("\"written\":1"));
+            assertTrue(content, content.contains("\"failed\":2"));
+            EntityManager em = TestDomain.getPersistenceUnit().createEntityManager();
+            try {
+                assertEquals("New", em.find(Book.class, "n01").getTitle());
+                assertEquals("Book 1", em.find(Book.class, "b01").getTitle());
+            } finally {
+                em.close();
+            }
+        } finally {
+            remove("n01");
+        }
+    }
+
+    public void testFailureBeforeAnyResultIsAnError() throws Exception {
+        StringBuilder title = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            title.append('x');
+        }
+        String body = "{\"type\":\"Book\",\"id\":\"n02\",\"attributes\":{\"title\":\""
+            + title + "\"}}\n";
+        StubContainer.Response response = service(StubContainer.requestWithContent(
+                "POST", "/Book", null, body,
+                "Content-Type", JESTContext.MIMETYPE_NDJSON));
+        assertEquals(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, response.getStatus());
+        String message = response.getErrorMessage();
+        assertFalse(message, message.contains("SQL"));
+        EntityManager em = TestDomain.getPersistenceUnit().createEntityManager();
+        try {
+            assertNull(em.find(Book.class, "n02"));
+        } finally {
+            em.close();
+        }
+    }
+
+    private static void remove(String id) {
+        EntityManager em = TestDomain.getPersistenceUnit().createEntityManager();
+        try {
+            em.getTransaction().begin();
+            Book book = em.find(Book.class, id);
+            if (book != null) em.remove(book);
+            em.getTransaction().commit();
+        } finally {
+            em.close();
+        }
+    }
+
+    private static void assertVary(StubContainer.Response response) {
+        String vary = response.getHeaders(CachedDocument.HEADER_VARY).toString();
+        assertTrue(vary, vary.contains(JESTContext.HEADER_ACCEPT));
+        assertTrue(vary, vary.contains(CachedDocument.HEADER_ACCEPT_ENCODING));
+    }
+
+    public void testVersionedInstanceIsTaggedWeakly() throws Exception {
+        StubContainer.Response response = service("GET", "/Book/b03", null);
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        String tag = response.getHeader(CachedDocument.HEADER_ETAG);
+        assertNotNull(tag);
+        assertTrue(tag, tag.startsWith("W/\""));
+        assertVary(response);
+    }
+
+    public void testInverseRelationshipIsNotTaggedByVersion() throws Exception {
+        String tag = service("GET", "/Author/1", null).getHeader(CachedDocument.HEADER_ETAG);
+        assertNull(tag);
+        tag = service("GET", "/Author/1", "fields[Author]=name").getHeader(CachedDocument.HEADER_ETAG);
+        assertNotNull(tag);
+    }
+
+    public void testCurrentVersionIsNotModified() throws Exception {
+        String tag = service("GET", "/Book/b03", null).getHeader(CachedDocument.HEADER_ETAG);
+        StubContainer.Response response = service("GET", "/Book/b03", null,
+                CachedDocument.HEADER_IF_NONE_MATCH, tag);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+        assertEquals(0, response.getContent().length);
+        assertEquals(tag, response.getHeader(CachedDocument.HEADER_ETAG));
+        assertVary(response);
+    }
+
+    public void testTagChangesWithVersion() throws Exception {
+        String before = service("GET", "/Book/b04", null).getHeader(CachedDocument.HEADER_ETAG);
+        try {
+            StubContainer.Response update = service(patchPages("b04", 123));
+            assertEquals(update.getContentAsString(), HttpServletResponse.SC_OK,
+                    update.getStatus());
+            StubContainer.Response response = service("GET", "/Book/b04", null,
+                    CachedDocument.HEADER_IF_NONE_MATCH, before);
+            assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+            String after = response.getHeader(CachedDocument.HEADER_ETAG);
+            assertNotNull(after);
+            assertFalse(after.equals(before));
+            assertTrue(response.getContentAsString().contains("123"));
+        } finally {
+            service(patchPages("b04", 100));
+        }
+    }
+
+    private static HttpServletRequest patchPages(String id, int pages) {
+        return StubContainer.requestWithContent("PATCH", "/Book/" + id, null,
+                "{\"data\":{\"type\":\"Book\",\"attributes\":{\"pages\":" + pages + "}}}",
+                "Content-Type", JESTContext.MIMETYPE_JSON_API);
+    }
+
+    public void testUnroutedMethodIsNotAllowed() throws Exception {
+        StubContainer.Response response = service("DELETE", "/Book/b01", null);
+        assertEquals(HttpServletResponse.SC_METHOD_NOT_ALLOWED, response.getStatus());
+    }
+}
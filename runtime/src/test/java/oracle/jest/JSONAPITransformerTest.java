@@ -0,0 +1,87 @@
+package oracle.jest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.persistence.EntityManager;
+
+import junit.framework.TestCase;
+import oracle.jest.domain.Author;
+import oracle.jest.domain.Book;
+
+/**
+ * Tests the resources {@link JSONAPITransformer} writes of the instances
+ * of the {@link TestDomain test domain}.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class JSONAPITransformerTest extends TestCase {
+    private static final MetamodelIndex INDEX = TestDomain.getIndex();
+    private EntityManager em;
+
+    @Override
+    protected void setUp() {
+        em = TestDomain.getPersistenceUnit().createEntityManager();
+    }
+
+    @Override
+    protected void tearDown() {
+        em.close();
+    }
+
+    /*
+     * a context of the persistence unit of the tests alone
+     */
+    private static JESTContext context() {
+        return (JESTContext)Proxy.newProxyInstance(JESTContext.class.getClassLoader(),
+            new Class<?>[]{JESTContext.class},
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method m, Object[] args) {
+                    String name = m.getName();
+                    if (name.equals("getPersistenceUnit")) {
+                        return TestDomain.getPersistenceUnit();
+                    }
+                    if (name.equals("getPersistenceModel")) {
+                        return TestDomain.getPersistenceUnit().getMetamodel();
+                    }
+                    if (name.equals("getMetamodelIndex")) {
+                        return INDEX;
+                    }
+                    if (name.equals("getFieldSelection")) {
+                        return FieldSelection.ALL;
+                    }
+                    if (name.equals("getTimer")) {
+                        return new RequestTimer();
+                    }
+                    throw new UnsupportedOperationException(name);
+                }
+            });
+    }
+
+    private static String transform(Object pc) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JSONAPITransformer(context()).transform(pc, out);
+        return out.toString("UTF-8");
+    }
+
+    public void testToOneLinkageIsIdentityOfReference() throws IOException {
+        String content = transform(em.find(Book.class, TestDomain.bookId(1)));
+        assertTrue(content, content.contains("\"id\":\"b01\""));
+        assertTrue(content, content.contains(
+                "\"author\":{\"data\":{\"type\":\"Author\",\"id\":\"2\"}}"));
+    }
+
+    public void testUnloadedToManyIsWrittenWithoutLinkage() throws IOException {
+        Author author = em.find(Author.class, 1L);
+        String content = transform(author);
+        assertTrue(content, content.contains("\"books\":{\"meta\":{\"loaded\":false}}"));
+        author.getBooks().size();
+        content = transform(author);
+        assertTrue(content, content.contains("\"books\":{\"data\":[{\"type\":\"Book\""));
+    }
+}
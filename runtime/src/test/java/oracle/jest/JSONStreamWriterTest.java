@@ -0,0 +1,88 @@
+package oracle.jest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the JSON tokens written by {@link JSONStreamWriter}.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class JSONStreamWriterTest extends TestCase {
+
+    private static String write(Object... values) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JSONStreamWriter writer = new JSONStreamWriter(out);
+        writer.beginArray();
+        for (Object v : values) {
+            writer.value(v);
+        }
+        writer.endArray();
+        writer.close();
+        return out.toString("UTF-8");
+    }
+
+    public void testNumbers() throws IOException {
+        assertEquals("[1,-2,3,2.5,4]", write(1, -2L, (short)3, 2.5d, 4.0f));
+    }
+
+    public void testBigNumbersAreWrittenExactly() throws IOException {
+        assertEquals("[12345678901234567890.123456789,-98765432109876543210987]",
+            write(new BigDecimal("12345678901234567890.123456789"),
+                  new BigInteger("-98765432109876543210987")));
+    }
+
+    public void testNonNumbers() throws IOException {
+        assertEquals("[null,true,\"a\\\"b\",\"SECONDS\"]",
+            write(null, Boolean.TRUE, "a\"b", java.util.concurrent.TimeUnit.SECONDS));
+    }
+
+    public void testNonFiniteDoubleIsNull() throws IOException {
+        assertEquals("[null,null]", write(Double.NaN, Double.POSITIVE_INFINITY));
+    }
+
+    public void testNesting() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JSONStreamWriter writer = new JSONStreamWriter(out);
+        writer.beginObject().name("a").beginArray().value(1).value("x").endArray()
+              .name("b").beginObject().endObject().endObject();
+        writer.close();
+        assertEquals("{\"a\":[1,\"x\"],\"b\":{}}", out.toString("UTF-8"));
+    }
+
+    public void testBuffersAreSharedByThreadsAndBounded() throws Exception {
+        int n = 2 * JSONStreamWriter.MAX_POOLED_BUFFERS;
+        final List<byte[]> borrowed = new ArrayList<byte[]>();
+        for (int i = 0; i < n; i++) {
+            borrowed.add(JSONStreamWriter.borrowBuffer());
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (byte[] buf : borrowed) {
+                    JSONStreamWriter.returnBuffer(buf);
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+        Set<byte[]> returned = Collections.newSetFromMap(
+                new IdentityHashMap<byte[], Boolean>());
+        returned.addAll(borrowed);
+        int reused = 0;
+        for (int i = 0; i < n; i++) {
+            if (returned.contains(JSONStreamWriter.borrowBuffer())) reused++;
+        }
+        assertEquals(JSONStreamWriter.MAX_POOLED_BUFFERS, reused);
+    }
+}
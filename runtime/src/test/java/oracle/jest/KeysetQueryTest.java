@@ -0,0 +1,179 @@
+package oracle.jest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.metamodel.EntityType;
+
+import junit.framework.TestCase;
+import oracle.jest.domain.Book;
+
+/**
+ * Tests that {@link KeysetQuery} reads every instance exactly once and in
+ * order when it seeks page by page, for sorts on several keys, in either
+ * direction, with ties and with null values.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class KeysetQueryTest extends TestCase {
+    private static final int PAGE_SIZE = 3;
+
+    private EntityManager em;
+    private MetamodelIndex index;
+    private EntityType<Book> type;
+
+    @Override
+    protected void setUp() {
+        em = TestDomain.getPersistenceUnit().createEntityManager();
+        index = TestDomain.getIndex();
+        type = em.getMetamodel().entity(Book.class);
+    }
+
+    @Override
+    protected void tearDown() {
+        em.close();
+    }
+
+    private KeysetQuery<Book> query(String params) {
+        QuerySpec spec = QuerySpec.parse(StubContainer.request("GET", "/Book", params),
+                type, index, null);
+        return new KeysetQuery<Book>(em, type).setSpec(spec);
+    }
+
+    /*
+     * reads all pages, each seeking past the key of the last instance of
+     * the page before.
+     */
+    private static List<String> page(KeysetQuery<Book> query) {
+        List<String> ids = new ArrayList<String>();
+        Object[] after = null;
+        while (true) {
+            List<Book> page = query.next(after, PAGE_SIZE);
+            for (Book book : page) {
+                ids.add(book.getIsbn());
+            }
+            if (page.size() < PAGE_SIZE) break;
+            after = query.getKey(page.get(page.size()-1));
+        }
+        return ids;
+    }
+
+    /*
+     * the identities of all books sorted in memory by the given order
+     * and then by identity.
+     */
+    private List<String> expected(final Comparator<Book> order) {
+        List<Book> books = new ArrayList<Book>(
+            em.createQuery("select b from Book b", Book.class).getResultList());
+        Collections.sort(books, new Comparator<Book>() {
+            @Override
+            public int compare(Book a, Book b) {
+                int c = order == null ? 0 : order.compare(a, b);
+                return c != 0 ? c : a.getIsbn().compareTo(b.getIsbn());
+            }
+        });
+        List<String> ids = new ArrayList<String>();
+        for (Book book : books) {
+            ids.add(book.getIsbn());
+        }
+        return ids;
+    }
+
+    /*
+     * compares with nulls last in either direction, as the query sorts.
+     */
+    private static <T extends Comparable<T>> int compare(T a, T b, boolean descending) {
+        if (a == null || b == null) {
+            return a == b ? 0 : a == null ? 1 : -1;
+        }
+        return descending ? b.compareTo(a) : a.compareTo(b);
+    }
+
+    public void testPagesByIdentity() {
+        List<String> ids = page(query(null));
+        assertEquals(TestDomain.BOOKS, ids.size());
+        assertEquals(expected(null), ids);
+    }
+
+    public void testPagesByNullableKeyThenDescendingKey() {
+        assertEquals(expected(new Comparator<Book>() {
+            @Override
+            public int compare(Book a, Book b) {
+                int c = KeysetQueryTest.compare(a.getGenre(), b.getGenre(), false);
+                return c != 0 ? c : KeysetQueryTest.compare(a.getPages(), b.getPages(), true);
+            }
+        }), page(query("sort=genre,-pages")));
+    }
+
+    public void testPagesByDescendingNullableKey() {
+        assertEquals(expected(new Comparator<Book>() {
+            @Override
+            public int compare(Book a, Book b) {
+                int c = KeysetQueryTest.compare(a.getGenre(), b.getGenre(), true);
+                return c != 0 ? c : KeysetQueryTest.compare(a.getPages(), b.getPages(), false);
+            }
+        }), page(query("sort=-genre,pages")));
+    }
+
+    public void testPagesByDescendingKeyWithTies() {
+        assertEquals(expected(new Comparator<Book>() {
+            @Override
+            public int compare(Book a, Book b) {
+                return KeysetQueryTest.compare(a.getPrice(), b.getPrice(), true);
+            }
+        }), page(query("sort=-price")));
+    }
+
+    public void testPagesByRelatedKey() {
+        assertEquals(expected(new Comparator<Book>() {
+            @Override
+            public int compare(Book a, Book b) {
+                int c = KeysetQueryTest.compare(a.getAuthor().getName(),
+                        b.getAuthor().getName(), true);
+                return c != 0 ? c : KeysetQueryTest.compare(a.getPrice(), b.getPrice(), false);
+            }
+        }), page(query("sort=-author.name,price")));
+    }
+
+    public void testPagesFilteredInstances() {
+        List<String> expected = new ArrayList<String>();
+        for (String id : expected(new Comparator<Book>() {
+            @Override
+            public int compare(Book a, Book b) {
+                return KeysetQueryTest.compare(a.getPages(), b.getPages(), true);
+            }
+        })) {
+            if ("poetry".equals(em.find(Book.class, id).getGenre())) {
+                expected.add(id);
+            }
+        }
+        List<String> ids = page(query("filter[genre][like]=poe%25&sort=-pages"));
+        assertFalse(ids.isEmpty());
+        assertEquals(expected, ids);
+    }
+
+    public void testSeeksPastIdentity() {
+        KeysetQuery<Book> query = query("sort=genre,-pages");
+        List<String> all = page(query);
+        int i = all.size() / 2;
+        List<Book> next = query.next((Object)all.get(i), PAGE_SIZE);
+        assertEquals(PAGE_SIZE, next.size());
+        for (int j = 0; j < PAGE_SIZE; j++) {
+            assertEquals(all.get(i+1+j), next.get(j).getIsbn());
+        }
+    }
+
+    public void testKeyIsSortValuesThenIdentity() {
+        KeysetQuery<Book> query = query("sort=genre,-pages");
+        Book book = em.find(Book.class, TestDomain.bookId(2));
+        Object[] key = query.getKey(book);
+        assertEquals(3, key.length);
+        assertNull(key[0]);
+        assertEquals(book.getPages(), key[1]);
+        assertEquals(book.getIsbn(), key[2]);
+    }
+}
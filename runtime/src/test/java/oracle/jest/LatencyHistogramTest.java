@@ -0,0 +1,43 @@
+package oracle.jest;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the buckets and percentiles of {@link LatencyHistogram}.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class LatencyHistogramTest extends TestCase {
+
+    public void testValueIsWithinItsBucket() {
+        for (long value = 0; value < 1L << 30; value = value * 3 / 2 + 1) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(value + " below bucket", LatencyHistogram.lowestOf(index) <= value);
+            assertTrue(value + " above bucket", LatencyHistogram.highestOf(index) >= value);
+            double width = LatencyHistogram.highestOf(index) - LatencyHistogram.lowestOf(index);
+            assertTrue(value + " in a wide bucket", width <= Math.max(1, value) / 8.0);
+        }
+    }
+
+    public void testPercentileDoesNotExceedMax() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getPercentile(0.99));
+        for (int i = 1; i <= 100; i++) {
+            h.record(i * 1000L);
+        }
+        assertEquals(100, h.getCount());
+        assertEquals(5050, h.getSum());
+        assertEquals(100, h.getMax());
+        assertEquals(100, h.getPercentile(1.0));
+        long p50 = h.getPercentile(0.5);
+        assertTrue(String.valueOf(p50), p50 >= 50 && p50 <= 50 * 17 / 16);
+    }
+
+    public void testNegativeDurationIsZero() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(-1);
+        assertEquals(1, h.getCount());
+        assertEquals(0, h.getMax());
+    }
+}
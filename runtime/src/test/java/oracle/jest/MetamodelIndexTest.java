@@ -0,0 +1,80 @@
+package oracle.jest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+
+import junit.framework.TestCase;
+import oracle.jest.domain.Author;
+import oracle.jest.domain.Book;
+
+/**
+ * Tests the {@link MetamodelIndex index} of the model of the
+ * {@link TestDomain test domain}.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class MetamodelIndexTest extends TestCase {
+    private MetamodelIndex index;
+
+    @Override
+    protected void setUp() {
+        index = TestDomain.getIndex();
+    }
+
+    private static List<String> names(List<Attribute<?, ?>> attrs) {
+        List<String> names = new ArrayList<String>();
+        for (Attribute<?, ?> attr : attrs) {
+            names.add(attr.getName());
+        }
+        return names;
+    }
+
+    public void testEntityTypeByNameAndClass() {
+        EntityType<?> book = index.getEntityType("Book");
+        assertEquals(Book.class, book.getJavaType());
+        assertSame(book, index.getEntityType(Book.class));
+        assertSame(book, index.getManagedType(Book.class));
+        assertNull(index.getEntityType("Unknown"));
+    }
+
+    public void testAttributesArePartitionedWithoutIdentity() {
+        EntityType<?> book = index.getEntityType(Book.class);
+        assertEquals(index.getAttributes(book).size() - 1,
+                index.getBasicAttributes(book).size()
+              + index.getAssociations(book).size());
+        assertTrue(names(index.getBasicAttributes(book)).contains("title"));
+        assertFalse(names(index.getBasicAttributes(book)).contains("isbn"));
+        assertEquals(names(index.getAssociations(book)).toString(),
+                1, index.getAssociations(book).size());
+        assertSame(index.getAssociations(book).get(0),
+                index.getAttribute(book, "author"));
+        assertNull(index.getAttribute(book, "unknown"));
+    }
+
+    public void testTargetOfCollectionIsElementType() {
+        EntityType<?> author = index.getEntityType(Author.class);
+        assertSame(index.getEntityType(Book.class),
+                index.getTargetType(index.getAttribute(author, "books")));
+    }
+
+    public void testRelationEdges() {
+        List<String> edges = new ArrayList<String>();
+        for (MetamodelIndex.Edge edge : index.getEdges()) {
+            edges.add(edge.getCategory() + ':' + edge.getSource() + "->" + edge.getTarget());
+        }
+        assertTrue(edges.toString(), edges.contains(
+                MetamodelIndex.EDGE_RELATION + ":Book->Author"));
+        assertTrue(edges.toString(), edges.contains(
+                MetamodelIndex.EDGE_RELATION + ":Author->Book"));
+    }
+
+    public void testClassNotInModel() {
+        assertNull(index.getManagedType(String.class));
+        assertNull(index.getEntityType(String.class));
+        assertNull(index.getEmbeddableType(Book.class));
+    }
+}
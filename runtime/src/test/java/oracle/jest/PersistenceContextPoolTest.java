@@ -0,0 +1,72 @@
+package oracle.jest;
+
+import javax.persistence.EntityManager;
+
+import junit.framework.TestCase;
+import oracle.jest.domain.Book;
+
+/**
+ * Tests that the {@link PersistenceContextPool pool} closes or reuses the
+ * persistence contexts released to it.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class PersistenceContextPoolTest extends TestCase {
+    public void testReleasedIsClosedIfNotReusing() {
+        PersistenceContextPool pool = new PersistenceContextPool(
+                TestDomain.getPersistenceUnit(), 0);
+        assertFalse(pool.isReusing());
+        EntityManager em = pool.acquire();
+        assertEquals(1, pool.getActiveCount());
+        pool.release(em);
+        assertFalse(em.isOpen());
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(0, pool.getOpenCount());
+    }
+
+    public void testReleasedIsClearedAndReused() {
+        PersistenceContextPool pool = new PersistenceContextPool(
+                TestDomain.getPersistenceUnit(), 1);
+        EntityManager em = pool.acquire();
+        Book book = em.find(Book.class, TestDomain.bookId(1));
+        pool.release(em);
+        assertEquals(1, pool.getIdleCount());
+        assertSame(em, pool.acquire());
+        assertFalse(em.contains(book));
+        assertEquals(1, pool.getReusedCount());
+        pool.release(em);
+        pool.close();
+        assertFalse(em.isOpen());
+    }
+
+    public void testIdleBeyondLimitAreClosed() {
+        PersistenceContextPool pool = new PersistenceContextPool(
+                TestDomain.getPersistenceUnit(), 1);
+        EntityManager em1 = pool.acquire();
+        EntityManager em2 = pool.acquire();
+        pool.release(em1);
+        pool.release(em2);
+        assertTrue(em1.isOpen());
+        assertFalse(em2.isOpen());
+        assertEquals(1, pool.getIdleCount());
+        pool.close();
+        assertEquals(0, pool.getOpenCount());
+    }
+
+    public void testContextInTransactionIsNotReused() {
+        PersistenceContextPool pool = new PersistenceContextPool(
+                TestDomain.getPersistenceUnit(), 1);
+        EntityManager em = pool.acquire();
+        em.getTransaction().begin();
+        try {
+            pool.release(em);
+            assertFalse(em.isOpen());
+            assertEquals(0, pool.getIdleCount());
+        } finally {
+            if (em.isOpen() && em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package oracle.jest;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManagerFactory;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that the {@link PersistenceUnitRegistry registry} creates the
+ * units once, on start or on first use, and closes the units left idle.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class PersistenceUnitRegistryTest extends TestCase {
+    private static final List<String> NAMES = Arrays.asList("one", "two");
+
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    /*
+     * a factory of holders of a unit that shares the metamodel of the test
+     * unit, and fails as many times as asked before it creates the holder
+     */
+    private PersistenceUnitRegistry.Factory factory() {
+        return new PersistenceUnitRegistry.Factory() {
+            @Override
+            public PersistenceUnitHolder create(String unitName) {
+                if (failures.getAndDecrement() > 0) {
+                    throw new IllegalStateException(unitName);
+                }
+                created.incrementAndGet();
+                return new PersistenceUnitHolder(unitName, unit(), null);
+            }
+        };
+    }
+
+    private static EntityManagerFactory unit() {
+        return (EntityManagerFactory)Proxy.newProxyInstance(
+            EntityManagerFactory.class.getClassLoader(),
+            new Class<?>[]{EntityManagerFactory.class},
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method m, Object[] args) {
+                    String name = m.getName();
+                    if (name.equals("getMetamodel")) {
+                        return TestDomain.getPersistenceUnit().getMetamodel();
+                    }
+                    if (name.equals("isOpen")) {
+                        return false;
+                    }
+                    throw new UnsupportedOperationException(name);
+                }
+            });
+    }
+
+    public void testUnitIsCreatedOnFirstUse() {
+        PersistenceUnitRegistry units = new PersistenceUnitRegistry(NAMES, factory(), 0);
+        assertTrue(units.getOpenHolders().isEmpty());
+        PersistenceUnitHolder holder = units.acquire("two");
+        holder.release();
+        assertSame(holder, units.acquire("two"));
+        assertEquals(1, created.get());
+        assertEquals(1, units.getOpenHolders().size());
+        units.close();
+        assertTrue(units.getOpenHolders().isEmpty());
+    }
+
+    public void testStartCreatesAllUnits() {
+        PersistenceUnitRegistry units = new PersistenceUnitRegistry(NAMES, factory(), 0);
+        units.start();
+        assertEquals(NAMES.size(), created.get());
+        assertEquals(NAMES.size(), units.getOpenHolders().size());
+        units.close();
+    }
+
+    public void testFailedUnitIsCreatedAgain() {
+        failures.set(1);
+        PersistenceUnitRegistry units = new PersistenceUnitRegistry(NAMES, factory(), 0);
+        try {
+            units.acquire("one");
+            fail("unit created in spite of failure");
+        } catch (IllegalStateException expected) {
+        }
+        assertNotNull(units.acquire("one"));
+        assertEquals(1, created.get());
+        units.close();
+    }
+
+    public void testIdleUnitIsClosedAndCreatedAgain() throws Exception {
+        PersistenceUnitRegistry units = new PersistenceUnitRegistry(NAMES, factory(), 1);
+        PersistenceUnitHolder active = units.acquire("one");
+        PersistenceUnitHolder idle = units.acquire("two");
+        idle.release();
+        Thread.sleep(10);
+        units.evictIdle();
+        assertFalse(idle.acquire());
+        assertTrue(active.acquire());
+        assertNotSame(idle, units.acquire("two"));
+        assertEquals(3, created.get());
+        units.close();
+    }
+}
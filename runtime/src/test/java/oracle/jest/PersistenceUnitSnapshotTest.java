@@ -0,0 +1,84 @@
+package oracle.jest;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.json.JSONObject;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that a {@link PersistenceUnitSnapshot snapshot} is applied to a
+ * persistence unit only if the unit has the domain model of the snapshot.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class PersistenceUnitSnapshotTest extends TestCase {
+    private static final String DOCUMENT = JESTContext.METAMODEL_DOCUMENT + ';'
+            + JESTContext.MIMETYPE_JSON_API;
+
+    private EntityManagerFactory emf;
+
+    @Override
+    protected void setUp() {
+        emf = TestDomain.getPersistenceUnit();
+    }
+
+    private PersistenceUnitHolder holder() {
+        return new PersistenceUnitHolder(TestDomain.UNIT_NAME, emf, null);
+    }
+
+    /*
+     * the snapshot of the unit of the tests as JSON.
+     */
+    private JSONObject snapshot() throws Exception {
+        PersistenceUnitSnapshot snapshot = new PersistenceUnitSnapshot();
+        snapshot.add(holder());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        snapshot.write(out);
+        return new JSONObject(new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private static boolean apply(JSONObject json, PersistenceUnitHolder holder) {
+        PersistenceUnitSnapshot snapshot = new PersistenceUnitSnapshot();
+        snapshot.read(json);
+        return snapshot.apply(holder);
+    }
+
+    public void testSnapshotOfSameModelIsApplied() throws Exception {
+        PersistenceUnitHolder holder = holder();
+        assertTrue(apply(snapshot(), holder));
+        assertNotNull(holder.getAttribute(DOCUMENT));
+    }
+
+    public void testFingerprintIsStable() {
+        assertEquals(PersistenceUnitSnapshot.getFingerprint(emf.getMetamodel()),
+                PersistenceUnitSnapshot.getFingerprint(emf.getMetamodel()));
+    }
+
+    public void testSnapshotOfOtherAttributesIsNotApplied() throws Exception {
+        JSONObject json = snapshot();
+        JSONObject unit = json.getJSONArray("units").getJSONObject(0);
+        // same entities, as of a model where an attribute changed
+        unit.put("fingerprint", "changed");
+        PersistenceUnitHolder holder = holder();
+        assertFalse(apply(json, holder));
+        assertNull(holder.getAttribute(DOCUMENT));
+    }
+
+    public void testSnapshotOfOtherEntitiesIsNotApplied() throws Exception {
+        JSONObject json = snapshot();
+        json.getJSONArray("units").getJSONObject(0).getJSONArray("entities").put("Other");
+        assertFalse(apply(json, holder()));
+    }
+
+    public void testSnapshotOfEarlierVersionIsNotApplied() throws Exception {
+        JSONObject json = snapshot();
+        json.put("version", 1);
+        json.getJSONArray("units").getJSONObject(0).remove("fingerprint");
+        assertFalse(apply(json, holder()));
+    }
+}
@@ -0,0 +1,86 @@
+package oracle.jest;
+
+import java.math.BigDecimal;
+
+import javax.persistence.metamodel.EntityType;
+
+import junit.framework.TestCase;
+import oracle.jest.domain.Author;
+import oracle.jest.domain.Book;
+
+/**
+ * Tests the {@link PropertyAccessor accessors} of persistent attributes
+ * and of properties of other objects.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class PropertyAccessorTest extends TestCase {
+    /*
+     * a property read and written by getter and setter, and a property
+     * of a field alone
+     */
+    public static class Bean {
+        private String name;
+        private int count;
+        private boolean active;
+
+        public String getName() {
+            return "get:" + name;
+        }
+
+        public void setName(String name) {
+            this.name = "set:" + name;
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+    }
+
+    public void testAttributeIsAccessedByField() {
+        EntityType<?> type = TestDomain.getIndex().getEntityType(Book.class);
+        Author author = new Author(7, "Author 7");
+        Book book = new Book("x1", "Title", null, 10, BigDecimal.ONE, author);
+        PropertyAccessor title = PropertyAccessor.of(type.getAttribute("title"));
+        assertEquals("Title", title.get(book));
+        assertEquals(String.class, title.getType());
+        title.set(book, "Other");
+        assertEquals("Other", book.getTitle());
+        // no getter
+        assertSame(author, PropertyAccessor.of(type.getAttribute("author")).get(book));
+        assertEquals(10, PropertyAccessor.of(type.getAttribute("pages")).get(book));
+    }
+
+    public void testAccessorIsCreatedOnce() {
+        EntityType<?> type = TestDomain.getIndex().getEntityType(Book.class);
+        assertSame(PropertyAccessor.of(type.getAttribute("title")),
+                   PropertyAccessor.of(type.getAttribute("title")));
+        assertSame(PropertyAccessor.of(Bean.class, "name"),
+                   PropertyAccessor.of(Bean.class, "name"));
+    }
+
+    public void testGetterAndSetterArePreferredToField() {
+        Bean bean = new Bean();
+        PropertyAccessor name = PropertyAccessor.of(Bean.class, "name");
+        name.set(bean, "x");
+        assertEquals("get:set:x", name.get(bean));
+        assertEquals(Boolean.FALSE, PropertyAccessor.of(Bean.class, "active").get(bean));
+    }
+
+    public void testFieldWithoutGetter() {
+        Bean bean = new Bean();
+        PropertyAccessor count = PropertyAccessor.of(Bean.class, "count");
+        assertTrue(count.isWritable());
+        count.set(bean, 3);
+        assertEquals(3, count.get(bean));
+    }
+
+    public void testUnknownProperty() {
+        try {
+            PropertyAccessor.of(Bean.class, "unknown");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package oracle.jest;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.metamodel.EntityType;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests caching and invalidation of documents by {@link ResponseCache}.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class ResponseCacheTest extends TestCase {
+    private static final String MIME_TYPE = "application/json";
+
+    private ResponseCache cache;
+    private EntityType<?> book;
+
+    @Override
+    protected void setUp() {
+        EntityManagerFactory emf = TestDomain.getPersistenceUnit();
+        MetamodelIndex index = TestDomain.getIndex();
+        book = index.getEntityType("Book");
+        cache = new ResponseCache(index, emf.getPersistenceUnitUtil(), 1 << 20, 0);
+    }
+
+    @Override
+    protected void tearDown() {
+        cache.close();
+    }
+
+    private String key(String id) {
+        return cache.key(book, id, FieldSelection.ALL, MIME_TYPE);
+    }
+
+    private static CachedDocument document(String content) {
+        return new CachedDocument(MIME_TYPE, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void testPutAndGet() {
+        long stamp = cache.getStamp(book, "b01");
+        cache.put(book, "b01", key("b01"), document("b01"), stamp);
+        assertNotNull(cache.get(key("b01")));
+        assertNull(cache.get(key("b02")));
+    }
+
+    public void testInvalidateRemovesDocuments() {
+        cache.put(book, "b01", key("b01"), document("b01"), cache.getStamp(book, "b01"));
+        cache.invalidate(book, "b01");
+        assertNull(cache.get(key("b01")));
+        assertEquals(0, cache.getBytes());
+    }
+
+    public void testDocumentReadBeforeInvalidationIsNotCached() {
+        long stamp = cache.getStamp(book, "b01");
+        cache.invalidate(book, "b01");
+        cache.put(book, "b01", key("b01"), document("b01"), stamp);
+        assertNull(cache.get(key("b01")));
+    }
+
+    public void testInvalidationOfOtherInstanceDoesNotStopCaching() {
+        long stamp = cache.getStamp(book, "b01");
+        // the keys of these differ from b01 in their last character only,
+        // and so are of other stripes
+        for (String other : new String[]{"b02", "b03", "b04", "b05"}) {
+            cache.invalidate(book, other);
+        }
+        cache.put(book, "b01", key("b01"), document("b01"), stamp);
+        assertNotNull(cache.get(key("b01")));
+    }
+}
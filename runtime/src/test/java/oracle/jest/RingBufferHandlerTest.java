@@ -0,0 +1,174 @@
+package oracle.jest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that {@link RingBufferHandler} publishes the records it accepts,
+ * in order, whether its publisher is busy or sleeps, and none after it is
+ * closed.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class RingBufferHandlerTest extends TestCase {
+
+    /**
+     * Collects the records published to it.
+     */
+    static class Collector extends Handler {
+        final List<String> messages = new ArrayList<String>();
+        volatile boolean closed;
+
+        @Override
+        public synchronized void publish(LogRecord record) {
+            messages.add(record.getMessage());
+            notifyAll();
+        }
+
+        synchronized List<String> getMessages() {
+            return new ArrayList<String>(messages);
+        }
+
+        synchronized boolean await(int n, long millis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + millis;
+            while (messages.size() < n) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) return false;
+                wait(wait);
+            }
+            return true;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static LogRecord record(String message) {
+        return new LogRecord(Level.INFO, message);
+    }
+
+    public void testRecordsArePublishedInOrderOnClose() {
+        Collector target = new Collector();
+        RingBufferHandler handler = new RingBufferHandler(target, 1024);
+        for (int i = 0; i < 100; i++) {
+            handler.publish(record("r" + i));
+        }
+        handler.close();
+        List<String> messages = target.getMessages();
+        assertEquals(100, messages.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("r" + i, messages.get(i));
+        }
+        assertTrue(target.closed);
+    }
+
+    public void testSleepingPublisherIsWoken() throws Exception {
+        Collector target = new Collector();
+        RingBufferHandler handler = new RingBufferHandler(target, 16);
+        try {
+            for (int i = 0; i < 5; i++) {
+                // long enough for the publisher to sleep
+                Thread.sleep(50);
+                handler.publish(record("r" + i));
+                assertTrue("r" + i + " not published", target.await(i+1, 5000));
+            }
+        } finally {
+            handler.close();
+        }
+    }
+
+    public void testRecordAfterCloseIsIgnored() {
+        Collector target = new Collector();
+        RingBufferHandler handler = new RingBufferHandler(target, 16);
+        handler.publish(record("before"));
+        handler.close();
+        handler.publish(record("after"));
+        handler.close();
+        assertEquals(1, target.getMessages().size());
+        assertEquals("before", target.getMessages().get(0));
+        assertEquals(0, handler.getDroppedCount());
+    }
+
+    public void testRecordsAreDroppedWhenFull() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Collector target = new Collector() {
+            @Override
+            public void publish(LogRecord record) {
+                super.publish(record);
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        RingBufferHandler handler = new RingBufferHandler(target, 2);
+        handler.publish(record("r0"));
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        // the publisher is held by the target with the buffer empty
+        handler.publish(record("r1"));
+        handler.publish(record("r2"));
+        handler.publish(record("r3"));
+        assertEquals(1, handler.getDroppedCount());
+        release.countDown();
+        handler.close();
+        List<String> messages = target.getMessages();
+        assertEquals(4, messages.size());
+        assertEquals("r2", messages.get(2));
+        assertTrue(messages.get(3), messages.get(3).contains("dropped 1 records"));
+    }
+
+    public void testConcurrentRecordsAreAllAccountedFor() throws Exception {
+        final int threads = 4;
+        final int records = 20000;
+        Collector target = new Collector();
+        final RingBufferHandler handler = new RingBufferHandler(target, 256);
+        Thread[] loggers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final String prefix = i + ":";
+            loggers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < records; j++) {
+                        handler.publish(record(prefix + j));
+                    }
+                }
+            });
+            loggers[i].start();
+        }
+        for (Thread logger : loggers) {
+            logger.join();
+        }
+        handler.close();
+        List<String> messages = target.getMessages();
+        long dropped = handler.getDroppedCount();
+        int published = dropped > 0 ? messages.size() - 1 : messages.size();
+        assertEquals(threads * records, published + dropped);
+        // the records of a thread in the order it logged them
+        int[] last = new int[threads];
+        java.util.Arrays.fill(last, -1);
+        for (String message : messages.subList(0, published)) {
+            int sep = message.indexOf(':');
+            int thread = Integer.parseInt(message.substring(0, sep));
+            int j = Integer.parseInt(message.substring(sep+1));
+            assertTrue(message, j > last[thread]);
+            last[thread] = j;
+        }
+    }
+}
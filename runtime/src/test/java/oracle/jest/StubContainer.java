@@ -0,0 +1,363 @@
+package oracle.jest;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Stands in for the container, so that the tests send a request to the
+ * servlet without a connector.
+ * <br>
+ * The stubs are dynamic proxies that answer the methods the servlet calls
+ * and a default value for any other. A response keeps its status, headers,
+ * content and error message for the test to examine.
+ *
+ * @author pinaki poddar
+ *
+ */
+class StubContainer {
+    private StubContainer() {
+    }
+
+    /**
+     * Creates a configuration of a servlet with the given parameters, in
+     * a servlet context of its own.
+     */
+    static ServletConfig config(final Map<String, String> params) {
+        final Map<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+        final ServletContext context = proxy(ServletContext.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method m, Object[] args) {
+                String name = m.getName();
+                if ("getAttribute".equals(name)) {
+                    return attributes.get(args[0]);
+                } else if ("setAttribute".equals(name)) {
+                    attributes.put((String)args[0], args[1]);
+                } else if ("removeAttribute".equals(name)) {
+                    attributes.remove(args[0]);
+                } else if ("getAttributeNames".equals(name)) {
+                    return Collections.enumeration(attributes.keySet());
+                } else if ("getInitParameterNames".equals(name)) {
+                    return Collections.emptyEnumeration();
+                }
+                return defaultValue(m);
+            }
+        });
+        return proxy(ServletConfig.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method m, Object[] args) {
+                String name = m.getName();
+                if ("getServletContext".equals(name)) {
+                    return context;
+                } else if ("getInitParameter".equals(name)) {
+                    return params.get(args[0]);
+                } else if ("getInitParameterNames".equals(name)) {
+                    return Collections.enumeration(params.keySet());
+                } else if ("getServletName".equals(name)) {
+                    return "jest";
+                }
+                return defaultValue(m);
+            }
+        });
+    }
+
+    /**
+     * Creates a request without content.
+     *
+     * @param method HTTP method
+     * @param path path within the servlet, such as <code>/Book/b01</code>
+     * @param query query string, not decoded. null if none.
+     * @param headers names and values, alternating
+     */
+    static HttpServletRequest request(String method, String path, String query,
+            String... headers) {
+        return requestWithContent(method, path, query, null, headers);
+    }
+
+    /**
+     * Creates a request with the given content.
+     *
+     * @param content null if the request has no content
+     */
+    static HttpServletRequest requestWithContent(final String method,
+            final String path, final String query, final String content,
+            String... headers) {
+        final Map<String, String[]> params = parse(query);
+        final Map<String, String> headerMap = new HashMap<String, String>();
+        for (int i = 0; i+1 < headers.length; i += 2) {
+            headerMap.put(headers[i].toLowerCase(), headers[i+1]);
+        }
+        final byte[] body = content == null ? new byte[0]
+                : content.getBytes(StandardCharsets.UTF_8);
+        final ServletInputStream in = new ServletInputStream() {
+            private final ByteArrayInputStream bytes = new ByteArrayInputStream(body);
+
+            @Override
+            public int read() {
+                return bytes.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                return bytes.read(b, off, len);
+            }
+
+            @Override
+            public boolean isFinished() {
+                return bytes.available() == 0;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener listener) {
+            }
+        };
+        final StringBuffer url = new StringBuffer("http://localhost/jest").append(path);
+        return proxy(HttpServletRequest.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method m, Object[] args) {
+                String name = m.getName();
+                if ("getMethod".equals(name)) {
+                    return method;
+                } else if ("getPathInfo".equals(name)) {
+                    return path;
+                } else if ("getQueryString".equals(name)) {
+                    return query;
+                } else if ("getHeader".equals(name)) {
+                    return headerMap.get(((String)args[0]).toLowerCase());
+                } else if ("getHeaders".equals(name)) {
+                    String value = headerMap.get(((String)args[0]).toLowerCase());
+                    return Collections.enumeration(value == null
+                            ? Collections.<String>emptyList()
+                            : Collections.singletonList(value));
+                } else if ("getContentType".equals(name)) {
+                    return headerMap.get("content-type");
+                } else if ("getContentLength".equals(name)) {
+                    return content == null ? -1 : body.length;
+                } else if ("getCharacterEncoding".equals(name)) {
+                    return "UTF-8";
+                } else if ("getInputStream".equals(name)) {
+                    return in;
+                } else if ("getReader".equals(name)) {
+                    return new BufferedReader(new InputStreamReader(in,
+                            StandardCharsets.UTF_8));
+                } else if ("getParameter".equals(name)) {
+                    String[] values = params.get(args[0]);
+                    return values == null ? null : values[0];
+                } else if ("getParameterValues".equals(name)) {
+                    return params.get(args[0]);
+                } else if ("getParameterMap".equals(name)) {
+                    return params;
+                } else if ("getParameterNames".equals(name)) {
+                    return Collections.enumeration(params.keySet());
+                } else if ("getRequestURL".equals(name)) {
+                    return new StringBuffer(url);
+                } else if ("getRequestURI".equals(name)) {
+                    return "/jest" + path;
+                } else if ("getContextPath".equals(name)) {
+                    return "";
+                } else if ("getServletPath".equals(name)) {
+                    return "/jest";
+                } else if ("getProtocol".equals(name)) {
+                    return "HTTP/1.1";
+                }
+                return defaultValue(m);
+            }
+        });
+    }
+
+    private static Map<String, String[]> parse(String query) {
+        Map<String, String[]> params = new LinkedHashMap<String, String[]>();
+        if (query == null) return params;
+        try {
+            for (String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                String name  = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), "UTF-8");
+                String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq+1), "UTF-8");
+                String[] values = params.get(name);
+                if (values == null) {
+                    values = new String[]{value};
+                } else {
+                    String[] more = new String[values.length+1];
+                    System.arraycopy(values, 0, more, 0, values.length);
+                    more[values.length] = value;
+                    values = more;
+                }
+                params.put(name, values);
+            }
+        } catch (UnsupportedEncodingException ex) {
+            throw new RuntimeException(ex);
+        }
+        return Collections.unmodifiableMap(params);
+    }
+
+    /**
+     * A response that keeps its status, headers and content.
+     */
+    static class Response implements InvocationHandler {
+        private final HttpServletResponse proxy = proxy(HttpServletResponse.class, this);
+        private final Map<String, List<String>> headers = new HashMap<String, List<String>>();
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        private int status = HttpServletResponse.SC_OK;
+        private String message;
+        private boolean committed;
+        private final ServletOutputStream out = new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                content.write(b);
+                committed = true;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                content.write(b, off, len);
+                committed = true;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener listener) {
+            }
+        };
+
+        HttpServletResponse getResponse() {
+            return proxy;
+        }
+
+        int getStatus() {
+            return status;
+        }
+
+        /**
+         * Gets the message of the error sent, if any.
+         */
+        String getErrorMessage() {
+            return message;
+        }
+
+        byte[] getContent() {
+            return content.toByteArray();
+        }
+
+        String getContentAsString() {
+            return new String(content.toByteArray(), StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Gets the first value of the given header.
+         */
+        String getHeader(String name) {
+            List<String> values = headers.get(name.toLowerCase());
+            return values == null ? null : values.get(0);
+        }
+
+        /**
+         * Gets all values of the given header.
+         */
+        List<String> getHeaders(String name) {
+            List<String> values = headers.get(name.toLowerCase());
+            return values == null ? Collections.<String>emptyList() : values;
+        }
+
+        private void setHeader(String name, String value, boolean add) {
+            String key = name.toLowerCase();
+            List<String> values = headers.get(key);
+            if (values == null || !add) {
+                values = new ArrayList<String>();
+                headers.put(key, values);
+            }
+            values.add(value);
+        }
+
+        @Override
+        public Object invoke(Object p, Method m, Object[] args) {
+            String name = m.getName();
+            if ("getOutputStream".equals(name)) {
+                return out;
+            } else if ("setStatus".equals(name)) {
+                status = (Integer)args[0];
+            } else if ("sendError".equals(name)) {
+                status = (Integer)args[0];
+                message = args.length > 1 ? (String)args[1] : null;
+                committed = true;
+            } else if ("getStatus".equals(name)) {
+                return status;
+            } else if ("isCommitted".equals(name)) {
+                return committed;
+            } else if ("setHeader".equals(name) || "addHeader".equals(name)) {
+                setHeader((String)args[0], (String)args[1], "addHeader".equals(name));
+            } else if ("setIntHeader".equals(name) || "addIntHeader".equals(name)) {
+                setHeader((String)args[0], String.valueOf(args[1]),
+                        "addIntHeader".equals(name));
+            } else if ("getHeader".equals(name)) {
+                return getHeader((String)args[0]);
+            } else if ("getHeaders".equals(name)) {
+                return getHeaders((String)args[0]);
+            } else if ("containsHeader".equals(name)) {
+                return headers.containsKey(((String)args[0]).toLowerCase());
+            } else if ("setContentType".equals(name)) {
+                setHeader("Content-Type", (String)args[0], false);
+            } else if ("getContentType".equals(name)) {
+                return getHeader("Content-Type");
+            } else if ("setContentLength".equals(name)) {
+                setHeader("Content-Length", String.valueOf(args[0]), false);
+            } else if ("setContentLengthLong".equals(name)) {
+                setHeader("Content-Length", String.valueOf(args[0]), false);
+            } else if ("getCharacterEncoding".equals(name)) {
+                return "UTF-8";
+            } else if ("flushBuffer".equals(name)) {
+                committed = true;
+            }
+            return defaultValue(m);
+        }
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(StubContainer.class.getClassLoader(),
+                new Class<?>[]{type}, handler));
+    }
+
+    private static Object defaultValue(Method m) {
+        Class<?> type = m.getReturnType();
+        if (!type.isPrimitive() || type == void.class) return null;
+        if (type == boolean.class) return false;
+        if (type == int.class)     return 0;
+        if (type == long.class)    return 0L;
+        if (type == char.class)    return (char)0;
+        if (type == short.class)   return (short)0;
+        if (type == byte.class)    return (byte)0;
+        if (type == float.class)   return 0f;
+        return 0d;
+    }
+}
@@ -0,0 +1,86 @@
+package oracle.jest;
+
+import java.math.BigDecimal;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import oracle.jest.domain.Author;
+import oracle.jest.domain.Book;
+import oracle.jest.domain.Chapter;
+import oracle.jest.domain.ChapterId;
+import oracle.jest.domain.Edition;
+
+/**
+ * The persistence unit of the tests on in-memory Derby, populated once
+ * for all tests.
+ * <br>
+ * There are {@value #BOOKS} books, identified as <code>b00</code>,
+ * <code>b01</code> and so on, by {@value #AUTHORS} authors. The genre,
+ * number of pages and price of the books repeat so that a sort by them
+ * has ties, and every third book has no genre. A book has a version, so
+ * that its document is tagged by its version. An {@link Edition edition}
+ * and a {@link Chapter chapter} have a composite identity, the identity of
+ * the chapter with the characters that are escaped in its string form.
+ * <p>
+ * The unit is kept open till the tests end. A servlet of the tests that
+ * opens the same unit shares its database and data.
+ *
+ * @author pinaki poddar
+ *
+ */
+class TestDomain {
+    static final String UNIT_NAME = "test";
+    static final int BOOKS   = 20;
+    static final int AUTHORS = 3;
+    static final String EDITION_ID = "b01~2";
+    static final String CHAPTER_ID = "a%7Eb%25c~1";
+    private static final String[] GENRES = {"fiction", "poetry", null};
+
+    private static EntityManagerFactory emf;
+
+    private TestDomain() {
+    }
+
+    static synchronized EntityManagerFactory getPersistenceUnit() {
+        if (emf == null) {
+            emf = Persistence.createEntityManagerFactory(UNIT_NAME);
+            populate(emf);
+        }
+        return emf;
+    }
+
+    static MetamodelIndex getIndex() {
+        return new MetamodelIndex(getPersistenceUnit().getMetamodel());
+    }
+
+    static String bookId(int i) {
+        return String.format("b%02d", i);
+    }
+
+    private static void populate(EntityManagerFactory emf) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            Author[] authors = new Author[AUTHORS];
+            for (int i = 0; i < AUTHORS; i++) {
+                authors[i] = new Author(i+1, "Author " + (i+1));
+                em.persist(authors[i]);
+            }
+            for (int i = 0; i < BOOKS; i++) {
+                em.persist(new Book(bookId(i), "Book " + i, GENRES[i % GENRES.length],
+                        100 + (i % 4) * 50, new BigDecimal("9.99").add(
+                                BigDecimal.valueOf(i % 2)),
+                        authors[i % AUTHORS]));
+            }
+            em.persist(new Edition(bookId(1), 2, 2001));
+            em.persist(new Chapter(new ChapterId("a~b%c", (short)1), "Chapter 1"));
+            em.getTransaction().commit();
+        } finally {
+            em.close();
+        }
+        // the authors are cached without the inverse side of their books
+        emf.getCache().evictAll();
+    }
+}
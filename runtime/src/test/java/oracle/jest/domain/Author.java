@@ -0,0 +1,39 @@
+package oracle.jest.domain;
+
+import java.util.List;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.OneToMany;
+import javax.persistence.Version;
+
+@Entity
+public class Author {
+    @Id
+    private long id;
+    private String name;
+    @OneToMany(mappedBy="author")
+    private List<Book> books;
+    @Version
+    private int version;
+
+    public Author() {
+    }
+
+    public Author(long id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<Book> getBooks() {
+        return books;
+    }
+}
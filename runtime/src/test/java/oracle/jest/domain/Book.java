@@ -0,0 +1,65 @@
+package oracle.jest.domain;
+
+import java.math.BigDecimal;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+import javax.persistence.Version;
+
+@Entity
+public class Book {
+    @Id
+    private String isbn;
+    private String title;
+    private String genre;
+    private int pages;
+    private BigDecimal price;
+
+    @ManyToOne
+    private Author author;
+
+    @Version
+    private int version;
+
+    public Book() {
+    }
+
+    public Book(String isbn, String title, String genre, int pages,
+            BigDecimal price, Author author) {
+        this.isbn = isbn;
+        this.title = title;
+        this.genre = genre;
+        this.pages = pages;
+        this.price = price;
+        this.author = author;
+    }
+
+    public String getIsbn() {
+        return isbn;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getGenre() {
+        return genre;
+    }
+
+    public int getPages() {
+        return pages;
+    }
+
+    public BigDecimal getPrice() {
+        return price;
+    }
+
+    public Author getAuthor() {
+        return author;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,19 @@
+package oracle.jest.domain;
+
+import javax.persistence.EmbeddedId;
+import javax.persistence.Entity;
+
+@Entity
+public class Chapter {
+    @EmbeddedId
+    private ChapterId id;
+    private String title;
+
+    public Chapter() {
+    }
+
+    public Chapter(ChapterId id, String title) {
+        this.id = id;
+        this.title = title;
+    }
+}
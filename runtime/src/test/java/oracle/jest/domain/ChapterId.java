@@ -0,0 +1,33 @@
+package oracle.jest.domain;
+
+import java.io.Serializable;
+
+import javax.persistence.Embeddable;
+
+@Embeddable
+public class ChapterId implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String book;
+    private short number;
+
+    public ChapterId() {
+    }
+
+    public ChapterId(String book, short number) {
+        this.book = book;
+        this.number = number;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof ChapterId)) return false;
+        ChapterId that = (ChapterId)other;
+        return book.equals(that.book) && number == that.number;
+    }
+
+    @Override
+    public int hashCode() {
+        return book.hashCode() * 31 + number;
+    }
+}
@@ -0,0 +1,24 @@
+package oracle.jest.domain;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+
+@Entity
+@IdClass(EditionId.class)
+public class Edition {
+    @Id
+    private String isbn;
+    @Id
+    private int number;
+    private int published;
+
+    public Edition() {
+    }
+
+    public Edition(String isbn, int number, int published) {
+        this.isbn = isbn;
+        this.number = number;
+        this.published = published;
+    }
+}
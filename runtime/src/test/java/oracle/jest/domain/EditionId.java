@@ -0,0 +1,30 @@
+package oracle.jest.domain;
+
+import java.io.Serializable;
+
+public class EditionId implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String isbn;
+    private int number;
+
+    public EditionId() {
+    }
+
+    public EditionId(String isbn, int number) {
+        this.isbn = isbn;
+        this.number = number;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof EditionId)) return false;
+        EditionId that = (EditionId)other;
+        return isbn.equals(that.isbn) && number == that.number;
+    }
+
+    @Override
+    public int hashCode() {
+        return isbn.hashCode() * 31 + number;
+    }
+}
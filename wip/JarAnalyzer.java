@@ -1,90 +1,506 @@
 package oracle.jest;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.jar.JarEntry;
-import java.util.jar.JarInputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
 
 
 /**
- * Ananlyze an archive to answer if particulr resource is available.
- * 
+ * Analyzes an archive to answer if a particular resource is available,
+ * in the archive or in the archives nested in it.
+ * <br>
+ * The archive is mapped to memory and indexed by its central directory,
+ * which lists every entry with its size and offset at the end of the
+ * archive, so that no entry is read to find the others. A nested archive
+ * that is stored without compression, as the libraries of an executable
+ * jar usually are, is indexed in place by its own central directory. A
+ * compressed nested archive is decompressed once to be indexed. The
+ * nested archives are indexed in parallel, and the entries are indexed
+ * by their file name, so that finding a resource does not scan every
+ * entry. An entry is only decompressed when it is {@link #read(Entry)
+ * read}.
+ * <p>
+ * The archive must be smaller than 2 GB, the limit of a mapped buffer.
+ *
  * @author pinaki poddar
  *
  */
-public class JarAnalyzer {
-    private final JarInputStream _jar;
-    
-    public JarAnalyzer(String name, InputStream jar)  throws IOException  {
-        _jar = new JarInputStream(jar, true);
-        
-        System.err.println("Creating analyzer " + name);
+public class JarAnalyzer implements Closeable {
+    private static final Logger logger = Logger.getLogger("RUNTIME");
+
+    private static final int  EOCD_SIG         = 0x06054b50;
+    private static final int  EOCD_SIZE        = 22;
+    private static final int  ZIP64_LOCATOR_SIG  = 0x07064b50;
+    private static final int  ZIP64_LOCATOR_SIZE = 20;
+    private static final int  ZIP64_EOCD_SIG   = 0x06064b50;
+    private static final int  ZIP64_EOCD_SIZE  = 56;
+    private static final int  CEN_SIG          = 0x02014b50;
+    private static final int  CEN_SIZE         = 46;
+    private static final int  LOC_SIG          = 0x04034b50;
+    private static final int  LOC_SIZE         = 30;
+    private static final int  ZIP64_EXTRA      = 0x0001;
+    private static final long ZIP64_MAGIC      = 0xFFFFFFFFL;
+    private static final int  MAX_COMMENT      = 0xFFFF;
+    private static final int  COPY_BUFFER      = 64*1024;
+
+    private final String name;
+    private final RandomAccessFile file;
+    private final Archive root;
+    private final Map<String, List<Entry>> entriesByFileName =
+            new HashMap<String, List<Entry>>();
+
+    /**
+     * Indexes the given archive and the archives nested in it.
+     */
+    public JarAnalyzer(File archive) throws IOException  {
+        name = archive.getPath();
+        long start = System.currentTimeMillis();
+        file = new RandomAccessFile(archive, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(name + " of " + channel.size()
+                        + " bytes is too large to analyze");
+            }
+            root = new Archive("", channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, channel.size()));
+            indexNested(root.getNestedArchives());
+        } catch (IOException ex) {
+            file.close();
+            throw ex;
+        } catch (RuntimeException ex) {
+            file.close();
+            throw ex;
+        }
+        index(root);
+        logger.info("Indexed " + entriesByFileName.size() + " file names of "
+                + name + " in " + (System.currentTimeMillis() - start) + " ms");
     }
-    
-    public boolean exists(String resource) throws IOException {
-        JarEntry entry = null;
-        while ((entry = _jar.getNextJarEntry()) != null) {
-            if (entry.getName().endsWith(resource)) {
-                System.err.println("found " + entry.getName());
-                return true;
-            }
-            
-            JarEntryStream in = new JarEntryStream(entry);
-            if (entry.getName().endsWith(".jar")) {
-                System.err.println("searching inside " + entry.getName());
+
+    /*
+     * indexes the nested archives in parallel, each with the archives
+     * nested in it
+     */
+    private void indexNested(List<Entry> jars) throws IOException {
+        if (jars.isEmpty()) return;
+        int threads = Math.min(jars.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Archive>> futures = new ArrayList<Future<Archive>>();
+            for (final Entry jar : jars) {
+                futures.add(executor.submit(new Callable<Archive>() {
+                    @Override
+                    public Archive call() throws IOException {
+                        return openNested(jar);
+                    }
+                }));
+            }
+            for (int i = 0; i < jars.size(); i++) {
                 try {
-                    JarAnalyzer y = new JarAnalyzer(entry.getName(), in);
-                    if (y.exists(resource)) {
-                        System.err.println("Found " + resource + " inside " + entry.getName());
-                        return true;
+                    Archive nested = futures.get(i).get();
+                    if (nested != null) root.nested.add(nested);
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof IOException) throw (IOException)cause;
+                    throw new RuntimeException(cause);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(ex);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /*
+     * opens the given nested archive and the archives nested in it.
+     * null if the entry is not a valid archive.
+     */
+    private static Archive openNested(Entry jar) throws IOException {
+        ByteBuffer data = jar.method == ZipEntry.STORED
+                ? jar.getData() : ByteBuffer.wrap(jar.read());
+        Archive nested;
+        try {
+            nested = new Archive(jar.getPath() + "!/", data);
+        } catch (IOException ex) {
+            logger.warning("Can not analyze " + jar.getPath() + ": " + ex.getMessage());
+            return null;
+        }
+        for (Entry inner : nested.getNestedArchives()) {
+            Archive archive = openNested(inner);
+            if (archive != null) nested.nested.add(archive);
+        }
+        return nested;
+    }
+
+    private void index(Archive archive) {
+        for (Entry entry : archive.entries) {
+            if (entry.isDirectory()) continue;
+            String fileName = getFileName(entry.name);
+            List<Entry> entries = entriesByFileName.get(fileName);
+            if (entries == null) {
+                entries = new ArrayList<Entry>(1);
+                entriesByFileName.put(fileName, entries);
+            }
+            entries.add(entry);
+        }
+        for (Archive nested : archive.nested) {
+            index(nested);
+        }
+    }
+
+    private static String getFileName(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Affirms if the given resource is in the archive or in any archive
+     * nested in it.
+     */
+    public boolean exists(String resource) {
+        return !find(resource).isEmpty();
+    }
+
+    /**
+     * Finds the entries of the given resource, in the archive or in the
+     * archives nested in it. An entry is found if its name is the resource
+     * or ends with the resource, as <code>META-INF/persistence.xml</code>
+     * is found as <code>WEB-INF/classes/META-INF/persistence.xml</code>.
+     *
+     * @return empty if the resource is not found
+     */
+    public List<Entry> find(String resource) {
+        List<Entry> candidates = entriesByFileName.get(getFileName(resource));
+        if (candidates == null) return Collections.emptyList();
+        List<Entry> found = new ArrayList<Entry>();
+        for (Entry entry : candidates) {
+            if (entry.name.equals(resource) || entry.name.endsWith('/' + resource)) {
+                found.add(entry);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Gets the entries of the archive itself, in the order of its
+     * central directory.
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(root.entries);
+    }
+
+    /**
+     * Reads the content of the given entry.
+     */
+    public byte[] read(Entry entry) throws IOException {
+        return entry.read();
+    }
+
+    /**
+     * Copies the content of the given entry to the given stream a chunk at
+     * a time, so that an entry as large as a library is not held in memory.
+     */
+    public void copy(Entry entry, OutputStream out) throws IOException {
+        entry.copy(out);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * An entry of an archive, as listed by the central directory of the
+     * archive.
+     */
+    public static class Entry {
+        private final Archive archive;
+        private final String name;
+        private final int method;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final long headerOffset;
+
+        Entry(Archive archive, String name, int method, long crc,
+                long compressedSize, long size, long headerOffset) {
+            this.archive = archive;
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.headerOffset = headerOffset;
+        }
+
+        /**
+         * Gets the name of the entry within its archive.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the path of the entry from the outermost archive, as in
+         * <code>lib/x.jar!/META-INF/persistence.xml</code>.
+         */
+        public String getPath() {
+            return archive.path + name;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Gets the CRC-32 of the content of the entry.
+         */
+        public long getCrc() {
+            return crc;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        public boolean isArchive() {
+            return !isDirectory() && (name.endsWith(".jar") || name.endsWith(".war"));
+        }
+
+        /*
+         * the data of the entry as stored, located by its local header
+         */
+        ByteBuffer getData() throws IOException {
+            ByteBuffer buf = archive.data;
+            int loc = archive.position(headerOffset);
+            if (loc + LOC_SIZE > buf.limit() || buf.getInt(loc) != LOC_SIG) {
+                throw new IOException("Invalid local header of " + getPath());
+            }
+            long start = loc + LOC_SIZE + (buf.getShort(loc+26) & 0xFFFF)
+                    + (buf.getShort(loc+28) & 0xFFFF);
+            if (start + compressedSize > buf.limit()) {
+                throw new IOException("Truncated entry " + getPath());
+            }
+            return slice(buf, (int)start, (int)compressedSize);
+        }
+
+        byte[] read() throws IOException {
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(getPath() + " of " + size
+                        + " bytes is too large to read");
+            }
+            ByteArrayOutputStream content = new ByteArrayOutputStream((int)size);
+            copy(content);
+            return content.toByteArray();
+        }
+
+        void copy(OutputStream out) throws IOException {
+            ByteBuffer data = getData();
+            byte[] chunk = new byte[(int)Math.min(COPY_BUFFER, Math.max(size, 1))];
+            if (method == ZipEntry.STORED) {
+                while (data.hasRemaining()) {
+                    int n = Math.min(chunk.length, data.remaining());
+                    data.get(chunk, 0, n);
+                    out.write(chunk, 0, n);
+                }
+                return;
+            }
+            if (method != ZipEntry.DEFLATED) {
+                throw new IOException("Unsupported compression method " + method
+                        + " of " + getPath());
+            }
+            byte[] input = new byte[(int)Math.min(COPY_BUFFER, Math.max(compressedSize, 1))];
+            Inflater inflater = new Inflater(true);
+            try {
+                long n = 0;
+                while (!inflater.finished()) {
+                    if (inflater.needsInput()) {
+                        if (!data.hasRemaining()) break;
+                        int k = Math.min(input.length, data.remaining());
+                        data.get(input, 0, k);
+                        inflater.setInput(input, 0, k);
                     }
-                } catch (IOException ex) {
-                    
+                    int k = inflater.inflate(chunk);
+                    if (k == 0 && inflater.needsDictionary()) break;
+                    n += k;
+                    if (n > size) break;
+                    out.write(chunk, 0, k);
                 }
-            } else {
-                for (long i = 0; i < entry.getSize(); i++) _jar.read();
+                if (n != size) {
+                    throw new IOException("Inflated " + n + " of " + size
+                            + " bytes of " + getPath());
+                }
+            } catch (DataFormatException ex) {
+                throw new IOException("Corrupt entry " + getPath(), ex);
+            } finally {
+                inflater.end();
             }
         }
-        return false;
+
+        @Override
+        public String toString() {
+            return getPath();
+        }
     }
-    
-    class JarEntryStream extends InputStream {
-        private long _remaining;
-        private final byte[] _buffer;
-        private int _cursor = 0;
-        private long _bufferLimit = 0;
-        private long _count;
-        
-        public JarEntryStream(JarEntry entry) {
-            _remaining = entry.getSize();
-            _buffer = new byte[1024]; 
+
+    /**
+     * An archive indexed by its central directory.
+     */
+    static class Archive {
+        final String path;
+        final ByteBuffer data;
+        final List<Entry> entries = new ArrayList<Entry>();
+        final List<Archive> nested = Collections.synchronizedList(new ArrayList<Archive>());
+        // offset of the archive within its data, if anything precedes it
+        private long base;
+
+        Archive(String path, ByteBuffer data) throws IOException {
+            this.path = path;
+            this.data = data.order(ByteOrder.LITTLE_ENDIAN);
+            readCentralDirectory();
         }
+
+        List<Entry> getNestedArchives() {
+            List<Entry> archives = new ArrayList<Entry>();
+            for (Entry entry : entries) {
+                if (entry.isArchive()) archives.add(entry);
+            }
+            return archives;
+        }
+
+        int position(long offset) throws IOException {
+            long pos = base + offset;
+            if (pos < 0 || pos > data.limit()) {
+                throw new IOException("Invalid offset " + offset + " in " + this);
+            }
+            return (int)pos;
+        }
+
+        private void readCentralDirectory() throws IOException {
+            int eocd = findEndOfCentralDirectory();
+            long count  = data.getShort(eocd+10) & 0xFFFF;
+            long size   = data.getInt(eocd+12) & ZIP64_MAGIC;
+            long offset = data.getInt(eocd+16) & ZIP64_MAGIC;
+            int end = eocd;
+            int locator = eocd - ZIP64_LOCATOR_SIZE;
+            if (locator >= 0 && data.getInt(locator) == ZIP64_LOCATOR_SIG) {
+                // the locator records the offset of the zip64 end record
+                // from the start of the archive, not of the data. The record
+                // precedes the locator unless extensible data follows it.
+                long zip64 = locator - ZIP64_EOCD_SIZE;
+                if (zip64 < 0 || data.getInt((int)zip64) != ZIP64_EOCD_SIG) {
+                    zip64 = data.getLong(locator+8);
+                }
+                if (zip64 < 0 || zip64 + ZIP64_EOCD_SIZE > locator
+                 || data.getInt((int)zip64) != ZIP64_EOCD_SIG) {
+                    throw new IOException("Invalid zip64 end of central directory in " + this);
+                }
+                end    = (int)zip64;
+                count  = data.getLong(end+32);
+                size   = data.getLong(end+40);
+                offset = data.getLong(end+48);
+            }
+            // the directory ends where its end record begins, whatever
+            // precedes the archive, such as a launch script
+            base = end - size - offset;
+            int pos = position(offset);
+            for (long i = 0; i < count; i++) {
+                if (pos + CEN_SIZE > end || data.getInt(pos) != CEN_SIG) {
+                    throw new IOException("Invalid central directory in " + this);
+                }
+                pos = readEntry(pos);
+            }
+        }
+
+        private int findEndOfCentralDirectory() throws IOException {
+            int last = data.limit() - EOCD_SIZE;
+            int first = Math.max(0, last - MAX_COMMENT);
+            for (int pos = last; pos >= first; pos--) {
+                if (data.getInt(pos) == EOCD_SIG
+                 && pos + EOCD_SIZE + (data.getShort(pos+20) & 0xFFFF) == data.limit()) {
+                    return pos;
+                }
+            }
+            throw new IOException(this + " is not an archive");
+        }
+
+        /*
+         * reads the entry of the central directory at the given position
+         * and returns the position of the next entry
+         */
+        private int readEntry(int pos) throws IOException {
+            int method         = data.getShort(pos+10) & 0xFFFF;
+            long crc           = data.getInt(pos+16) & ZIP64_MAGIC;
+            long compressed    = data.getInt(pos+20) & ZIP64_MAGIC;
+            long size          = data.getInt(pos+24) & ZIP64_MAGIC;
+            int nameLength     = data.getShort(pos+28) & 0xFFFF;
+            int extraLength    = data.getShort(pos+30) & 0xFFFF;
+            int commentLength  = data.getShort(pos+32) & 0xFFFF;
+            long headerOffset  = data.getInt(pos+42) & ZIP64_MAGIC;
+            byte[] name = new byte[nameLength];
+            ByteBuffer buf = data.duplicate();
+            buf.position(pos + CEN_SIZE);
+            buf.get(name);
+            // the fields that do not fit are in the zip64 extra field
+            int extra = pos + CEN_SIZE + nameLength;
+            int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                int id = data.getShort(extra) & 0xFFFF;
+                int length = data.getShort(extra+2) & 0xFFFF;
+                if (id == ZIP64_EXTRA) {
+                    int field = extra + 4;
+                    if (size == ZIP64_MAGIC)         { size = data.getLong(field); field += 8; }
+                    if (compressed == ZIP64_MAGIC)   { compressed = data.getLong(field); field += 8; }
+                    if (headerOffset == ZIP64_MAGIC) { headerOffset = data.getLong(field); }
+                    break;
+                }
+                extra += 4 + length;
+            }
+            entries.add(new Entry(this, new String(name, StandardCharsets.UTF_8),
+                    method, crc, compressed, size, headerOffset));
+            return pos + CEN_SIZE + nameLength + extraLength + commentLength;
+        }
+
         @Override
-        public int read() throws IOException {
-            if (_remaining < 0) {
-                System.err.println("finished reading entry " + _count + " bytes");
-                return -1;
-            }
-            if (_cursor < _bufferLimit) {
-                _remaining--;
-                _count++;
-                return _buffer[_cursor++];
-            }
-            
-            long L = Math.min(1024, _remaining);
-                    
-            _bufferLimit = _jar.read(_buffer, _cursor = 0, (int)L);
-            if (_bufferLimit < 0) {
-                System.err.println("finished reading entry " + _count + " bytes");
-                return -1;
-            }
-            _remaining--;
-            _count++;
-            return _buffer[_cursor++];
-        }
-        
-        
-        
+        public String toString() {
+            return path.isEmpty() ? "archive" : path;
+        }
     }
 
+    /*
+     * a little-endian view of the given range of the given buffer
+     */
+    static ByteBuffer slice(ByteBuffer buf, int start, int length) {
+        ByteBuffer dup = buf.duplicate();
+        dup.position(start);
+        dup.limit(start + length);
+        return dup.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
 }
@@ -0,0 +1,168 @@
+package oracle.jest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that {@link JarAnalyzer} indexes plain and zip64 archives, with
+ * or without a launch script before them, and the archives nested in
+ * them.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class JarAnalyzerTest extends TestCase {
+    // more entries than a plain end of central directory can count
+    private static final int ZIP64_ENTRIES = 0x10000 + 10;
+    private static final byte[] LAUNCH_SCRIPT =
+        "#!/bin/sh\nexec java -jar \"$0\" \"$@\"\n".getBytes(StandardCharsets.UTF_8);
+
+    private File file;
+
+    @Override
+    protected void setUp() throws IOException {
+        file = File.createTempFile("jest", ".jar");
+    }
+
+    @Override
+    protected void tearDown() {
+        file.delete();
+    }
+
+    private static byte[] archive(int entries, byte[] nested) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(buf);
+        zip.putNextEntry(new ZipEntry("META-INF/persistence.xml"));
+        zip.write("<persistence/>".getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+        for (int i = 0; i < entries; i++) {
+            zip.putNextEntry(new ZipEntry("e/" + i));
+            zip.closeEntry();
+        }
+        if (nested != null) {
+            ZipEntry entry = new ZipEntry("lib/x.jar");
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(nested.length);
+            entry.setCompressedSize(nested.length);
+            CRC32 crc = new CRC32();
+            crc.update(nested);
+            entry.setCrc(crc.getValue());
+            zip.putNextEntry(entry);
+            zip.write(nested);
+            zip.closeEntry();
+        }
+        zip.close();
+        return buf.toByteArray();
+    }
+
+    private JarAnalyzer analyze(byte[] prefix, byte[] archive) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            if (prefix != null) out.write(prefix);
+            out.write(archive);
+        } finally {
+            out.close();
+        }
+        return new JarAnalyzer(file);
+    }
+
+    private static void assertIndexed(JarAnalyzer jar, int entries) throws IOException {
+        assertEquals(entries + 1, jar.getEntries().size());
+        List<JarAnalyzer.Entry> units = jar.find("META-INF/persistence.xml");
+        assertEquals(1, units.size());
+        assertEquals("<persistence/>",
+                new String(jar.read(units.get(0)), StandardCharsets.UTF_8));
+        assertTrue(jar.exists("e/" + (entries - 1)));
+    }
+
+    public void testArchive() throws IOException {
+        JarAnalyzer jar = analyze(null, archive(10, null));
+        try {
+            assertIndexed(jar, 10);
+        } finally {
+            jar.close();
+        }
+    }
+
+    public void testArchiveAfterLaunchScript() throws IOException {
+        JarAnalyzer jar = analyze(LAUNCH_SCRIPT, archive(10, null));
+        try {
+            assertIndexed(jar, 10);
+        } finally {
+            jar.close();
+        }
+    }
+
+    public void testZip64Archive() throws IOException {
+        JarAnalyzer jar = analyze(null, archive(ZIP64_ENTRIES, null));
+        try {
+            assertIndexed(jar, ZIP64_ENTRIES);
+        } finally {
+            jar.close();
+        }
+    }
+
+    public void testZip64ArchiveAfterLaunchScript() throws IOException {
+        JarAnalyzer jar = analyze(LAUNCH_SCRIPT, archive(ZIP64_ENTRIES, null));
+        try {
+            assertIndexed(jar, ZIP64_ENTRIES);
+        } finally {
+            jar.close();
+        }
+    }
+
+    public void testNestedArchive() throws IOException {
+        byte[] nested = archive(3, null);
+        JarAnalyzer jar = analyze(LAUNCH_SCRIPT, archive(2, nested));
+        try {
+            assertEquals(2, jar.find("META-INF/persistence.xml").size());
+            List<JarAnalyzer.Entry> found = jar.find("e/2");
+            assertEquals(1, found.size());
+            assertEquals("lib/x.jar!/e/2", found.get(0).getPath());
+            ByteArrayOutputStream copy = new ByteArrayOutputStream();
+            jar.copy(jar.find("lib/x.jar").get(0), copy);
+            assertTrue(java.util.Arrays.equals(nested, copy.toByteArray()));
+        } finally {
+            jar.close();
+        }
+    }
+
+    public void testCopyOfDeflatedEntry() throws IOException {
+        byte[] content = new byte[200*1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte)(i % 251);
+        }
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(buf);
+        zip.putNextEntry(new ZipEntry("data"));
+        zip.write(content);
+        zip.closeEntry();
+        zip.close();
+        JarAnalyzer jar = analyze(null, buf.toByteArray());
+        try {
+            ByteArrayOutputStream copy = new ByteArrayOutputStream();
+            jar.copy(jar.find("data").get(0), copy);
+            assertTrue(java.util.Arrays.equals(content, copy.toByteArray()));
+        } finally {
+            jar.close();
+        }
+    }
+
+    public void testNotAnArchive() throws IOException {
+        try {
+            analyze(null, LAUNCH_SCRIPT).close();
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+}
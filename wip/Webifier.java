@@ -2,14 +2,59 @@ package oracle.jest;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.CodeSource;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
+import org.json.JSONObject;
 
+/**
+ * Repackages an application jar as a web application that serves its
+ * persistence unit with JEST.
+ * <pre>
+ *    app.jar                     app.war
+ *      a.class                     WEB-INF/web.xml *
+ *      META-INF/persistence.xml    WEB-INF/classes/a.class
+ *      lib/x.jar                   WEB-INF/classes/META-INF/persistence.xml
+ *                                  WEB-INF/lib/x.jar
+ *                                  WEB-INF/lib/jest.jar *
+ *                                  WEB-INF/lib/json.jar *
+ * </pre>
+ * The entries of the jar are found by its {@link JarAnalyzer index}, and
+ * libraries are copied as they are, without being compressed again. An
+ * entry is streamed to the web application rather than read whole, so
+ * that a large library is not held in memory. The
+ * entries marked <code>*</code> are added: a deployment descriptor that
+ * maps {@link JESTServlet} to <code>/jest/*</code>, and the libraries of
+ * JEST if the jar does not have them already.
+ *
+ * @author pinaki poddar
+ *
+ */
 public class Webifier {
+    private static final Logger logger = Logger.getLogger("RUNTIME");
+    static final String PERSISTENCE_UNIT_RESOURCE = "META-INF/persistence.xml";
+    static final String WEB_XML     = "WEB-INF/web.xml";
+    static final String WEB_CLASSES = "WEB-INF/classes/";
+    static final String WEB_LIB     = "WEB-INF/lib/";
 
-    public Webifier() {
-        // TODO Auto-generated constructor stub
+    private final JarAnalyzer jar;
+    private final Set<String> written = new HashSet<String>();
+
+    public Webifier(JarAnalyzer jar) {
+        this.jar = jar;
     }
 
     public static void main(String[] args) throws IOException {
@@ -23,15 +68,164 @@ public class Webifier {
         if (file.isDirectory()) {
             throw new IOException("input " + file + " can not be a directory");
         }
+        File war = new File(args.length > 1 ? args[1]
+                : file.getPath().replaceAll("\\.jar$", "") + ".war");
+
+        JarAnalyzer analyzer = new JarAnalyzer(file);
+        try {
+            long start = System.nanoTime();
+            List<JarAnalyzer.Entry> units = analyzer.find(PERSISTENCE_UNIT_RESOURCE);
+            logger.info("Found " + units + " in "
+                    + (System.nanoTime() - start) / 1000 + " us");
+            if (units.isEmpty()) {
+                throw new IOException(file + " has no " + PERSISTENCE_UNIT_RESOURCE);
+            }
+            if (!analyzer.exists("javax/persistence/Persistence.class")) {
+                logger.warning(file + " has no JPA provider. The container must"
+                        + " provide one");
+            }
+            new Webifier(analyzer).write(war);
+        } finally {
+            analyzer.close();
+        }
+    }
+
+    /**
+     * Writes the web application to the given file.
+     */
+    public void write(File war) throws IOException {
+        long start = System.currentTimeMillis();
+        OutputStream out = new FileOutputStream(war);
+        try {
+            ZipOutputStream zip = new ZipOutputStream(out);
+            write(zip);
+            zip.finish();
+        } finally {
+            out.close();
+        }
+        logger.info("Wrote " + written.size() + " entries to " + war + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    void write(ZipOutputStream zip) throws IOException {
+        if (jar.find(WEB_XML).isEmpty()) {
+            writeDeflated(zip, WEB_XML, createDeploymentDescriptor());
+        }
+        for (JarAnalyzer.Entry entry : jar.getEntries()) {
+            String name = entry.getName();
+            if (entry.isDirectory() || name.equals("META-INF/MANIFEST.MF")) {
+                continue;
+            }
+            boolean added;
+            if (entry.isArchive()) {
+                added = putStored(zip, WEB_LIB + name.substring(name.lastIndexOf('/') + 1),
+                        entry.getSize(), entry.getCrc());
+            } else if (name.startsWith("WEB-INF/")) {
+                added = putDeflated(zip, name);
+            } else {
+                added = putDeflated(zip, WEB_CLASSES
+                        + (name.startsWith("classes/") ? name.substring(8) : name));
+            }
+            if (added) {
+                jar.copy(entry, zip);
+                zip.closeEntry();
+            }
+        }
+        writeLibrary(zip, JESTServlet.class);
+        writeLibrary(zip, JSONObject.class);
+    }
+
+    /*
+     * adds the library of the given class, unless the jar has the class
+     */
+    private void writeLibrary(ZipOutputStream zip, Class<?> cls) throws IOException {
+        String resource = cls.getName().replace('.', '/') + ".class";
+        if (jar.exists(resource)) return;
+        File lib = null;
+        CodeSource source = cls.getProtectionDomain().getCodeSource();
+        try {
+            if (source != null) lib = new File(source.getLocation().toURI());
+        } catch (URISyntaxException ex) {
+            // not a file
+        }
+        if (lib == null || !lib.isFile()) {
+            logger.warning("Can not add the library of " + cls.getName() + " from "
+                    + (source == null ? null : source.getLocation())
+                    + ". Add it to " + WEB_LIB);
+            return;
+        }
+        // a stored entry is preceded by its checksum, so the library is
+        // read twice rather than held
+        if (putStored(zip, WEB_LIB + lib.getName(), lib.length(), checksum(lib))) {
+            Files.copy(lib.toPath(), zip);
+            zip.closeEntry();
+        }
+    }
+
+    private static long checksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[64*1024];
+            for (int n; (n = in.read(buf)) > 0;) {
+                crc.update(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+
+    private void writeDeflated(ZipOutputStream zip, String name, byte[] content)
+            throws IOException {
+        if (putDeflated(zip, name)) {
+            zip.write(content);
+            zip.closeEntry();
+        }
+    }
 
-        InputStream jar = new FileInputStream(file);
-        
-        JarAnalyzer analyzer = new JarAnalyzer(args[0], jar);
-        
-        analyzer.exists("META-INF/persistence.xml");
-        
-        analyzer.exists("javax/persistence/Persistence.class");
+    /*
+     * begins an entry of given name, unless one is written already
+     */
+    private boolean putDeflated(ZipOutputStream zip, String name) throws IOException {
+        if (!written.add(name)) return false;
+        zip.putNextEntry(new ZipEntry(name));
+        return true;
+    }
 
+    /*
+     * an archive is already compressed
+     */
+    private boolean putStored(ZipOutputStream zip, String name, long size, long crc)
+            throws IOException {
+        if (!written.add(name)) return false;
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(size);
+        entry.setCompressedSize(size);
+        entry.setCrc(crc);
+        zip.putNextEntry(entry);
+        return true;
     }
 
+    static byte[] createDeploymentDescriptor() {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<web-app xmlns=\"http://xmlns.jcp.org/xml/ns/javaee\"\n"
+            + "         xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n"
+            + "         xsi:schemaLocation=\"http://xmlns.jcp.org/xml/ns/javaee"
+            +            " http://xmlns.jcp.org/xml/ns/javaee/web-app_3_1.xsd\"\n"
+            + "         version=\"3.1\">\n"
+            + "    <servlet>\n"
+            + "        <servlet-name>jest</servlet-name>\n"
+            + "        <servlet-class>" + JESTServlet.class.getName() + "</servlet-class>\n"
+            + "        <load-on-startup>1</load-on-startup>\n"
+            + "        <async-supported>true</async-supported>\n"
+            + "    </servlet>\n"
+            + "    <servlet-mapping>\n"
+            + "        <servlet-name>jest</servlet-name>\n"
+            + "        <url-pattern>/jest/*</url-pattern>\n"
+            + "    </servlet-mapping>\n"
+            + "</web-app>\n";
+        return xml.getBytes(StandardCharsets.UTF_8);
+    }
 }
@@ -0,0 +1,123 @@
+package oracle.jest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the web application {@link Webifier} writes of a jar.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class WebifierTest extends TestCase {
+    private File file;
+
+    @Override
+    protected void setUp() throws IOException {
+        file = File.createTempFile("jest", ".jar");
+    }
+
+    @Override
+    protected void tearDown() {
+        file.delete();
+    }
+
+    private static byte[] library(int size) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(buf);
+        zip.putNextEntry(new ZipEntry("x/X.class"));
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte)(i * 31);
+        }
+        zip.write(content);
+        zip.closeEntry();
+        zip.close();
+        return buf.toByteArray();
+    }
+
+    private static void put(ZipOutputStream zip, String name, byte[] content,
+            boolean stored) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        if (stored) {
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(content.length);
+            entry.setCompressedSize(content.length);
+            entry.setCrc(crc.getValue());
+        }
+        zip.putNextEntry(entry);
+        zip.write(content);
+        zip.closeEntry();
+    }
+
+    /*
+     * the entries of the web application written of the given jar
+     */
+    private Map<String, byte[]> webify(byte[] jar) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(jar);
+        } finally {
+            out.close();
+        }
+        JarAnalyzer analyzer = new JarAnalyzer(file);
+        ByteArrayOutputStream war = new ByteArrayOutputStream();
+        try {
+            ZipOutputStream zip = new ZipOutputStream(war);
+            new Webifier(analyzer).write(zip);
+            zip.finish();
+        } finally {
+            analyzer.close();
+        }
+        Map<String, byte[]> entries = new HashMap<String, byte[]>();
+        // reading an entry verifies its checksum
+        ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(war.toByteArray()));
+        for (ZipEntry entry; (entry = in.getNextEntry()) != null;) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            for (int n; (n = in.read(buf)) > 0;) {
+                content.write(buf, 0, n);
+            }
+            entries.put(entry.getName(), content.toByteArray());
+        }
+        return entries;
+    }
+
+    public void testJarIsRepackaged() throws IOException {
+        byte[] stored = library(300*1024);
+        byte[] deflated = library(10);
+        byte[] unit = "<persistence/>".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(buf);
+        put(zip, "META-INF/persistence.xml", unit, false);
+        put(zip, "a/A.class", new byte[]{1, 2, 3}, false);
+        put(zip, "lib/x.jar", stored, true);
+        put(zip, "lib/y.jar", deflated, false);
+        zip.close();
+
+        Map<String, byte[]> war = webify(buf.toByteArray());
+        assertTrue(war.containsKey(Webifier.WEB_XML));
+        assertTrue(Arrays.equals(unit,
+                war.get(Webifier.WEB_CLASSES + "META-INF/persistence.xml")));
+        assertTrue(Arrays.equals(new byte[]{1, 2, 3},
+                war.get(Webifier.WEB_CLASSES + "a/A.class")));
+        assertTrue(Arrays.equals(stored, war.get(Webifier.WEB_LIB + "x.jar")));
+        assertTrue(Arrays.equals(deflated, war.get(Webifier.WEB_LIB + "y.jar")));
+    }
+}